@@ -0,0 +1,423 @@
+package com.googlecode.future.apt;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+import com.sun.source.tree.AssignmentTree;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.ExpressionStatementTree;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.ImportTree;
+import com.sun.source.tree.LambdaExpressionTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.NewArrayTree;
+import com.sun.source.tree.ReturnTree;
+import com.sun.source.tree.StatementTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.VariableTree;
+import com.sun.source.util.SourcePositions;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreeScanner;
+import com.sun.source.util.Trees;
+
+/**
+ * Generates the source of the action for one {@code @Continuation} method.
+ *
+ * <p>The statements of the method body are copied into a switch statement, with a case label
+ * after each suspension point so that the action resumes there when run again.  Method
+ * annotation processing happens before the body is attributed, so suspension points are
+ * recognised by their syntax alone.
+ */
+final class ContinuationGenerator {
+
+    private static final Pattern RESULT_CALL =
+        Pattern.compile("\\s*\\.\\s*result\\s*\\(\\s*\\)\\s*;?$");
+
+    /** Target of a suspension point which returns the result, never a variable name. */
+    private static final String RETURN = "return";
+
+    private static final Map<String, String> BOXES = new LinkedHashMap<String, String>();
+
+    static {
+        BOXES.put("boolean", "Boolean");
+        BOXES.put("byte", "Byte");
+        BOXES.put("short", "Short");
+        BOXES.put("char", "Character");
+        BOXES.put("int", "Integer");
+        BOXES.put("long", "Long");
+        BOXES.put("float", "Float");
+        BOXES.put("double", "Double");
+    }
+
+    private final ProcessingEnvironment environment;
+
+    private final Trees trees;
+
+    private final ExecutableElement method;
+
+    private final String className;
+
+    private CompilationUnitTree unit;
+
+    private SourcePositions positions;
+
+    private String source;
+
+    private boolean isValid = true;
+
+    /** Fields for the parameters and top level variables, by name, with their types. */
+    private final Map<String, String> fields = new LinkedHashMap<String, String>();
+
+    private final List<String> referenceFields = new ArrayList<String>();
+
+    private final StringBuilder body = new StringBuilder();
+
+    private int suspensions = 0;
+
+    ContinuationGenerator(ProcessingEnvironment environment, Trees trees,
+            ExecutableElement method, String className) {
+        this.environment = environment;
+        this.trees = trees;
+        this.method = method;
+        this.className = className;
+    }
+
+    /**
+     * @return the source of the action, or null if errors were reported
+     */
+    String generate() {
+        TreePath path = trees.getPath(method);
+        if (path == null) {
+            environment.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "The source of @Continuation methods must be compiled", method);
+            return null;
+        }
+        unit = path.getCompilationUnit();
+        positions = trees.getSourcePositions();
+        try {
+            source = unit.getSourceFile().getCharContent(true).toString();
+        } catch (IOException e) {
+            environment.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Cannot read the source of " + method + ": " + e, method);
+            return null;
+        }
+        MethodTree tree = (MethodTree) path.getLeaf();
+        for (VariableElement parameter : method.getParameters()) {
+            addField(parameter.getSimpleName().toString(), parameter.asType().toString(),
+                    !parameter.asType().getKind().isPrimitive());
+        }
+        List<? extends StatementTree> statements = tree.getBody().getStatements();
+        for (int i = 0; i < statements.size(); i++) {
+            int start = start(statements.get(i));
+            int end = (i + 1 < statements.size()) ? start(statements.get(i + 1))
+                    : find(start, '}');
+            if (end <= start) {
+                error(statements.get(i), "Declare one variable per statement in a "
+                        + "@Continuation method");
+                continue;
+            }
+            translate(statements.get(i), start, end);
+        }
+        return isValid ? write() : null;
+    }
+
+    private void translate(StatementTree statement, int start, int end) {
+        if (statement instanceof VariableTree) {
+            VariableTree variable = (VariableTree) statement;
+            String name = variable.getName().toString();
+            String type = (variable.getType() == null) ? "" : variable.getType().toString();
+            if (type.equals("var") || type.isEmpty()) {
+                error(statement, "Declare the type of " + name + " in a @Continuation method");
+                return;
+            }
+            addField(name, type, variable.getType().getKind() != Tree.Kind.PRIMITIVE_TYPE);
+            ExpressionTree initializer = variable.getInitializer();
+            if (initializer == null) return;
+            if (isResultCall(initializer)) {
+                suspend(name, initializer);
+            } else {
+                checkNoResultCalls(initializer);
+                String value = text(start(initializer), end);
+                if (initializer instanceof NewArrayTree
+                        && ((NewArrayTree) initializer).getType() == null) {
+                    value = "new " + type + " " + value;
+                }
+                statement(name + " = " + value);
+            }
+        } else if (statement instanceof ExpressionStatementTree
+                && isResultCall(((ExpressionStatementTree) statement).getExpression())) {
+            suspend(null, ((ExpressionStatementTree) statement).getExpression());
+        } else if (statement instanceof ReturnTree
+                && isResultCall(((ReturnTree) statement).getExpression())) {
+            suspend(RETURN, ((ReturnTree) statement).getExpression());
+        } else if (statement instanceof ExpressionStatementTree
+                && ((ExpressionStatementTree) statement).getExpression()
+                        instanceof AssignmentTree
+                && isResultCall(((AssignmentTree) ((ExpressionStatementTree) statement)
+                        .getExpression()).getExpression())) {
+            AssignmentTree assignment =
+                (AssignmentTree) ((ExpressionStatementTree) statement).getExpression();
+            String name = (assignment.getVariable() instanceof IdentifierTree) ?
+                    ((IdentifierTree) assignment.getVariable()).getName().toString() : null;
+            if (name == null || !fields.containsKey(name)) {
+                error(statement, "Only parameters and variables declared in the method body "
+                        + "may be assigned the result of a future in a @Continuation method");
+                return;
+            }
+            suspend(name, assignment.getExpression());
+        } else {
+            checkNoResultCalls(statement);
+            statement(text(start, end));
+        }
+    }
+
+    /**
+     * Evaluate the future once, then resume from the next case label whenever run.
+     */
+    private void suspend(String target, ExpressionTree call) {
+        ExpressionTree receiver =
+            ((MemberSelectTree) ((MethodInvocationTree) call).getMethodSelect()).getExpression();
+        checkNoResultCalls(receiver);
+        int start = start(receiver);
+        int end = find(start, ';');
+        String future = RESULT_CALL.matcher(text(start, end)).replaceFirst("");
+        int index = ++suspensions;
+        String field = "$future" + index;
+        referenceFields.add(field);
+        statement(field + " = " + future + ";");
+        statement("$state = " + index + ";");
+        body.append("        case ").append(index).append(":\n");
+        if (target == null) {
+            statement(field + ".result();");
+        } else if (target.equals(RETURN)) {
+            statement("return (" + resultType() + ") " + field + ".result();");
+        } else {
+            String type = fields.get(target);
+            String box = BOXES.get(type);
+            statement(target + " = (" + (box != null ? box : type) + ") " + field
+                    + ".result();");
+        }
+    }
+
+    private void statement(String text) {
+        body.append("            ").append(text).append('\n');
+    }
+
+    private void addField(String name, String type, boolean isReference) {
+        fields.put(name, type);
+        if (isReference) referenceFields.add(name);
+    }
+
+    private static boolean isResultCall(Tree tree) {
+        if (!(tree instanceof MethodInvocationTree)) return false;
+        MethodInvocationTree call = (MethodInvocationTree) tree;
+        return call.getArguments().isEmpty()
+                && call.getMethodSelect() instanceof MemberSelectTree
+                && ((MemberSelectTree) call.getMethodSelect()).getIdentifier()
+                        .contentEquals("result");
+    }
+
+    /**
+     * Report calls to result() other than at suspension points, except in anonymous classes
+     * and lambdas, which run separately.
+     */
+    private void checkNoResultCalls(Tree tree) {
+        new TreeScanner<Void, Void>() {
+            @Override
+            public Void visitMethodInvocation(MethodInvocationTree call, Void unused) {
+                if (isResultCall(call)) {
+                    error(call, "In a @Continuation method, result() may only be called as "
+                            + "the whole initializer of a local variable declared in the "
+                            + "method body, the whole value assigned to one, or as a "
+                            + "statement of the method body");
+                }
+                return super.visitMethodInvocation(call, unused);
+            }
+
+            @Override
+            public Void visitClass(ClassTree tree, Void unused) {
+                return null;
+            }
+
+            @Override
+            public Void visitLambdaExpression(LambdaExpressionTree tree, Void unused) {
+                return null;
+            }
+        }.scan(tree, null);
+    }
+
+    private String write() {
+        TypeElement enclosing = (TypeElement) method.getEnclosingElement();
+        String packageName = environment.getElementUtils().getPackageOf(method)
+                .getQualifiedName().toString();
+        boolean isVoid = method.getReturnType().getKind() == TypeKind.VOID;
+        String resultType = resultType();
+        String methodName = enclosing.getSimpleName() + "." + method.getSimpleName();
+
+        StringBuilder out = new StringBuilder();
+        out.append("// Generated by ").append(ContinuationProcessor.class.getSimpleName())
+            .append(" from ").append(methodName).append(". Do not edit.\n");
+        if (!packageName.isEmpty()) out.append("package ").append(packageName).append(";\n");
+        out.append('\n');
+        for (ImportTree importTree : unit.getImports()) {
+            out.append(importTree.toString().trim()).append('\n');
+        }
+        out.append("import static ").append(enclosing.getQualifiedName()).append(".*;\n\n");
+        out.append("/**\n * Resumable action generated from {@link ").append(methodName.replace('.', '#'))
+            .append("}.\n */\n");
+        out.append("public class ").append(className)
+            .append(" extends com.googlecode.future.FutureAction<").append(resultType)
+            .append("> {\n\n");
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            out.append("    private ").append(field.getValue()).append(' ')
+                .append(field.getKey()).append(";\n\n");
+        }
+        for (int i = 1; i <= suspensions; i++) {
+            out.append("    private com.googlecode.future.Future<?> $future").append(i)
+                .append(";\n\n");
+        }
+        out.append("    private int $state = 0;\n\n");
+
+        out.append("    public ").append(className).append('(');
+        List<? extends VariableElement> parameters = method.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            VariableElement parameter = parameters.get(i);
+            if (i > 0) out.append(", ");
+            if (method.isVarArgs() && i == parameters.size() - 1) {
+                out.append(((ArrayType) parameter.asType()).getComponentType()).append("...");
+            } else {
+                out.append(parameter.asType());
+            }
+            out.append(' ').append(parameter.getSimpleName());
+        }
+        out.append(") {\n        super(\"").append(methodName).append("\");\n");
+        for (VariableElement parameter : parameters) {
+            out.append("        this.").append(parameter.getSimpleName()).append(" = ")
+                .append(parameter.getSimpleName()).append(";\n");
+        }
+        out.append("    }\n\n");
+
+        String resume = isVoid ? "resume();\n" : "returnResult(resume());\n";
+        out.append("    public void run() {\n");
+        if (method.getThrownTypes().isEmpty()) {
+            out.append("        ").append(resume);
+            if (isVoid) out.append("        returnEmpty();\n");
+        } else {
+            out.append("        try {\n            ").append(resume);
+            if (isVoid) out.append("            returnEmpty();\n");
+            out.append("        } catch (RuntimeException e) {\n            throw e;\n")
+                .append("        } catch (Error e) {\n            throw e;\n")
+                .append("        } catch (Throwable t) {\n            failWithException(t);\n")
+                .append("        }\n");
+        }
+        out.append("    }\n\n");
+
+        out.append("    @SuppressWarnings({\"unchecked\", \"fallthrough\"})\n");
+        out.append("    private ").append(isVoid ? "void" : resultType).append(" resume()");
+        List<? extends TypeMirror> thrown = method.getThrownTypes();
+        for (int i = 0; i < thrown.size(); i++) {
+            out.append(i == 0 ? " throws " : ", ").append(thrown.get(i));
+        }
+        out.append(" {\n        switch ($state) {\n        case 0:\n").append(body)
+            .append("        }\n");
+        if (!isVoid) {
+            out.append("        throw new IllegalStateException(\"No result returned by ")
+                .append(methodName).append("\");\n");
+        }
+        out.append("    }\n\n");
+
+        out.append("    @Override\n    protected void releaseReferences() {\n")
+            .append("        super.releaseReferences();\n");
+        for (String field : referenceFields) {
+            out.append("        ").append(field).append(" = null;\n");
+        }
+        out.append("    }\n}\n");
+        return out.toString();
+    }
+
+    /**
+     * Type of the result of the action, which is the return type of the method boxed.
+     */
+    private String resultType() {
+        TypeMirror returnType = method.getReturnType();
+        if (returnType.getKind() == TypeKind.VOID) return "Void";
+        if (returnType.getKind().isPrimitive()) {
+            return environment.getTypeUtils().boxedClass((PrimitiveType) returnType)
+                    .getQualifiedName().toString();
+        }
+        return returnType.toString();
+    }
+
+    private int start(Tree tree) {
+        return (int) positions.getStartPosition(unit, tree);
+    }
+
+    /**
+     * Source between two positions, without trailing white space.
+     */
+    private String text(int start, int end) {
+        int trimmed = end;
+        while (trimmed > start && Character.isWhitespace(source.charAt(trimmed - 1))) {
+            trimmed--;
+        }
+        return source.substring(start, trimmed);
+    }
+
+    /**
+     * Find a character outside of any brackets, strings and comments, scanning from a
+     * position.  For ';' the position after it is returned, for '}' its position.
+     *
+     * @return the position, or the end of the source if not found
+     */
+    private int find(int from, char target) {
+        int depth = 0;
+        int i = from;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c == '"' || c == '\'') {
+                i++;
+                while (i < source.length() && source.charAt(i) != c) {
+                    if (source.charAt(i) == '\\') i++;
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < source.length() && source.charAt(i + 1) == '/') {
+                while (i < source.length() && source.charAt(i) != '\n') i++;
+            } else if (c == '/' && i + 1 < source.length() && source.charAt(i + 1) == '*') {
+                int close = source.indexOf("*/", i + 2);
+                i = (close < 0) ? source.length() : close + 1;
+            } else if (c == '(' || c == '[' || c == '{') {
+                depth++;
+            } else if (c == ')' || c == ']' || c == '}') {
+                if (depth == 0 && c == target) return i;
+                depth--;
+            } else if (depth == 0 && c == target) {
+                return i + 1;
+            }
+            i++;
+        }
+        return source.length();
+    }
+
+    private void error(Tree tree, String message) {
+        isValid = false;
+        trees.printMessage(Diagnostic.Kind.ERROR, message, tree, unit);
+    }
+}
@@ -0,0 +1,130 @@
+package com.googlecode.future.apt;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import com.sun.source.util.Trees;
+
+/**
+ * Generates a resumable {@code FutureAction} from each method annotated with
+ * {@code com.googlecode.future.Continuation}.  See that annotation for what is generated.
+ *
+ * <p>The method body is read through the javac Tree API, so this processor only runs within
+ * javac.  It is registered as a service, so is found on the compiler's processor path or
+ * class path.
+ */
+@SupportedAnnotationTypes(ContinuationProcessor.ANNOTATION)
+public class ContinuationProcessor extends AbstractProcessor {
+
+    static final String ANNOTATION = "com.googlecode.future.Continuation";
+
+    private Trees trees;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment environment) {
+        super.init(environment);
+        try {
+            trees = Trees.instance(environment);
+        } catch (IllegalArgumentException e) {
+            // Not running within javac.
+            trees = null;
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : round.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.METHOD) {
+                    process((ExecutableElement) element, annotation);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void process(ExecutableElement method, TypeElement annotation) {
+        if (trees == null) {
+            error(method, "@Continuation methods can only be compiled with javac");
+            return;
+        }
+        if (!method.getModifiers().contains(Modifier.STATIC)) {
+            error(method, "@Continuation methods must be static; pass the receiver as a "
+                    + "parameter instead");
+            return;
+        }
+        if (!method.getTypeParameters().isEmpty()) {
+            error(method, "@Continuation methods must not have type parameters");
+            return;
+        }
+        TypeElement enclosing = (TypeElement) method.getEnclosingElement();
+        if (enclosing.getNestingKind() != NestingKind.TOP_LEVEL
+                && (enclosing.getNestingKind() != NestingKind.MEMBER
+                        || !enclosing.getModifiers().contains(Modifier.STATIC))) {
+            error(method, "@Continuation methods must be declared in a top level or static "
+                    + "nested class");
+            return;
+        }
+        String name = className(method, enclosing, annotation);
+        ContinuationGenerator generator = new ContinuationGenerator(processingEnv, trees,
+                method, name);
+        String source = generator.generate();
+        if (source == null) return;
+        String packageName = processingEnv.getElementUtils().getPackageOf(method)
+                .getQualifiedName().toString();
+        String qualifiedName = packageName.isEmpty() ? name : packageName + "." + name;
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName,
+                    method);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source);
+            }
+        } catch (IOException e) {
+            error(method, "Cannot write " + qualifiedName + ": " + e);
+        }
+    }
+
+    private static String className(ExecutableElement method, TypeElement enclosing,
+            TypeElement annotation) {
+        for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+            if (!mirror.getAnnotationType().asElement().equals(annotation)) continue;
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value
+                    : mirror.getElementValues().entrySet()) {
+                if (value.getKey().getSimpleName().contentEquals("value")) {
+                    String name = (String) value.getValue().getValue();
+                    if (!name.isEmpty()) return name;
+                }
+            }
+        }
+        String methodName = method.getSimpleName().toString();
+        return enclosing.getSimpleName().toString() + Character.toUpperCase(methodName.charAt(0))
+                + methodName.substring(1) + "Action";
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
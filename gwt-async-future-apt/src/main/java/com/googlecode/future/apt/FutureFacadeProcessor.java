@@ -0,0 +1,192 @@
+package com.googlecode.future.apt;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a Future-returning facade of each GWT RPC service interface annotated with
+ * {@code com.googlecode.future.FutureFacade}.  See that annotation for what is generated.
+ * Unlike {@link ContinuationProcessor}, this only uses the standard model API, so runs in any
+ * compiler.
+ */
+@SupportedAnnotationTypes(FutureFacadeProcessor.ANNOTATION)
+public class FutureFacadeProcessor extends AbstractProcessor {
+
+    static final String ANNOTATION = "com.googlecode.future.FutureFacade";
+
+    private static final String REMOTE_SERVICE = "com.google.gwt.user.client.rpc.RemoteService";
+
+    private static final String CALLBACK = "com.google.gwt.user.client.rpc.AsyncCallback";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : round.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.INTERFACE) {
+                    error(element, "@FutureFacade must annotate a service interface");
+                } else {
+                    process((TypeElement) element);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void process(TypeElement service) {
+        Types types = processingEnv.getTypeUtils();
+        TypeElement remoteService = processingEnv.getElementUtils().getTypeElement(REMOTE_SERVICE);
+        TypeElement callback = processingEnv.getElementUtils().getTypeElement(CALLBACK);
+        if (remoteService == null || callback == null) {
+            error(service, "@FutureFacade needs GWT RPC on the class path");
+            return;
+        }
+        if (!types.isAssignable(service.asType(), types.erasure(remoteService.asType()))) {
+            error(service, "@FutureFacade services must extend " + REMOTE_SERVICE);
+            return;
+        }
+        String serviceName = service.getQualifiedName().toString();
+        TypeElement async = processingEnv.getElementUtils().getTypeElement(serviceName + "Async");
+        if (async == null) {
+            error(service, "No asynchronous interface " + serviceName + "Async");
+            return;
+        }
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(service)
+                .getQualifiedName().toString();
+        String name = className(service);
+        StringBuilder out = new StringBuilder();
+        out.append("// Generated by FutureFacadeProcessor from ").append(serviceName)
+            .append(". Do not edit.\n");
+        if (!packageName.isEmpty()) out.append("package ").append(packageName).append(";\n");
+        out.append("\n/**\n * Future-returning facade of {@link ").append(serviceName)
+            .append("}.\n */\n");
+        out.append("public class ").append(name)
+            .append(" extends com.googlecode.future.FutureService\n")
+            .append("        implements com.googlecode.future.FutureRemoteService<")
+            .append(serviceName).append("> {\n\n");
+        String asyncName = async.getQualifiedName().toString();
+        out.append("    private final ").append(asyncName).append(" $service;\n\n");
+        out.append("    public ").append(name).append("(").append(asyncName)
+            .append(" service) {\n");
+        out.append("        super(\"").append(service.getSimpleName()).append("\");\n");
+        out.append("        this.$service = service;\n    }\n");
+
+        boolean failed = false;
+        for (ExecutableElement method
+                : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(async))) {
+            if (!method.getModifiers().contains(Modifier.ABSTRACT)) continue;
+            List<? extends VariableElement> parameters = method.getParameters();
+            TypeMirror last = parameters.isEmpty() ? null
+                    : parameters.get(parameters.size() - 1).asType();
+            if (last == null || last.getKind() != TypeKind.DECLARED
+                    || !types.isSameType(types.erasure(last), types.erasure(callback.asType()))) {
+                continue;
+            }
+            if (!method.getTypeParameters().isEmpty()) {
+                error(method, "@FutureFacade cannot generate generic method " + method);
+                failed = true;
+                continue;
+            }
+            writeMethod(out, method, resultType((DeclaredType) last));
+        }
+        out.append("}\n");
+        if (failed) return;
+
+        String qualifiedName = packageName.isEmpty() ? name : packageName + "." + name;
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName,
+                    service, async);
+            try (Writer writer = file.openWriter()) {
+                writer.write(out.toString());
+            }
+        } catch (IOException e) {
+            error(service, "Cannot write " + qualifiedName + ": " + e);
+        }
+    }
+
+    /**
+     * The type a callback receives: its type argument, or the bound of a wildcard.
+     */
+    private static String resultType(DeclaredType callback) {
+        if (callback.getTypeArguments().isEmpty()) return "java.lang.Object";
+        TypeMirror argument = callback.getTypeArguments().get(0);
+        if (argument.getKind() == TypeKind.WILDCARD) {
+            TypeMirror bound = ((WildcardType) argument).getSuperBound();
+            return bound == null ? "java.lang.Object" : bound.toString();
+        }
+        return argument.toString();
+    }
+
+    private static void writeMethod(StringBuilder out, ExecutableElement method,
+            String resultType) {
+        List<? extends VariableElement> parameters = method.getParameters();
+        StringBuilder declaration = new StringBuilder();
+        StringBuilder arguments = new StringBuilder();
+        for (VariableElement parameter : parameters.subList(0, parameters.size() - 1)) {
+            if (declaration.length() > 0) declaration.append(", ");
+            declaration.append("final ").append(parameter.asType()).append(' ')
+                .append(parameter.getSimpleName());
+            arguments.append(", ").append(parameter.getSimpleName());
+        }
+        String name = method.getSimpleName().toString();
+        String future = "com.googlecode.future.Future<" + resultType + ">";
+        out.append("\n    public ").append(future).append(' ').append(name).append('(')
+            .append(declaration).append(") {\n");
+        out.append("        return call(new Request<").append(resultType).append(">(\"")
+            .append(name).append('"').append(arguments).append(") {\n");
+        out.append("            protected void invoke(").append(CALLBACK).append('<')
+            .append(resultType).append("> $callback) {\n");
+        out.append("                $service.").append(name).append('(')
+            .append(arguments.length() == 0 ? "" : arguments.substring(2))
+            .append(arguments.length() == 0 ? "" : ", ").append("$callback);\n");
+        out.append("            }\n        });\n    }\n");
+    }
+
+    private static String className(TypeElement service) {
+        for (AnnotationMirror mirror : service.getAnnotationMirrors()) {
+            TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+            if (!type.getQualifiedName().contentEquals(ANNOTATION)) continue;
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value
+                    : mirror.getElementValues().entrySet()) {
+                if (value.getKey().getSimpleName().contentEquals("value")) {
+                    String name = (String) value.getValue().getValue();
+                    if (!name.isEmpty()) return name;
+                }
+            }
+        }
+        return service.getSimpleName() + "Futures";
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
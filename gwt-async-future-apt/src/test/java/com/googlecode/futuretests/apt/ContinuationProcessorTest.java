@@ -0,0 +1,229 @@
+package com.googlecode.futuretests.apt;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLClassLoader;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.apt.ContinuationProcessor;
+
+import static org.junit.Assert.*;
+
+public class ContinuationProcessorTest {
+
+    private Path output;
+
+    private final DiagnosticCollector<JavaFileObject> diagnostics =
+        new DiagnosticCollector<JavaFileObject>();
+
+    @Before
+    public void createOutput() throws IOException {
+        output = Files.createTempDirectory("continuations");
+    }
+
+    @After
+    public void deleteOutput() throws IOException {
+        List<Path> paths = new ArrayList<Path>();
+        Files.walk(output).forEach(paths::add);
+        Collections.reverse(paths);
+        for (Path path : paths) Files.delete(path);
+    }
+
+    private static JavaFileObject source(final String className, final String... lines) {
+        return new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/')
+                + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return String.join("\n", lines);
+            }
+        };
+    }
+
+    /**
+     * Compile a source file with the processor.
+     *
+     * @return whether it compiled
+     */
+    private boolean compile(JavaFileObject source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<String> options = Arrays.asList("-d", output.toString(),
+                "-classpath", System.getProperty("java.class.path"), "-Xlint:-options");
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options,
+                null, Collections.singletonList(source));
+        task.setProcessors(Collections.singletonList(new ContinuationProcessor()));
+        return task.call();
+    }
+
+    private Object invoke(String className, String method, Object... arguments)
+            throws Exception {
+        ClassLoader loader = new URLClassLoader(new URL[] { output.toUri().toURL() },
+                getClass().getClassLoader());
+        for (java.lang.reflect.Method candidate : loader.loadClass(className).getMethods()) {
+            if (candidate.getName().equals(method)) return candidate.invoke(null, arguments);
+        }
+        throw new NoSuchMethodException(method);
+    }
+
+    private String errors() {
+        StringBuilder errors = new StringBuilder();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.append(diagnostic.getMessage(null)).append('\n');
+            }
+        }
+        return errors.toString();
+    }
+
+    private static final String[] FLOW = {
+        "package sample;",
+        "",
+        "import java.util.List;",
+        "import com.googlecode.future.Continuation;",
+        "import com.googlecode.future.Future;",
+        "",
+        "public class Flow {",
+        "    static String describe(int value) {",
+        "        return \"got \" + value;",
+        "    }",
+        "",
+        "    @Continuation",
+        "    static String sum(List<String> log, Future<Integer> a, Future<Integer> b) {",
+        "        log.add(\"started\"); // Runs once",
+        "        int first = a.result();",
+        "        log.add(describe(first));",
+        "        int second;",
+        "        second = b",
+        "            .result();",
+        "        log.add(describe(second));",
+        "        int[] both = { first, second };",
+        "        if (both[0] > both[1]) {",
+        "            return \"decreasing\";",
+        "        }",
+        "        return String.valueOf(first + second);",
+        "    }",
+        "",
+        "    @Continuation(\"Waiter\")",
+        "    static int await(List<String> log, Future<Integer> a) throws java.io.IOException {",
+        "        a.result();",
+        "        log.add(\"ready\");",
+        "        if (log.contains(\"fail\")) throw new java.io.IOException(\"failed\");",
+        "        return a.result();",
+        "    }",
+        "",
+        "    public static Future<String> sum(List<String> log, Future<Integer> a,",
+        "            Future<Integer> b, boolean start) {",
+        "        return new FlowSumAction(log, a, b);",
+        "    }",
+        "",
+        "    public static Future<Integer> await(List<String> log, Future<Integer> a,",
+        "            boolean start) {",
+        "        return new Waiter(log, a);",
+        "    }",
+        "}"
+    };
+
+    @SuppressWarnings("unchecked")
+    private Future<String> sum(List<String> log, Future<Integer> a, Future<Integer> b)
+            throws Exception {
+        return (Future<String>) invoke("sample.Flow", "sum", log, a, b, true);
+    }
+
+    @Test
+    public void resumesWhereItLeftOff() throws Exception {
+        assertTrue(errors(), compile(source("sample.Flow", FLOW)));
+        List<String> log = new ArrayList<String>();
+        FutureResult<Integer> a = new FutureResult<Integer>();
+        FutureResult<Integer> b = new FutureResult<Integer>();
+        Future<String> sum = sum(log, a, b);
+        assertEquals("sample.Flow.sum", "Flow.sum", sum.getName());
+        assertTrue(log.isEmpty());
+
+        sum.start();
+        assertEquals(Arrays.asList("started"), log);
+        a.setResult(1);
+        assertEquals(Arrays.asList("started", "got 1"), log);
+        assertFalse(sum.isComplete());
+        b.setResult(2);
+        assertEquals(Arrays.asList("started", "got 1", "got 2"), log);
+        assertEquals("3", sum.result());
+    }
+
+    @Test
+    public void returnsFromWithinStatements() throws Exception {
+        assertTrue(errors(), compile(source("sample.Flow", FLOW)));
+        FutureResult<Integer> a = new FutureResult<Integer>();
+        a.setResult(2);
+        FutureResult<Integer> b = new FutureResult<Integer>();
+        b.setResult(1);
+        assertEquals("decreasing", sum(new ArrayList<String>(), a, b).result());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void failsWithCheckedExceptions() throws Exception {
+        assertTrue(errors(), compile(source("sample.Flow", FLOW)));
+        List<String> log = new ArrayList<String>();
+        FutureResult<Integer> a = new FutureResult<Integer>();
+        Future<Integer> waiter = (Future<Integer>) invoke("sample.Flow", "await", log, a, true);
+        waiter.start();
+        a.setResult(5);
+        assertEquals(5, (int) waiter.result());
+        assertEquals(Arrays.asList("ready"), log);
+
+        log.add("fail");
+        FutureResult<Integer> b = new FutureResult<Integer>();
+        Future<Integer> failing = (Future<Integer>) invoke("sample.Flow", "await", log, b, true);
+        failing.start();
+        b.setResult(5);
+        assertTrue(failing.exception() instanceof IOException);
+    }
+
+    @Test
+    public void rejectsResultCallsWithinStatements() {
+        assertFalse(compile(source("sample.Nested",
+            "package sample;",
+            "import com.googlecode.future.Continuation;",
+            "import com.googlecode.future.Future;",
+            "public class Nested {",
+            "    @Continuation",
+            "    static int nested(Future<Integer> a) {",
+            "        if (a.result() > 0) return 1;",
+            "        return 0;",
+            "    }",
+            "}")));
+        assertTrue(errors(), errors().contains("result() may only be called"));
+    }
+
+    @Test
+    public void rejectsInstanceMethods() {
+        assertFalse(compile(source("sample.Instance",
+            "package sample;",
+            "import com.googlecode.future.Continuation;",
+            "public class Instance {",
+            "    @Continuation",
+            "    int value() {",
+            "        return 0;",
+            "    }",
+            "}")));
+        assertTrue(errors(), errors().contains("must be static"));
+    }
+}
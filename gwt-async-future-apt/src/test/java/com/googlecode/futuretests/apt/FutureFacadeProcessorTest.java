@@ -0,0 +1,180 @@
+package com.googlecode.futuretests.apt;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureRemoteService;
+import com.googlecode.future.apt.FutureFacadeProcessor;
+
+import static org.junit.Assert.*;
+
+public class FutureFacadeProcessorTest {
+
+    private Path output;
+
+    private final DiagnosticCollector<JavaFileObject> diagnostics =
+        new DiagnosticCollector<JavaFileObject>();
+
+    @Before
+    public void createOutput() throws IOException {
+        output = Files.createTempDirectory("facades");
+    }
+
+    @After
+    public void deleteOutput() throws IOException {
+        List<Path> paths = new ArrayList<Path>();
+        Files.walk(output).forEach(paths::add);
+        Collections.reverse(paths);
+        for (Path path : paths) Files.delete(path);
+    }
+
+    private static JavaFileObject source(final String className, final String... lines) {
+        return new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/')
+                + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return String.join("\n", lines);
+            }
+        };
+    }
+
+    private boolean compile(JavaFileObject... sources) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<String> options = Arrays.asList("-d", output.toString(),
+                "-classpath", System.getProperty("java.class.path"), "-Xlint:-options");
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options,
+                null, Arrays.asList(sources));
+        task.setProcessors(Collections.singletonList(new FutureFacadeProcessor()));
+        return task.call();
+    }
+
+    private String errors() {
+        StringBuilder errors = new StringBuilder();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.append(diagnostic.getMessage(null)).append('\n');
+            }
+        }
+        return errors.toString();
+    }
+
+    private static final JavaFileObject SERVICE = source("sample.OrderService",
+        "package sample;",
+        "",
+        "import java.util.List;",
+        "import com.google.gwt.user.client.rpc.RemoteService;",
+        "import com.googlecode.future.FutureFacade;",
+        "",
+        "@FutureFacade",
+        "public interface OrderService extends RemoteService {",
+        "    String getOrder(long id);",
+        "    List<String> find(String customer, int limit);",
+        "    void clear();",
+        "}");
+
+    private static final JavaFileObject ASYNC = source("sample.OrderServiceAsync",
+        "package sample;",
+        "",
+        "import java.util.List;",
+        "import com.google.gwt.user.client.rpc.AsyncCallback;",
+        "",
+        "public interface OrderServiceAsync {",
+        "    void getOrder(long id, AsyncCallback<String> callback);",
+        "    void find(String customer, int limit, AsyncCallback<List<String>> callback);",
+        "    void clear(AsyncCallback<Void> callback);",
+        "}");
+
+    private static final JavaFileObject CLIENT = source("sample.Client",
+        "package sample;",
+        "",
+        "import java.util.ArrayList;",
+        "import java.util.Collections;",
+        "import java.util.List;",
+        "import com.google.gwt.user.client.rpc.AsyncCallback;",
+        "",
+        "public class Client implements OrderServiceAsync {",
+        "    public static final List<String> CALLS = new ArrayList<String>();",
+        "",
+        "    public void getOrder(long id, AsyncCallback<String> callback) {",
+        "        CALLS.add(\"getOrder \" + id);",
+        "        callback.onSuccess(\"order \" + id);",
+        "    }",
+        "",
+        "    public void find(String customer, int limit, AsyncCallback<List<String>> callback) {",
+        "        CALLS.add(\"find \" + customer);",
+        "        callback.onSuccess(Collections.nCopies(limit, customer));",
+        "    }",
+        "",
+        "    public void clear(AsyncCallback<Void> callback) {",
+        "        CALLS.add(\"clear\");",
+        "        callback.onSuccess(null);",
+        "    }",
+        "",
+        "    public static OrderServiceFutures create() {",
+        "        return new OrderServiceFutures(new Client());",
+        "    }",
+        "}");
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void generatesLazyFacade() throws Exception {
+        assertTrue(errors(), compile(SERVICE, ASYNC, CLIENT));
+        ClassLoader loader = new URLClassLoader(new URL[] { output.toUri().toURL() },
+                getClass().getClassLoader());
+        Class<?> client = loader.loadClass("sample.Client");
+        List<String> calls = (List<String>) client.getField("CALLS").get(null);
+        Object facade = client.getMethod("create").invoke(null);
+        assertTrue(facade instanceof FutureRemoteService);
+
+        Future<String> order = (Future<String>) facade.getClass()
+            .getMethod("getOrder", long.class).invoke(facade, 42L);
+        Future<List<String>> found = (Future<List<String>>) facade.getClass()
+            .getMethod("find", String.class, int.class).invoke(facade, "ann", 2);
+        Future<Void> cleared = (Future<Void>) facade.getClass()
+            .getMethod("clear").invoke(facade);
+        assertTrue(calls.isEmpty());
+        assertEquals("OrderService.getOrder", order.getName());
+
+        assertEquals("order 42", order.result());
+        assertEquals(Arrays.asList("ann", "ann"), found.result());
+        cleared.start();
+        assertTrue(cleared.isSuccessful());
+        assertEquals(Arrays.asList("getOrder 42", "find ann", "clear"), calls);
+    }
+
+    @Test
+    public void requiresAsynchronousInterface() {
+        assertFalse(compile(SERVICE));
+        assertTrue(errors(), errors().contains("No asynchronous interface sample.OrderService"));
+    }
+
+    @Test
+    public void requiresRemoteService() {
+        assertFalse(compile(source("sample.Plain",
+            "package sample;",
+            "@com.googlecode.future.FutureFacade",
+            "public interface Plain {",
+            "}")));
+        assertTrue(errors(), errors().contains("must extend"));
+    }
+}
@@ -0,0 +1,27 @@
+package com.googlecode.future.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point for the benchmark jar.  Accepts the usual JMH command line options but always
+ * enables the GC profiler, so that every result includes gc.alloc.rate.norm (bytes allocated
+ * per operation) next to the timing.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar                    # everything
+ * java -jar target/benchmarks.jar FutureResult -f 1  # a subset
+ * </pre>
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,77 @@
+package com.googlecode.future.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.googlecode.future.ConstantResult;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureResult;
+
+/**
+ * Cost of resolving a {@link FutureAction} with N dependencies.
+ * 
+ * <p>{@link #completedDependencies()} measures the best case where every dependency is
+ * already complete and run() executes once.  {@link #pendingDependencies()} measures the
+ * replay cost when the dependencies complete one at a time after the action has started, in
+ * which case run() executes N + 1 times.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FutureActionBenchmark {
+
+    @Param({"1", "10", "100"})
+    int dependencies;
+
+    private static FutureAction<Integer> sumOf(final Future<Integer>[] inputs) {
+        return new FutureAction<Integer>() {
+            public void run() {
+                int sum = 0;
+                for (Future<Integer> input : inputs) {
+                    sum += input.result();
+                }
+                returnResult(sum);
+            }
+        };
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Integer completedDependencies() {
+        Future<Integer>[] inputs = (Future<Integer>[]) new Future<?>[dependencies];
+        for (int i = 0; i < dependencies; i++) {
+            inputs[i] = new ConstantResult<Integer>(i);
+        }
+        return sumOf(inputs).result();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Integer pendingDependencies() {
+        FutureResult<Integer>[] inputs =
+            (FutureResult<Integer>[]) new FutureResult<?>[dependencies];
+        for (int i = 0; i < dependencies; i++) {
+            inputs[i] = new FutureResult<Integer>();
+        }
+        FutureAction<Integer> sum = sumOf(inputs);
+        sum.start();
+        for (int i = 0; i < dependencies; i++) {
+            inputs[i].setResult(i);
+        }
+        return sum.result();
+    }
+}
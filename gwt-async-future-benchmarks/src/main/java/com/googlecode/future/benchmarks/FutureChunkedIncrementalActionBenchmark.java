@@ -0,0 +1,82 @@
+package com.googlecode.future.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.googlecode.future.FutureChunkedIncrementalAction;
+
+/**
+ * Throughput of {@link FutureChunkedIncrementalAction}, reported per item processed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FutureChunkedIncrementalActionBenchmark {
+
+    private static final int ITEMS = 10000;
+
+    @Param({"1", "100", "10000"})
+    int chunkSize;
+
+    private List<Integer> items;
+
+    @Setup
+    public void createItems() {
+        items = new ArrayList<Integer>(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            items.add(i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEMS)
+    public Long sumList() {
+        return new FutureChunkedIncrementalAction<Long, Integer>(items, chunkSize) {
+            long sum = 0;
+            public void chunk(List<Integer> chunk) {
+                for (Integer item : chunk) {
+                    sum += item;
+                }
+            }
+            @Override
+            public void after() {
+                returnResult(sum);
+            }
+        }.result();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEMS)
+    public Long sumIterable() {
+        Iterable<Integer> iterable = items;
+        return new FutureChunkedIncrementalAction<Long, Integer>(iterable, chunkSize) {
+            long sum = 0;
+            public void chunk(List<Integer> chunk) {
+                for (Integer item : chunk) {
+                    sum += item;
+                }
+            }
+            @Override
+            public void after() {
+                returnResult(sum);
+            }
+        }.result();
+    }
+}
@@ -0,0 +1,77 @@
+package com.googlecode.future.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.googlecode.future.ConstantResult;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureDelegationChain;
+import com.googlecode.future.FutureResult;
+
+/**
+ * Cost of deep {@link FutureDelegationChain}s.
+ * 
+ * <p>{@link #nested()} builds chains that delegate to chains, {@link #longChain()} a single chain
+ * where only the last delegate has a result and {@link #longPending()} the same chain where
+ * every delegate completes after the chain has started.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FutureDelegationChainBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int depth;
+
+    private final Integer value = 42;
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Integer nested() {
+        Future<Integer> chain = new ConstantResult<Integer>(value);
+        for (int i = 0; i < depth; i++) {
+            chain = new FutureDelegationChain<Integer>(chain);
+        }
+        return chain.result();
+    }
+
+    @Benchmark
+    public Integer longChain() {
+        List<Future<Integer>> delegates = new ArrayList<Future<Integer>>(depth);
+        for (int i = 1; i < depth; i++) {
+            delegates.add(new ConstantResult<Integer>(null));
+        }
+        delegates.add(new ConstantResult<Integer>(value));
+        return new FutureDelegationChain<Integer>(delegates).result();
+    }
+
+    @Benchmark
+    public Integer longPending() {
+        List<Future<Integer>> delegates = new ArrayList<Future<Integer>>(depth);
+        for (int i = 0; i < depth; i++) {
+            delegates.add(new FutureResult<Integer>());
+        }
+        FutureDelegationChain<Integer> chain = new FutureDelegationChain<Integer>(delegates);
+        chain.start();
+        for (int i = 1; i < depth; i++) {
+            delegates.get(i - 1).setResult(null);
+        }
+        delegates.get(depth - 1).setResult(value);
+        return chain.result();
+    }
+}
@@ -0,0 +1,98 @@
+package com.googlecode.future.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureGraph;
+import com.googlecode.future.FutureGraph.Node;
+import com.googlecode.future.FutureGraph.Values;
+import com.googlecode.future.FuturePlan;
+import com.googlecode.future.FutureResult;
+
+/**
+ * Cost per request of evaluating the same graph, an input fanned out to N nodes which are
+ * summed, either by building a new graph of {@link FutureAction}s for every request or by
+ * executing a {@link FuturePlan} compiled once.  The input is supplied after the graph has
+ * started, as it would be by a remote call, so the actions replay run() to rediscover their
+ * dependencies.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FuturePlanBenchmark {
+
+    @Param({"10", "100"})
+    int width;
+
+    private FuturePlan<Integer> plan;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void compile() {
+        FutureGraph graph = new FutureGraph();
+        final Node<Integer> input = graph.input("input");
+        final Node<Integer>[] branches = (Node<Integer>[]) new Node<?>[width];
+        for (int i = 0; i < width; i++) {
+            final int offset = i;
+            branches[i] = graph.node("branch" + i, new FutureGraph.Function<Integer>() {
+                public Integer compute(Values in) {
+                    return in.get(input) + offset;
+                }
+            }, input);
+        }
+        Node<Integer> sum = graph.node("sum", new FutureGraph.Function<Integer>() {
+            public Integer compute(Values in) {
+                int total = 0;
+                for (Node<Integer> branch : branches) total += in.get(branch);
+                return total;
+            }
+        }, branches);
+        plan = graph.compile(sum);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Integer actionGraphPerRequest() {
+        final FutureResult<Integer> input = new FutureResult<Integer>();
+        final Future<Integer>[] branches = (Future<Integer>[]) new Future<?>[width];
+        for (int i = 0; i < width; i++) {
+            final int offset = i;
+            branches[i] = new FutureAction<Integer>() {
+                public void run() {
+                    returnResult(input.result() + offset);
+                }
+            };
+        }
+        FutureAction<Integer> sum = new FutureAction<Integer>() {
+            public void run() {
+                int total = 0;
+                for (Future<Integer> branch : branches) total += branch.result();
+                returnResult(total);
+            }
+        };
+        sum.start();
+        input.setResult(1);
+        return sum.result();
+    }
+
+    @Benchmark
+    public Integer compiledPlan() {
+        return plan.execute(1).result();
+    }
+}
@@ -0,0 +1,72 @@
+package com.googlecode.future.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+import com.googlecode.future.FutureResult;
+
+/**
+ * Cost of creating a {@link FutureResult}, registering listeners and completing it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FutureResultBenchmark {
+
+    @Param({"0", "1", "16"})
+    int listeners;
+
+    private AsyncCallback<Integer>[] callbacks;
+
+    private final Integer value = 42;
+
+    @Setup
+    public void createListeners() {
+        callbacks = Listeners.noops(listeners);
+    }
+
+    @Benchmark
+    public FutureResult<Integer> setResult() {
+        FutureResult<Integer> result = new FutureResult<Integer>();
+        for (AsyncCallback<Integer> callback : callbacks) {
+            result.addCallback(callback);
+        }
+        result.setResult(value);
+        return result;
+    }
+
+    @Benchmark
+    public FutureResult<Integer> failWithException() {
+        FutureResult<Integer> result = new FutureResult<Integer>();
+        for (AsyncCallback<Integer> callback : callbacks) {
+            result.addCallback(callback);
+        }
+        result.failWithException(new IllegalStateException());
+        return result;
+    }
+
+    @Benchmark
+    public FutureResult<Integer> addCallbackAfterCompletion() {
+        FutureResult<Integer> result = new FutureResult<Integer>();
+        result.setResult(value);
+        for (AsyncCallback<Integer> callback : callbacks) {
+            result.addCallback(callback);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,58 @@
+package com.googlecode.future.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.googlecode.future.ConstantResult;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureSequencer;
+import com.googlecode.future.FutureSynchronizer;
+
+/**
+ * Cost of {@link FutureSynchronizer} and {@link FutureSequencer} over inputs that are already
+ * complete.  See {@link PendingSynchronizerBenchmark} for inputs that complete later.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FutureSynchronizerBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    int inputs;
+
+    private List<Future<Integer>> completed;
+
+    @Setup
+    public void createInputs() {
+        completed = new ArrayList<Future<Integer>>(inputs);
+        for (int i = 0; i < inputs; i++) {
+            completed.add(new ConstantResult<Integer>(i));
+        }
+    }
+
+    @Benchmark
+    public Boolean synchronizer() {
+        return new FutureSynchronizer(completed).result();
+    }
+
+    @Benchmark
+    public Boolean sequencer() {
+        return new FutureSequencer(completed).result();
+    }
+}
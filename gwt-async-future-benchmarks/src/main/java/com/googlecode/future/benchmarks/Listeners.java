@@ -0,0 +1,29 @@
+package com.googlecode.future.benchmarks;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Helpers shared between benchmarks.
+ */
+final class Listeners {
+
+    private Listeners() { }
+
+    /**
+     * Listener that does nothing.  Each instance is distinct, so adding several of them to the
+     * same future registers several listeners.
+     */
+    static class Noop<T> implements AsyncCallback<T> {
+        public void onFailure(Throwable caught) { }
+        public void onSuccess(T result) { }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> AsyncCallback<T>[] noops(int count) {
+        AsyncCallback<T>[] listeners = (AsyncCallback<T>[]) new AsyncCallback<?>[count];
+        for (int i = 0; i < count; i++) {
+            listeners[i] = new Noop<T>();
+        }
+        return listeners;
+    }
+}
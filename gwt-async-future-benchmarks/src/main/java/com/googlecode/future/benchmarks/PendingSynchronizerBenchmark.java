@@ -0,0 +1,68 @@
+package com.googlecode.future.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.FutureSequencer;
+import com.googlecode.future.FutureSynchronizer;
+
+/**
+ * Cost of {@link FutureSynchronizer} and {@link FutureSequencer} when the inputs complete one
+ * at a time after the synchronizer has started.  Every completion replays run(), which walks
+ * the inputs from the start, so the cost grows quadratically with the number of inputs.  This
+ * is measured as single shots since the largest sizes take seconds per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+@Fork(1)
+public class PendingSynchronizerBenchmark {
+
+    @Param({"10", "1000", "10000", "100000"})
+    int inputs;
+
+    private List<FutureResult<Integer>> pendingInputs() {
+        List<FutureResult<Integer>> pending = new ArrayList<FutureResult<Integer>>(inputs);
+        for (int i = 0; i < inputs; i++) {
+            pending.add(new FutureResult<Integer>());
+        }
+        return pending;
+    }
+
+    @Benchmark
+    public Boolean synchronizer() {
+        List<FutureResult<Integer>> pending = pendingInputs();
+        FutureSynchronizer synchronizer = new FutureSynchronizer(pending);
+        synchronizer.start();
+        for (int i = 0; i < inputs; i++) {
+            pending.get(i).setResult(i);
+        }
+        return synchronizer.result();
+    }
+
+    @Benchmark
+    public Boolean sequencer() {
+        List<FutureResult<Integer>> pending = pendingInputs();
+        FutureSequencer sequencer = new FutureSequencer(pending);
+        sequencer.start();
+        for (int i = 0; i < inputs; i++) {
+            pending.get(i).setResult(i);
+        }
+        return sequencer.result();
+    }
+}
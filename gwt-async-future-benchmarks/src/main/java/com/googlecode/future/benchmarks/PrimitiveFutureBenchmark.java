@@ -0,0 +1,65 @@
+package com.googlecode.future.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.IntFuture;
+
+/**
+ * Cost of completing N numeric futures and summing them, with boxed {@link FutureResult}s
+ * summed by a {@link FutureAction} or with {@link IntFuture}s summed by
+ * {@link IntFuture#sum(IntFuture...)}.  Values are large enough not to come from the Integer
+ * cache, as in real numeric data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrimitiveFutureBenchmark {
+
+    @Param({"4", "64"})
+    int count;
+
+    private int base = 1000;
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public int boxed() {
+        final FutureResult<Integer>[] values = (FutureResult<Integer>[]) new FutureResult<?>[count];
+        for (int i = 0; i < count; i++) values[i] = new FutureResult<Integer>();
+        FutureAction<Integer> sum = new FutureAction<Integer>() {
+            public void run() {
+                int total = 0;
+                for (Future<Integer> value : values) total += value.result();
+                returnResult(total);
+            }
+        };
+        sum.start();
+        for (int i = 0; i < count; i++) values[i].setResult(base + i);
+        return sum.result();
+    }
+
+    @Benchmark
+    public int primitive() {
+        IntFuture[] values = new IntFuture[count];
+        for (int i = 0; i < count; i++) values[i] = new IntFuture();
+        IntFuture sum = IntFuture.sum(values);
+        for (int i = 0; i < count; i++) values[i].setResult(base + i);
+        return sum.result();
+    }
+}
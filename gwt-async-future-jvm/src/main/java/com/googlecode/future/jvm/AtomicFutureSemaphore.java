@@ -0,0 +1,47 @@
+package com.googlecode.future.jvm;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.googlecode.future.FutureSemaphore;
+
+/**
+ * A {@link FutureSemaphore} whose free permits are kept in an atomic counter, so that taking a
+ * permit when no one is waiting, and releasing one when no one is waiting, take no lock.  Only
+ * waiters that queue, and the permits handed to them, go through the semaphore's lock.
+ *
+ * <p>Also usable to count the resources of a {@link com.googlecode.future.FuturePool}, or as a
+ * mutex with a single permit.
+ */
+public class AtomicFutureSemaphore extends FutureSemaphore {
+
+    private final AtomicInteger permits;
+
+    public AtomicFutureSemaphore(int permits) {
+        this("semaphore", permits);
+    }
+
+    public AtomicFutureSemaphore(String name, int permits) {
+        super(name, 0);
+        if (permits < 0) throw new IllegalArgumentException("permits must not be negative");
+        this.permits = new AtomicInteger(permits);
+    }
+
+    @Override
+    public int getAvailablePermits() {
+        return permits.get();
+    }
+
+    @Override
+    protected boolean tryTake() {
+        while (true) {
+            int free = permits.get();
+            if (free == 0) return false;
+            if (permits.compareAndSet(free, free - 1)) return true;
+        }
+    }
+
+    @Override
+    protected void give() {
+        permits.incrementAndGet();
+    }
+}
@@ -0,0 +1,188 @@
+package com.googlecode.future.jvm;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+import com.googlecode.future.CancellableAsyncCallback;
+import com.googlecode.future.CancelledException;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureResult;
+
+/**
+ * Adapters between {@link Future} and {@link CompletionStage}.
+ *
+ * <p>Success, failure and cancellation are propagated in both directions.  Neither adapter
+ * blocks or hands off to another thread: the adapted future completes on whichever thread
+ * completed the original.  Each adapter is itself the single listener registered on the
+ * original, so no other objects are allocated.
+ *
+ * <pre>
+ * // Server side code returning CompletableFuture, used from shared code
+ * Future&lt;Account&gt; account = CompletionStages.toFuture(accounts.lookupAsync(id));
+ *
+ * // Shared code consumed by java.util.concurrent code
+ * CompletableFuture&lt;Report&gt; report = CompletionStages.toCompletableFuture(reportAction);
+ * </pre>
+ *
+ * <p>Because a {@link Future} is lazy while a {@link CompletionStage} represents work that is
+ * already under way, converting a future to a stage starts it.
+ */
+public final class CompletionStages {
+
+    private CompletionStages() { }
+
+    /**
+     * Adapt a future to a {@link CompletableFuture}, starting the future if it has not yet
+     * started.  Cancelling the returned CompletableFuture cancels the future.
+     *
+     * @param future future to adapt
+     * @return a CompletableFuture that completes when the future does
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> CompletableFuture<T> toCompletableFuture(Future<T> future) {
+        if (future instanceof StageFuture<?>) {
+            CompletionStage<T> stage = ((StageFuture<T>) future).stage;
+            if (stage instanceof CompletableFuture<?>) return (CompletableFuture<T>) stage;
+        }
+        FutureCompletableFuture<T> adapter = new FutureCompletableFuture<T>(future);
+        future.addCallback(adapter);
+        return adapter;
+    }
+
+    /**
+     * Adapt a future to a {@link CompletionStage}, starting the future if it has not yet
+     * started.
+     *
+     * @param future future to adapt
+     * @return a CompletionStage that completes when the future does
+     * @see #toCompletableFuture(Future)
+     */
+    public static <T> CompletionStage<T> toCompletionStage(Future<T> future) {
+        return toCompletableFuture(future);
+    }
+
+    /**
+     * Adapt a {@link CompletionStage} to a future.  Cancelling the future cancels the stage if
+     * it supports {@link CompletionStage#toCompletableFuture()}.
+     *
+     * @param stage stage to adapt
+     * @return a future that completes when the stage does
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Future<T> toFuture(CompletionStage<T> stage) {
+        if (stage instanceof FutureCompletableFuture<?>) {
+            return ((FutureCompletableFuture<T>) stage).future;
+        }
+        StageFuture<T> adapter = new StageFuture<T>(stage);
+        stage.whenComplete(adapter);
+        return adapter;
+    }
+
+    /**
+     * Unwrap the exception reported by a stage to the exception that caused it.
+     */
+    static Throwable unwrap(Throwable t) {
+        while (t instanceof CompletionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    /**
+     * A CompletableFuture which is completed by the future it is registered with.
+     */
+    private static final class FutureCompletableFuture<T> extends CompletableFuture<T>
+            implements CancellableAsyncCallback<T> {
+
+        private final Future<T> future;
+
+        FutureCompletableFuture(Future<T> future) {
+            this.future = future;
+        }
+
+        public void onSuccess(T result) {
+            complete(result);
+        }
+
+        public void onFailure(Throwable caught) {
+            if (caught instanceof CancelledException) onCancel();
+            else completeExceptionally(caught);
+        }
+
+        public void onCancel() {
+            super.cancel(false);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && !future.isComplete()) future.cancel();
+            return cancelled;
+        }
+
+        @Override
+        public <U> CompletableFuture<U> newIncompleteFuture() {
+            return new CompletableFuture<U>();
+        }
+
+        @Override
+        public String toString() {
+            return super.toString() + " for " + future;
+        }
+    }
+
+    /**
+     * A future which is completed by the stage it is registered with.  The stage may complete
+     * on any thread, racing with cancellation, so the first of them settles the future under
+     * its lock and then completes it outside the lock, so that callbacks are not run holding it.
+     */
+    private static final class StageFuture<T> extends FutureResult<T>
+            implements BiConsumer<T, Throwable> {
+
+        private final CompletionStage<T> stage;
+
+        /** Guarded by this. */
+        private boolean isSettled = false;
+
+        StageFuture(CompletionStage<T> stage) {
+            this.stage = stage;
+        }
+
+        private synchronized boolean settle() {
+            if (isSettled) return false;
+            isSettled = true;
+            return true;
+        }
+
+        public void accept(T value, Throwable t) {
+            if (!settle()) return;
+            if (t == null) {
+                setResult(value);
+                return;
+            }
+            t = unwrap(t);
+            if (t instanceof CancellationException) setCancelled();
+            else failWithException(t);
+        }
+
+        @Override
+        public void onCancel() {
+            if (!settle()) return;
+            setCancelled();
+            try {
+                stage.toCompletableFuture().cancel(false);
+            } catch (UnsupportedOperationException e) {
+                // Stage cannot be cancelled, the result will be ignored.
+            }
+        }
+
+        @Override
+        protected String getFutureType() {
+            return "CompletionStage";
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.googlecode.future.jvm;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A pool of direct buffers of the same capacity, so that I/O can reuse native memory rather
+ * than allocating and freeing it for each operation.  Buffers are created on demand and up to
+ * a maximum number are kept once released.  The pool may be used from any thread.
+ */
+public final class DirectBufferPool {
+
+    private final int bufferSize;
+
+    private final ArrayBlockingQueue<ByteBuffer> free;
+
+    /**
+     * @param bufferSize capacity of each buffer
+     * @param maxPooled maximum number of released buffers kept for reuse
+     */
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize <= 0) throw new IllegalArgumentException("bufferSize must be positive");
+        if (maxPooled <= 0) throw new IllegalArgumentException("maxPooled must be positive");
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<ByteBuffer>(maxPooled);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Number of released buffers available for reuse.
+     */
+    public int getPooledCount() {
+        return free.size();
+    }
+
+    /**
+     * A cleared buffer, either reused or newly allocated.
+     *
+     * @return the buffer, which should be released once no longer used
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) return ByteBuffer.allocateDirect(bufferSize);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool.  The buffer must not be used afterwards.
+     *
+     * @param buffer buffer from {@link #acquire()}
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || !buffer.isDirect()) {
+            throw new IllegalArgumentException(buffer + " was not acquired from this pool");
+        }
+        // Left to the garbage collector if the pool is full.
+        free.offer(buffer);
+    }
+}
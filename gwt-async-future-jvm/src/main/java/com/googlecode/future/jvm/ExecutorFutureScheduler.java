@@ -0,0 +1,132 @@
+package com.googlecode.future.jvm;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gwt.user.client.Command;
+import com.google.gwt.user.client.IncrementalCommand;
+import com.googlecode.future.DefaultFutureScheduler;
+import com.googlecode.future.FutureRuntime;
+import com.googlecode.future.FutureScheduler;
+
+/**
+ * A real time {@link FutureScheduler} for the JVM, which runs commands on a
+ * {@link ScheduledExecutorService}.  Outside the browser the {@link DefaultFutureScheduler}
+ * cannot run delayed commands, which delays, hedged requests and batched service calls
+ * need, and runs deferred commands immediately; with this scheduler delayed commands run once
+ * their delay has passed and deferred commands run after the caller has returned, as in the
+ * browser.
+ *
+ * <p>{@link ParkingFutureExecutor} and {@link ParallelFutureEvaluator} install the
+ * {@link #getShared() shared scheduler} when they are created, unless another scheduler has
+ * been installed, so servers using them need do nothing more.  Otherwise install a scheduler
+ * with {@link #install()}, e.g. at start up.
+ *
+ * <p>Commands may run on any of the executor's threads, and concurrently with each other, so
+ * futures they complete are completed on those threads.  An incremental command is run one
+ * step at a time, each step queued after the previous one returns, so that other commands
+ * are not held up.
+ */
+public class ExecutorFutureScheduler implements FutureScheduler {
+
+    private static ExecutorFutureScheduler shared;
+
+    private final ScheduledExecutorService executor;
+
+    private FutureScheduler previous;
+
+    private boolean isInstalled = false;
+
+    /**
+     * @param executor executor to run commands on
+     */
+    public ExecutorFutureScheduler(ScheduledExecutorService executor) {
+        if (executor == null) throw new IllegalArgumentException("executor must not be null");
+        this.executor = executor;
+    }
+
+    /**
+     * A scheduler shared by the process, using a single daemon thread, so that it does not
+     * keep the JVM alive.  Commands should hand long running work to another executor.
+     */
+    public static synchronized ExecutorFutureScheduler getShared() {
+        if (shared == null) {
+            final AtomicInteger count = new AtomicInteger();
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable,
+                                    "future-scheduler-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.setRemoveOnCancelPolicy(true);
+            shared = new ExecutorFutureScheduler(executor);
+        }
+        return shared;
+    }
+
+    /**
+     * Install the shared scheduler if no scheduler other than the default is installed.
+     * Called by the JVM evaluators when they are created.
+     */
+    public static synchronized void installIfDefault() {
+        if (FutureRuntime.getScheduler() instanceof DefaultFutureScheduler) getShared().install();
+    }
+
+    /**
+     * Make this the scheduler returned by {@link FutureRuntime#getScheduler()}.
+     */
+    public synchronized void install() {
+        if (isInstalled) return;
+        previous = FutureRuntime.setScheduler(this);
+        isInstalled = true;
+    }
+
+    /**
+     * Restore the scheduler that was in use before {@link #install()} was called.
+     */
+    public synchronized void uninstall() {
+        if (!isInstalled) return;
+        FutureRuntime.setScheduler(previous);
+        previous = null;
+        isInstalled = false;
+    }
+
+    public ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    public long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Run a command on the executor after the delay.  A delay of 0 or less runs it as soon
+     * as a thread is free, never before this method returns.
+     *
+     * @throws RejectedExecutionException if the executor has been shut down
+     */
+    public void schedule(final Command command, long delayMillis) {
+        Runnable task = new Runnable() {
+            public void run() {
+                command.execute();
+            }
+        };
+        if (delayMillis <= 0) executor.execute(task);
+        else executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void scheduleIncremental(final IncrementalCommand command) {
+        executor.execute(new Runnable() {
+            public void run() {
+                if (command.execute()) executor.execute(this);
+            }
+        });
+    }
+}
@@ -0,0 +1,172 @@
+package com.googlecode.future.jvm;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * How messages are delimited on a byte stream, used by {@link FutureSocketChannel}.
+ */
+public abstract class Framing {
+
+    private final int maxFrameLength;
+
+    protected Framing(int maxFrameLength) {
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("maxFrameLength must be positive");
+        }
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * Frames preceded by their length as a 4 byte big-endian int.
+     *
+     * @param maxFrameLength largest payload accepted
+     * @return the framing
+     */
+    public static Framing lengthPrefixed(int maxFrameLength) {
+        return new LengthPrefixed(maxFrameLength);
+    }
+
+    /**
+     * Frames ended by a delimiter, such as a newline.  Payloads must not contain the
+     * delimiter.
+     *
+     * @param delimiter byte ending each frame
+     * @param maxFrameLength largest payload accepted, excluding the delimiter
+     * @return the framing
+     */
+    public static Framing delimited(byte delimiter, int maxFrameLength) {
+        return new Delimited(delimiter, maxFrameLength);
+    }
+
+    /**
+     * The largest payload accepted.
+     */
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    /**
+     * The largest number of bytes a frame occupies on the stream, including any header and
+     * trailer.
+     */
+    public abstract int getMaxEncodedLength();
+
+    /**
+     * Write the remaining bytes of a payload to a buffer as a frame.
+     *
+     * @param payload bytes to send, which are consumed
+     * @param out buffer to write to, with room for {@link #getMaxEncodedLength()} bytes
+     * @throws IOException if the payload cannot be framed
+     */
+    public abstract void encode(ByteBuffer payload, ByteBuffer out) throws IOException;
+
+    /**
+     * Take the next frame from the bytes read so far, if it is complete.
+     *
+     * @param in bytes between position and limit not yet decoded; the position is moved past
+     *      the frame if one is returned
+     * @return the payload, copied to a new buffer, or null if more bytes are needed
+     * @throws IOException if the bytes are not a valid frame
+     */
+    public abstract ByteBuffer decode(ByteBuffer in) throws IOException;
+
+    static ByteBuffer copy(ByteBuffer in, int length) {
+        ByteBuffer slice = in.duplicate();
+        slice.limit(slice.position() + length);
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        payload.put(slice).flip();
+        return payload;
+    }
+
+    void checkLength(int length) throws ProtocolException {
+        if (length < 0 || length > maxFrameLength) {
+            throw new ProtocolException("Frame length " + length + " exceeds maximum of "
+                    + maxFrameLength);
+        }
+    }
+
+    private static final class LengthPrefixed extends Framing {
+
+        LengthPrefixed(int maxFrameLength) {
+            super(maxFrameLength);
+        }
+
+        @Override
+        public int getMaxEncodedLength() {
+            return 4 + getMaxFrameLength();
+        }
+
+        @Override
+        public void encode(ByteBuffer payload, ByteBuffer out) throws IOException {
+            checkLength(payload.remaining());
+            out.putInt(payload.remaining());
+            out.put(payload);
+        }
+
+        @Override
+        public ByteBuffer decode(ByteBuffer in) throws IOException {
+            if (in.remaining() < 4) return null;
+            int length = in.getInt(in.position());
+            checkLength(length);
+            if (in.remaining() < 4 + length) return null;
+            in.position(in.position() + 4);
+            ByteBuffer payload = copy(in, length);
+            in.position(in.position() + length);
+            return payload;
+        }
+
+        @Override
+        public String toString() {
+            return "lengthPrefixed(" + getMaxFrameLength() + ")";
+        }
+    }
+
+    private static final class Delimited extends Framing {
+
+        private final byte delimiter;
+
+        Delimited(byte delimiter, int maxFrameLength) {
+            super(maxFrameLength);
+            this.delimiter = delimiter;
+        }
+
+        @Override
+        public int getMaxEncodedLength() {
+            return getMaxFrameLength() + 1;
+        }
+
+        @Override
+        public void encode(ByteBuffer payload, ByteBuffer out) throws IOException {
+            checkLength(payload.remaining());
+            for (int i = payload.position(); i < payload.limit(); i++) {
+                if (payload.get(i) == delimiter) {
+                    throw new ProtocolException("Payload contains the delimiter at " + i);
+                }
+            }
+            out.put(payload);
+            out.put(delimiter);
+        }
+
+        @Override
+        public ByteBuffer decode(ByteBuffer in) throws IOException {
+            int start = in.position();
+            for (int i = start; i < in.limit(); i++) {
+                if (in.get(i) == delimiter) {
+                    checkLength(i - start);
+                    ByteBuffer payload = copy(in, i - start);
+                    in.position(i + 1);
+                    return payload;
+                }
+            }
+            checkLength(in.remaining());
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "delimited(" + delimiter + ", " + getMaxFrameLength() + ")";
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.googlecode.future.jvm;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.googlecode.future.CancellableAsyncCallback;
+import com.googlecode.future.CancelledException;
+import com.googlecode.future.FutureChunkStream;
+
+/**
+ * Publishes the chunks of a {@link FutureChunkStream} to a {@link Flow.Subscriber}, e.g.
+ *
+ * <pre>
+ * FutureChunkStream&lt;Row&gt; rows = new FutureChunkStream&lt;Row&gt;(query.rows(), 500);
+ * new FutureChunkPublisher&lt;Row&gt;(rows).subscribe(csvWriter);
+ * </pre>
+ *
+ * <p>Demand is honoured: a chunk is only produced by the stream once the subscriber has
+ * requested it, and at most one chunk is asked for at a time however large the demand is,
+ * so nothing is buffered.  Cancelling the subscription cancels the stream.
+ *
+ * <p>A stream can only be consumed once, so the publisher accepts a single subscriber and
+ * fails any others with an {@link IllegalStateException}.  Requests and cancellation may
+ * come from any thread and are serialized on the stream.  Like any future, the stream's data,
+ * if supplied by a future, should be completed by one thread at a time.
+ *
+ * @param <T> type of data in each chunk
+ */
+public class FutureChunkPublisher<T> implements Flow.Publisher<List<T>> {
+
+    private final FutureChunkStream<T> stream;
+
+    private final AtomicBoolean isSubscribed = new AtomicBoolean(false);
+
+    /**
+     * @param stream stream to publish, which should not have been started
+     */
+    public FutureChunkPublisher(FutureChunkStream<T> stream) {
+        this.stream = stream;
+    }
+
+    public void subscribe(Flow.Subscriber<? super List<T>> subscriber) {
+        if (subscriber == null) throw new NullPointerException("subscriber");
+        if (!isSubscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public void request(long n) { }
+
+                public void cancel() { }
+            });
+            subscriber.onError(new IllegalStateException(
+                    "Chunk stream " + stream.getName() + " already has a subscriber"));
+            return;
+        }
+        ChunkSubscription<T> subscription = new ChunkSubscription<T>(stream, subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * Pulls one chunk at a time from the stream while there is outstanding demand.  A
+     * work-in-progress counter turns requests made from within onNext into iterations of the
+     * running drain loop rather than recursive calls.
+     */
+    private static final class ChunkSubscription<T>
+            implements Flow.Subscription, CancellableAsyncCallback<List<T>> {
+
+        private final FutureChunkStream<T> stream;
+
+        private final Flow.Subscriber<? super List<T>> subscriber;
+
+        private final AtomicLong demand = new AtomicLong();
+
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private volatile boolean isPulling = false;
+
+        private volatile boolean isDone = false;
+
+        ChunkSubscription(FutureChunkStream<T> stream, Flow.Subscriber<? super List<T>> subscriber) {
+            this.stream = stream;
+            this.subscriber = subscriber;
+        }
+
+        public void request(long n) {
+            if (isDone) return;
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException(
+                        "Subscriber requested " + n + " chunks, must be positive"));
+                return;
+            }
+            long current;
+            long updated;
+            do {
+                current = demand.get();
+                updated = current + n;
+                if (updated < 0) updated = Long.MAX_VALUE;
+            } while (!demand.compareAndSet(current, updated));
+            drain();
+        }
+
+        public void cancel() {
+            if (isDone) return;
+            isDone = true;
+            synchronized (stream) {
+                if (!stream.isComplete()) stream.cancel();
+            }
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) return;
+            do {
+                if (!isDone && !isPulling && demand.get() > 0) {
+                    isPulling = true;
+                    synchronized (stream) {
+                        stream.next().addCallback(this);
+                    }
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        public void onSuccess(List<T> chunk) {
+            if (isDone) return;
+            if (chunk == null) {
+                isDone = true;
+                subscriber.onComplete();
+                return;
+            }
+            if (demand.get() != Long.MAX_VALUE) demand.decrementAndGet();
+            subscriber.onNext(chunk);
+            isPulling = false;
+            drain();
+        }
+
+        public void onFailure(Throwable caught) {
+            if (caught instanceof CancelledException) {
+                onCancel();
+                return;
+            }
+            fail(caught);
+        }
+
+        public void onCancel() {
+            fail(new CancellationException("Chunk stream " + stream.getName()
+                    + " was cancelled"));
+        }
+
+        private void fail(Throwable t) {
+            if (isDone) return;
+            isDone = true;
+            subscriber.onError(t);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.googlecode.future.jvm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureResult;
+
+/**
+ * Reads and writes a file without blocking, returning a {@link Future} for each operation, so
+ * that a {@link FutureAction} can depend on file I/O in the same way as on a remote call.
+ *
+ * <pre>
+ * final FutureFileChannel file = FutureFileChannel.open(path, StandardOpenOption.READ);
+ * final Future&lt;ByteBuffer&gt; header = file.read(0, pool);
+ * FutureAction&lt;Header&gt; parsed = new FutureAction&lt;Header&gt;() {
+ *     public void run() {
+ *         ByteBuffer buffer = header.result();
+ *         try {
+ *             returnResult(Header.parse(buffer));
+ *         } finally {
+ *             pool.release(buffer);
+ *         }
+ *     }
+ * };
+ * </pre>
+ *
+ * <p>Each operation starts as soon as it is called, and its future completes on a thread of
+ * the channel, where callbacks are then invoked.  An operation over several buffers, or a write
+ * of a buffer which the operating system accepts in parts, is made of several reads or writes
+ * which are submitted one after the other.
+ *
+ * <p>Cancelling the future of an operation cancels it at once and no further reads or writes
+ * are submitted for it.  A read or write already submitted cannot be interrupted, as
+ * {@link AsynchronousFileChannel} provides no way of doing so, so its buffers must not be
+ * reused until it ends; pooled buffers are returned to their pool when it does.  Closing the
+ * channel aborts all pending I/O, failing the operations in progress.
+ */
+public final class FutureFileChannel implements Closeable {
+
+    private final AsynchronousFileChannel channel;
+
+    public FutureFileChannel(AsynchronousFileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Open a file using the default thread pool for completions.
+     *
+     * @param path file to open
+     * @param options options as for {@link AsynchronousFileChannel#open(Path, OpenOption...)}
+     * @return the channel
+     * @throws IOException if the file cannot be opened
+     */
+    public static FutureFileChannel open(Path path, OpenOption... options) throws IOException {
+        return new FutureFileChannel(AsynchronousFileChannel.open(path, options));
+    }
+
+    /**
+     * Open a file, performing I/O and completing futures on the given executor.
+     *
+     * @param path file to open
+     * @param executor executor for I/O and completions
+     * @param options options as for {@link AsynchronousFileChannel#open(Path, OpenOption...)}
+     * @return the channel
+     * @throws IOException if the file cannot be opened
+     */
+    public static FutureFileChannel open(Path path, ExecutorService executor,
+            OpenOption... options) throws IOException {
+        HashSet<OpenOption> optionSet = new HashSet<OpenOption>();
+        Collections.addAll(optionSet, options);
+        return new FutureFileChannel(AsynchronousFileChannel.open(path, optionSet, executor));
+    }
+
+    public AsynchronousFileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Read bytes from the file into a buffer with a single read.
+     *
+     * @param destination buffer to read into
+     * @param position offset in the file to read from
+     * @return future for the number of bytes read, or -1 if position is at or beyond the end of
+     *      the file
+     */
+    public Future<Integer> read(ByteBuffer destination, long position) {
+        return new Operation<Integer>("read", false, true, position, destination) {
+            Integer value(long transferred, boolean isEndOfFile) {
+                return isEndOfFile ? -1 : (int) transferred;
+            }
+        }.submit();
+    }
+
+    /**
+     * Read bytes from the file into a sequence of buffers, filling each in turn until all are
+     * full or the end of the file is reached.
+     *
+     * @param destinations buffers to read into
+     * @param position offset in the file to read from
+     * @return future for the number of bytes read, or -1 if position is at or beyond the end of
+     *      the file
+     */
+    public Future<Long> read(ByteBuffer[] destinations, long position) {
+        return new Operation<Long>("scattering read", false, false, position,
+                destinations.clone()) {
+            Long value(long transferred, boolean isEndOfFile) {
+                return (isEndOfFile && transferred == 0) ? -1 : transferred;
+            }
+        }.submit();
+    }
+
+    /**
+     * Read bytes from the file into a buffer acquired from a pool, with a single read.  The
+     * buffer is flipped, ready to be read, and is empty if position is at or beyond the end of
+     * the file.  It should be released to the pool once used.  If the read fails or is
+     * cancelled the buffer is released by this channel.
+     *
+     * @param position offset in the file to read from
+     * @param pool pool to acquire the buffer from
+     * @return future for the buffer
+     */
+    public Future<ByteBuffer> read(long position, final DirectBufferPool pool) {
+        final ByteBuffer buffer = pool.acquire();
+        return new Operation<ByteBuffer>("pooled read", false, true, position, buffer) {
+            ByteBuffer value(long transferred, boolean isEndOfFile) {
+                buffer.flip();
+                return buffer;
+            }
+
+            @Override
+            void discard() {
+                pool.release(buffer);
+            }
+        }.submit();
+    }
+
+    /**
+     * Write all the remaining bytes of a buffer to the file.
+     *
+     * @param source buffer to write
+     * @param position offset in the file to write to
+     * @return future for the number of bytes written
+     */
+    public Future<Integer> write(ByteBuffer source, long position) {
+        return new Operation<Integer>("write", true, false, position, source) {
+            Integer value(long transferred, boolean isEndOfFile) {
+                return (int) transferred;
+            }
+        }.submit();
+    }
+
+    /**
+     * Write all the remaining bytes of a sequence of buffers to the file, in order.
+     *
+     * @param sources buffers to write
+     * @param position offset in the file to write to
+     * @return future for the number of bytes written
+     */
+    public Future<Long> write(ByteBuffer[] sources, long position) {
+        return new Operation<Long>("gathering write", true, false, position, sources.clone()) {
+            Long value(long transferred, boolean isEndOfFile) {
+                return transferred;
+            }
+        }.submit();
+    }
+
+    /**
+     * Close the channel, failing any operations in progress with an
+     * {@link java.nio.channels.AsynchronousCloseException}.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * A read or write of a sequence of buffers, made of one or more reads or writes of the
+     * channel.
+     */
+    private abstract class Operation<T> extends FutureResult<T>
+            implements CompletionHandler<Integer, Void> {
+
+        private final boolean isWrite;
+
+        private final boolean isSingleRead;
+
+        private final ByteBuffer[] buffers;
+
+        private long position;
+
+        private long transferred = 0;
+
+        private int index = 0;
+
+        Operation(String name, boolean isWrite, boolean isSingleRead, long position,
+                ByteBuffer... buffers) {
+            super(name);
+            if (position < 0) throw new IllegalArgumentException("Negative position " + position);
+            this.isWrite = isWrite;
+            this.isSingleRead = isSingleRead;
+            this.position = position;
+            this.buffers = buffers;
+        }
+
+        abstract T value(long transferred, boolean isEndOfFile);
+
+        /**
+         * Called once the operation has ended without succeeding, and no I/O is pending.
+         */
+        void discard() {
+        }
+
+        Operation<T> submit() {
+            while (index < buffers.length && !buffers[index].hasRemaining()) index++;
+            if (index == buffers.length) {
+                finish(false);
+                return this;
+            }
+            try {
+                if (isWrite) channel.write(buffers[index], position, null, this);
+                else channel.read(buffers[index], position, null, this);
+            } catch (RuntimeException e) {
+                // E.g. the channel is not open for reading or writing.
+                failed(e, null);
+            }
+            return this;
+        }
+
+        public void completed(Integer count, Void attachment) {
+            if (isComplete()) {
+                // Cancelled while the I/O was in progress.
+                discard();
+                return;
+            }
+            if (count < 0) {
+                finish(true);
+                return;
+            }
+            transferred += count;
+            position += count;
+            if (isSingleRead) finish(false);
+            else submit();
+        }
+
+        public void failed(Throwable caught, Void attachment) {
+            if (!isComplete()) {
+                try {
+                    failWithException(caught);
+                } catch (IllegalStateException e) {
+                    if (!isCancelled()) throw e;
+                }
+            }
+            discard();
+        }
+
+        private void finish(boolean isEndOfFile) {
+            try {
+                setResult(value(transferred, isEndOfFile));
+            } catch (IllegalStateException e) {
+                // Cancelled concurrently, after the check in completed().
+                if (!isCancelled()) throw e;
+                discard();
+            }
+        }
+
+        @Override
+        protected String getFutureType() {
+            return "FutureFileChannel";
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.googlecode.future.jvm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureIncrementalAction;
+import com.googlecode.future.FutureObserverAdapter;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.FutureRuntime;
+
+/**
+ * Emits JDK Flight Recorder events for the lifecycle of futures, so that replays, waits for
+ * dependencies and incremental steps can be told apart from other work in a recording, and
+ * correlated with garbage collection and I/O.
+ *
+ * <pre>
+ * FutureFlightRecorder.install();
+ * </pre>
+ *
+ * <p>Once installed, an observer is registered with {@link FutureRuntime} only while a
+ * recording enables at least one of the events below, so that futures cost nothing more than
+ * without this class the rest of the time.  The events are enabled in a recording by name,
+ * e.g. in a .jfc file or with
+ * {@code recording.enable(FutureFlightRecorder.ActionRunEvent.class)}.  No stack traces are
+ * recorded.
+ */
+public final class FutureFlightRecorder {
+
+    @Name("com.googlecode.future.ActionRun")
+    @Label("Future Action Run")
+    @Description("An invocation of the run() method of a FutureAction")
+    @Category("Async Future")
+    @StackTrace(false)
+    public static final class ActionRunEvent extends Event {
+        @Label("Action")
+        String action;
+
+        @Label("Attempt")
+        @Description("Number of invocations of run() for the action, starting at 1")
+        int attempt;
+
+        @Label("Replay")
+        @Description("Number of invocations before this one, which this one replays")
+        int replay;
+
+        @Label("Outcome")
+        @Description("State of the action once run() returned")
+        String outcome;
+    }
+
+    @Name("com.googlecode.future.IncrementalTick")
+    @Label("Future Incremental Tick")
+    @Description("A step of a FutureIncrementalAction")
+    @Category("Async Future")
+    @StackTrace(false)
+    public static final class IncrementalTickEvent extends Event {
+        @Label("Action")
+        String action;
+
+        @Label("Tick")
+        int tick;
+
+        @Label("Outcome")
+        @Description("State of the action once the step returned")
+        String outcome;
+    }
+
+    @Name("com.googlecode.future.DependencyWait")
+    @Label("Future Dependency Wait")
+    @Description("An action waiting for an incomplete future")
+    @Category("Async Future")
+    @StackTrace(false)
+    public static final class DependencyWaitEvent extends Event {
+        @Label("Action")
+        String action;
+
+        @Label("Dependency")
+        String dependency;
+
+        @Label("Dependency Class")
+        String dependencyClass;
+    }
+
+    @Name("com.googlecode.future.Completed")
+    @Label("Future Completed")
+    @Description("A future succeeding, failing or being cancelled")
+    @Category("Async Future")
+    @StackTrace(false)
+    public static final class CompletedEvent extends Event {
+        @Label("Future")
+        String future;
+
+        @Label("Outcome")
+        String outcome;
+
+        @Label("Exception")
+        @Description("Class of the exception a failed future failed with")
+        Class<?> exception;
+    }
+
+    private static final List<EventType> EVENT_TYPES = List.of(
+            EventType.getEventType(ActionRunEvent.class),
+            EventType.getEventType(IncrementalTickEvent.class),
+            EventType.getEventType(DependencyWaitEvent.class),
+            EventType.getEventType(CompletedEvent.class));
+
+    private static final Observer OBSERVER = new Observer();
+
+    private static final FlightRecorderListener LISTENER = new FlightRecorderListener() {
+        @Override
+        public void recordingStateChanged(Recording recording) {
+            update();
+        }
+    };
+
+    private static boolean isInstalled = false;
+
+    private FutureFlightRecorder() { }
+
+    /**
+     * Emit events whenever a recording enables them.
+     */
+    public static synchronized void install() {
+        if (isInstalled) return;
+        isInstalled = true;
+        FlightRecorder.addListener(LISTENER);
+        update();
+    }
+
+    /**
+     * Stop emitting events.
+     */
+    public static synchronized void uninstall() {
+        if (!isInstalled) return;
+        isInstalled = false;
+        FlightRecorder.removeListener(LISTENER);
+        update();
+    }
+
+    /**
+     * Whether events are being emitted, ie. whether installed and a recording enables them.
+     */
+    public static synchronized boolean isEmitting() {
+        return OBSERVER.isRegistered;
+    }
+
+    private static synchronized void update() {
+        boolean isEnabled = false;
+        if (isInstalled) {
+            for (EventType type : EVENT_TYPES) isEnabled |= type.isEnabled();
+        }
+        if (isEnabled == OBSERVER.isRegistered) return;
+        OBSERVER.isRegistered = isEnabled;
+        if (isEnabled) {
+            FutureRuntime.addObserver(OBSERVER);
+        } else {
+            FutureRuntime.removeObserver(OBSERVER);
+            OBSERVER.clear();
+        }
+    }
+
+    private static String outcome(Future<?> future) {
+        if (!future.isComplete()) return "incomplete";
+        if (future.isSuccessful()) return "succeeded";
+        return future.isCancelled() ? "cancelled" : "failed";
+    }
+
+    /** An event in progress for a future. */
+    private static final class Timed<E extends Event> {
+        final Future<?> future;
+        final E event;
+
+        Timed(Future<?> future, E event) {
+            this.future = future;
+            this.event = event;
+        }
+    }
+
+    private static final class Observer extends FutureObserverAdapter {
+
+        /** Guarded by the FutureFlightRecorder class. */
+        boolean isRegistered = false;
+
+        /** The run() invocations in progress on each thread, innermost last. */
+        private final ThreadLocal<ArrayDeque<Timed<Event>>> runs =
+            new ThreadLocal<ArrayDeque<Timed<Event>>>() {
+                @Override
+                protected ArrayDeque<Timed<Event>> initialValue() {
+                    return new ArrayDeque<Timed<Event>>();
+                }
+            };
+
+        /** The waits in progress of each action, for each dependency. */
+        private final Map<FutureAction<?>, List<Timed<DependencyWaitEvent>>> waits =
+            new IdentityHashMap<FutureAction<?>, List<Timed<DependencyWaitEvent>>>();
+
+        @Override
+        public void onRunStarted(FutureAction<?> action, int attempt) {
+            Event event;
+            if (action instanceof FutureIncrementalAction<?>) {
+                IncrementalTickEvent tick = new IncrementalTickEvent();
+                tick.tick = attempt;
+                event = tick;
+            } else {
+                ActionRunEvent run = new ActionRunEvent();
+                run.attempt = attempt;
+                run.replay = attempt - 1;
+                event = run;
+            }
+            if (!event.isEnabled()) return;
+            runs.get().addLast(new Timed<Event>(action, event));
+            event.begin();
+        }
+
+        @Override
+        public void onRunFinished(FutureAction<?> action, int attempt) {
+            ArrayDeque<Timed<Event>> inProgress = runs.get();
+            // Empty if the run started before events were enabled.
+            if (inProgress.isEmpty() || inProgress.peekLast().future != action) return;
+            Event event = inProgress.pollLast().event;
+            event.end();
+            if (!event.shouldCommit()) return;
+            if (event instanceof IncrementalTickEvent) {
+                IncrementalTickEvent tick = (IncrementalTickEvent) event;
+                tick.action = action.getName();
+                tick.outcome = outcome(action);
+            } else {
+                ActionRunEvent run = (ActionRunEvent) event;
+                run.action = action.getName();
+                run.outcome = outcome(action);
+            }
+            event.commit();
+        }
+
+        @Override
+        public void onDependencyAdded(FutureAction<?> action, Future<?> dependency) {
+            DependencyWaitEvent wait = new DependencyWaitEvent();
+            if (!wait.isEnabled()) return;
+            wait.begin();
+            synchronized (waits) {
+                List<Timed<DependencyWaitEvent>> pending = waits.get(action);
+                if (pending == null) {
+                    pending = new ArrayList<Timed<DependencyWaitEvent>>(2);
+                    waits.put(action, pending);
+                }
+                pending.add(new Timed<DependencyWaitEvent>(dependency, wait));
+            }
+        }
+
+        @Override
+        public void onDependencyResolved(FutureAction<?> action, Future<?> dependency) {
+            Timed<DependencyWaitEvent> resolved = null;
+            synchronized (waits) {
+                List<Timed<DependencyWaitEvent>> pending = waits.get(action);
+                if (pending == null) return;
+                for (int i = 0; i < pending.size(); i++) {
+                    if (pending.get(i).future == dependency) {
+                        resolved = pending.remove(i);
+                        break;
+                    }
+                }
+                if (pending.isEmpty()) waits.remove(action);
+            }
+            if (resolved != null) commit(resolved, action);
+        }
+
+        @Override
+        public void onCompleted(FutureResult<?> future) {
+            if (future instanceof FutureAction<?>) {
+                // Waits of an action cancelled or failed before its dependencies completed.
+                List<Timed<DependencyWaitEvent>> pending;
+                synchronized (waits) {
+                    pending = waits.remove(future);
+                }
+                if (pending != null) {
+                    for (Timed<DependencyWaitEvent> wait : pending) commit(wait, future);
+                }
+            }
+            CompletedEvent event = new CompletedEvent();
+            if (!event.shouldCommit()) return;
+            event.future = future.getName();
+            event.outcome = outcome(future);
+            Throwable exception = future.exception();
+            if (exception != null && !future.isCancelled()) event.exception = exception.getClass();
+            event.commit();
+        }
+
+        private static void commit(Timed<DependencyWaitEvent> wait, Future<?> action) {
+            DependencyWaitEvent event = wait.event;
+            event.end();
+            if (!event.shouldCommit()) return;
+            event.action = action.getName();
+            event.dependency = wait.future.getName();
+            event.dependencyClass = wait.future.getClass().getName();
+            event.commit();
+        }
+
+        void clear() {
+            synchronized (waits) {
+                waits.clear();
+            }
+        }
+    }
+}
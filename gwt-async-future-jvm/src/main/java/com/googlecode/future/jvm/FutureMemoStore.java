@@ -0,0 +1,493 @@
+package com.googlecode.future.jvm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.googlecode.future.ConstantResult;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+
+/**
+ * Disk-backed memoization of expensive, deterministic future results, so that they survive a
+ * restart.
+ *
+ * <pre>
+ * FutureMemoStore store = FutureMemoStore.open(path, 512 * 1024 * 1024);
+ * Future&lt;Report&gt; report = store.memoize("report:" + day, reportSerializer, TimeUnit.DAYS.toMillis(7),
+ *     new FutureAction&lt;Report&gt;() {
+ *         public void run() {
+ *             returnResult(buildReport(day));
+ *         }
+ *     });
+ * </pre>
+ *
+ * <p>Values are appended to a log file with an in-memory index of the latest record for each
+ * key, and read back through memory mappings of windows of the file, so the log may grow
+ * beyond the 2 GB that a single mapping can address.  When more than
+ * {@code maxLiveBytes} of values are indexed the least recently used are evicted, and removed
+ * from the log as by {@link #remove(String)} so that they stay evicted on reopening.  Once the
+ * file holds mostly evicted, expired or replaced records it is compacted by copying the live
+ * records to a new file.  Opening a store scans the log to rebuild the index; a record torn by
+ * a crash is detected by its checksum and discarded with anything after it.  Appends are not
+ * forced to disk until the store is closed, so the latest values may be lost by a crash of
+ * the machine, in which case they are simply computed again.
+ *
+ * <p>The store may be used from any thread.  Two computations of the same key started at the
+ * same time both run, the value stored last being kept.
+ */
+public final class FutureMemoStore implements Closeable {
+
+    /**
+     * Converts values to and from bytes.
+     *
+     * @param <T> type of value
+     */
+    public interface Serializer<T> {
+
+        byte[] serialize(T value) throws IOException;
+
+        /**
+         * @param bytes the bytes written by {@link #serialize(Object)}, which are only valid
+         *      during this call
+         */
+        T deserialize(ByteBuffer bytes) throws IOException;
+    }
+
+    /** Time to live of values which never expire. */
+    public static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    /** Compact once the file is this many times larger than the live records. */
+    private static final int COMPACTION_RATIO = 2;
+
+    private static final long MIN_COMPACTION_BYTES = 1024 * 1024;
+
+    private static final int HEADER_LENGTH = 24;
+
+    private static final int TOMBSTONE = -1;
+
+    /** Bytes of the log mapped at a time, unless a record is larger. */
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final Path path;
+
+    private final long maxLiveBytes;
+
+    private final Clock clock;
+
+    /** Latest record of each key, least recently used first. */
+    private final LinkedHashMap<String, Record> index = new LinkedHashMap<String, Record>(16, 0.75f, true);
+
+    private FileChannel channel;
+
+    /** Window of the log last mapped, or null. */
+    private MappedByteBuffer mapping;
+
+    /** Offset in the log of the start of the mapping. */
+    private long mappingOffset;
+
+    private long fileSize;
+
+    private long liveBytes = 0;
+
+    /** Location of the latest record of a key. */
+    private static final class Record {
+
+        final long offset;
+
+        final int length;
+
+        final int valueOffset;
+
+        final long expiresAt;
+
+        Record(long offset, int length, int valueOffset, long expiresAt) {
+            this.offset = offset;
+            this.length = length;
+            this.valueOffset = valueOffset;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private FutureMemoStore(Path path, long maxLiveBytes, Clock clock) throws IOException {
+        if (maxLiveBytes <= 0) throw new IllegalArgumentException("maxLiveBytes must be positive");
+        this.path = path;
+        this.maxLiveBytes = maxLiveBytes;
+        this.clock = clock;
+        openLog();
+        recover();
+    }
+
+    /**
+     * Open or create a store.
+     *
+     * @param path log file
+     * @param maxLiveBytes size of the records kept before the least recently used are evicted
+     * @return the store
+     * @throws IOException if the file cannot be opened
+     */
+    public static FutureMemoStore open(Path path, long maxLiveBytes) throws IOException {
+        return open(path, maxLiveBytes, Clock.systemUTC());
+    }
+
+    /**
+     * Open or create a store, using the given clock for expiry.
+     *
+     * @param path log file
+     * @param maxLiveBytes size of the records kept before the least recently used are evicted
+     * @param clock clock for expiry
+     * @return the store
+     * @throws IOException if the file cannot be opened
+     */
+    public static FutureMemoStore open(Path path, long maxLiveBytes, Clock clock)
+            throws IOException {
+        return new FutureMemoStore(path, maxLiveBytes, clock);
+    }
+
+    /**
+     * A future for a value which never expires, taken from the store if present, or else
+     * computed and stored.
+     *
+     * @see #memoize(String, Serializer, long, Future)
+     */
+    public <T> Future<T> memoize(String key, Serializer<T> serializer, Future<T> computation) {
+        return memoize(key, serializer, NO_EXPIRY, computation);
+    }
+
+    /**
+     * A future for a value taken from the store if present, or else computed and stored.  If
+     * the value is present the computation is never started, so a {@link FutureAction} is not
+     * run.  Otherwise the computation is started when the returned future is, and a failed or
+     * cancelled computation is not stored.  A value which cannot be read, e.g. because the
+     * serializer has changed and throws any exception for the old bytes, is removed and
+     * computed again.
+     *
+     * @param key key of the value
+     * @param serializer converts the value to and from bytes
+     * @param timeToLiveMillis how long the value may be used, or {@link #NO_EXPIRY}
+     * @param computation computes the value if not stored
+     * @return future for the value
+     */
+    public <T> Future<T> memoize(final String key, final Serializer<T> serializer,
+            final long timeToLiveMillis, final Future<T> computation) {
+        T stored = null;
+        try {
+            stored = get(key, serializer);
+        } catch (IOException e) {
+            try {
+                remove(key);
+            } catch (UncheckedIOException notLogged) {
+                // Already dropped from the index, so the value is still computed again.
+            }
+        }
+        if (stored != null) return new ConstantResult<T>(key, stored);
+        return new FutureAction<T>(key) {
+            public void run() {
+                T value = computation.result();
+                try {
+                    put(key, value, serializer, timeToLiveMillis);
+                } catch (IOException e) {
+                    // Still return the computed value; it is not memoized.
+                }
+                returnResult(value);
+            }
+
+            @Override
+            public void onCancel() {
+                super.onCancel();
+                computation.cancel();
+            }
+        };
+    }
+
+    /**
+     * The stored value of a key.
+     *
+     * @return the value, or null if absent or expired
+     * @throws IOException if the value cannot be read, including when the serializer throws a
+     *      runtime exception for its bytes
+     */
+    public synchronized <T> T get(String key, Serializer<T> serializer) throws IOException {
+        checkOpen();
+        Record record = index.get(key);
+        if (record == null) return null;
+        if (record.expiresAt <= clock.millis()) {
+            drop(key);
+            return null;
+        }
+        ByteBuffer bytes = slice(record.offset + record.valueOffset,
+                record.length - record.valueOffset);
+        try {
+            return serializer.deserialize(bytes);
+        } catch (RuntimeException e) {
+            throw new IOException("Cannot read value of " + key + " from " + path, e);
+        }
+    }
+
+    /**
+     * Store a value, replacing any value of the same key.
+     *
+     * @param timeToLiveMillis how long the value may be used, or {@link #NO_EXPIRY}
+     * @throws IOException if the value cannot be written
+     */
+    public <T> void put(String key, T value, Serializer<T> serializer, long timeToLiveMillis)
+            throws IOException {
+        byte[] bytes = serializer.serialize(value);
+        synchronized (this) {
+            checkOpen();
+            long now = clock.millis();
+            long expiresAt = (timeToLiveMillis >= NO_EXPIRY - now) ? NO_EXPIRY
+                    : now + timeToLiveMillis;
+            append(key, bytes, expiresAt);
+            while (liveBytes > maxLiveBytes && index.size() > 1) {
+                String eldest = index.keySet().iterator().next();
+                drop(eldest);
+                writeRecord(eldest, null, NO_EXPIRY);
+            }
+            if (fileSize > MIN_COMPACTION_BYTES && fileSize > COMPACTION_RATIO * liveBytes) {
+                compact();
+            }
+        }
+    }
+
+    /**
+     * Remove the value of a key, including from the log so that it is not recovered when the
+     * store is next opened.
+     */
+    public synchronized void remove(String key) {
+        checkOpen();
+        if (!index.containsKey(key)) return;
+        drop(key);
+        try {
+            writeRecord(key, null, NO_EXPIRY);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Rewrite the log with only the live records.
+     *
+     * @throws IOException if the new log cannot be written or moved into place, in which case
+     *      the old log is kept and the store remains usable
+     */
+    public synchronized void compact() throws IOException {
+        checkOpen();
+        removeExpired();
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        LinkedHashMap<String, Record> moved = new LinkedHashMap<String, Record>(16, 0.75f, true);
+        // The new log is opened before the old one is closed, so that a failure leaves the
+        // store with one or the other.
+        FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long position = 0;
+            for (Map.Entry<String, Record> entry : index.entrySet()) {
+                Record record = entry.getValue();
+                ByteBuffer bytes = slice(record.offset, record.length);
+                while (bytes.hasRemaining()) position += out.write(bytes, position);
+                moved.put(entry.getKey(), new Record(position - record.length, record.length,
+                        record.valueOffset, record.expiresAt));
+            }
+            out.force(true);
+            Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                out.close();
+                Files.deleteIfExists(compacted);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        FileChannel old = channel;
+        channel = out;
+        fileSize = out.size();
+        mapping = null;
+        index.clear();
+        index.putAll(moved);
+        old.close();
+    }
+
+    /** Number of values stored. */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /** Size of the live records. */
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    /** Size of the log file, including records no longer live. */
+    public synchronized long getFileSize() {
+        return fileSize;
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel == null) return;
+        channel.force(true);
+        channel.close();
+        channel = null;
+        mapping = null;
+        index.clear();
+    }
+
+    private void checkOpen() {
+        if (channel == null) throw new IllegalStateException("Store " + path + " is closed");
+    }
+
+    private void openLog() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        fileSize = channel.size();
+        mapping = null;
+    }
+
+    private void append(String key, byte[] value, long expiresAt) throws IOException {
+        long offset = fileSize;
+        int length = writeRecord(key, value, expiresAt);
+        Record previous = index.put(key, new Record(offset, length, length - value.length,
+                expiresAt));
+        if (previous != null) liveBytes -= previous.length;
+        liveBytes += length;
+    }
+
+    private int writeRecord(String key, byte[] value, long expiresAt) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int valueLength = (value == null) ? 0 : value.length;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + keyBytes.length + valueLength);
+        record.putInt(record.capacity() - 8);
+        record.putInt(0);
+        record.putLong(expiresAt);
+        record.putInt(keyBytes.length);
+        record.putInt((value == null) ? TOMBSTONE : valueLength);
+        record.put(keyBytes);
+        if (value != null) record.put(value);
+        record.putInt(4, checksum(record.array(), 8, record.capacity() - 8));
+        record.flip();
+        long position = fileSize;
+        while (record.hasRemaining()) position += channel.write(record, position);
+        fileSize = position;
+        return record.capacity();
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private void drop(String key) {
+        Record record = index.remove(key);
+        if (record != null) liveBytes -= record.length;
+    }
+
+    private void removeExpired() {
+        long now = clock.millis();
+        for (Iterator<Record> i = index.values().iterator(); i.hasNext();) {
+            Record record = i.next();
+            if (record.expiresAt <= now) {
+                i.remove();
+                liveBytes -= record.length;
+            }
+        }
+    }
+
+    /**
+     * Bytes of the log, read through the mapping, which is replaced by a window starting at
+     * the offset if it does not cover them.
+     */
+    private ByteBuffer slice(long offset, int length) throws IOException {
+        if (mapping == null || offset < mappingOffset
+                || offset + length > mappingOffset + mapping.capacity()) {
+            long size = Math.min(Math.max(WINDOW_SIZE, length), fileSize - offset);
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+            mappingOffset = offset;
+        }
+        int position = (int) (offset - mappingOffset);
+        ByteBuffer bytes = mapping.duplicate();
+        bytes.position(position).limit(position + length);
+        return bytes.slice();
+    }
+
+    /**
+     * Rebuild the index from the log, truncating it at the first record which cannot be
+     * decoded.
+     */
+    private void recover() throws IOException {
+        long offset = 0;
+        long now = clock.millis();
+        while (offset + HEADER_LENGTH <= fileSize) {
+            int length;
+            try {
+                length = recoverRecord(offset, now);
+            } catch (RuntimeException e) {
+                length = -1;
+            }
+            if (length < 0) break;
+            offset += length;
+        }
+        if (offset < fileSize) {
+            // Discard a record torn by a crash, and anything after it.
+            mapping = null;
+            channel.truncate(offset);
+            fileSize = offset;
+        }
+        while (liveBytes > maxLiveBytes && index.size() > 1) {
+            drop(index.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Index the record at an offset of the log.
+     *
+     * @return the length of the record, or -1 if it is invalid
+     */
+    private int recoverRecord(long offset, long now) throws IOException {
+        ByteBuffer header = slice(offset, HEADER_LENGTH);
+        int length = header.getInt(0) + 8;
+        if (length < HEADER_LENGTH || offset + length > fileSize) return -1;
+        ByteBuffer record = slice(offset, length);
+        byte[] checked = new byte[length - 8];
+        record.position(8);
+        record.get(checked);
+        if (checksum(checked, 0, checked.length) != header.getInt(4)) return -1;
+        long expiresAt = header.getLong(8);
+        int keyLength = header.getInt(16);
+        int valueLength = header.getInt(20);
+        if (keyLength < 0 || HEADER_LENGTH + keyLength + Math.max(valueLength, 0) != length) {
+            return -1;
+        }
+        byte[] keyBytes = new byte[keyLength];
+        record.position(HEADER_LENGTH);
+        record.get(keyBytes);
+        String key = new String(keyBytes, StandardCharsets.UTF_8);
+        drop(key);
+        if (valueLength != TOMBSTONE && expiresAt > now) {
+            index.put(key, new Record(offset, length, HEADER_LENGTH + keyLength, expiresAt));
+            liveBytes += length;
+        }
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "FutureMemoStore[" + path + "]";
+    }
+}
@@ -0,0 +1,371 @@
+package com.googlecode.future.jvm;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayDeque;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureResult;
+
+/**
+ * Sends and receives framed messages over a TCP connection without blocking, returning a
+ * {@link Future} for each operation.  No thread waits for a connection, so thousands of calls
+ * to backend services can be in progress at once.
+ *
+ * <pre>
+ * DirectBufferPool pool = new DirectBufferPool(64 * 1024, 256);
+ * Framing framing = Framing.lengthPrefixed(64 * 1024 - 4);
+ * final Future&lt;FutureSocketChannel&gt; connection =
+ *     FutureSocketChannel.connect(address, framing, pool);
+ * FutureAction&lt;ByteBuffer&gt; call = new FutureAction&lt;ByteBuffer&gt;() {
+ *     public void run() {
+ *         FutureSocketChannel channel = connection.result();
+ *         channel.writeFrame(request);
+ *         channel.readFrame().addCallback(callback());
+ *     }
+ * };
+ * </pre>
+ *
+ * <p>Frames are read into and written from direct buffers taken from a
+ * {@link DirectBufferPool}, whose buffers must hold the largest encoded frame.  Each connection
+ * keeps one buffer for reading until closed, and takes one for each write while it is in
+ * progress.  Frames read are copied to new heap buffers.
+ *
+ * <p>Reads and writes may be requested at any time from any thread.  They are queued and
+ * performed one at a time, in the order requested.  Futures complete, and callbacks run, on
+ * the threads of the channel group.  Cancelling a queued operation removes it from the queue;
+ * one already in progress continues, as it cannot be interrupted without closing the
+ * connection.
+ */
+public final class FutureSocketChannel implements Closeable {
+
+    private final AsynchronousSocketChannel channel;
+
+    private final Framing framing;
+
+    private final DirectBufferPool pool;
+
+    /** Bytes read but not yet decoded, between position and limit. */
+    private ByteBuffer readBuffer;
+
+    private final ArrayDeque<FutureResult<ByteBuffer>> reads =
+        new ArrayDeque<FutureResult<ByteBuffer>>();
+
+    private final ArrayDeque<Write> writes = new ArrayDeque<Write>();
+
+    private boolean isReading = false;
+
+    private boolean isWriting = false;
+
+    private boolean isEndOfStream = false;
+
+    private Throwable readFailure = null;
+
+    /**
+     * Use a connected channel, e.g. one accepted by a server.
+     *
+     * @param channel the connected channel
+     * @param framing how messages are delimited
+     * @param pool pool of buffers large enough for the largest encoded frame
+     */
+    public FutureSocketChannel(AsynchronousSocketChannel channel, Framing framing,
+            DirectBufferPool pool) {
+        if (pool.getBufferSize() < framing.getMaxEncodedLength()) {
+            throw new IllegalArgumentException("Buffers of " + pool.getBufferSize()
+                    + " bytes cannot hold frames of " + framing.getMaxEncodedLength() + " bytes");
+        }
+        this.channel = channel;
+        this.framing = framing;
+        this.pool = pool;
+        this.readBuffer = pool.acquire();
+        readBuffer.flip();
+    }
+
+    /**
+     * Connect to a service using the default channel group.
+     *
+     * @param address address of the service
+     * @param framing how messages are delimited
+     * @param pool pool of buffers large enough for the largest encoded frame
+     * @return future for the connection, which closes the socket if cancelled
+     * @throws IOException if a socket cannot be opened
+     */
+    public static Future<FutureSocketChannel> connect(SocketAddress address, Framing framing,
+            DirectBufferPool pool) throws IOException {
+        return connect(AsynchronousSocketChannel.open(), address, framing, pool);
+    }
+
+    /**
+     * Connect to a service using a channel group.
+     *
+     * @param group group whose threads complete the futures of the connection
+     * @param address address of the service
+     * @param framing how messages are delimited
+     * @param pool pool of buffers large enough for the largest encoded frame
+     * @return future for the connection, which closes the socket if cancelled
+     * @throws IOException if a socket cannot be opened
+     */
+    public static Future<FutureSocketChannel> connect(AsynchronousChannelGroup group,
+            SocketAddress address, Framing framing, DirectBufferPool pool) throws IOException {
+        return connect(AsynchronousSocketChannel.open(group), address, framing, pool);
+    }
+
+    private static Future<FutureSocketChannel> connect(final AsynchronousSocketChannel channel,
+            SocketAddress address, final Framing framing, final DirectBufferPool pool) {
+        final FutureResult<FutureSocketChannel> result =
+            new FutureResult<FutureSocketChannel>("connect to " + address) {
+                @Override
+                public void onCancel() {
+                    super.onCancel();
+                    closeQuietly(channel);
+                }
+            };
+        channel.connect(address, null, new CompletionHandler<Void, Void>() {
+            public void completed(Void ignored, Void attachment) {
+                if (result.isComplete()) return;
+                result.setResult(new FutureSocketChannel(channel, framing, pool));
+            }
+
+            public void failed(Throwable caught, Void attachment) {
+                closeQuietly(channel);
+                if (!result.isComplete()) result.failWithException(caught);
+            }
+        });
+        return result;
+    }
+
+    public AsynchronousSocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Read the next frame.
+     *
+     * @return future for the payload of the frame, which is null if the connection was closed
+     *      by the other end between frames
+     */
+    public Future<ByteBuffer> readFrame() {
+        FutureResult<ByteBuffer> read = new FutureResult<ByteBuffer>("readFrame");
+        synchronized (this) {
+            reads.add(read);
+            if (isReading) return read;
+            isReading = true;
+        }
+        decode();
+        return read;
+    }
+
+    /**
+     * Write a frame.
+     *
+     * @param payload remaining bytes to send, which are consumed
+     * @return future completed once the frame has been written
+     */
+    public Future<Void> writeFrame(ByteBuffer payload) {
+        Write write = new Write();
+        try {
+            framing.encode(payload, write.buffer);
+        } catch (IOException e) {
+            write.release();
+            write.failWithException(e);
+            return write;
+        }
+        write.buffer.flip();
+        synchronized (this) {
+            writes.add(write);
+            if (isWriting) return write;
+            isWriting = true;
+        }
+        nextWrite();
+        return write;
+    }
+
+    /**
+     * Close the connection, failing any operations in progress.
+     */
+    public void close() throws IOException {
+        channel.close();
+        ByteBuffer toRelease;
+        synchronized (this) {
+            if (isReading) return;
+            toRelease = readBuffer;
+            readBuffer = null;
+        }
+        // Otherwise released by the reading thread, once its read fails or no reads are left.
+        if (toRelease != null) pool.release(toRelease);
+    }
+
+    /**
+     * Complete queued reads from the bytes already read, then read more if any are left.
+     * Called with isReading set by this thread.  Releases the read buffer if the channel was
+     * closed while reading, as close() leaves it to this thread then.
+     */
+    private void decode() {
+        while (true) {
+            FutureResult<ByteBuffer> read;
+            ByteBuffer frame = null;
+            Throwable failure = null;
+            ByteBuffer toRelease = null;
+            boolean isIdle = false;
+            synchronized (this) {
+                while (!reads.isEmpty() && reads.peek().isComplete()) reads.poll();
+                read = reads.poll();
+                if (read == null) {
+                    isReading = false;
+                    isIdle = true;
+                    if (!channel.isOpen()) {
+                        toRelease = readBuffer;
+                        readBuffer = null;
+                    }
+                } else if (readFailure != null) {
+                    failure = readFailure;
+                } else if (readBuffer == null) {
+                    failure = new ClosedChannelException();
+                } else {
+                    try {
+                        frame = framing.decode(readBuffer);
+                    } catch (IOException e) {
+                        failure = readFailure = e;
+                    }
+                    if (frame == null && failure == null) {
+                        if (isEndOfStream) {
+                            if (readBuffer.hasRemaining()) {
+                                failure = readFailure = new EOFException(
+                                        "Connection closed within a frame");
+                            }
+                        } else {
+                            reads.addFirst(read);
+                            readBuffer.compact();
+                            read = null;
+                        }
+                    }
+                }
+            }
+            if (isIdle) {
+                if (toRelease != null) pool.release(toRelease);
+                return;
+            }
+            if (read == null) {
+                // Wait for more bytes; only this thread uses the buffer until they arrive.
+                channel.read(readBuffer, null, reader);
+                return;
+            }
+            if (failure != null) {
+                if (!read.isComplete()) read.failWithException(failure);
+            } else if (!read.isComplete()) {
+                // Null at the end of the stream.
+                read.setResult(frame);
+            }
+        }
+    }
+
+    private final CompletionHandler<Integer, Void> reader =
+            new CompletionHandler<Integer, Void>() {
+        public void completed(Integer count, Void attachment) {
+            synchronized (FutureSocketChannel.this) {
+                readBuffer.flip();
+                if (count < 0) isEndOfStream = true;
+            }
+            decode();
+        }
+
+        public void failed(Throwable caught, Void attachment) {
+            ByteBuffer toRelease = null;
+            synchronized (FutureSocketChannel.this) {
+                readFailure = caught;
+                if (!channel.isOpen()) {
+                    toRelease = readBuffer;
+                    readBuffer = null;
+                }
+            }
+            if (toRelease != null) pool.release(toRelease);
+            decode();
+        }
+    };
+
+    private void nextWrite() {
+        Write write;
+        synchronized (this) {
+            while (!writes.isEmpty() && writes.peek().isComplete()) writes.poll().release();
+            if (writes.isEmpty()) {
+                isWriting = false;
+                return;
+            }
+            write = writes.peek();
+        }
+        try {
+            channel.write(write.buffer, null, write);
+        } catch (RuntimeException e) {
+            write.failed(e, null);
+        }
+    }
+
+    /**
+     * A frame being written, completed once all its bytes are written.
+     */
+    private final class Write extends FutureResult<Void>
+            implements CompletionHandler<Integer, Void> {
+
+        final ByteBuffer buffer = pool.acquire();
+
+        private boolean isReleased = false;
+
+        Write() {
+            super("writeFrame");
+        }
+
+        synchronized void release() {
+            if (isReleased) return;
+            isReleased = true;
+            pool.release(buffer);
+        }
+
+        public void completed(Integer count, Void attachment) {
+            // Always finish writing the frame, even if cancelled, to keep the stream valid.
+            if (buffer.hasRemaining()) {
+                channel.write(buffer, null, this);
+                return;
+            }
+            finished(null);
+        }
+
+        public void failed(Throwable caught, Void attachment) {
+            finished(caught);
+        }
+
+        private void finished(Throwable caught) {
+            synchronized (FutureSocketChannel.this) {
+                writes.remove(this);
+            }
+            release();
+            try {
+                if (caught == null) setEmpty();
+                else failWithException(caught);
+            } catch (IllegalStateException e) {
+                // Cancelled while being written.
+                if (!isCancelled()) throw e;
+            }
+            nextWrite();
+        }
+    }
+
+    private static void closeQuietly(AsynchronousSocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing more to do
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FutureSocketChannel[" + channel + ", " + framing + "]";
+    }
+}
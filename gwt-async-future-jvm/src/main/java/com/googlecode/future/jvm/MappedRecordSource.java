@@ -0,0 +1,218 @@
+package com.googlecode.future.jvm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.googlecode.future.FutureChunkedIncrementalAction;
+
+/**
+ * Records read from a file through {@link FileChannel#map}, for processing with a
+ * {@link FutureChunkedIncrementalAction} without loading the file onto the heap.
+ *
+ * <pre>
+ * MappedRecordSource records = MappedRecordSource.delimited(path, (byte) '\n');
+ * Future&lt;Long&gt; count = new FutureChunkedIncrementalAction&lt;Long, ByteBuffer&gt;(records, 1000) {
+ *     long count = 0;
+ *     public void chunk(List&lt;ByteBuffer&gt; lines) {
+ *         count += lines.size();
+ *     }
+ *     public void after() {
+ *         returnResult(count);
+ *     }
+ * };
+ * </pre>
+ *
+ * <p>Each record is a read-only slice of the mapped file, without its delimiter, so no bytes
+ * are copied; the page cache does the I/O.  The file is mapped in windows of at most
+ * {@link #DEFAULT_WINDOW_SIZE} bytes, or the size given, so files of any size can be read
+ * with a bounded address space.  A window is unmapped by the garbage collector once no record
+ * sliced from it is reachable, so records should not be kept after they are processed.
+ *
+ * <p>Each call to {@link #iterator()} reads the file again from the start.  The file must not
+ * be truncated while being read.
+ */
+public final class MappedRecordSource implements Iterable<ByteBuffer> {
+
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final Path path;
+
+    private final int recordSize;
+
+    private final byte delimiter;
+
+    private final int windowSize;
+
+    private MappedRecordSource(Path path, int recordSize, byte delimiter, int windowSize) {
+        if (windowSize <= 0) throw new IllegalArgumentException("windowSize must be positive");
+        this.path = path;
+        this.recordSize = recordSize;
+        this.delimiter = delimiter;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Records of a fixed number of bytes.  A shorter record at the end of the file is
+     * returned as is.
+     *
+     * @param path file to read
+     * @param recordSize bytes in each record
+     * @return the records of the file
+     */
+    public static MappedRecordSource fixedSize(Path path, int recordSize) {
+        return fixedSize(path, recordSize, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Records of a fixed number of bytes, mapping at most windowSize bytes at a time.  The
+     * window is rounded down to a whole number of records.
+     *
+     * @param path file to read
+     * @param recordSize bytes in each record
+     * @param windowSize bytes to map at a time, at least recordSize
+     * @return the records of the file
+     */
+    public static MappedRecordSource fixedSize(Path path, int recordSize, int windowSize) {
+        if (recordSize <= 0) throw new IllegalArgumentException("recordSize must be positive");
+        if (windowSize < recordSize) {
+            throw new IllegalArgumentException("windowSize must be at least recordSize");
+        }
+        return new MappedRecordSource(path, recordSize, (byte) 0,
+                windowSize - windowSize % recordSize);
+    }
+
+    /**
+     * Records separated by a delimiter, e.g. lines.  The last record need not be followed by
+     * the delimiter.
+     *
+     * @param path file to read
+     * @param delimiter byte ending each record
+     * @return the records of the file
+     */
+    public static MappedRecordSource delimited(Path path, byte delimiter) {
+        return delimited(path, delimiter, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Records separated by a delimiter, mapping at most windowSize bytes at a time.  A record,
+     * including its delimiter, must fit in a window.
+     *
+     * @param path file to read
+     * @param delimiter byte ending each record
+     * @param windowSize bytes to map at a time
+     * @return the records of the file
+     */
+    public static MappedRecordSource delimited(Path path, byte delimiter, int windowSize) {
+        return new MappedRecordSource(path, 0, delimiter, windowSize);
+    }
+
+    public Iterator<ByteBuffer> iterator() {
+        return new RecordIterator();
+    }
+
+    private boolean isFixedSize() {
+        return recordSize > 0;
+    }
+
+    private final class RecordIterator implements Iterator<ByteBuffer> {
+
+        private final long fileSize;
+
+        /** Offset in the file of the start of the window. */
+        private long windowStart = 0;
+
+        private MappedByteBuffer window;
+
+        private ByteBuffer next;
+
+        RecordIterator() {
+            try {
+                fileSize = Files.size(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public boolean hasNext() {
+            if (next == null) next = read();
+            return next != null;
+        }
+
+        public ByteBuffer next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            ByteBuffer result = next;
+            next = null;
+            return result;
+        }
+
+        private ByteBuffer read() {
+            if (window == null || !window.hasRemaining()) {
+                if (window != null) windowStart += window.limit();
+                if (windowStart >= fileSize) return null;
+                map(windowStart);
+            }
+            int start = window.position();
+            int end;
+            int nextStart;
+            if (isFixedSize()) {
+                end = Math.min(start + recordSize, window.limit());
+                nextStart = end;
+            } else {
+                end = indexOfDelimiter(start);
+                if (end < 0) {
+                    if (windowStart + window.limit() < fileSize) {
+                        // The record continues past the window, so map again from its start.
+                        if (start == 0) {
+                            throw new IllegalStateException("Record at offset " + windowStart
+                                    + " of " + path + " is longer than the window of "
+                                    + windowSize + " bytes");
+                        }
+                        windowStart += start;
+                        map(windowStart);
+                        return read();
+                    }
+                    end = window.limit();
+                    nextStart = end;
+                } else {
+                    nextStart = end + 1;
+                }
+            }
+            ByteBuffer record = window.duplicate();
+            record.position(start).limit(end);
+            window.position(nextStart);
+            return record.slice();
+        }
+
+        private int indexOfDelimiter(int from) {
+            for (int i = from; i < window.limit(); i++) {
+                if (window.get(i) == delimiter) return i;
+            }
+            return -1;
+        }
+
+        private void map(long position) {
+            long size = Math.min(windowSize, fileSize - position);
+            // The mapping remains valid after the channel is closed.
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MappedRecordSource[" + path
+                + (isFixedSize() ? ", " + recordSize + " byte records" : ", delimiter " + delimiter)
+                + "]";
+    }
+}
@@ -0,0 +1,253 @@
+package com.googlecode.future.jvm;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.googlecode.future.CancellableAsyncCallback;
+import com.googlecode.future.CancelledException;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureDispatcher;
+import com.googlecode.future.FutureIncrementalAction;
+import com.googlecode.future.FutureRuntime;
+
+/**
+ * Evaluates graphs of futures on a work-stealing {@link ForkJoinPool}, running the run()
+ * methods of independent actions concurrently, e.g.
+ *
+ * <pre>
+ * ParallelFutureEvaluator evaluator = new ParallelFutureEvaluator();
+ * Future&lt;Dashboard&gt; dashboard = evaluator.submit(new FutureAction&lt;Dashboard&gt;() {
+ *     public void run() {
+ *         new FutureSynchronizer(sales, stock, forecast).result();   // all three run at once
+ *         returnResult(new Dashboard(sales.result(), stock.result(), forecast.result()));
+ *     }
+ * });
+ * </pre>
+ *
+ * <p>While an action is being evaluated by the pool, any other action it starts, e.g. by
+ * calling start() or adding a callback as {@link com.googlecode.future.FutureSynchronizer}
+ * does, is handed to the pool rather than run on the same thread.  When an action completes,
+ * its dependents are woken on the thread that completed it and handed back to the pool, which
+ * includes actions completed by callbacks from an RPC client's own threads.  An action whose
+ * result() is called directly is still evaluated by the caller, which needs its value.
+ *
+ * <p>The run() method of a given action never executes on two threads at once: an action
+ * asked for while it is running elsewhere is evaluated again once run() returns.  Because the
+ * value of each action depends only on the values of its dependencies, results are the same
+ * as when evaluated on a single thread; only the order in which independent actions run
+ * differs.  {@link FutureIncrementalAction}s are not handed to the pool, as their steps are
+ * already scheduled by the {@link com.googlecode.future.FutureScheduler}.
+ *
+ * <p>As on a single thread, run() methods may be replayed, so they must reference their
+ * dependencies before performing any side effects.
+ *
+ * <p>Each evaluator keeps track of the incomplete actions handed to its pool, which it forgets
+ * as they complete.  Call {@link #shutdown()} once an evaluator is no longer needed, so that
+ * it forgets any actions that never completed, and later wakeups of them are no longer handed
+ * to its pool.
+ */
+public class ParallelFutureEvaluator {
+
+    /** Evaluators not shut down, whose actions are found by callbacks on other threads. */
+    private static final CopyOnWriteArrayList<ParallelFutureEvaluator> EVALUATORS =
+        new CopyOnWriteArrayList<ParallelFutureEvaluator>();
+
+    private static final ThreadLocal<Slot> CURRENT = new ThreadLocal<Slot>();
+
+    private static final FutureDispatcher DISPATCHER = new FutureDispatcher() {
+        public boolean dispatch(FutureAction<?> action) {
+            if (action instanceof FutureIncrementalAction<?>) return false;
+            Slot current = CURRENT.get();
+            Slot slot = (current != null) ? current.evaluator.slots.get(action) : null;
+            for (int i = 0; slot == null && i < EVALUATORS.size(); i++) {
+                slot = EVALUATORS.get(i).slots.get(action);
+            }
+            if (slot == null) {
+                // Only actions reached from an action the pool is evaluating are dispatched.
+                if (current == null || current.evaluator.isShutdown) return false;
+                slot = current.evaluator.slotFor(action);
+            }
+            slot.schedule();
+            return true;
+        }
+    };
+
+    private final ForkJoinPool pool;
+
+    /** Incomplete actions handed to the pool, so that callbacks on other threads find them. */
+    private final ConcurrentHashMap<FutureAction<?>, Slot> slots =
+        new ConcurrentHashMap<FutureAction<?>, Slot>();
+
+    private volatile boolean isShutdown = false;
+
+    /**
+     * Create an evaluator using the {@link ForkJoinPool#commonPool() common pool}.
+     */
+    public ParallelFutureEvaluator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create an evaluator using the given pool.  Unless another scheduler is installed, this
+     * installs the shared {@link ExecutorFutureScheduler} so that delayed commands can run.
+     *
+     * @param pool pool to run actions on
+     */
+    public ParallelFutureEvaluator(ForkJoinPool pool) {
+        this.pool = pool;
+        EVALUATORS.add(this);
+        install();
+        ExecutorFutureScheduler.installIfDefault();
+    }
+
+    /**
+     * Install the dispatcher used by evaluators, if it is not already installed.  This is
+     * done automatically when an evaluator is created.
+     */
+    public static synchronized void install() {
+        if (FutureRuntime.getDispatcher() != DISPATCHER) FutureRuntime.setDispatcher(DISPATCHER);
+    }
+
+    /**
+     * Remove the dispatcher used by evaluators.  Actions already handed to a pool are still
+     * evaluated, but nothing further is dispatched.
+     */
+    public static synchronized void uninstall() {
+        if (FutureRuntime.getDispatcher() == DISPATCHER) FutureRuntime.setDispatcher(null);
+    }
+
+    /**
+     * Number of incomplete actions known to this evaluator.
+     */
+    public int getActiveActions() {
+        return slots.size();
+    }
+
+    /**
+     * Forget the actions known to this evaluator and stop handing actions to its pool.
+     * Actions already queued still run, and any action they wake is then evaluated by the
+     * thread that wakes it.  The pool itself is not shut down, as it may be shared.
+     */
+    public void shutdown() {
+        isShutdown = true;
+        EVALUATORS.remove(this);
+        slots.clear();
+    }
+
+    public boolean isShutdown() {
+        return isShutdown;
+    }
+
+    /**
+     * Evaluate the future, and the actions it depends on, on the pool.
+     *
+     * @param future future to evaluate
+     * @return a thread safe future which completes with the same outcome
+     * @throws IllegalStateException if the evaluator has been shut down
+     */
+    public <T> Future<T> submit(Future<T> future) {
+        if (isShutdown) throw new IllegalStateException("Evaluator has been shut down");
+        final CompletableFuture<T> outcome = new CompletableFuture<T>();
+        if (future instanceof FutureAction<?> && !(future instanceof FutureIncrementalAction<?>)
+                && !future.isComplete()) {
+            slotFor((FutureAction<?>) future).schedule();
+        }
+        future.addCallback(new CancellableAsyncCallback<T>() {
+            public void onSuccess(T result) {
+                outcome.complete(result);
+            }
+
+            public void onFailure(Throwable caught) {
+                if (caught instanceof CancelledException) onCancel();
+                else outcome.completeExceptionally(caught);
+            }
+
+            public void onCancel() {
+                outcome.cancel(false);
+            }
+        });
+        Future<T> result = CompletionStages.toFuture(outcome);
+        result.setName(future.getName());
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Slot slotFor(FutureAction<?> action) {
+        Slot slot = slots.get(action);
+        if (slot != null) return slot;
+        Slot created = new Slot(this, action);
+        slot = slots.putIfAbsent(action, created);
+        if (slot != null) return slot;
+        if (isShutdown) slots.remove(action, created);
+        // Forget the action however it completes.  As the slot is already registered, adding
+        // the callback dispatches the action rather than running it here.
+        ((FutureAction<Object>) action).addCallback(created);
+        return created;
+    }
+
+    private void execute(Slot slot) {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof ForkJoinWorkerThread
+                && ((ForkJoinWorkerThread) thread).getPool() == pool) {
+            // Push onto this worker's own deque, idle workers will steal it.
+            ForkJoinTask.adapt(slot).fork();
+        } else {
+            pool.execute(slot);
+        }
+    }
+
+    /**
+     * An action known to an evaluator.  It is queued at most once at a time; a wakeup that
+     * arrives while it is running queues it again, and {@link FutureAction} itself ensures
+     * that run() is not entered twice.
+     */
+    private static final class Slot implements Runnable, CancellableAsyncCallback<Object> {
+
+        final ParallelFutureEvaluator evaluator;
+
+        final FutureAction<?> action;
+
+        private final AtomicBoolean isQueued = new AtomicBoolean(false);
+
+        Slot(ParallelFutureEvaluator evaluator, FutureAction<?> action) {
+            this.evaluator = evaluator;
+            this.action = action;
+        }
+
+        void schedule() {
+            if (isQueued.compareAndSet(false, true)) evaluator.execute(this);
+        }
+
+        public void run() {
+            isQueued.set(false);
+            Slot previous = CURRENT.get();
+            CURRENT.set(this);
+            try {
+                action.result();
+            } catch (Throwable t) {
+                // Incomplete results are resumed by callbacks, and any other exception
+                // has already been recorded as the result of the action.
+            } finally {
+                CURRENT.set(previous);
+            }
+        }
+
+        public void onSuccess(Object result) {
+            evaluator.slots.remove(action, this);
+        }
+
+        public void onFailure(Throwable caught) {
+            evaluator.slots.remove(action, this);
+        }
+
+        public void onCancel() {
+            evaluator.slots.remove(action, this);
+        }
+    }
+}
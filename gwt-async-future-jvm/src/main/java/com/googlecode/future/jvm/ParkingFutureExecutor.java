@@ -0,0 +1,266 @@
+package com.googlecode.future.jvm;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.LockSupport;
+
+import com.googlecode.future.CancellableAsyncCallback;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureAwaiter;
+import com.googlecode.future.FutureRuntime;
+import com.googlecode.future.IncompleteResultException;
+
+/**
+ * Evaluates futures on threads where result() parks until an incomplete dependency completes,
+ * instead of throwing an {@link IncompleteResultException} and replaying run() later.  A
+ * {@link FutureAction} evaluated this way executes its run() method once, from top to bottom,
+ * however many dependencies it waits for, e.g.
+ *
+ * <pre>
+ * ParkingFutureExecutor executor = ParkingFutureExecutor.virtualThreads();
+ * Future&lt;Page&gt; page = executor.submit(new FutureAction&lt;Page&gt;() {
+ *     public void run() {
+ *         User user = users.lookup(id).result();      // parks, no replay
+ *         List&lt;Order&gt; orders = orders.forUser(user).result();
+ *         returnResult(render(user, orders));
+ *     }
+ * });
+ * </pre>
+ *
+ * <p>Parking is intended for virtual threads, available from Java 21, where a parked thread
+ * costs little more than the stack it holds.  Any other {@link Executor} may be passed to
+ * {@link #ParkingFutureExecutor(Executor)} but will then tie up a platform thread per waiting
+ * action.
+ *
+ * <p>Futures behave exactly as before on every other thread, and the existing semantics are
+ * kept on the parking threads:
+ * <ul>
+ * <li>A cancelled dependency cancels the waiting action.
+ * <li>A failed dependency is passed to {@link FutureAction#catchException(Throwable)} of the
+ * waiting action exactly as without parking.  If the exception is ignored, run() is replayed
+ * so that the failure can be handled, as described for catchException.
+ * <li>If the parking thread is interrupted the waiting action falls back to registering a
+ * callback on its dependency as usual.
+ * </ul>
+ *
+ * <p>Futures may be completed from any thread, e.g. an RPC callback.  run() of a given action
+ * is never entered concurrently: if the action is evaluated on another thread while its run()
+ * executes on a parking thread, that evaluation finds it incomplete instead of entering run(),
+ * and run() is called again once the first returns if the action is still incomplete.  The
+ * future returned by {@link #submit(Future)} is safe to use from any thread.
+ */
+public class ParkingFutureExecutor {
+
+    private static final ThreadLocal<ParkingState> PARKING = new ThreadLocal<ParkingState>();
+
+    private static final FutureAwaiter AWAITER = new FutureAwaiter() {
+        public boolean await(Future<?> future) {
+            ParkingState state = PARKING.get();
+            if (state == null || state.isRegistering) return false;
+            if (!parkUntilComplete(state, future)) return false;
+            // Failures are left to the usual dependency handling so that catchException
+            // sees exactly what it would have seen without parking.
+            return !future.isFailure();
+        }
+    };
+
+    private final Executor executor;
+
+    /**
+     * Create an executor that evaluates each submitted future on a new virtual thread.
+     *
+     * @return the executor
+     * @throws UnsupportedOperationException if virtual threads are not available, ie. before
+     *      Java 21
+     */
+    public static ParkingFutureExecutor virtualThreads() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return new ParkingFutureExecutor((Executor) factory.invoke(null));
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later", e);
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available", e);
+        } catch (InvocationTargetException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available",
+                    e.getCause());
+        }
+    }
+
+    /**
+     * Whether {@link #virtualThreads()} is supported by the running JVM.
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Create an executor that evaluates submitted futures on threads obtained from the given
+     * executor.  Unless another scheduler is installed, this installs the shared
+     * {@link ExecutorFutureScheduler} so that delayed commands can run.
+     *
+     * @param executor executor providing the threads to park
+     */
+    public ParkingFutureExecutor(Executor executor) {
+        this.executor = executor;
+        install();
+        ExecutorFutureScheduler.installIfDefault();
+    }
+
+    /**
+     * Install the awaiter used by parking threads, if it is not already installed.  This is
+     * done automatically when an executor is created.
+     */
+    public static synchronized void install() {
+        if (FutureRuntime.getAwaiter() != AWAITER) FutureRuntime.setAwaiter(AWAITER);
+    }
+
+    /**
+     * Remove the awaiter used by parking threads.  Futures subsequently evaluated by a
+     * parking executor are replayed as usual.
+     */
+    public static synchronized void uninstall() {
+        if (FutureRuntime.getAwaiter() == AWAITER) FutureRuntime.setAwaiter(null);
+    }
+
+    /**
+     * Whether the current thread is one on which result() parks.
+     */
+    public static boolean isParkingThread() {
+        return PARKING.get() != null;
+    }
+
+    /**
+     * Evaluate the future on a parking thread.
+     *
+     * @param future future to evaluate
+     * @return a thread safe future which completes with the same outcome
+     */
+    public <T> Future<T> submit(final Future<T> future) {
+        final CompletableFuture<T> outcome = new CompletableFuture<T>();
+        executor.execute(new Runnable() {
+            public void run() {
+                evaluate(future, outcome);
+            }
+        });
+        Future<T> result = CompletionStages.toFuture(outcome);
+        result.setName(future.getName());
+        return result;
+    }
+
+    private static <T> void evaluate(Future<T> future, CompletableFuture<T> outcome) {
+        ParkingState state = new ParkingState();
+        PARKING.set(state);
+        try {
+            while (!future.isComplete()) {
+                try {
+                    future.result();
+                } catch (IncompleteResultException e) {
+                    // A dependency failed and was ignored by catchException, so run() must be
+                    // replayed, or the action is waiting on something we could not park for.
+                    if (!future.isComplete() && !parkUntilComplete(state, future)) {
+                        // Interrupted, so stop parking and let the callback complete it.
+                        completeLater(future, outcome);
+                        return;
+                    }
+                } catch (Throwable t) {
+                    if (!future.isComplete()) {
+                        outcome.completeExceptionally(t);
+                        return;
+                    }
+                }
+            }
+            if (future.isSuccessful()) outcome.complete(future.result());
+            else if (future.isCancelled()) outcome.cancel(false);
+            else outcome.completeExceptionally(future.exception());
+        } catch (Throwable t) {
+            outcome.completeExceptionally(t);
+        } finally {
+            PARKING.remove();
+        }
+    }
+
+    private static <T> void completeLater(final Future<T> future,
+            final CompletableFuture<T> outcome) {
+        future.addCallback(new CancellableAsyncCallback<T>() {
+            public void onSuccess(T result) {
+                outcome.complete(result);
+            }
+
+            public void onFailure(Throwable caught) {
+                outcome.completeExceptionally(caught);
+            }
+
+            public void onCancel() {
+                outcome.cancel(false);
+            }
+        });
+    }
+
+    /**
+     * Park until the future completes.
+     *
+     * @return false if the thread was interrupted before the future completed
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean parkUntilComplete(ParkingState state, Future<?> future) {
+        Unparker unparker = new Unparker(Thread.currentThread());
+        state.isRegistering = true;
+        try {
+            // Registering a callback may start the future on this thread, in which case any
+            // nested waits must not park while we are still registering.
+            ((Future<Object>) future).addCallback(unparker);
+        } finally {
+            state.isRegistering = false;
+        }
+        while (!unparker.isDone) {
+            LockSupport.park(unparker);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                return unparker.isDone;
+            }
+        }
+        return true;
+    }
+
+    private static final class ParkingState {
+        boolean isRegistering = false;
+    }
+
+    private static final class Unparker implements CancellableAsyncCallback<Object> {
+
+        private final Thread thread;
+
+        volatile boolean isDone = false;
+
+        Unparker(Thread thread) {
+            this.thread = thread;
+        }
+
+        public void onSuccess(Object result) {
+            done();
+        }
+
+        public void onFailure(Throwable caught) {
+            done();
+        }
+
+        public void onCancel() {
+            done();
+        }
+
+        private void done() {
+            isDone = true;
+            LockSupport.unpark(thread);
+        }
+    }
+}
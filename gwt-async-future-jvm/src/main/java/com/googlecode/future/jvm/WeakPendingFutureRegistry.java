@@ -0,0 +1,100 @@
+package com.googlecode.future.jvm;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.PendingFutureRegistry;
+
+/**
+ * A {@link PendingFutureRegistry} which refers to its futures weakly, so that tracking does
+ * not keep them alive.  Futures collected while still incomplete were abandoned rather than
+ * leaked; they are counted by {@link #getCollectedCount()}.
+ */
+public class WeakPendingFutureRegistry extends PendingFutureRegistry {
+
+    /** A weak reference compared by the identity of its future. */
+    private static final class Key extends WeakReference<Future<?>> {
+
+        private final int hash;
+
+        Key(Future<?> future, ReferenceQueue<Future<?>> queue) {
+            super(future, queue);
+            this.hash = System.identityHashCode(future);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof Key)) return false;
+            Future<?> future = get();
+            return future != null && future == ((Key) other).get();
+        }
+    }
+
+    private final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+
+    private final ReferenceQueue<Future<?>> collected = new ReferenceQueue<Future<?>>();
+
+    private long collectedCount = 0;
+
+    /**
+     * Number of futures garbage collected while still incomplete and tracked.
+     */
+    public synchronized long getCollectedCount() {
+        expungeCollected();
+        return collectedCount;
+    }
+
+    @Override
+    protected Entry getEntry(Future<?> future) {
+        expungeCollected();
+        return entries.get(new Key(future, null));
+    }
+
+    @Override
+    protected void putEntry(Future<?> future, Entry entry) {
+        expungeCollected();
+        entries.put(new Key(future, collected), entry);
+    }
+
+    @Override
+    protected void removeEntry(Future<?> future) {
+        entries.remove(new Key(future, null));
+    }
+
+    @Override
+    protected void clearEntries() {
+        entries.clear();
+        while (collected.poll() != null) {
+            // Discard references to futures no longer tracked.
+        }
+    }
+
+    @Override
+    protected Map<Future<?>, Entry> getEntries() {
+        expungeCollected();
+        Map<Future<?>, Entry> live = new IdentityHashMap<Future<?>, Entry>();
+        for (Map.Entry<Key, Entry> entry : entries.entrySet()) {
+            Future<?> future = entry.getKey().get();
+            if (future != null) live.put(future, entry.getValue());
+        }
+        return live;
+    }
+
+    private void expungeCollected() {
+        Object reference;
+        while ((reference = collected.poll()) != null) {
+            // The cleared key only equals itself.
+            if (entries.remove(reference) != null) collectedCount++;
+        }
+    }
+}
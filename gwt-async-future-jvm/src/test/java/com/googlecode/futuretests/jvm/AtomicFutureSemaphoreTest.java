@@ -0,0 +1,176 @@
+package com.googlecode.futuretests.jvm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureFactory;
+import com.googlecode.future.FuturePool;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.FutureSemaphore;
+import com.googlecode.future.FutureSemaphore.Permit;
+import com.googlecode.future.jvm.AtomicFutureSemaphore;
+import com.googlecode.future.jvm.CompletionStages;
+
+import static org.junit.Assert.*;
+
+public class AtomicFutureSemaphoreTest {
+
+    private static final int THREADS = 8;
+
+    private static final int CALLS_PER_THREAD = 200;
+
+    private ExecutorService callers;
+
+    private ScheduledExecutorService backend;
+
+    private final AtomicInteger inProgress = new AtomicInteger();
+
+    private final AtomicInteger maxInProgress = new AtomicInteger();
+
+    @Before
+    public void createThreads() {
+        callers = Executors.newFixedThreadPool(THREADS);
+        backend = Executors.newScheduledThreadPool(4);
+    }
+
+    @After
+    public void shutdown() {
+        callers.shutdownNow();
+        backend.shutdownNow();
+    }
+
+    /** Calls completed by a backend thread after a short random delay. */
+    private final FutureFactory<Integer> factory = new FutureFactory<Integer>() {
+        public Future<Integer> create(final int attempt) {
+            return new FutureAction<Integer>() {
+                public void run() {
+                    final AsyncCallback<Integer> callback = callback();
+                    maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+                    long delay = ThreadLocalRandom.current().nextLong(50, 500);
+                    backend.schedule(() -> {
+                        inProgress.decrementAndGet();
+                        callback.onSuccess(attempt);
+                    }, delay, TimeUnit.MICROSECONDS);
+                }
+            };
+        }
+    };
+
+    /** Run a task CALLS_PER_THREAD times on each caller thread, all starting together. */
+    private void fromAllThreads(final Runnable task) throws InterruptedException {
+        final CountDownLatch ready = new CountDownLatch(THREADS);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            callers.execute(() -> {
+                ready.countDown();
+                try {
+                    ready.await();
+                    for (int i = 0; i < CALLS_PER_THREAD; i++) task.run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    private static void awaitAll(List<? extends Future<?>> futures) throws Exception {
+        for (Future<?> future : futures) {
+            CompletionStages.toCompletableFuture(future).handle((value, t) -> null)
+                    .get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void uncontendedPermitsNeedNoQueue() {
+        FutureSemaphore semaphore = new AtomicFutureSemaphore(2);
+        Permit permit = semaphore.tryAcquire();
+        assertNotNull(permit);
+        assertTrue(semaphore.acquire().isSuccessful());
+        assertNull(semaphore.tryAcquire());
+        Future<Permit> waiting = semaphore.acquire();
+        assertEquals(1, semaphore.getWaiterCount());
+        permit.release();
+        assertTrue(waiting.isSuccessful());
+    }
+
+    @Test
+    public void neverExceedsPermits() throws Exception {
+        final FutureSemaphore semaphore = new AtomicFutureSemaphore(3);
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        fromAllThreads(() -> {
+            Future<Integer> future = semaphore.withPermit(factory);
+            synchronized (futures) {
+                futures.add(future);
+            }
+            future.start();
+        });
+        awaitAll(futures);
+
+        for (Future<Integer> future : futures) assertEquals(Integer.valueOf(1), future.result());
+        assertTrue("At most 3 at once, was " + maxInProgress.get(), maxInProgress.get() <= 3);
+        assertEquals(3, semaphore.getAvailablePermits());
+        assertEquals(0, semaphore.getWaiterCount());
+    }
+
+    @Test
+    public void cancelledWaitersLeakNoPermits() throws Exception {
+        final FutureSemaphore semaphore = new AtomicFutureSemaphore(2);
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        fromAllThreads(() -> {
+            Future<Integer> future = semaphore.withPermit(factory);
+            synchronized (futures) {
+                futures.add(future);
+            }
+            future.start();
+            if (ThreadLocalRandom.current().nextBoolean()) future.cancel();
+        });
+        awaitAll(futures);
+
+        assertEquals(2, semaphore.getAvailablePermits());
+        assertEquals(0, semaphore.getWaiterCount());
+    }
+
+    @Test
+    public void poolSharesResourcesBetweenThreads() throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        final FuturePool<Integer> pool = new FuturePool<Integer>(
+                new AtomicFutureSemaphore("pool", 4), new FutureFactory<Integer>() {
+                    public Future<Integer> create(int attempt) {
+                        FutureResult<Integer> resource = new FutureResult<Integer>();
+                        resource.setResult(created.incrementAndGet());
+                        return resource;
+                    }
+                });
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        fromAllThreads(() -> {
+            Future<Integer> future = pool.withResource(resource -> factory.create(resource));
+            synchronized (futures) {
+                futures.add(future);
+            }
+            future.start();
+        });
+        awaitAll(futures);
+
+        for (Future<Integer> future : futures) assertTrue(future.isSuccessful());
+        assertTrue("Created " + created.get(), created.get() <= 4);
+        assertEquals(created.get(), pool.getIdleCount());
+        assertTrue(maxInProgress.get() <= 4);
+    }
+}
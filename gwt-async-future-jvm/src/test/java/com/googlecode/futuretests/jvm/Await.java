@@ -0,0 +1,24 @@
+package com.googlecode.futuretests.jvm;
+
+import java.util.concurrent.TimeUnit;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.jvm.CompletionStages;
+
+/**
+ * Blocks a test until a future completes on another thread.
+ */
+public final class Await {
+
+    private Await() { }
+
+    /**
+     * Start the future and wait up to 10 seconds for its result.
+     *
+     * @throws java.util.concurrent.ExecutionException if the future fails
+     * @throws java.util.concurrent.TimeoutException if it does not complete in time
+     */
+    public static <T> T await(Future<T> future) throws Exception {
+        return CompletionStages.toCompletableFuture(future).get(10, TimeUnit.SECONDS);
+    }
+}
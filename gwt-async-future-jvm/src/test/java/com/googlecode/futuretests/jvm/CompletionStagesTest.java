@@ -0,0 +1,154 @@
+package com.googlecode.futuretests.jvm;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.jvm.CompletionStages;
+
+import static org.junit.Assert.*;
+
+public class CompletionStagesTest {
+
+    @Test
+    public void futureSuccessCompletesStage() throws Exception {
+        FutureResult<String> future = new FutureResult<String>();
+        CompletableFuture<String> stage = CompletionStages.toCompletableFuture(future);
+        assertFalse(stage.isDone());
+        future.setResult("done");
+        assertEquals("done", stage.getNow(null));
+    }
+
+    @Test
+    public void convertingAFutureStartsIt() {
+        FutureAction<Integer> action = new FutureAction<Integer>() {
+            public void run() {
+                returnResult(42);
+            }
+        };
+        CompletableFuture<Integer> stage = CompletionStages.toCompletableFuture(action);
+        assertEquals(42, (int) stage.getNow(null));
+    }
+
+    @Test
+    public void futureFailureCompletesStageExceptionally() {
+        FutureResult<String> future = new FutureResult<String>();
+        CompletableFuture<String> stage = CompletionStages.toCompletableFuture(future);
+        IOException failure = new IOException();
+        future.failWithException(failure);
+        assertTrue(stage.isCompletedExceptionally());
+        try {
+            stage.join();
+            fail();
+        } catch (RuntimeException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void cancellationPropagatesFromFutureToStage() {
+        FutureResult<String> future = new FutureResult<String>();
+        CompletableFuture<String> stage = CompletionStages.toCompletableFuture(future);
+        future.cancel();
+        assertTrue(stage.isCancelled());
+    }
+
+    @Test
+    public void cancellationPropagatesFromStageToFuture() {
+        FutureResult<String> future = new FutureResult<String>();
+        CompletableFuture<String> stage = CompletionStages.toCompletableFuture(future);
+        assertTrue(stage.cancel(false));
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    public void stageSuccessCompletesFuture() {
+        CompletableFuture<String> stage = new CompletableFuture<String>();
+        Future<String> future = CompletionStages.toFuture(stage);
+        assertFalse(future.isComplete());
+        stage.complete("done");
+        assertEquals("done", future.result());
+    }
+
+    @Test
+    public void stageFailureIsUnwrapped() {
+        CompletableFuture<String> stage = new CompletableFuture<String>();
+        Future<String> future = CompletionStages.toFuture(stage.thenApply(s -> s));
+        IllegalStateException failure = new IllegalStateException();
+        stage.completeExceptionally(failure);
+        assertTrue(future.isFailure());
+        assertSame(failure, future.exception());
+    }
+
+    @Test
+    public void cancellationPropagatesFromStageAndBack() {
+        CompletableFuture<String> stage = new CompletableFuture<String>();
+        Future<String> future = CompletionStages.toFuture(stage);
+        stage.cancel(false);
+        assertTrue(future.isCancelled());
+
+        CompletableFuture<String> other = new CompletableFuture<String>();
+        Future<String> otherFuture = CompletionStages.toFuture(other);
+        otherFuture.cancel();
+        assertTrue(other.isCancelled());
+    }
+
+    @Test
+    public void roundTripReturnsOriginal() {
+        FutureResult<String> future = new FutureResult<String>();
+        assertSame(future, CompletionStages.toFuture(CompletionStages.toCompletableFuture(future)));
+        CompletableFuture<String> stage = new CompletableFuture<String>();
+        assertSame(stage, CompletionStages.toCompletableFuture(CompletionStages.toFuture(stage)));
+    }
+
+    @Test
+    public void futureCompletesOnThreadThatCompletesStage() throws Exception {
+        final CompletableFuture<String> stage = new CompletableFuture<String>();
+        Future<String> future = CompletionStages.toFuture(stage);
+        final CountDownLatch called = new CountDownLatch(1);
+        final Thread[] callbackThread = new Thread[1];
+        future.addCallback(new AsyncCallback<String>() {
+            public void onFailure(Throwable caught) { }
+            public void onSuccess(String result) {
+                callbackThread[0] = Thread.currentThread();
+                called.countDown();
+            }
+        });
+        Thread completer = new Thread(() -> stage.complete("done"));
+        completer.start();
+        assertTrue(called.await(5, TimeUnit.SECONDS));
+        assertSame(completer, callbackThread[0]);
+    }
+
+    @Test
+    public void callbacksDoNotRunHoldingTheFuturesLock() {
+        CompletableFuture<String> stage = new CompletableFuture<String>();
+        final Future<String> future = CompletionStages.toFuture(stage);
+        final boolean[] heldLock = {true};
+        future.addCallback(new AsyncCallback<String>() {
+            public void onFailure(Throwable caught) { }
+            public void onSuccess(String result) {
+                heldLock[0] = Thread.holdsLock(future);
+            }
+        });
+        stage.complete("done");
+        assertEquals("done", future.result());
+        assertFalse(heldLock[0]);
+    }
+
+    @Test
+    public void stageCompletingAfterCancelIsIgnored() {
+        CompletableFuture<String> stage = new CompletableFuture<String>();
+        Future<String> future = CompletionStages.toFuture(stage.thenApply(s -> s));
+        future.cancel();
+        stage.complete("late");
+        assertTrue(future.isCancelled());
+    }
+}
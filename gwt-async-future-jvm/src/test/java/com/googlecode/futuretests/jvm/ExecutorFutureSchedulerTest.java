@@ -0,0 +1,98 @@
+package com.googlecode.futuretests.jvm;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gwt.user.client.Command;
+import com.google.gwt.user.client.IncrementalCommand;
+import com.googlecode.future.FutureRuntime;
+import com.googlecode.future.jvm.ExecutorFutureScheduler;
+
+import static org.junit.Assert.*;
+
+public class ExecutorFutureSchedulerTest {
+
+    private ScheduledExecutorService executor;
+
+    private ExecutorFutureScheduler scheduler;
+
+    @Before
+    public void createScheduler() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        scheduler = new ExecutorFutureScheduler(executor);
+    }
+
+    @After
+    public void shutdown() {
+        scheduler.uninstall();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void runsDelayedCommandAfterDelay() throws Exception {
+        final CountDownLatch ran = new CountDownLatch(1);
+        final long[] ranAt = new long[1];
+        long start = scheduler.now();
+        scheduler.schedule(new Command() {
+            public void execute() {
+                ranAt[0] = scheduler.now();
+                ran.countDown();
+            }
+        }, 50);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertTrue(ranAt[0] - start >= 50);
+    }
+
+    @Test
+    public void deferredCommandRunsAfterCallerReturns() throws Exception {
+        final CountDownLatch ran = new CountDownLatch(1);
+        final AtomicInteger order = new AtomicInteger();
+        final int[] ranAs = new int[1];
+        executor.execute(new Runnable() {
+            public void run() {
+                scheduler.schedule(new Command() {
+                    public void execute() {
+                        ranAs[0] = order.incrementAndGet();
+                        ran.countDown();
+                    }
+                }, 0);
+                order.incrementAndGet();
+            }
+        });
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertEquals(2, ranAs[0]);
+    }
+
+    @Test
+    public void runsIncrementalCommandStepByStep() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger steps = new AtomicInteger();
+        scheduler.scheduleIncremental(new IncrementalCommand() {
+            public boolean execute() {
+                if (steps.incrementAndGet() < 5) return true;
+                done.countDown();
+                return false;
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(5, steps.get());
+    }
+
+    @Test
+    public void installsOverDefaultOnly() {
+        scheduler.install();
+        assertSame(scheduler, FutureRuntime.getScheduler());
+        assertTrue(FutureRuntime.isDelaySupported());
+        ExecutorFutureScheduler.installIfDefault();
+        assertSame(scheduler, FutureRuntime.getScheduler());
+        scheduler.uninstall();
+        assertFalse(FutureRuntime.getScheduler() == scheduler);
+    }
+}
@@ -0,0 +1,142 @@
+package com.googlecode.futuretests.jvm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+import com.googlecode.future.BulkheadFullException;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureBulkhead;
+import com.googlecode.future.FutureCircuitBreaker;
+import com.googlecode.future.FutureFactory;
+import com.googlecode.future.jvm.CompletionStages;
+
+import static org.junit.Assert.*;
+
+/**
+ * Calls through a {@link FutureBulkhead} and a {@link FutureCircuitBreaker} started and
+ * completed by many threads at once.
+ */
+public class FutureBulkheadConcurrencyTest {
+
+    private static final int THREADS = 8;
+
+    private static final int CALLS_PER_THREAD = 200;
+
+    private ExecutorService callers;
+
+    private ScheduledExecutorService backend;
+
+    private final AtomicInteger inProgress = new AtomicInteger();
+
+    private final AtomicInteger maxInProgress = new AtomicInteger();
+
+    @Before
+    public void createThreads() {
+        callers = Executors.newFixedThreadPool(THREADS);
+        backend = Executors.newScheduledThreadPool(4);
+    }
+
+    @After
+    public void shutdown() {
+        callers.shutdownNow();
+        backend.shutdownNow();
+    }
+
+    /** Calls completed by a backend thread after a short random delay, one in four failing. */
+    private final FutureFactory<Integer> factory = new FutureFactory<Integer>() {
+        public Future<Integer> create(final int attempt) {
+            return new FutureAction<Integer>() {
+                public void run() {
+                    final AsyncCallback<Integer> callback = callback();
+                    maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+                    long delay = ThreadLocalRandom.current().nextLong(200, 2000);
+                    final boolean isFailed = delay % 4 == 0;
+                    backend.schedule(() -> {
+                        inProgress.decrementAndGet();
+                        if (isFailed) callback.onFailure(new IllegalStateException("down"));
+                        else callback.onSuccess(attempt);
+                    }, delay, TimeUnit.MICROSECONDS);
+                }
+            };
+        }
+    };
+
+    private List<Future<Integer>> callFromAllThreads(final Supplier<Future<Integer>> calls)
+            throws Exception {
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        final CountDownLatch ready = new CountDownLatch(THREADS);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            callers.execute(() -> {
+                ready.countDown();
+                try {
+                    ready.await();
+                    for (int i = 0; i < CALLS_PER_THREAD; i++) {
+                        Future<Integer> future = calls.get();
+                        synchronized (futures) {
+                            futures.add(future);
+                        }
+                        future.start();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (Future<Integer> future : futures) {
+            CompletionStages.toCompletableFuture(future).handle((value, t) -> null)
+                    .get(10, TimeUnit.SECONDS);
+        }
+        return futures;
+    }
+
+    @Test
+    public void bulkheadNeverExceedsLimit() throws Exception {
+        final FutureBulkhead bulkhead = new FutureBulkhead("test", 4, THREADS * CALLS_PER_THREAD);
+        List<Future<Integer>> futures = callFromAllThreads(() -> bulkhead.call(factory));
+
+        for (Future<Integer> future : futures) assertTrue(future.isComplete());
+        assertTrue("At most 4 at once, was " + maxInProgress.get(), maxInProgress.get() <= 4);
+        assertEquals(0, bulkhead.getActiveCount());
+        assertEquals(0, bulkhead.getQueuedCount());
+        assertEquals(0, bulkhead.getRejectedCount());
+    }
+
+    @Test
+    public void breakerBehindBulkheadSettlesEveryCall() throws Exception {
+        final FutureCircuitBreaker breaker = new FutureCircuitBreaker("test");
+        breaker.setWindow(20, 10);
+        breaker.setFailureRateThreshold(0.3);
+        breaker.setOpenDuration(1);
+        final FutureBulkhead bulkhead = new FutureBulkhead("test", 4, 50);
+        List<Future<Integer>> futures = callFromAllThreads(
+                () -> bulkhead.call(attempt -> breaker.call(factory)));
+
+        int rejected = 0;
+        for (Future<Integer> future : futures) {
+            assertTrue(future.isComplete());
+            if (future.exception() instanceof BulkheadFullException) rejected++;
+        }
+        assertEquals(bulkhead.getRejectedCount(), rejected);
+        assertTrue(maxInProgress.get() <= 4);
+        assertEquals(0, bulkhead.getActiveCount());
+        assertEquals(0, bulkhead.getQueuedCount());
+    }
+}
@@ -0,0 +1,142 @@
+package com.googlecode.futuretests.jvm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Flow;
+
+import org.junit.Test;
+
+import com.googlecode.future.FutureChunkStream;
+import com.googlecode.future.jvm.FutureChunkPublisher;
+
+import static org.junit.Assert.*;
+
+public class FutureChunkPublisherTest {
+
+    private static class CountingStream extends FutureChunkStream<Integer> {
+        int chunksProduced = 0;
+
+        CountingStream(List<Integer> data, int chunkSize) {
+            super(data, chunkSize);
+        }
+
+        @Override
+        public void chunk(List<Integer> chunk) {
+            super.chunk(chunk);
+            chunksProduced++;
+        }
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<List<Integer>> {
+        final List<List<Integer>> chunks = new ArrayList<List<Integer>>();
+        Flow.Subscription subscription;
+        Throwable error;
+        boolean isComplete = false;
+        long requestOnNext = 0;
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        public void onNext(List<Integer> chunk) {
+            chunks.add(chunk);
+            if (requestOnNext > 0) subscription.request(requestOnNext);
+        }
+
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        public void onComplete() {
+            isComplete = true;
+        }
+    }
+
+    private static List<Integer> range(int n) {
+        List<Integer> data = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) data.add(i);
+        return data;
+    }
+
+    @Test
+    public void chunksAreOnlyProducedWhenRequested() {
+        CountingStream stream = new CountingStream(range(10), 3);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new FutureChunkPublisher<Integer>(stream).subscribe(subscriber);
+        assertEquals(0, stream.chunksProduced);
+
+        subscriber.subscription.request(1);
+        assertEquals(Arrays.asList(Arrays.asList(0, 1, 2)), subscriber.chunks);
+        assertEquals(1, stream.chunksProduced);
+
+        subscriber.subscription.request(2);
+        assertEquals(3, subscriber.chunks.size());
+        assertEquals(3, stream.chunksProduced);
+        assertFalse(subscriber.isComplete);
+
+        subscriber.subscription.request(2);
+        assertEquals(Arrays.asList(9), subscriber.chunks.get(3));
+        assertTrue(subscriber.isComplete);
+        assertNull(subscriber.error);
+        assertEquals(10, (int) stream.result());
+    }
+
+    @Test
+    public void requestingFromOnNextDoesNotRecurse() {
+        FutureChunkStream<Integer> stream = new FutureChunkStream<Integer>(range(100000));
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        subscriber.requestOnNext = 1;
+        new FutureChunkPublisher<Integer>(stream).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertEquals(100000, subscriber.chunks.size());
+        assertTrue(subscriber.isComplete);
+    }
+
+    @Test
+    public void cancellingSubscriptionCancelsStream() {
+        CountingStream stream = new CountingStream(range(10), 1);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new FutureChunkPublisher<Integer>(stream).subscribe(subscriber);
+        subscriber.subscription.request(2);
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(5);
+        assertTrue(stream.isCancelled());
+        assertEquals(2, stream.chunksProduced);
+        assertEquals(2, subscriber.chunks.size());
+        assertFalse(subscriber.isComplete);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void cancellingStreamSignalsError() {
+        FutureChunkStream<Integer> stream = new FutureChunkStream<Integer>(range(10));
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new FutureChunkPublisher<Integer>(stream).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        stream.cancel();
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.error instanceof CancellationException);
+    }
+
+    @Test
+    public void nonPositiveRequestIsAnError() {
+        FutureChunkStream<Integer> stream = new FutureChunkStream<Integer>(range(10));
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new FutureChunkPublisher<Integer>(stream).subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertTrue(stream.isCancelled());
+    }
+
+    @Test
+    public void onlyOneSubscriberIsAllowed() {
+        FutureChunkPublisher<Integer> publisher =
+            new FutureChunkPublisher<Integer>(new FutureChunkStream<Integer>(range(10)));
+        publisher.subscribe(new RecordingSubscriber());
+        RecordingSubscriber second = new RecordingSubscriber();
+        publisher.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+}
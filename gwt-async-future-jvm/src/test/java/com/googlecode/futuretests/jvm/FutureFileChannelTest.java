@@ -0,0 +1,178 @@
+package com.googlecode.futuretests.jvm;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.jvm.DirectBufferPool;
+import com.googlecode.future.jvm.FutureFileChannel;
+
+import static com.googlecode.futuretests.jvm.Await.await;
+import static org.junit.Assert.*;
+
+public class FutureFileChannelTest {
+
+    private Path file;
+
+    private FutureFileChannel channel;
+
+    @Before
+    public void openFile() throws Exception {
+        file = Files.createTempFile("future", ".dat");
+        channel = FutureFileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    @After
+    public void deleteFile() throws Exception {
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String ascii(ByteBuffer buffer) {
+        return StandardCharsets.US_ASCII.decode(buffer).toString();
+    }
+
+    @Test
+    public void writesAndReads() throws Exception {
+        assertEquals(11, (int) await(channel.write(ascii("hello world"), 0)));
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+        assertEquals(5, (int) await(channel.read(buffer, 6)));
+        buffer.flip();
+        assertEquals("world", ascii(buffer));
+        assertEquals(-1, (int) await(channel.read(ByteBuffer.allocate(5), 11)));
+    }
+
+    @Test
+    public void gathersAndScatters() throws Exception {
+        assertEquals(7L, (long) await(channel.write(
+                new ByteBuffer[] { ascii("abc"), ascii("defg") }, 0)));
+        ByteBuffer first = ByteBuffer.allocate(3);
+        ByteBuffer second = ByteBuffer.allocate(10);
+        assertEquals(7L, (long) await(channel.read(new ByteBuffer[] { first, second }, 0)));
+        first.flip();
+        second.flip();
+        assertEquals("abc", ascii(first));
+        assertEquals("defg", ascii(second));
+        ByteBuffer[] pastTheEnd = { ByteBuffer.allocate(1) };
+        assertEquals(-1L, (long) await(channel.read(pastTheEnd, 7)));
+    }
+
+    @Test
+    public void readsIntoPooledBuffers() throws Exception {
+        DirectBufferPool pool = new DirectBufferPool(8, 2);
+        await(channel.write(ascii("0123456789"), 0));
+        ByteBuffer buffer = await(channel.read(4, pool));
+        assertTrue(buffer.isDirect());
+        assertEquals("456789", ascii(buffer));
+        pool.release(buffer);
+        assertEquals(1, pool.getPooledCount());
+
+        ByteBuffer atEnd = await(channel.read(10, pool));
+        assertSame(buffer, atEnd);
+        assertFalse(atEnd.hasRemaining());
+        pool.release(atEnd);
+    }
+
+    @Test
+    public void actionsDependOnFileOperations() throws Exception {
+        await(channel.write(ascii("4221"), 0));
+        final DirectBufferPool pool = new DirectBufferPool(2, 2);
+        final Future<ByteBuffer> first = channel.read(0, pool);
+        final Future<ByteBuffer> second = channel.read(2, pool);
+        FutureAction<Integer> sum = new FutureAction<Integer>() {
+            public void run() {
+                // Decode duplicates, as run() is called again if second is not yet read.
+                int total = Integer.parseInt(ascii(first.result().duplicate()))
+                        + Integer.parseInt(ascii(second.result().duplicate()));
+                pool.release(first.result());
+                pool.release(second.result());
+                returnResult(total);
+            }
+        };
+        assertEquals(63, (int) await(sum));
+    }
+
+    /** Runs tasks only when asked. */
+    private static class ManualExecutor extends AbstractExecutorService {
+
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+
+        private boolean isShutdown = false;
+
+        public synchronized void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = poll()) != null) task.run();
+        }
+
+        private synchronized Runnable poll() {
+            return tasks.poll();
+        }
+
+        public synchronized void shutdown() {
+            isShutdown = true;
+        }
+
+        public List<Runnable> shutdownNow() {
+            shutdown();
+            return Collections.emptyList();
+        }
+
+        public synchronized boolean isShutdown() {
+            return isShutdown;
+        }
+
+        public synchronized boolean isTerminated() {
+            return isShutdown && tasks.isEmpty();
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return isTerminated();
+        }
+    }
+
+    @Test
+    public void cancellingStopsFurtherIoAndReleasesBuffers() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        FutureFileChannel manual = FutureFileChannel.open(file, executor,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            Future<Long> write = manual.write(
+                    new ByteBuffer[] { ascii("one"), ascii("two"), ascii("three") }, 0);
+            write.cancel();
+            assertTrue(write.isCancelled());
+            executor.runAll();
+            // Only the write already submitted when cancelled took place.
+            assertEquals(3, Files.size(file));
+
+            DirectBufferPool pool = new DirectBufferPool(4, 1);
+            Future<ByteBuffer> read = manual.read(0, pool);
+            read.cancel();
+            assertEquals(0, pool.getPooledCount());
+            executor.runAll();
+            assertEquals(1, pool.getPooledCount());
+        } finally {
+            manual.close();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.googlecode.futuretests.jvm;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureIncrementalAction;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.FutureRuntime;
+import com.googlecode.future.VirtualTimeScheduler;
+import com.googlecode.future.jvm.FutureFlightRecorder;
+
+import static org.junit.Assert.*;
+
+public class FutureFlightRecorderTest {
+
+    @After
+    public void uninstall() {
+        FutureFlightRecorder.uninstall();
+        FutureRuntime.setScheduler(null);
+    }
+
+    private static List<RecordedEvent> events(Recording recording, String name)
+            throws Exception {
+        Path file = Files.createTempFile("futures", ".jfr");
+        try {
+            recording.dump(file);
+            List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                if (event.getEventType().getName().equals(name)) events.add(event);
+            }
+            return events;
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static Recording startRecording() {
+        Recording recording = new Recording();
+        recording.enable(FutureFlightRecorder.ActionRunEvent.class);
+        recording.enable(FutureFlightRecorder.IncrementalTickEvent.class);
+        recording.enable(FutureFlightRecorder.DependencyWaitEvent.class);
+        recording.enable(FutureFlightRecorder.CompletedEvent.class);
+        recording.start();
+        return recording;
+    }
+
+    @Test
+    public void observesOnlyWhileRecording() {
+        FutureFlightRecorder.install();
+        assertFalse(FutureFlightRecorder.isEmitting());
+        assertFalse(FutureRuntime.isObserved());
+        Recording recording = startRecording();
+        try {
+            assertTrue(FutureFlightRecorder.isEmitting());
+            assertTrue(FutureRuntime.isObserved());
+        } finally {
+            recording.close();
+        }
+        assertFalse(FutureFlightRecorder.isEmitting());
+        assertFalse(FutureRuntime.isObserved());
+    }
+
+    @Test
+    public void recordsRunsWaitsAndCompletions() throws Exception {
+        FutureFlightRecorder.install();
+        Recording recording = startRecording();
+        try {
+            final FutureResult<Integer> remote = new FutureResult<Integer>("remote");
+            FutureAction<Integer> action = new FutureAction<Integer>("action") {
+                public void run() {
+                    returnResult(remote.result() + 1);
+                }
+            };
+            FutureAction<Integer> failing = new FutureAction<Integer>("failing") {
+                public void run() {
+                    throw new IllegalStateException();
+                }
+            };
+            action.start();
+            failing.start();
+            remote.setResult(1);
+            assertEquals(2, (int) action.result());
+            recording.stop();
+
+            List<RecordedEvent> runs = events(recording, "com.googlecode.future.ActionRun");
+            List<String> attempts = new ArrayList<String>();
+            for (RecordedEvent run : runs) {
+                attempts.add(run.getString("action") + " " + run.getInt("replay") + " "
+                        + run.getString("outcome"));
+            }
+            assertTrue(attempts.toString(), attempts.contains("action 0 incomplete"));
+            assertTrue(attempts.toString(), attempts.contains("action 1 succeeded"));
+            assertTrue(attempts.toString(), attempts.contains("failing 0 failed"));
+
+            List<RecordedEvent> waits = events(recording, "com.googlecode.future.DependencyWait");
+            assertEquals(1, waits.size());
+            assertEquals("action", waits.get(0).getString("action"));
+            assertEquals("remote", waits.get(0).getString("dependency"));
+
+            List<String> completions = new ArrayList<String>();
+            for (RecordedEvent completed : events(recording, "com.googlecode.future.Completed")) {
+                completions.add(completed.getString("future") + " "
+                        + completed.getString("outcome"));
+                if (completed.getString("future").equals("failing")) {
+                    assertEquals(IllegalStateException.class.getName(),
+                            completed.getClass("exception").getName());
+                }
+            }
+            assertTrue(completions.contains("remote succeeded"));
+            assertTrue(completions.contains("action succeeded"));
+            assertTrue(completions.contains("failing failed"));
+        } finally {
+            recording.close();
+        }
+    }
+
+    @Test
+    public void recordsIncrementalTicks() throws Exception {
+        VirtualTimeScheduler scheduler = new VirtualTimeScheduler();
+        scheduler.install();
+        FutureFlightRecorder.install();
+        Recording recording = startRecording();
+        try {
+            FutureIncrementalAction<Integer> counter =
+                    new FutureIncrementalAction<Integer>("counter") {
+                        int count = 0;
+                        public void run() {
+                            if (++count == 3) returnResult(count);
+                        }
+                    };
+            counter.start();
+            scheduler.runUntilIdle();
+            assertEquals(3, (int) counter.result());
+            recording.stop();
+
+            List<RecordedEvent> ticks = events(recording, "com.googlecode.future.IncrementalTick");
+            assertEquals(3, ticks.size());
+            for (RecordedEvent tick : ticks) {
+                assertEquals("counter", tick.getString("action"));
+                assertEquals(tick.getInt("tick") == 3 ? "succeeded" : "incomplete",
+                        tick.getString("outcome"));
+            }
+        } finally {
+            recording.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.googlecode.futuretests.jvm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureFactory;
+import com.googlecode.future.FutureHedger;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.jvm.CompletionStages;
+import com.googlecode.future.jvm.ExecutorFutureScheduler;
+
+import static com.googlecode.futuretests.jvm.Await.await;
+import static org.junit.Assert.*;
+
+/**
+ * Calls through a {@link FutureHedger} whose hedges are started by an
+ * {@link ExecutorFutureScheduler} while attempts complete on backend threads.
+ */
+public class FutureHedgerConcurrencyTest {
+
+    private static final int CALLS = 2000;
+
+    private ScheduledExecutorService timer;
+
+    private ExecutorFutureScheduler scheduler;
+
+    private ExecutorService callers;
+
+    private ScheduledExecutorService backend;
+
+    private final List<FutureResult<Integer>> hedges = new ArrayList<FutureResult<Integer>>();
+
+    @Before
+    public void installScheduler() {
+        timer = Executors.newScheduledThreadPool(2);
+        scheduler = new ExecutorFutureScheduler(timer);
+        scheduler.install();
+        callers = Executors.newFixedThreadPool(4);
+        backend = Executors.newScheduledThreadPool(4);
+    }
+
+    @After
+    public void shutdown() {
+        scheduler.uninstall();
+        callers.shutdownNow();
+        backend.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    /**
+     * First attempts completed by a backend thread after a random delay around the hedge delay,
+     * and hedges long after, so that the first attempt always wins.
+     */
+    private final FutureFactory<Integer> factory = new FutureFactory<Integer>() {
+        public Future<Integer> create(final int attempt) {
+            final FutureResult<Integer> future = new FutureResult<Integer>();
+            long delay = ThreadLocalRandom.current().nextLong(200, 3000);
+            if (attempt > 1) {
+                synchronized (hedges) {
+                    hedges.add(future);
+                }
+                delay = 200000;
+            }
+            backend.schedule(() -> {
+                try {
+                    future.setResult(attempt);
+                } catch (IllegalStateException cancelled) {
+                    // The attempt lost.
+                }
+            }, delay, TimeUnit.MICROSECONDS);
+            return future;
+        }
+    };
+
+    @Test
+    public void cancelsEveryHedgeOfWonCalls() throws Exception {
+        FutureHedger hedger = new FutureHedger(1);
+        hedger.setMaxAttempts(3);
+        hedger.setBudget(2, 1000);
+        List<Future<Integer>> calls = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < CALLS; i++) {
+            final Future<Integer> call = hedger.hedge(factory);
+            calls.add(call);
+            callers.execute(() -> call.start());
+        }
+        for (Future<Integer> call : calls) assertEquals(Integer.valueOf(1), await(call));
+        assertEquals(CALLS, hedger.getRequestCount());
+        assertEquals(0, hedger.getHedgeWinCount());
+
+        // No hedge is left running, even one started by the scheduler as its call was won.
+        timer.shutdown();
+        assertTrue(timer.awaitTermination(10, TimeUnit.SECONDS));
+        synchronized (hedges) {
+            assertTrue(hedges.size() >= hedger.getHedgeCount());
+            for (FutureResult<Integer> hedge : hedges) {
+                CompletionStages.toCompletableFuture(hedge).handle((value, t) -> null)
+                        .get(10, TimeUnit.SECONDS);
+                assertTrue(hedge.isCancelled());
+            }
+        }
+    }
+}
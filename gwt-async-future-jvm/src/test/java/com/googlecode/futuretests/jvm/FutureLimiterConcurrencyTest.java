@@ -0,0 +1,136 @@
+package com.googlecode.futuretests.jvm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureFactory;
+import com.googlecode.future.FutureLimiter;
+import com.googlecode.future.jvm.CompletionStages;
+
+import static org.junit.Assert.*;
+
+/**
+ * Calls through a {@link FutureLimiter} started and completed by many threads at once.
+ */
+public class FutureLimiterConcurrencyTest {
+
+    private static final int THREADS = 8;
+
+    private static final int CALLS_PER_THREAD = 200;
+
+    private ExecutorService callers;
+
+    private ScheduledExecutorService backend;
+
+    private final AtomicInteger inProgress = new AtomicInteger();
+
+    private final AtomicInteger maxInProgress = new AtomicInteger();
+
+    @Before
+    public void createThreads() {
+        callers = Executors.newFixedThreadPool(THREADS);
+        backend = Executors.newScheduledThreadPool(4);
+    }
+
+    @After
+    public void shutdown() {
+        callers.shutdownNow();
+        backend.shutdownNow();
+    }
+
+    /** Calls completed by a backend thread after a short random delay. */
+    private final FutureFactory<Integer> factory = new FutureFactory<Integer>() {
+        public Future<Integer> create(final int attempt) {
+            return new FutureAction<Integer>() {
+                public void run() {
+                    final AsyncCallback<Integer> callback = callback();
+                    maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+                    long delay = ThreadLocalRandom.current().nextLong(200, 2000);
+                    backend.schedule(() -> {
+                        inProgress.decrementAndGet();
+                        callback.onSuccess(attempt);
+                    }, delay, TimeUnit.MICROSECONDS);
+                }
+            };
+        }
+    };
+
+    private List<Future<Integer>> callFromAllThreads(final FutureLimiter limiter)
+            throws InterruptedException {
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        final CountDownLatch ready = new CountDownLatch(THREADS);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            callers.execute(() -> {
+                ready.countDown();
+                try {
+                    ready.await();
+                    for (int i = 0; i < CALLS_PER_THREAD; i++) {
+                        Future<Integer> future = limiter.call(factory);
+                        synchronized (futures) {
+                            futures.add(future);
+                        }
+                        future.start();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        return futures;
+    }
+
+    private static void awaitAll(List<Future<Integer>> futures) throws Exception {
+        for (Future<Integer> future : futures) {
+            CompletionStages.toCompletableFuture(future).handle((value, t) -> null)
+                    .get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void neverExceedsLimit() throws Exception {
+        FutureLimiter limiter = new FutureLimiter("test", new FutureLimiter.Aimd(4, 4),
+                THREADS * CALLS_PER_THREAD);
+        List<Future<Integer>> futures = callFromAllThreads(limiter);
+        awaitAll(futures);
+
+        for (Future<Integer> future : futures) assertEquals(Integer.valueOf(1), future.result());
+        assertTrue("At most 4 at once, was " + maxInProgress.get(), maxInProgress.get() <= 4);
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(0, limiter.getQueuedCount());
+        assertEquals(0, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void adaptiveLimitSettlesEveryCall() throws Exception {
+        FutureLimiter limiter = new FutureLimiter("test", new FutureLimiter.Gradient(4, 64), 50);
+        List<Future<Integer>> futures = callFromAllThreads(limiter);
+        awaitAll(futures);
+
+        int succeeded = 0;
+        for (Future<Integer> future : futures) {
+            if (future.isSuccessful()) succeeded++;
+        }
+        assertEquals(futures.size(), succeeded + limiter.getRejectedCount());
+        assertTrue(maxInProgress.get() <= 64);
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(0, limiter.getQueuedCount());
+    }
+}
@@ -0,0 +1,282 @@
+package com.googlecode.futuretests.jvm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.jvm.FutureMemoStore;
+
+import static com.googlecode.futuretests.jvm.Await.await;
+import static org.junit.Assert.*;
+
+public class FutureMemoStoreTest {
+
+    private static final FutureMemoStore.Serializer<String> UTF8 =
+        new FutureMemoStore.Serializer<String>() {
+            public byte[] serialize(String value) {
+                return value.getBytes(StandardCharsets.UTF_8);
+            }
+
+            public String deserialize(ByteBuffer bytes) {
+                return StandardCharsets.UTF_8.decode(bytes).toString();
+            }
+        };
+
+    /** A clock moved on by the test. */
+    private static final class ManualClock extends Clock {
+
+        long millis = 1000;
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private final ManualClock clock = new ManualClock();
+
+    private Path file;
+
+    private FutureMemoStore store;
+
+    @Before
+    public void openStore() throws Exception {
+        file = Files.createTempFile("memo", ".log");
+        store = FutureMemoStore.open(file, 1024 * 1024, clock);
+    }
+
+    @After
+    public void deleteFile() throws Exception {
+        store.close();
+        Files.deleteIfExists(file);
+    }
+
+    /** An action counting its runs. */
+    private static final class Computation extends FutureAction<String> {
+
+        final String value;
+
+        int runs = 0;
+
+        Computation(String value) {
+            this.value = value;
+        }
+
+        public void run() {
+            runs++;
+            returnResult(value);
+        }
+    }
+
+    private void reopen() throws IOException {
+        store.close();
+        store = FutureMemoStore.open(file, 1024 * 1024, clock);
+    }
+
+    @Test
+    public void storedValuesAreUsedWithoutRunningTheAction() throws Exception {
+        Computation first = new Computation("expensive");
+        assertEquals("expensive", await(store.memoize("key", UTF8, first)));
+        assertEquals(1, first.runs);
+
+        Computation second = new Computation("recomputed");
+        Future<String> memoized = store.memoize("key", UTF8, second);
+        assertTrue(memoized.isComplete());
+        assertEquals("expensive", memoized.result());
+        assertEquals(0, second.runs);
+    }
+
+    @Test
+    public void valuesSurviveReopening() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            await(store.memoize("key " + i, UTF8, new Computation("value " + i)));
+        }
+        store.put("key 7", "replaced", UTF8, FutureMemoStore.NO_EXPIRY);
+        store.remove("key 8");
+        reopen();
+        assertEquals(99, store.size());
+        assertEquals("value 6", store.get("key 6", UTF8));
+        assertEquals("replaced", store.get("key 7", UTF8));
+        assertNull(store.get("key 8", UTF8));
+        Computation computation = new Computation("recomputed");
+        assertEquals("value 99", await(store.memoize("key 99", UTF8, computation)));
+        assertEquals(0, computation.runs);
+    }
+
+    @Test
+    public void expiredValuesAreComputedAgain() throws Exception {
+        await(store.memoize("key", UTF8, 500, new Computation("old")));
+        clock.millis += 499;
+        assertEquals("old", store.get("key", UTF8));
+        clock.millis += 1;
+        Computation computation = new Computation("new");
+        assertEquals("new", await(store.memoize("key", UTF8, 500, computation)));
+        assertEquals(1, computation.runs);
+
+        clock.millis += 500;
+        reopen();
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedValuesAreEvicted() throws Exception {
+        store.close();
+        store = FutureMemoStore.open(file, 3 * 100, clock);
+        String value = new String(new char[60]).replace('\0', 'x');
+        store.put("a", value, UTF8, FutureMemoStore.NO_EXPIRY);
+        store.put("b", value, UTF8, FutureMemoStore.NO_EXPIRY);
+        store.put("c", value, UTF8, FutureMemoStore.NO_EXPIRY);
+        assertNotNull(store.get("a", UTF8));
+        store.put("d", value, UTF8, FutureMemoStore.NO_EXPIRY);
+        assertTrue(store.getLiveBytes() <= 3 * 100);
+        assertNotNull(store.get("a", UTF8));
+        assertNull(store.get("b", UTF8));
+        assertNotNull(store.get("d", UTF8));
+
+        store.close();
+        store = FutureMemoStore.open(file, 3 * 100, clock);
+        assertEquals(3, store.size());
+        assertNull(store.get("b", UTF8));
+        assertNotNull(store.get("a", UTF8));
+    }
+
+    @Test
+    public void compactionKeepsOnlyLiveRecords() throws Exception {
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 10; i++) {
+                store.put("key " + i, "value " + i + " of round " + round, UTF8,
+                        FutureMemoStore.NO_EXPIRY);
+            }
+        }
+        store.put("expiring", "soon", UTF8, 10);
+        clock.millis += 10;
+        long before = store.getFileSize();
+        store.compact();
+        assertEquals(10, store.size());
+        assertEquals(store.getLiveBytes(), store.getFileSize());
+        assertTrue(store.getFileSize() < before / 5);
+        assertEquals("value 3 of round 9", store.get("key 3", UTF8));
+        store.put("key 3", "after compaction", UTF8, FutureMemoStore.NO_EXPIRY);
+        reopen();
+        assertEquals(10, store.size());
+        assertEquals("after compaction", store.get("key 3", UTF8));
+        assertEquals("value 4 of round 9", store.get("key 4", UTF8));
+    }
+
+    @Test
+    public void tornRecordsAreDiscarded() throws Exception {
+        store.put("kept", "value", UTF8, FutureMemoStore.NO_EXPIRY);
+        store.put("torn", "value", UTF8, FutureMemoStore.NO_EXPIRY);
+        long size = store.getFileSize();
+        store.close();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 2);
+        }
+        store = FutureMemoStore.open(file, 1024 * 1024, clock);
+        assertEquals("value", store.get("kept", UTF8));
+        assertNull(store.get("torn", UTF8));
+        store.put("after", "value", UTF8, FutureMemoStore.NO_EXPIRY);
+        reopen();
+        assertEquals(2, store.size());
+        assertEquals("value", store.get("after", UTF8));
+    }
+
+    @Test
+    public void failedComputationsAreNotStored() throws Exception {
+        Future<String> failed = store.memoize("key", UTF8, new FutureAction<String>() {
+            public void run() {
+                throw new IllegalArgumentException("failed");
+            }
+        });
+        try {
+            failed.result();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void valuesWhichCannotBeDecodedAreComputedAgain() throws Exception {
+        store.put("key", "abc", UTF8, FutureMemoStore.NO_EXPIRY);
+        FutureMemoStore.Serializer<String> changed = new FutureMemoStore.Serializer<String>() {
+            public byte[] serialize(String value) {
+                return ByteBuffer.allocate(8).putLong(value.length()).array();
+            }
+
+            public String deserialize(ByteBuffer bytes) {
+                return "length " + bytes.getLong();
+            }
+        };
+        Computation computation = new Computation("recomputed");
+        assertEquals("recomputed", await(store.memoize("key", changed, computation)));
+        assertEquals(1, computation.runs);
+        assertEquals("length 10", store.get("key", changed));
+    }
+
+    @Test
+    public void recordsAreReadAcrossMappedWindows() throws Exception {
+        store.close();
+        store = FutureMemoStore.open(file, 256 * 1024 * 1024, clock);
+        FutureMemoStore.Serializer<byte[]> raw = new FutureMemoStore.Serializer<byte[]>() {
+            public byte[] serialize(byte[] value) {
+                return value;
+            }
+
+            public byte[] deserialize(ByteBuffer bytes) {
+                byte[] value = new byte[bytes.remaining()];
+                bytes.get(value);
+                return value;
+            }
+        };
+        // Three records of 30 MB, the last crossing the end of the first 64 MB window.
+        int size = 30 * 1024 * 1024;
+        for (int i = 0; i < 3; i++) {
+            byte[] value = new byte[size];
+            value[0] = (byte) i;
+            value[size - 1] = (byte) (i + 10);
+            store.put("key " + i, value, raw, FutureMemoStore.NO_EXPIRY);
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i : new int[] {2, 0, 1}) {
+                byte[] value = store.get("key " + i, raw);
+                assertEquals(size, value.length);
+                assertEquals(i, value[0]);
+                assertEquals(i + 10, value[size - 1]);
+            }
+            store.close();
+            store = FutureMemoStore.open(file, 256 * 1024 * 1024, clock);
+            assertEquals(3, store.size());
+        }
+    }
+}
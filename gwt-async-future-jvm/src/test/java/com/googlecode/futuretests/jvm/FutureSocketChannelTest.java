@@ -0,0 +1,173 @@
+package com.googlecode.futuretests.jvm;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureSynchronizer;
+import com.googlecode.future.jvm.DirectBufferPool;
+import com.googlecode.future.jvm.Framing;
+import com.googlecode.future.jvm.FutureSocketChannel;
+
+import static com.googlecode.futuretests.jvm.Await.await;
+import static org.junit.Assert.*;
+
+public class FutureSocketChannelTest {
+
+    private final DirectBufferPool pool = new DirectBufferPool(1024, 64);
+
+    private AsynchronousServerSocketChannel server;
+
+    private InetSocketAddress address;
+
+    @After
+    public void stopServer() throws IOException {
+        if (server != null) server.close();
+    }
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String ascii(ByteBuffer buffer) {
+        return buffer == null ? null : StandardCharsets.US_ASCII.decode(buffer).toString();
+    }
+
+    /** Start a loopback server echoing each frame it receives. */
+    private void startEchoServer(final Framing framing) throws IOException {
+        server = AsynchronousServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        address = (InetSocketAddress) server.getLocalAddress();
+        server.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
+            public void completed(AsynchronousSocketChannel accepted, Void attachment) {
+                server.accept(null, this);
+                echo(new FutureSocketChannel(accepted, framing, pool));
+            }
+
+            public void failed(Throwable caught, Void attachment) {
+                // Server closed
+            }
+        });
+    }
+
+    private static void echo(final FutureSocketChannel connection) {
+        connection.readFrame().addCallback(new AsyncCallback<ByteBuffer>() {
+            public void onSuccess(ByteBuffer frame) {
+                if (frame == null) {
+                    closeQuietly(connection);
+                    return;
+                }
+                connection.writeFrame(frame);
+                echo(connection);
+            }
+
+            public void onFailure(Throwable caught) {
+                closeQuietly(connection);
+            }
+        });
+    }
+
+    private static void closeQuietly(FutureSocketChannel connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // Ignored
+        }
+    }
+
+    @Test
+    public void echoesLengthPrefixedFrames() throws Exception {
+        Framing framing = Framing.lengthPrefixed(1000);
+        startEchoServer(framing);
+        FutureSocketChannel client = await(FutureSocketChannel.connect(address, framing, pool));
+        try {
+            // Requested together, and answered in order.
+            List<Future<ByteBuffer>> replies = new ArrayList<Future<ByteBuffer>>();
+            for (int i = 0; i < 100; i++) {
+                client.writeFrame(ascii("message " + i));
+                replies.add(client.readFrame());
+            }
+            for (int i = 0; i < 100; i++) {
+                assertEquals("message " + i, ascii(await(replies.get(i))));
+            }
+            assertEquals("", ascii(await(roundTrip(client, ""))));
+        } finally {
+            client.close();
+        }
+    }
+
+    private static Future<ByteBuffer> roundTrip(FutureSocketChannel client, String message) {
+        client.writeFrame(ascii(message));
+        return client.readFrame();
+    }
+
+    @Test
+    public void echoesDelimitedFramesFromManyConnections() throws Exception {
+        final Framing framing = Framing.delimited((byte) '\n', 100);
+        startEchoServer(framing);
+        List<Future<String>> calls = new ArrayList<Future<String>>();
+        for (int i = 0; i < 50; i++) {
+            final int id = i;
+            final Future<FutureSocketChannel> connection =
+                FutureSocketChannel.connect(address, framing, pool);
+            calls.add(new FutureAction<String>() {
+                Future<ByteBuffer> reply;
+                public void run() {
+                    if (reply == null) reply = roundTrip(connection.result(), "call " + id);
+                    String text = ascii(reply.result());
+                    closeQuietly(connection.result());
+                    returnResult(text);
+                }
+            });
+        }
+        await(new FutureSynchronizer(calls));
+        for (int i = 0; i < 50; i++) assertEquals("call " + i, calls.get(i).result());
+    }
+
+    @Test
+    public void invalidFramesFail() throws Exception {
+        Framing framing = Framing.delimited((byte) '\n', 10);
+        startEchoServer(Framing.delimited((byte) '\n', 100));
+        FutureSocketChannel client = await(FutureSocketChannel.connect(address, framing, pool));
+        try {
+            Future<Void> tooLong = client.writeFrame(ascii("more than ten bytes"));
+            assertTrue(tooLong.exception() instanceof ProtocolException);
+            Future<Void> withDelimiter = client.writeFrame(ascii("a\nb"));
+            assertTrue(withDelimiter.exception() instanceof ProtocolException);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void readsReturnNullOnceClosedByThePeer() throws Exception {
+        Framing framing = Framing.lengthPrefixed(100);
+        startEchoServer(framing);
+        FutureSocketChannel client = await(FutureSocketChannel.connect(address, framing, pool));
+        try {
+            Future<ByteBuffer> reply = roundTrip(client, "bye");
+            assertEquals("bye", ascii(await(reply)));
+            client.getChannel().shutdownOutput();
+            // The server closes its end once it reads the end of the stream.
+            assertNull(await(client.readFrame()));
+            assertNull(await(client.readFrame()));
+        } finally {
+            client.close();
+        }
+    }
+}
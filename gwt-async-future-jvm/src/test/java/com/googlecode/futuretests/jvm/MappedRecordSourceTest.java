@@ -0,0 +1,107 @@
+package com.googlecode.futuretests.jvm;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.future.FutureChunkedIncrementalAction;
+import com.googlecode.future.FutureRuntime;
+import com.googlecode.future.VirtualTimeScheduler;
+import com.googlecode.future.jvm.MappedRecordSource;
+
+import static org.junit.Assert.*;
+
+public class MappedRecordSourceTest {
+
+    private Path file;
+
+    @Before
+    public void createFile() throws Exception {
+        file = Files.createTempFile("records", ".dat");
+    }
+
+    @After
+    public void deleteFile() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    private static List<String> strings(Iterable<ByteBuffer> records) {
+        List<String> result = new ArrayList<String>();
+        for (ByteBuffer record : records) {
+            assertTrue(record.isDirect());
+            assertTrue(record.isReadOnly());
+            result.add(StandardCharsets.US_ASCII.decode(record).toString());
+        }
+        return result;
+    }
+
+    private static List<String> lines(int count) {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < count; i++) lines.add("line " + i);
+        return lines;
+    }
+
+    @Test
+    public void readsDelimitedRecordsAcrossWindows() throws Exception {
+        List<String> expected = lines(100);
+        Files.write(file, String.join("\n", expected).getBytes(StandardCharsets.US_ASCII));
+        // Windows much smaller than the file, and not aligned with the records.
+        assertEquals(expected, strings(MappedRecordSource.delimited(file, (byte) '\n', 16)));
+        assertEquals(expected, strings(MappedRecordSource.delimited(file, (byte) '\n')));
+    }
+
+    @Test
+    public void readsFixedSizeRecordsAcrossWindows() throws Exception {
+        Files.write(file, "aaaabbbbccccdd".getBytes(StandardCharsets.US_ASCII));
+        List<String> expected = List.of("aaaa", "bbbb", "cccc", "dd");
+        assertEquals(expected, strings(MappedRecordSource.fixedSize(file, 4, 10)));
+        assertEquals(expected, strings(MappedRecordSource.fixedSize(file, 4)));
+    }
+
+    @Test
+    public void emptyFilesHaveNoRecords() throws Exception {
+        assertFalse(MappedRecordSource.delimited(file, (byte) '\n').iterator().hasNext());
+        assertFalse(MappedRecordSource.fixedSize(file, 8).iterator().hasNext());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void recordsLongerThanTheWindowAreRejected() throws Exception {
+        Files.write(file, "short\na record that does not fit\n".getBytes(StandardCharsets.US_ASCII));
+        strings(MappedRecordSource.delimited(file, (byte) '\n', 8));
+    }
+
+    @Test
+    public void recordsAreProcessedInChunks() throws Exception {
+        Files.write(file, String.join("\n", lines(1000)).getBytes(StandardCharsets.US_ASCII));
+        VirtualTimeScheduler scheduler = new VirtualTimeScheduler();
+        FutureRuntime.setScheduler(scheduler);
+        try {
+            FutureChunkedIncrementalAction<Long, ByteBuffer> bytes =
+                new FutureChunkedIncrementalAction<Long, ByteBuffer>(
+                        MappedRecordSource.delimited(file, (byte) '\n', 256), 64) {
+                long total = 0;
+                public void chunk(List<ByteBuffer> records) {
+                    assertTrue(records.size() <= 64);
+                    for (ByteBuffer record : records) total += record.remaining();
+                }
+
+                @Override
+                public void after() {
+                    returnResult(total);
+                }
+            };
+            bytes.start();
+            scheduler.runUntilIdle();
+            assertEquals(Files.size(file) - 999, (long) bytes.result());
+        } finally {
+            FutureRuntime.setScheduler(null);
+        }
+    }
+}
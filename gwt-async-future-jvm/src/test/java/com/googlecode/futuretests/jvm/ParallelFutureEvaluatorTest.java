@@ -0,0 +1,252 @@
+package com.googlecode.futuretests.jvm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.FutureSynchronizer;
+import com.googlecode.future.jvm.ParallelFutureEvaluator;
+
+import static com.googlecode.futuretests.jvm.Await.await;
+import static org.junit.Assert.*;
+
+public class ParallelFutureEvaluatorTest {
+
+    private ForkJoinPool pool;
+
+    private ParallelFutureEvaluator evaluator;
+
+    @Before
+    public void createEvaluator() {
+        pool = new ForkJoinPool(8);
+        evaluator = new ParallelFutureEvaluator(pool);
+    }
+
+    @After
+    public void shutdown() {
+        evaluator.shutdown();
+        ParallelFutureEvaluator.uninstall();
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void independentActionsRunConcurrently() throws Exception {
+        final int n = 4;
+        final CyclicBarrier barrier = new CyclicBarrier(n);
+        final List<Future<Integer>> inputs = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < n; i++) {
+            final int value = i;
+            inputs.add(new FutureAction<Integer>() {
+                public void run() {
+                    try {
+                        // Only passes if all n actions are running at the same time.
+                        barrier.await(5, TimeUnit.SECONDS);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                    returnResult(value);
+                }
+            });
+        }
+        FutureAction<Integer> sum = new FutureAction<Integer>() {
+            public void run() {
+                new FutureSynchronizer(inputs).result();
+                int total = 0;
+                for (Future<Integer> input : inputs) total += input.result();
+                returnResult(total);
+            }
+        };
+        assertEquals(6, (int) await(evaluator.submit(sum)));
+    }
+
+    @Test
+    public void runNeverExecutesOnTwoThreadsAtOnce() throws Exception {
+        final int n = 50;
+        final List<FutureResult<Integer>> inputs = new ArrayList<FutureResult<Integer>>();
+        for (int i = 0; i < n; i++) inputs.add(new FutureResult<Integer>());
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        FutureAction<Integer> sum = new FutureAction<Integer>() {
+            public void run() {
+                int running = concurrent.incrementAndGet();
+                maxConcurrent.accumulateAndGet(running, Math::max);
+                try {
+                    int total = 0;
+                    for (Future<Integer> input : inputs) {
+                        if (input.isComplete()) total += input.result();
+                    }
+                    for (Future<Integer> input : inputs) input.result();
+                    returnResult(total);
+                } finally {
+                    concurrent.decrementAndGet();
+                }
+            }
+        };
+        Future<Integer> result = evaluator.submit(sum);
+        // Complete the inputs from several threads at once to wake the action concurrently.
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 5; t++) {
+            final int offset = t;
+            Thread thread = new Thread(() -> {
+                for (int i = offset; i < n; i += 5) inputs.get(i).setResult(i);
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(n * (n - 1) / 2, (int) await(result));
+        assertEquals(1, maxConcurrent.get());
+    }
+
+    @Test
+    public void resultsMatchSingleThreadedEvaluation() throws Exception {
+        for (int attempt = 0; attempt < 20; attempt++) {
+            assertEquals(diamond(1000).result(), await(evaluator.submit(diamond(1000))));
+        }
+        ParallelFutureEvaluator.uninstall();
+        assertEquals(Long.valueOf(2 * 1000 * 999 / 2 + 1), diamond(1000).result());
+    }
+
+    /** Two independent sums over the same source, combined. */
+    private static FutureAction<Long> diamond(final int n) {
+        final FutureAction<Integer> source = new FutureAction<Integer>() {
+            public void run() {
+                returnResult(n);
+            }
+        };
+        final List<Future<Long>> branches = new ArrayList<Future<Long>>();
+        for (int b = 0; b < 2; b++) {
+            branches.add(new FutureAction<Long>() {
+                public void run() {
+                    long total = 0;
+                    for (int i = 0; i < source.result(); i++) total += i;
+                    returnResult(total);
+                }
+            });
+        }
+        return new FutureAction<Long>() {
+            public void run() {
+                returnResult(branches.get(0).result() + branches.get(1).result() + 1);
+            }
+        };
+    }
+
+    @Test
+    public void failuresAndCancellationPropagate() throws Exception {
+        final FutureAction<Integer> failing = new FutureAction<Integer>() {
+            public void run() {
+                throw new IllegalStateException("boom");
+            }
+        };
+        FutureAction<Integer> dependent = new FutureAction<Integer>() {
+            public void run() {
+                returnResult(failing.result() + 1);
+            }
+        };
+        try {
+            await(evaluator.submit(dependent));
+            fail();
+        } catch (java.util.concurrent.ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        final FutureResult<Integer> cancelled = new FutureResult<Integer>();
+        FutureAction<Integer> waiting = new FutureAction<Integer>() {
+            public void run() {
+                returnResult(cancelled.result());
+            }
+        };
+        Future<Integer> submitted = evaluator.submit(waiting);
+        cancelled.cancel();
+        try {
+            await(submitted);
+            fail();
+        } catch (java.util.concurrent.CancellationException e) {
+            // Expected
+        }
+        assertTrue(waiting.isCancelled());
+    }
+
+    @Test
+    public void actionsOutsideTheEvaluatorRunInline() {
+        final Thread caller = Thread.currentThread();
+        FutureAction<Boolean> inline = new FutureAction<Boolean>() {
+            public void run() {
+                returnResult(Thread.currentThread() == caller);
+            }
+        };
+        assertTrue(inline.result());
+        assertEquals(0, evaluator.getActiveActions());
+    }
+
+    @Test
+    public void shutdownForgetsActionsThatNeverComplete() throws Exception {
+        final FutureResult<Integer> never = new FutureResult<Integer>();
+        final CountDownLatch ran = new CountDownLatch(1);
+        final FutureAction<Integer> waiting = new FutureAction<Integer>() {
+            public void run() {
+                ran.countDown();
+                returnResult(never.result());
+            }
+        };
+        Future<Integer> submitted = evaluator.submit(waiting);
+        assertTrue(ran.await(10, TimeUnit.SECONDS));
+        assertEquals(1, evaluator.getActiveActions());
+
+        evaluator.shutdown();
+        assertEquals(0, evaluator.getActiveActions());
+        try {
+            evaluator.submit(waiting);
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        never.setResult(1);
+        assertEquals(1, (int) await(submitted));
+    }
+
+    @Test
+    public void wakeupsAfterShutdownAreNotHandedToThePool() throws Exception {
+        ForkJoinPool otherPool = new ForkJoinPool(2);
+        ParallelFutureEvaluator other = new ParallelFutureEvaluator(otherPool);
+        try {
+            final FutureResult<Integer> input = new FutureResult<Integer>();
+            final CountDownLatch ran = new CountDownLatch(1);
+            FutureAction<Thread> first = new FutureAction<Thread>() {
+                public void run() {
+                    ran.countDown();
+                    input.result();
+                    returnResult(Thread.currentThread());
+                }
+            };
+            Future<Thread> ranOn = evaluator.submit(first);
+            assertTrue(ran.await(10, TimeUnit.SECONDS));
+            evaluator.shutdown();
+
+            FutureAction<ForkJoinPool> second = new FutureAction<ForkJoinPool>() {
+                public void run() {
+                    returnResult(((ForkJoinWorkerThread) Thread.currentThread()).getPool());
+                }
+            };
+            assertSame(otherPool, await(other.submit(second)));
+            // Woken on this thread, which evaluates it rather than the old pool.
+            input.setResult(1);
+            assertSame(Thread.currentThread(), await(ranOn));
+        } finally {
+            other.shutdown();
+            otherPool.shutdownNow();
+        }
+    }
+}
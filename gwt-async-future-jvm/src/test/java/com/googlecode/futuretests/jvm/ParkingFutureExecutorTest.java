@@ -0,0 +1,208 @@
+package com.googlecode.futuretests.jvm;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+import com.googlecode.future.CancelledException;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.IncompleteResultException;
+import com.googlecode.future.jvm.CompletionStages;
+import com.googlecode.future.jvm.ParkingFutureExecutor;
+
+import static com.googlecode.futuretests.jvm.Await.await;
+import static org.junit.Assert.*;
+
+public class ParkingFutureExecutorTest {
+
+    private ExecutorService threads;
+
+    private ScheduledExecutorService backend;
+
+    private ParkingFutureExecutor executor;
+
+    @Before
+    public void createExecutor() {
+        threads = Executors.newCachedThreadPool();
+        backend = Executors.newSingleThreadScheduledExecutor();
+        executor = ParkingFutureExecutor.isVirtualThreadSupported()
+                ? ParkingFutureExecutor.virtualThreads() : new ParkingFutureExecutor(threads);
+    }
+
+    @After
+    public void shutdown() {
+        ParkingFutureExecutor.uninstall();
+        threads.shutdownNow();
+        backend.shutdownNow();
+    }
+
+    /** A future completed by another thread after a delay, like an RPC. */
+    private <T> FutureAction<T> remote(final T value, final long delayMillis) {
+        return new FutureAction<T>() {
+            public void run() {
+                final AsyncCallback<T> callback = callback();
+                backend.schedule(() -> callback.onSuccess(value), delayMillis, TimeUnit.MILLISECONDS);
+            }
+        };
+    }
+
+    private <T> FutureAction<T> remoteFailure(final Throwable t, final long delayMillis) {
+        return new FutureAction<T>() {
+            public void run() {
+                final AsyncCallback<T> callback = callback();
+                backend.schedule(() -> callback.onFailure(t), delayMillis, TimeUnit.MILLISECONDS);
+            }
+        };
+    }
+
+    @Test
+    public void runExecutesOnceForSeveralDependencies() throws Exception {
+        final Future<Integer> a = remote(1, 20);
+        final Future<Integer> b = remote(2, 10);
+        final Future<Integer> c = remote(3, 5);
+        final AtomicInteger runs = new AtomicInteger();
+        FutureAction<Integer> sum = new FutureAction<Integer>() {
+            public void run() {
+                runs.incrementAndGet();
+                returnResult(a.result() + b.result() + c.result());
+            }
+        };
+        assertEquals(6, (int) await(executor.submit(sum)));
+        assertEquals(1, runs.get());
+        assertEquals(1, sum.getRunAttempts());
+    }
+
+    @Test
+    public void nestedActionsAreEvaluatedOnce() throws Exception {
+        final Future<Integer> a = remote(1, 10);
+        final AtomicInteger runs = new AtomicInteger();
+        final FutureAction<Integer> inner = new FutureAction<Integer>() {
+            public void run() {
+                runs.incrementAndGet();
+                returnResult(a.result() * 10);
+            }
+        };
+        FutureAction<Integer> outer = new FutureAction<Integer>() {
+            public void run() {
+                runs.incrementAndGet();
+                returnResult(inner.result() + 1);
+            }
+        };
+        assertEquals(11, (int) await(executor.submit(outer)));
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void actionWaitingOnCallbackIsParkedForToo() throws Exception {
+        assertEquals("done", await(executor.submit(remote("done", 10))));
+    }
+
+    @Test
+    public void catchExceptionSemanticsAreKept() throws Exception {
+        final Future<Integer> failure = remoteFailure(new UnsupportedOperationException(), 10);
+        FutureAction<Boolean> catcher = new FutureAction<Boolean>() {
+            public void run() {
+                boolean result = false;
+                try {
+                    failure.result();
+                } catch (UnsupportedOperationException e) {
+                    result = true;
+                }
+                returnResult(result);
+            }
+
+            @Override
+            public Throwable catchException(Throwable t) {
+                if (t instanceof UnsupportedOperationException) return null;
+                return t;
+            }
+        };
+        assertTrue(await(executor.submit(catcher)));
+    }
+
+    @Test
+    public void uncaughtDependencyFailureFailsAction() throws Exception {
+        final Future<Integer> failure = remoteFailure(new IllegalStateException("boom"), 10);
+        final AtomicInteger runs = new AtomicInteger();
+        FutureAction<Integer> dependent = new FutureAction<Integer>() {
+            public void run() {
+                runs.incrementAndGet();
+                returnResult(failure.result());
+            }
+        };
+        try {
+            await(executor.submit(dependent));
+            fail();
+        } catch (java.util.concurrent.ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(dependent.isFailure());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void cancelledDependencyCancelsAction() throws Exception {
+        final FutureResult<Integer> dependency = new FutureResult<Integer>();
+        FutureAction<Integer> dependent = new FutureAction<Integer>() {
+            public void run() {
+                returnResult(dependency.result());
+            }
+        };
+        Future<Integer> submitted = executor.submit(dependent);
+        backend.schedule(() -> dependency.cancel(), 10, TimeUnit.MILLISECONDS);
+        try {
+            await(submitted);
+            fail();
+        } catch (java.util.concurrent.CancellationException e) {
+            // Expected
+        }
+        assertTrue(dependent.isCancelled());
+        assertTrue(submitted.isCancelled());
+    }
+
+    @Test
+    public void otherThreadsStillReplay() {
+        FutureResult<Integer> dependency = new FutureResult<Integer>();
+        final Future<Integer> d = dependency;
+        FutureAction<Integer> dependent = new FutureAction<Integer>() {
+            public void run() {
+                returnResult(d.result());
+            }
+        };
+        assertFalse(ParkingFutureExecutor.isParkingThread());
+        try {
+            dependent.result();
+            fail();
+        } catch (IncompleteResultException e) {
+            // Expected
+        }
+        dependency.setResult(1);
+        assertEquals(1, (int) dependent.result());
+        assertEquals(2, dependent.getRunAttempts());
+    }
+
+    @Test(expected = CancelledException.class)
+    public void cancelledRootIsReported() {
+        FutureAction<Integer> cancels = new FutureAction<Integer>() {
+            public void run() {
+                cancel();
+            }
+        };
+        Future<Integer> submitted = executor.submit(cancels);
+        try {
+            CompletionStages.toCompletableFuture(submitted).get(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            // Expected
+        }
+        submitted.result();
+    }
+}
@@ -0,0 +1,61 @@
+package com.googlecode.futuretests.jvm;
+
+import java.lang.ref.WeakReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.jvm.WeakPendingFutureRegistry;
+
+import static org.junit.Assert.*;
+
+public class WeakPendingFutureRegistryTest {
+
+    private final WeakPendingFutureRegistry registry = new WeakPendingFutureRegistry();
+
+    @Before
+    public void startTracking() {
+        registry.start();
+    }
+
+    @After
+    public void stopTracking() {
+        registry.stop();
+    }
+
+    @Test
+    public void abandonedFuturesAreCollected() throws Exception {
+        FutureResult<String> kept = new FutureResult<String>("kept");
+        registry.track(kept);
+        WeakReference<FutureAction<String>> abandoned = abandon();
+        assertEquals(3, registry.size());
+
+        for (int i = 0; i < 50 && registry.getCollectedCount() < 2; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(abandoned.get());
+        assertEquals(2, registry.getCollectedCount());
+        assertEquals(1, registry.size());
+        assertSame(kept, registry.getPending().get(0).getFuture());
+
+        kept.setResult("done");
+        assertEquals(0, registry.size());
+        assertEquals(2, registry.getCollectedCount());
+    }
+
+    /** Start an action waiting for a result which never arrives, then drop it. */
+    private static WeakReference<FutureAction<String>> abandon() {
+        final FutureResult<String> never = new FutureResult<String>("never");
+        FutureAction<String> action = new FutureAction<String>("waiting") {
+            public void run() {
+                returnResult(never.result());
+            }
+        };
+        action.start();
+        return new WeakReference<FutureAction<String>>(action);
+    }
+}
@@ -0,0 +1,193 @@
+package com.googlecode.future;
+
+/**
+ * Future result of a boolean, stored and delivered to listeners without boxing.
+ *
+ * <code><pre>
+ * BooleanFuture valid = BooleanFuture.all(checks);
+ * valid.addListener(new BooleanFuture.Listener() {
+ *     public void onSuccess(boolean value) {
+ *         saveButton.setEnabled(value);
+ *     }
+ *     public void onFailure(Throwable caught) {
+ *         ...
+ *     }
+ * });
+ * </pre></code>
+ *
+ * @see PrimitiveFuture
+ */
+public class BooleanFuture extends PrimitiveFuture<Boolean> {
+
+    /**
+     * Notified when a {@link BooleanFuture} completes.
+     */
+    public interface Listener extends PrimitiveFuture.Listener {
+        void onSuccess(boolean value);
+    }
+
+    private boolean value;
+
+    public BooleanFuture() {
+        super(null);
+    }
+
+    public BooleanFuture(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a BooleanFuture that has already succeeded with the given value.
+     *
+     * @param value the value
+     * @return the completed future
+     */
+    public static BooleanFuture constant(boolean value) {
+        BooleanFuture result = new BooleanFuture();
+        result.setResult(value);
+        return result;
+    }
+
+    /**
+     * Create a BooleanFuture completed by a boxed future.  A null result fails it with a
+     * NullPointerException.
+     *
+     * @param future future to unbox
+     * @return a future for the unboxed result
+     */
+    public static BooleanFuture from(Future<Boolean> future) {
+        BooleanFuture result = new BooleanFuture(future.getName());
+        forward(future, result);
+        return result;
+    }
+
+    /**
+     * Sets the result of this future.
+     *
+     * @param value the value
+     * @throws IllegalStateException if the future is already complete
+     */
+    public void setResult(boolean value) {
+        if (!setIfIncomplete(value)) throw alreadyComplete();
+    }
+
+    boolean setIfIncomplete(boolean value) {
+        synchronized (this) {
+            if (isComplete()) return false;
+            this.value = value;
+            markSucceeded();
+        }
+        notifyCompleted();
+        return true;
+    }
+
+    /**
+     * Return the result of this future if available.
+     *
+     * @return result
+     * @throws IncompleteResultException if result is not yet available
+     * @throws ExecutionException if the future failed
+     * @throws CancelledException if the future was cancelled
+     */
+    public boolean result() throws IncompleteResultException, ExecutionException,
+            CancelledException {
+        checkSucceeded();
+        return value;
+    }
+
+    /**
+     * Add a listener that is invoked when this future completes, or at once if already
+     * complete.
+     *
+     * @param listener listener to invoke
+     */
+    public void addListener(Listener listener) {
+        listen(listener);
+    }
+
+    /**
+     * True if both this and the other future are true.  Waits for both to succeed, so that
+     * a failure of either is never hidden.
+     */
+    public BooleanFuture and(BooleanFuture other) {
+        return all(this, other);
+    }
+
+    /**
+     * True if either this or the other future is true, once both have succeeded.
+     */
+    public BooleanFuture or(BooleanFuture other) {
+        return any(this, other);
+    }
+
+    /**
+     * The negation of this future.
+     */
+    public BooleanFuture not() {
+        final BooleanFuture result = new BooleanFuture();
+        new Join(result, this) {
+            void combine() {
+                result.setIfIncomplete(!value);
+            }
+        }.start();
+        return result;
+    }
+
+    /**
+     * True if all of the given futures are true, once all have succeeded.  True if there are
+     * none.
+     *
+     * @param values futures to combine
+     * @return the combined future, which fails if any of the values fails
+     */
+    public static BooleanFuture all(final BooleanFuture... values) {
+        final BooleanFuture result = new BooleanFuture();
+        new Join(result, values) {
+            void combine() {
+                boolean all = true;
+                for (BooleanFuture value : values) all &= value.value;
+                result.setIfIncomplete(all);
+            }
+        }.start();
+        return result;
+    }
+
+    /**
+     * True if any of the given futures is true, once all have succeeded.  False if there are
+     * none.
+     *
+     * @param values futures to combine
+     * @return the combined future, which fails if any of the values fails
+     */
+    public static BooleanFuture any(final BooleanFuture... values) {
+        final BooleanFuture result = new BooleanFuture();
+        new Join(result, values) {
+            void combine() {
+                boolean any = false;
+                for (BooleanFuture value : values) any |= value.value;
+                result.setIfIncomplete(any);
+            }
+        }.start();
+        return result;
+    }
+
+    @Override
+    void notifySuccess(PrimitiveFuture.Listener listener) {
+        ((Listener) listener).onSuccess(value);
+    }
+
+    @Override
+    Boolean boxedValue() {
+        return value;
+    }
+
+    @Override
+    void setBoxedResult(Boolean value) {
+        setIfIncomplete(value);
+    }
+
+    @Override
+    String getFutureType() {
+        return "BooleanFuture";
+    }
+}
@@ -0,0 +1,17 @@
+package com.googlecode.future;
+
+/**
+ * Exception with which a call through a {@link FutureBulkhead} fails immediately, without
+ * being attempted, when the bulkhead has as many calls in progress and queued as it allows.
+ */
+public class BulkheadFullException extends RuntimeException {
+
+    private static final long serialVersionUID = 5306226740473000938L;
+
+    public BulkheadFullException() {
+    }
+
+    public BulkheadFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,19 @@
+package com.googlecode.future;
+
+/**
+ * Exception with which a call through a {@link FutureCircuitBreaker} fails immediately,
+ * without being attempted, while the circuit is open.  Fallbacks, e.g. in
+ * {@link FutureAction#catchException(Throwable)}, can test for it to tell an unavailable
+ * backend from a failed call.
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    private static final long serialVersionUID = -3346815327186418822L;
+
+    public CircuitOpenException() {
+    }
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,78 @@
+package com.googlecode.future;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Invokes a callback with the context captured when it was added made current.  Futures
+ * keep track of callbacks by the callback itself rather than by this wrapper, so that adding
+ * a callback twice has no effect as usual whether or not a context was active each time.
+ *
+ * @see FutureContextPropagator
+ *
+ * @param <T> type of result
+ */
+class ContextCallback<T> implements AsyncCallback<T> {
+
+    final AsyncCallback<T> callback;
+
+    private final Object context;
+
+    ContextCallback(AsyncCallback<T> callback, Object context) {
+        this.callback = callback;
+        this.context = context;
+    }
+
+    /**
+     * Wrap a callback in the current context, if any.
+     *
+     * @return a wrapper of the callback, or the callback itself if no context is active
+     */
+    @SuppressWarnings("unchecked")
+    static <T> AsyncCallback<T> wrap(AsyncCallback<T> callback) {
+        Object context = FutureRuntime.captureContext();
+        if (context == null) return callback;
+        if (callback instanceof CancellableAsyncCallback<?>) {
+            return new Cancellable<T>((CancellableAsyncCallback<T>) callback, context);
+        }
+        return new ContextCallback<T>(callback, context);
+    }
+
+    public void onSuccess(T value) {
+        Object previous = FutureRuntime.attachContext(context);
+        try {
+            callback.onSuccess(value);
+        } finally {
+            FutureRuntime.detachContext(previous);
+        }
+    }
+
+    public void onFailure(Throwable caught) {
+        Object previous = FutureRuntime.attachContext(context);
+        try {
+            callback.onFailure(caught);
+        } finally {
+            FutureRuntime.detachContext(previous);
+        }
+    }
+
+    void cancelled() {
+        Object previous = FutureRuntime.attachContext(context);
+        try {
+            ((CancellableAsyncCallback<?>) callback).onCancel();
+        } finally {
+            FutureRuntime.detachContext(previous);
+        }
+    }
+
+    private static final class Cancellable<T> extends ContextCallback<T>
+            implements CancellableAsyncCallback<T> {
+
+        Cancellable(CancellableAsyncCallback<T> callback, Object context) {
+            super(callback, context);
+        }
+
+        public void onCancel() {
+            cancelled();
+        }
+    }
+}
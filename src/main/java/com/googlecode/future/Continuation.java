@@ -0,0 +1,55 @@
+package com.googlecode.future;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a static method written in sequential style, from which the annotation processor in
+ * the gwt-async-future-apt module generates a {@link FutureAction} that resumes where it left
+ * off when a dependency completes, instead of replaying run() from the start.  Each statement
+ * therefore runs once, and side effects may be placed anywhere, e.g.
+ *
+ * <code><pre>
+ * &#64;Continuation
+ * static Receipt checkout(OrderService service, Cart cart) {
+ *     Price price = service.price(cart).result();
+ *     log("Priced " + cart);
+ *     Receipt receipt = service.charge(price).result();
+ *     log("Charged " + price);
+ *     return receipt;
+ * }
+ *
+ * Future&lt;Receipt&gt; receipt = new CheckoutFlowCheckoutAction(service, cart);
+ * </pre></code>
+ *
+ * <p>A call to result() with no arguments suspends the action if it is the whole initializer
+ * of a local variable declared directly in the method body, the whole right hand side of an
+ * assignment statement to such a variable or parameter, or a statement on its own.  Its
+ * receiver is evaluated once before suspending.  Calls to result() anywhere else, e.g. within
+ * a loop or a condition, are rejected, except within anonymous classes.  The generated class:
+ *
+ * <ul>
+ * <li>is in the same package, named by {@link #value()} or else by the enclosing class and
+ * the capitalized method name followed by "Action";
+ * <li>has a constructor taking the parameters of the method;
+ * <li>keeps the parameters and the variables declared directly in the method body in fields;
+ * <li>copies the imports of the source file and statically imports the members of the
+ * enclosing class, which must therefore not be private if used.
+ * </ul>
+ *
+ * <p>The method itself is only a template for the generated action.  The generated code uses
+ * nothing more than the method body does, so remains GWT-translatable if the method is.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface Continuation {
+
+    /**
+     * Simple name of the generated action, or empty for the default.
+     */
+    String value() default "";
+}
@@ -0,0 +1,62 @@
+package com.googlecode.future;
+
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.user.client.Command;
+import com.google.gwt.user.client.DeferredCommand;
+import com.google.gwt.user.client.IncrementalCommand;
+import com.google.gwt.user.client.Timer;
+
+/**
+ * Scheduler used when no other scheduler has been installed.
+ * 
+ * <p>In the browser commands are run using {@link DeferredCommand} and {@link Timer}.  Outside
+ * the browser, e.g. in unit tests, incremental commands are simply run to completion
+ * immediately, as are commands without a delay.  Commands with a delay are not supported
+ * outside the browser, see {@link #isDelaySupported()}: on a server install a real time
+ * scheduler, such as the ExecutorFutureScheduler of the JVM module, which its evaluators
+ * install automatically.
+ */
+public class DefaultFutureScheduler implements FutureScheduler {
+
+    /**
+     * Whether commands with a delay can be run, which is only the case in the browser.
+     */
+    public boolean isDelaySupported() {
+        return GWT.isClient();
+    }
+
+    public long now() {
+        return System.currentTimeMillis();
+    }
+
+    public void schedule(final Command command, long delayMillis) {
+        if (GWT.isClient()) {
+            if (delayMillis <= 0) {
+                DeferredCommand.addCommand(command);
+            } else {
+                new Timer() {
+                    @Override
+                    public void run() {
+                        command.execute();
+                    }
+                }.schedule((int) delayMillis);
+            }
+            return;
+        }
+        if (delayMillis > 0) {
+            throw new UnsupportedOperationException("Delayed commands require a real time "
+                    + "scheduler to be installed with FutureRuntime.setScheduler() outside the "
+                    + "browser, e.g. ExecutorFutureScheduler");
+        }
+        command.execute();
+    }
+
+    public void scheduleIncremental(IncrementalCommand command) {
+        if (GWT.isClient()) {
+            DeferredCommand.addCommand(command);
+            return;
+        }
+        // Emulate to allow use in non GWT unit tests.
+        while (command.execute()) { }
+    }
+}
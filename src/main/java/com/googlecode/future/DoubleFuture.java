@@ -0,0 +1,196 @@
+package com.googlecode.future;
+
+/**
+ * Future result of a double, stored and delivered to listeners without boxing.
+ *
+ * <code><pre>
+ * DoubleFuture average = DoubleFuture.mean(scores);
+ * average.addListener(new DoubleFuture.Listener() {
+ *     public void onSuccess(double value) {
+ *         label.setText("Average: " + value);
+ *     }
+ *     public void onFailure(Throwable caught) {
+ *         ...
+ *     }
+ * });
+ * </pre></code>
+ *
+ * @see PrimitiveFuture
+ */
+public class DoubleFuture extends PrimitiveFuture<Double> {
+
+    /**
+     * Notified when a {@link DoubleFuture} completes.
+     */
+    public interface Listener extends PrimitiveFuture.Listener {
+        void onSuccess(double value);
+    }
+
+    private double value;
+
+    public DoubleFuture() {
+        super(null);
+    }
+
+    public DoubleFuture(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a DoubleFuture that has already succeeded with the given value.
+     *
+     * @param value the value
+     * @return the completed future
+     */
+    public static DoubleFuture constant(double value) {
+        DoubleFuture result = new DoubleFuture();
+        result.setResult(value);
+        return result;
+    }
+
+    /**
+     * Create a DoubleFuture completed by a boxed future.  A null result fails it with a
+     * NullPointerException.
+     *
+     * @param future future to unbox
+     * @return a future for the unboxed result
+     */
+    public static DoubleFuture from(Future<Double> future) {
+        DoubleFuture result = new DoubleFuture(future.getName());
+        forward(future, result);
+        return result;
+    }
+
+    /**
+     * Sets the result of this future.
+     *
+     * @param value the value
+     * @throws IllegalStateException if the future is already complete
+     */
+    public void setResult(double value) {
+        if (!setIfIncomplete(value)) throw alreadyComplete();
+    }
+
+    boolean setIfIncomplete(double value) {
+        synchronized (this) {
+            if (isComplete()) return false;
+            this.value = value;
+            markSucceeded();
+        }
+        notifyCompleted();
+        return true;
+    }
+
+    /**
+     * Return the result of this future if available.
+     *
+     * @return result
+     * @throws IncompleteResultException if result is not yet available
+     * @throws ExecutionException if the future failed
+     * @throws CancelledException if the future was cancelled
+     */
+    public double result() throws IncompleteResultException, ExecutionException,
+            CancelledException {
+        checkSucceeded();
+        return value;
+    }
+
+    /**
+     * Add a listener that is invoked when this future completes, or at once if already
+     * complete.
+     *
+     * @param listener listener to invoke
+     */
+    public void addListener(Listener listener) {
+        listen(listener);
+    }
+
+    /**
+     * The sum of this and another future.
+     */
+    public DoubleFuture plus(DoubleFuture other) {
+        return sum(this, other);
+    }
+
+    /**
+     * The product of this and another future.
+     */
+    public DoubleFuture times(final DoubleFuture other) {
+        final DoubleFuture result = new DoubleFuture();
+        new Join(result, this, other) {
+            void combine() {
+                result.setIfIncomplete(value * other.value);
+            }
+        }.start();
+        return result;
+    }
+
+    /**
+     * The sum of the given futures, once all have succeeded.
+     *
+     * @param values futures to add
+     * @return a future for the sum, which fails if any of the values fails
+     */
+    public static DoubleFuture sum(final DoubleFuture... values) {
+        final DoubleFuture result = new DoubleFuture();
+        new Join(result, values) {
+            void combine() {
+                double total = 0;
+                for (DoubleFuture value : values) total += value.value;
+                result.setIfIncomplete(total);
+            }
+        }.start();
+        return result;
+    }
+
+    /**
+     * The mean of the given futures, once all have succeeded.  The mean of no values is NaN.
+     *
+     * @param values futures to average
+     * @return a future for the mean, which fails if any of the values fails
+     */
+    public static DoubleFuture mean(final DoubleFuture... values) {
+        final DoubleFuture result = new DoubleFuture();
+        new Join(result, values) {
+            void combine() {
+                double total = 0;
+                for (DoubleFuture value : values) total += value.value;
+                result.setIfIncomplete(total / values.length);
+            }
+        }.start();
+        return result;
+    }
+
+    /**
+     * Whether the value of this future is greater than the given value.
+     */
+    public BooleanFuture isGreaterThan(final double other) {
+        final BooleanFuture result = new BooleanFuture();
+        new Join(result, this) {
+            void combine() {
+                result.setIfIncomplete(value > other);
+            }
+        }.start();
+        return result;
+    }
+
+    @Override
+    void notifySuccess(PrimitiveFuture.Listener listener) {
+        ((Listener) listener).onSuccess(value);
+    }
+
+    @Override
+    Double boxedValue() {
+        return value;
+    }
+
+    @Override
+    void setBoxedResult(Double value) {
+        setIfIncomplete(value);
+    }
+
+    @Override
+    String getFutureType() {
+        return "DoubleFuture";
+    }
+}
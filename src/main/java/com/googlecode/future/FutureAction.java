@@ -1,6 +1,8 @@
 package com.googlecode.future;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import com.google.gwt.user.client.rpc.AsyncCallback;
@@ -22,7 +24,8 @@ import com.google.gwt.user.client.rpc.AsyncCallback;
  * until all are satisfied and then the side effects can be run. A Future can
  * only be assigned to once so this ensures that once a result is available a
  * call to get() is idempotent, and once the run method() completes successfully
- * (or fails) then it will not be run again.
+ * (or fails) then it will not be run again.  An action written with the {@link Continuation}
+ * annotation instead resumes where it left off, and is not subject to this rule.
  * 
  * <p>
  * It is a very important to note that creating a FutureAction does not cause
@@ -68,6 +71,11 @@ import com.google.gwt.user.client.rpc.AsyncCallback;
  * unchecked or else it can call the {@link #failWithException(Throwable)}
  * method.
  * 
+ * <p>
+ * Once complete an action drops its dependencies, but it cannot drop the variables captured
+ * by an anonymous subclass.  If completed actions are kept for a long time, hold the inputs
+ * of the action in fields and clear them by overriding {@link #releaseReferences()}.
+ * 
  * @author Dean Povey
  * 
  * @see FutureResult
@@ -76,11 +84,21 @@ import com.google.gwt.user.client.rpc.AsyncCallback;
  */
 public abstract class FutureAction<T> extends FutureResult<T> implements Runnable {
     
-    private Set<Future<?>> dependencies = new HashSet<Future<?>>();
+    private final Set<Future<?>> dependencies = new HashSet<Future<?>>();
+    
+    private volatile boolean isStarted = false;
+    
+    private volatile boolean isRunning = false;
     
-    private boolean isStarted = false;
+    private boolean isRerunRequested = false;
     
-    private boolean isRunning = false;
+    private int runAttempts = 0;
+
+    /** Created when the first dependency is added. */
+    private ActionReference dependents = null;
+
+    /** Context current when the action was created, made current while run() executes. */
+    private Object context = FutureRuntime.captureContext();
  
       
     public FutureAction() {        
@@ -102,24 +120,37 @@ public abstract class FutureAction<T> extends FutureResult<T> implements Runnabl
     public T result() {
         if (isComplete()) return super.result();
                 
-        if (hasUnresolvedDependencies()) {
+        Future<?> unresolved = getUnresolvedDependency();
+        if (unresolved != null) {
+            if (FutureRuntime.awaitCompletion(this)) return result();
             throw new IncompleteResultException(this,
                     "Future (" + this + ") has unresolved dependency",
-                    new IncompleteResultException(dependencies.iterator().next(), String.valueOf(this)));
+                    new IncompleteResultException(unresolved, String.valueOf(this)));
         }
         
         if (isStarted() && !recallRunOnResultRequested()) {
+            if (FutureRuntime.awaitCompletion(this)) return result();
             throw new IncompleteResultException(this,
                     "Waiting for result to be set manually or by callback for " + this);
         }
         
-        if (isRunning()) {
-            throw new IncompleteResultException(this,
-                "Still executing run() for " + this);
+        int attempt;
+        synchronized (this) {
+            if (isRunning()) {
+                // Evaluate again once the current run() returns, so that a dependency
+                // completing meanwhile, e.g. on another thread, is not missed.
+                isRerunRequested = true;
+                throw new IncompleteResultException(this,
+                    "Still executing run() for " + this);
+            }
+            setRunning(true);
+            attempt = ++runAttempts;
         }
-        
+        Object runContext = context;
+        Object previousContext = (runContext != null) ?
+                FutureRuntime.attachContext(runContext) : null;
         try {
-            setRunning(true);            
+            FutureRuntime.fireRunStarted(this, attempt);
             run();            
             setStarted(true);
         } catch(IncompleteResultException e) {
@@ -131,7 +162,15 @@ public abstract class FutureAction<T> extends FutureResult<T> implements Runnabl
         } catch(Throwable t) {
             failWithException(t);
         } finally {
-            setRunning(false);
+            boolean isRerun;
+            synchronized (this) {
+                setRunning(false);
+                isRerun = isRerunRequested && !isComplete();
+                isRerunRequested = false;
+            }
+            FutureRuntime.fireRunFinished(this, attempt);
+            if (runContext != null) FutureRuntime.detachContext(previousContext);
+            if (isRerun) tryResult();
         }
         
         return super.result();
@@ -176,7 +215,7 @@ public abstract class FutureAction<T> extends FutureResult<T> implements Runnabl
             super.failWithException(rethrow);
             return;
         }
-        dependencies.remove(dependency);
+        removeDependency(dependency);
         tryResult();
     }
     
@@ -201,7 +240,30 @@ public abstract class FutureAction<T> extends FutureResult<T> implements Runnabl
     }
 
     protected boolean hasUnresolvedDependencies() {
-        return dependencies.size() > 0;
+        synchronized (dependencies) {
+            return dependencies.size() > 0;
+        }
+    }
+
+    private Future<?> getUnresolvedDependency() {
+        synchronized (dependencies) {
+            return dependencies.isEmpty() ? null : dependencies.iterator().next();
+        }
+    }
+
+    /**
+     * The dependencies the action is currently waiting for.
+     */
+    List<Future<?>> getUnresolvedDependencies() {
+        synchronized (dependencies) {
+            return new ArrayList<Future<?>>(dependencies);
+        }
+    }
+
+    private void removeDependency(Future<?> dependency) {
+        synchronized (dependencies) {
+            dependencies.remove(dependency);
+        }
     }
 
     private boolean isStarted() {
@@ -209,28 +271,53 @@ public abstract class FutureAction<T> extends FutureResult<T> implements Runnabl
     }
 
     @SuppressWarnings("unchecked")
-    private void addDependency(final Future<?> dependency) {
-        if (!dependencies.contains(dependency)) {
-            dependencies.add(dependency);
-            dependency.addCallback(new AsyncCallback() {
-                public void onFailure(Throwable t) {
-                    if (t instanceof CancelledException) FutureAction.this.cancel();                    
-                    else onDependencyFailed(dependency, t);
-                }
-
-                public void onSuccess(Object result) {
-                    dependencies.remove(dependency);                    
-                    tryResult();                    
-                }
-                
-            });
+    private void addDependency(Future<?> dependency) {
+        boolean isAdded;
+        ActionReference reference;
+        synchronized (dependencies) {
+            isAdded = dependencies.add(dependency);
+            if (dependents == null) dependents = new ActionReference(this);
+            reference = dependents;
+        }
+        if (isAdded) {
+            FutureRuntime.fireDependencyAdded(this, dependency);
+            ((Future<Object>) dependency).addCallback(new DependencyCallback(reference, dependency));
         }
     }
-    
+
+    private void dependencyFailed(Future<?> dependency, Throwable t) {
+        FutureRuntime.fireDependencyResolved(this, dependency);
+        if (t instanceof CancelledException) cancel();
+        else onDependencyFailed(dependency, t);
+    }
+
+    private void dependencyResolved(Future<?> dependency) {
+        FutureRuntime.fireDependencyResolved(this, dependency);
+        removeDependency(dependency);
+        tryResult();
+    }
+
     /**
-     * Try to evaluate result, but do not propogate exceptions.
+     * Clears the dependencies, and detaches the callbacks added to dependencies which are
+     * still incomplete, so that a long-lived dependency does not keep this action alive.
+     */
+    @Override
+    protected void releaseReferences() {
+        super.releaseReferences();
+        synchronized (dependencies) {
+            dependencies.clear();
+            if (dependents != null) dependents.action = null;
+        }
+        context = null;
+    }
+
+    /**
+     * Try to evaluate result, but do not propogate exceptions.  This is how an action is
+     * started and resumed when its dependencies complete, so an installed
+     * {@link FutureDispatcher} may instead arrange for it to be evaluated elsewhere.
      */
     protected void tryResult() {        
+        if (FutureRuntime.dispatch(this)) return;
         try {
             result();
         } catch(Throwable t) {
@@ -304,10 +391,53 @@ public abstract class FutureAction<T> extends FutureResult<T> implements Runnabl
     public void setRunning(boolean isRunning) {
         this.isRunning = isRunning;
     }
+    
+    /**
+     * Number of times the run() method has been invoked for this action.
+     * 
+     * @return number of run attempts, including replays
+     */
+    public int getRunAttempts() {
+        return runAttempts;
+    }
 
     @Override
     protected String getFutureType() {
         return "FutureAction";
     }
 
+    /**
+     * The action referred to by its dependency callbacks, cleared on completion.
+     */
+    private static final class ActionReference {
+
+        volatile FutureAction<?> action;
+
+        ActionReference(FutureAction<?> action) {
+            this.action = action;
+        }
+    }
+
+    private static final class DependencyCallback implements AsyncCallback<Object> {
+
+        private final ActionReference reference;
+
+        private final Future<?> dependency;
+
+        DependencyCallback(ActionReference reference, Future<?> dependency) {
+            this.reference = reference;
+            this.dependency = dependency;
+        }
+
+        public void onFailure(Throwable t) {
+            FutureAction<?> action = reference.action;
+            if (action != null) action.dependencyFailed(dependency, t);
+        }
+
+        public void onSuccess(Object result) {
+            FutureAction<?> action = reference.action;
+            if (action != null) action.dependencyResolved(dependency);
+        }
+    }
+
 }
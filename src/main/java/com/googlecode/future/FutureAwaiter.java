@@ -0,0 +1,29 @@
+package com.googlecode.future;
+
+/**
+ * Hook that allows result() to wait for an incomplete future instead of throwing an
+ * {@link IncompleteResultException}.  This is never possible in the browser, but on a server
+ * it allows a {@link FutureAction} run on a suitable thread to execute its run() method once
+ * from top to bottom rather than being replayed for each dependency.
+ * 
+ * <p>An awaiter is installed with {@link FutureRuntime#setAwaiter(FutureAwaiter)}.  When none
+ * is installed, which is the default, futures behave as described in {@link FutureAction}.
+ */
+public interface FutureAwaiter {
+
+    /**
+     * Called on the thread calling result() when the future is not complete.  Implementations
+     * may block until the future completes, or return false immediately to throw an
+     * {@link IncompleteResultException} as usual.
+     * 
+     * <p>Returning false once the future has completed is also allowed, and is the correct
+     * response to a failed future if the failure should be handled by
+     * {@link FutureAction#onDependencyFailed(Future, Throwable)} exactly as it would have been
+     * without an awaiter.
+     * 
+     * @param future the incomplete future
+     * @return true if result() should be evaluated again, false to throw an
+     *      IncompleteResultException
+     */
+    boolean await(Future<?> future);
+}
@@ -0,0 +1,260 @@
+package com.googlecode.future;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Limits the calls in progress to one backend, so that a slow backend ties up no more than
+ * its share of connections and callers of other backends are not stuck behind it.  Calls
+ * beyond the limit wait in a queue, in the order they were started, and calls beyond the
+ * queue fail immediately with a {@link BulkheadFullException}.
+ *
+ * <p>Calls are made through {@link #call(FutureFactory)} and are lazy: a call takes its place
+ * when its future is started.  A call gives up its place when it completes in any way, and
+ * cancelling a queued call removes it from the queue.  To combine with a
+ * {@link FutureCircuitBreaker}, make the call through the breaker from the bulkhead's
+ * factory, so that calls rejected by the breaker do not queue.  The bulkhead may be used from
+ * several threads: its state is guarded by its lock, and factories and callbacks are called
+ * outside it.
+ */
+public class FutureBulkhead {
+
+    private final String name;
+
+    private final int maxConcurrent;
+
+    private final int maxQueued;
+
+    /** The remaining fields are guarded by the bulkhead's lock. */
+    private int active = 0;
+
+    private final LinkedList<Call<?>> queue = new LinkedList<Call<?>>();
+
+    private int rejectedCount = 0;
+
+    private boolean isDraining = false;
+
+    /**
+     * @param name name of the backend
+     * @param maxConcurrent most calls in progress at once
+     * @param maxQueued most calls waiting for one in progress to complete, which may be 0
+     */
+    public FutureBulkhead(String name, int maxConcurrent, int maxQueued) {
+        if (maxConcurrent < 1 || maxQueued < 0) {
+            throw new IllegalArgumentException("Need maxConcurrent >= 1 and maxQueued >= 0");
+        }
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Create a lazy future for a call through the bulkhead.
+     *
+     * @param factory makes the call
+     * @return the future result of the call
+     */
+    public <T> Future<T> call(FutureFactory<T> factory) {
+        return new Call<T>(factory);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Number of calls in progress.
+     */
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    /**
+     * Number of calls waiting to start.
+     */
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Number of calls rejected because the bulkhead was full.
+     */
+    public synchronized int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Give up the place of a completed call, and start queued calls while there are free
+     * places.  Calls are started outside the lock, by one thread at a time, and calls that
+     * complete immediately free their place within the loop rather than by recursion.
+     */
+    private void released() {
+        synchronized (this) {
+            active--;
+            if (isDraining) return;
+            isDraining = true;
+        }
+        boolean isDrained = false;
+        try {
+            while (!isDrained) {
+                List<Call<?>> ready = new ArrayList<Call<?>>();
+                synchronized (this) {
+                    while (active < maxConcurrent && !queue.isEmpty()) {
+                        Call<?> next = queue.removeFirst();
+                        active++;
+                        next.isActive = true;
+                        ready.add(next);
+                    }
+                    if (ready.isEmpty()) {
+                        isDraining = false;
+                        isDrained = true;
+                    }
+                }
+                for (Call<?> next : ready) next.run();
+            }
+        } finally {
+            if (!isDrained) {
+                synchronized (this) {
+                    isDraining = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * The future for one call through the bulkhead.
+     */
+    private class Call<T> extends FutureResult<T> {
+
+        private FutureFactory<T> factory;
+
+        private Future<T> attempt;
+
+        /** The remaining fields are guarded by the bulkhead's lock. */
+        private boolean isStarted = false;
+
+        private boolean isActive = false;
+
+        private boolean isDone = false;
+
+        Call(FutureFactory<T> factory) {
+            super(name);
+            this.factory = factory;
+        }
+
+        @Override
+        public void start() {
+            boolean isRunnable = false;
+            synchronized (FutureBulkhead.this) {
+                if (isStarted || isDone) return;
+                isStarted = true;
+                if (active < maxConcurrent) {
+                    active++;
+                    isActive = true;
+                    isRunnable = true;
+                } else if (queue.size() < maxQueued) {
+                    queue.addLast(this);
+                    return;
+                } else {
+                    rejectedCount++;
+                    isDone = true;
+                }
+            }
+            if (isRunnable) {
+                run();
+            } else {
+                failWithException(new BulkheadFullException("Bulkhead " + name + " is full"));
+            }
+        }
+
+        void run() {
+            FutureFactory<T> callFactory;
+            synchronized (this) {
+                callFactory = factory;
+            }
+            if (callFactory == null) return;
+            Future<T> future;
+            try {
+                future = callFactory.create(1);
+            } catch (Throwable t) {
+                onFailure(t);
+                return;
+            }
+            synchronized (this) {
+                attempt = future;
+            }
+            future.addCallback(this);
+            // Cancelled while being created.
+            if (isCancelled() && !future.isComplete()) future.cancel();
+        }
+
+        @Override
+        public void addCallback(AsyncCallback<T> callback) {
+            super.addCallback(callback);
+            if (!isComplete()) start();
+        }
+
+        @Override
+        public T result() {
+            if (!isComplete()) start();
+            return super.result();
+        }
+
+        @Override
+        public void onSuccess(T value) {
+            if (settle()) setResult(value);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            if (t instanceof CancelledException) onCancel();
+            else if (settle()) failWithException(t);
+        }
+
+        @Override
+        public void onCancel() {
+            Future<T> inProgress;
+            synchronized (this) {
+                inProgress = attempt;
+            }
+            if (!settle()) return;
+            setCancelled();
+            if (inProgress != null && !inProgress.isComplete()) inProgress.cancel();
+        }
+
+        /**
+         * Settle the call exactly once, removing it from the queue or giving up its place.
+         *
+         * @return false if the call was already settled
+         */
+        private boolean settle() {
+            boolean wasActive;
+            synchronized (FutureBulkhead.this) {
+                if (isDone) return false;
+                isDone = true;
+                wasActive = isActive;
+                isActive = false;
+                if (!wasActive) queue.remove(this);
+            }
+            if (wasActive) released();
+            return true;
+        }
+
+        @Override
+        protected void releaseReferences() {
+            super.releaseReferences();
+            synchronized (this) {
+                factory = null;
+                attempt = null;
+            }
+        }
+
+        @Override
+        protected String getFutureType() {
+            return "FutureBulkhead.Call";
+        }
+    }
+}
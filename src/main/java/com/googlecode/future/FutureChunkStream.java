@@ -0,0 +1,121 @@
+package com.googlecode.future;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A pull-based stream over the chunks of a collection of data.  Unlike a
+ * {@link FutureChunkedIncrementalAction}, which processes every chunk as fast as the
+ * scheduler allows, a chunk is only produced once a consumer has asked for it by calling
+ * {@link #next()}, so a slow consumer never causes chunks to be buffered, e.g.
+ *
+ * <code><pre>
+ * final FutureChunkStream&lt;Row&gt; rows = new FutureChunkStream&lt;Row&gt;(query.rows(), 100);
+ * rows.next().addCallback(new AsyncCallback&lt;List&lt;Row&gt;&gt;() {
+ *     public void onSuccess(List&lt;Row&gt; chunk) {
+ *         if (chunk == null) return;                  // end of stream
+ *         table.append(chunk);
+ *         rows.next().addCallback(this);              // ask for the next chunk
+ *     }
+ *     ...
+ * });
+ * </pre></code>
+ *
+ * <p>While no chunk has been asked for, the stream waits on an internal dependency, so
+ * chunks are still produced by the {@link FutureScheduler} in small steps.  Cancelling the
+ * stream stops it and cancels any chunks that have been asked for but not yet produced.
+ *
+ * <p>The stream is itself a future whose result is the number of items produced, available
+ * once the last chunk has been taken.
+ *
+ * @param <DATA_TYPE> type of data in each chunk
+ */
+public class FutureChunkStream<DATA_TYPE> extends FutureChunkedIncrementalAction<Integer, DATA_TYPE> {
+
+    private final LinkedList<FutureResult<List<DATA_TYPE>>> requests =
+        new LinkedList<FutureResult<List<DATA_TYPE>>>();
+
+    private FutureResult<Void> demand;
+
+    private int produced = 0;
+
+    public FutureChunkStream(Future<? extends Iterable<DATA_TYPE>> data) {
+        super(data);
+    }
+
+    public FutureChunkStream(Future<? extends Iterable<DATA_TYPE>> data, int chunkSize) {
+        super(data, chunkSize);
+    }
+
+    public FutureChunkStream(Iterable<DATA_TYPE> data) {
+        super(data);
+    }
+
+    public FutureChunkStream(Iterable<DATA_TYPE> data, int chunkSize) {
+        super(data, chunkSize);
+    }
+
+    /**
+     * Ask for the next chunk, starting the stream if it has not yet started.  Chunks are
+     * returned in order, so calling next() several times before the first chunk is available
+     * asks for that many chunks.
+     *
+     * @return future for the next chunk, which has a null result if there are no more chunks,
+     *      and fails or is cancelled if the stream is
+     */
+    public Future<List<DATA_TYPE>> next() {
+        FutureResult<List<DATA_TYPE>> request = new FutureResult<List<DATA_TYPE>>(getName());
+        if (isComplete()) {
+            complete(request);
+            return request;
+        }
+        requests.add(request);
+        if (demand != null) {
+            FutureResult<Void> waiting = demand;
+            demand = null;
+            waiting.setEmpty();
+        }
+        start();
+        return request;
+    }
+
+    /**
+     * Number of chunks asked for which have not yet been produced.
+     */
+    public int getPendingRequests() {
+        return requests.size();
+    }
+
+    public void chunk(List<DATA_TYPE> chunk) {
+        if (requests.isEmpty()) {
+            // Wait for demand, this chunk is processed again once next() is called.
+            if (demand == null) demand = new FutureResult<Void>("demand for " + getName());
+            demand.result();
+        }
+        produced += chunk.size();
+        requests.removeFirst().setResult(chunk);
+    }
+
+    @Override
+    public void after() {
+        returnResult(produced);
+    }
+
+    @Override
+    protected void onCompleted() {
+        while (!requests.isEmpty()) {
+            complete(requests.removeFirst());
+        }
+    }
+
+    private void complete(FutureResult<List<DATA_TYPE>> request) {
+        if (isSuccessful()) request.setEmpty();
+        else if (isCancelled()) request.cancel();
+        else request.failWithException(exception());
+    }
+
+    @Override
+    protected String getFutureType() {
+        return "FutureChunkStream";
+    }
+}
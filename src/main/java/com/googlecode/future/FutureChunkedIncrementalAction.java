@@ -1,6 +1,7 @@
 package com.googlecode.future;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 
@@ -15,6 +16,10 @@ import java.util.List;
  * 
  * <p>The default chunk size is 1.
  * 
+ * <p>Data that is a {@link List} is used as is.  Any other {@link Iterable} is read lazily,
+ * one chunk at a time, so data that is produced on demand, e.g. records read from a file,
+ * need never be held in memory all at once.
+ * 
  * @author Dean Povey
  *
  * @param <DATA_TYPE> type of data to process
@@ -35,6 +40,12 @@ public abstract class FutureChunkedIncrementalAction<RESULT_TYPE, DATA_TYPE> ext
     
     private List<DATA_TYPE> data;
     
+    /** Iterates over data which is not a List. */
+    private Iterator<DATA_TYPE> iterator;
+    
+    /** Chunk read from the iterator that has not yet been processed. */
+    private List<DATA_TYPE> pendingChunk;
+    
     private Future<? extends Iterable<DATA_TYPE>> getData;
     
     public FutureChunkedIncrementalAction(String name, Future<? extends Iterable<DATA_TYPE>> data) {
@@ -72,7 +83,8 @@ public abstract class FutureChunkedIncrementalAction<RESULT_TYPE, DATA_TYPE> ext
     }
     
     public FutureChunkedIncrementalAction(Iterable<DATA_TYPE> data, int chunkSize) {
-        this(iterableAsList(data), chunkSize);
+        this.chunkSize = chunkSize;
+        useData(data);
     }
     
     public FutureChunkedIncrementalAction(String name, Iterable<DATA_TYPE> data) {
@@ -86,25 +98,30 @@ public abstract class FutureChunkedIncrementalAction<RESULT_TYPE, DATA_TYPE> ext
         setName(name);        
     }
 
-    private final static <DATA_TYPE> List<DATA_TYPE> iterableAsList(Iterable<DATA_TYPE> data) {
-        List<DATA_TYPE> result = new ArrayList<DATA_TYPE>();
-        for (DATA_TYPE item : data) {
-            result.add(item);
+    @SuppressWarnings("unchecked")
+    private void useData(Iterable<DATA_TYPE> data) {
+        if (data instanceof List<?>) {
+            this.data = (List<DATA_TYPE>) data;
+            this.size = this.data.size();
+        } else {
+            this.iterator = data.iterator();
         }
-        return result;
     }
 
     
     public void run() {
         if (isComplete()) return;
         if (!isBeforeCompleted) {
-            if (data == null) {
-                data = iterableAsList(getData.result());
-                size = data.size();
+            if (data == null && iterator == null) {
+                useData(getData.result());
             }
             before();
             isBeforeCompleted = true;            
         }
+        if (iterator != null) {
+            nextIteratedChunk();
+            return;
+        }
         if (offset == size) {
             after();            
             return;
@@ -125,6 +142,26 @@ public abstract class FutureChunkedIncrementalAction<RESULT_TYPE, DATA_TYPE> ext
         offset = endOfChunk;
     }
 
+    private void nextIteratedChunk() {
+        if (pendingChunk == null) {
+            if (!iterator.hasNext()) {
+                after();
+                return;
+            }
+            pendingChunk = new ArrayList<DATA_TYPE>(chunkSize);
+            while (pendingChunk.size() < chunkSize && iterator.hasNext()) {
+                pendingChunk.add(iterator.next());
+            }
+        }
+        if (iterator.hasNext()) {
+            chunk(pendingChunk);
+        } else {
+            last(pendingChunk);
+        }
+        // As for nextChunk(), the chunk is offered again if it could not be processed.
+        pendingChunk = null;
+    }
+
     private static <T> List<T> subList(List<T> data, int offset, int endOfChunk) {
         // Required as List.subList() not supported by GWT.
         List<T> subList = new ArrayList<T>();
@@ -142,4 +179,13 @@ public abstract class FutureChunkedIncrementalAction<RESULT_TYPE, DATA_TYPE> ext
         chunk(data);
     }
 
+    @Override
+    protected void releaseReferences() {
+        super.releaseReferences();
+        data = null;
+        getData = null;
+        iterator = null;
+        pendingChunk = null;
+    }
+
 }
@@ -0,0 +1,406 @@
+package com.googlecode.future;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Stops calling a backend which is failing or slow, so that callers fail fast with a
+ * {@link CircuitOpenException} and fall back at once instead of piling up behind it, e.g.
+ *
+ * <code><pre>
+ * FutureCircuitBreaker breaker = new FutureCircuitBreaker("orders");
+ *
+ * Future&lt;Order&gt; order = breaker.call(new FutureFactory&lt;Order&gt;() {
+ *     public Future&lt;Order&gt; create(int attempt) {
+ *         return service.getOrder(id);
+ *     }
+ * });
+ * </pre></code>
+ *
+ * <p>The breaker starts closed, recording the outcome of recent calls in a sliding window.
+ * Once the window holds at least the minimum number of calls, and the proportion which failed
+ * or took longer than the slow call threshold reaches its limit, the breaker opens and
+ * rejects calls.  After the open duration it becomes half-open and lets a few probe calls
+ * through: if they all succeed in time it closes, otherwise it opens again.  Calls started
+ * before a change of state do not affect the new state, and cancelled calls are not
+ * recorded, nor are probes which fail in a way that does not count.
+ *
+ * <p>Calls are lazy: the breaker is consulted when the future is started.  Which failures
+ * count can be changed by overriding {@link #isFailure(Throwable)}.  Time is taken from
+ * {@link FutureRuntime#getScheduler()}.  The breaker may be used from several threads: its
+ * state is guarded by its lock, and factories, callbacks and {@link #isFailure(Throwable)} are
+ * called outside it.
+ */
+public class FutureCircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+
+    /** The remaining fields are guarded by the breaker's lock. */
+    private double failureRateThreshold = 0.5;
+
+    private long slowCallMillis = Long.MAX_VALUE;
+
+    private double slowCallRateThreshold = 1.0;
+
+    private int minimumCalls = 10;
+
+    private long openMillis = 30000;
+
+    private int halfOpenCalls = 3;
+
+    private State state = State.CLOSED;
+
+    /** Incremented on each change of state, to ignore outcomes of calls started before. */
+    private int generation = 0;
+
+    private long openedAt = 0;
+
+    /** Circular buffers of whether each recent call failed, and was slow. */
+    private boolean[] failed = new boolean[20];
+
+    private boolean[] slow = new boolean[20];
+
+    private int windowCount = 0;
+
+    private int nextCall = 0;
+
+    private int failedCount = 0;
+
+    private int slowCount = 0;
+
+    private int probesStarted = 0;
+
+    private int probesSucceeded = 0;
+
+    private int rejectedCount = 0;
+
+    public FutureCircuitBreaker(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Create a lazy future for a call through the breaker, which fails with a
+     * {@link CircuitOpenException} if the breaker does not allow the call when started.
+     *
+     * @param factory makes the call
+     * @return the future result of the call
+     */
+    public <T> Future<T> call(FutureFactory<T> factory) {
+        return new Call<T>(factory);
+    }
+
+    /**
+     * Whether a failure counts against the backend.  By default all do except cancellation.
+     * Override to ignore failures caused by the caller, e.g. invalid arguments.
+     */
+    protected boolean isFailure(Throwable t) {
+        return true;
+    }
+
+    /**
+     * The current state, moving from open to half-open once the open duration has passed.
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && now() - openedAt >= openMillis) {
+            transition(State.HALF_OPEN);
+        }
+        return state;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Proportion of the calls in the window that failed.
+     */
+    public synchronized double getFailureRate() {
+        return windowCount == 0 ? 0 : (double) failedCount / windowCount;
+    }
+
+    /**
+     * Proportion of the calls in the window that were slow.
+     */
+    public synchronized double getSlowCallRate() {
+        return windowCount == 0 ? 0 : (double) slowCount / windowCount;
+    }
+
+    /**
+     * Number of calls rejected without being attempted.
+     */
+    public synchronized int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Proportion of failed calls that opens the breaker, 0.5 by default.
+     */
+    public synchronized void setFailureRateThreshold(double rate) {
+        if (rate <= 0 || rate > 1) throw new IllegalArgumentException("rate must be in (0, 1]");
+        this.failureRateThreshold = rate;
+    }
+
+    /**
+     * Open the breaker when too many calls are slow.  Disabled by default.
+     *
+     * @param millis duration from which a call is slow
+     * @param rate proportion of slow calls that opens the breaker
+     */
+    public synchronized void setSlowCallThreshold(long millis, double rate) {
+        if (rate <= 0 || rate > 1) throw new IllegalArgumentException("rate must be in (0, 1]");
+        this.slowCallMillis = millis;
+        this.slowCallRateThreshold = rate;
+    }
+
+    /**
+     * Size of the sliding window of recent calls, 20 by default, and the number of calls it
+     * must hold before the breaker can open, 10 by default.  This clears the window.
+     */
+    public synchronized void setWindow(int size, int minimumCalls) {
+        if (minimumCalls < 1 || size < minimumCalls) {
+            throw new IllegalArgumentException("Need 1 <= minimumCalls <= size");
+        }
+        this.failed = new boolean[size];
+        this.slow = new boolean[size];
+        this.minimumCalls = minimumCalls;
+        clearWindow();
+    }
+
+    /**
+     * Time the breaker stays open before letting probe calls through, 30s by default.
+     */
+    public synchronized void setOpenDuration(long millis) {
+        this.openMillis = millis;
+    }
+
+    /**
+     * Number of probe calls that must succeed while half-open to close the breaker, 3 by
+     * default.
+     */
+    public synchronized void setHalfOpenCalls(int calls) {
+        if (calls < 1) throw new IllegalArgumentException("calls must be at least 1");
+        this.halfOpenCalls = calls;
+    }
+
+    private static long now() {
+        return FutureRuntime.getScheduler().now();
+    }
+
+    /**
+     * Must hold the lock.
+     */
+    private void transition(State newState) {
+        state = newState;
+        generation++;
+        probesStarted = 0;
+        probesSucceeded = 0;
+        if (newState == State.OPEN) openedAt = now();
+        clearWindow();
+    }
+
+    private void clearWindow() {
+        for (int i = 0; i < failed.length; i++) {
+            failed[i] = false;
+            slow[i] = false;
+        }
+        windowCount = 0;
+        nextCall = 0;
+        failedCount = 0;
+        slowCount = 0;
+    }
+
+    /**
+     * @return whether a call may start now.  Must hold the lock.
+     */
+    private boolean tryAcquire() {
+        switch (getState()) {
+        case CLOSED:
+            return true;
+        case HALF_OPEN:
+            if (probesStarted < halfOpenCalls) {
+                probesStarted++;
+                return true;
+            }
+            break;
+        default:
+            break;
+        }
+        rejectedCount++;
+        return false;
+    }
+
+    /**
+     * Record the outcome of a call.  Must hold the lock.
+     */
+    private void record(int callGeneration, boolean isFailed, boolean isSlow) {
+        if (callGeneration != generation) return;
+        if (state == State.HALF_OPEN) {
+            if (isFailed || isSlow) transition(State.OPEN);
+            else if (++probesSucceeded >= halfOpenCalls) transition(State.CLOSED);
+            return;
+        }
+        if (windowCount == failed.length) {
+            if (failed[nextCall]) failedCount--;
+            if (slow[nextCall]) slowCount--;
+        } else {
+            windowCount++;
+        }
+        failed[nextCall] = isFailed;
+        slow[nextCall] = isSlow;
+        if (isFailed) failedCount++;
+        if (isSlow) slowCount++;
+        nextCall = (nextCall + 1) % failed.length;
+        if (windowCount >= minimumCalls && (getFailureRate() >= failureRateThreshold
+                || getSlowCallRate() >= slowCallRateThreshold)) {
+            transition(State.OPEN);
+        }
+    }
+
+    /**
+     * Record a failure which does not count against the backend.  A probe gives up its place
+     * without counting as a success, and other calls are recorded as not failed.  Must hold
+     * the lock.
+     */
+    private void recordIgnoredFailure(int callGeneration, boolean isSlow) {
+        if (callGeneration == generation && state == State.HALF_OPEN) released(callGeneration);
+        else record(callGeneration, false, isSlow);
+    }
+
+    /**
+     * Give up the place of a probe which was not recorded.  Must hold the lock.
+     */
+    private void released(int callGeneration) {
+        if (callGeneration == generation && state == State.HALF_OPEN) probesStarted--;
+    }
+
+    /**
+     * The future for one call through the breaker.
+     */
+    private class Call<T> extends FutureResult<T> {
+
+        private FutureFactory<T> factory;
+
+        private Future<T> attempt;
+
+        /** The remaining fields are guarded by the breaker's lock. */
+        private boolean isStarted = false;
+
+        private boolean isDone = false;
+
+        private int callGeneration;
+
+        private long startTime;
+
+        Call(FutureFactory<T> factory) {
+            super(name);
+            this.factory = factory;
+        }
+
+        @Override
+        public void start() {
+            boolean isAllowed;
+            synchronized (FutureCircuitBreaker.this) {
+                if (isStarted || isDone) return;
+                isStarted = true;
+                isAllowed = tryAcquire();
+                if (isAllowed) {
+                    callGeneration = generation;
+                    startTime = now();
+                } else {
+                    isDone = true;
+                }
+            }
+            if (!isAllowed) {
+                failWithException(new CircuitOpenException("Circuit " + name + " is open"));
+                return;
+            }
+            FutureFactory<T> callFactory;
+            synchronized (this) {
+                callFactory = factory;
+            }
+            if (callFactory == null) return;
+            Future<T> future;
+            try {
+                future = callFactory.create(1);
+            } catch (Throwable t) {
+                onFailure(t);
+                return;
+            }
+            synchronized (this) {
+                attempt = future;
+            }
+            future.addCallback(this);
+            // Cancelled while being created.
+            if (isCancelled() && !future.isComplete()) future.cancel();
+        }
+
+        @Override
+        public void addCallback(AsyncCallback<T> callback) {
+            super.addCallback(callback);
+            if (!isComplete()) start();
+        }
+
+        @Override
+        public T result() {
+            if (!isComplete()) start();
+            return super.result();
+        }
+
+        @Override
+        public void onSuccess(T value) {
+            synchronized (FutureCircuitBreaker.this) {
+                if (isDone) return;
+                isDone = true;
+                record(callGeneration, false, now() - startTime >= slowCallMillis);
+            }
+            setResult(value);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            if (t instanceof CancelledException) {
+                onCancel();
+                return;
+            }
+            boolean isCounted = FutureCircuitBreaker.this.isFailure(t);
+            synchronized (FutureCircuitBreaker.this) {
+                if (isDone) return;
+                isDone = true;
+                boolean isSlow = now() - startTime >= slowCallMillis;
+                if (isCounted) record(callGeneration, true, isSlow);
+                else recordIgnoredFailure(callGeneration, isSlow);
+            }
+            failWithException(t);
+        }
+
+        @Override
+        public void onCancel() {
+            Future<T> inProgress;
+            synchronized (this) {
+                inProgress = attempt;
+            }
+            synchronized (FutureCircuitBreaker.this) {
+                if (isDone) return;
+                isDone = true;
+                if (isStarted) released(callGeneration);
+            }
+            setCancelled();
+            if (inProgress != null && !inProgress.isComplete()) inProgress.cancel();
+        }
+
+        @Override
+        protected void releaseReferences() {
+            super.releaseReferences();
+            synchronized (this) {
+                factory = null;
+                attempt = null;
+            }
+        }
+
+        @Override
+        protected String getFutureType() {
+            return "FutureCircuitBreaker.Call";
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.googlecode.future;
+
+/**
+ * Hook that carries context, such as a trace span or logging correlation id, from where a
+ * callback is registered or an action is created to where it runs.  Without it a callback
+ * runs in whatever context completed its future, e.g. that of an unrelated request.
+ *
+ * <p>A propagator is installed with
+ * {@link FutureRuntime#setContextPropagator(FutureContextPropagator)}.  Context is captured
+ * when a callback is added to an incomplete {@link FutureResult} and when a
+ * {@link FutureAction} is created, and made current around the callback and around each
+ * invocation of run().  When none is installed, which is the default, or when no context is
+ * active, nothing is captured and nothing is allocated, and the callback or action runs in
+ * whatever context is current at the time.
+ */
+public interface FutureContextPropagator {
+
+    /**
+     * Take a snapshot of the current context.  This is called often, so should not allocate
+     * when no context is active.
+     *
+     * @return the context, or null if none is active
+     */
+    Object capture();
+
+    /**
+     * Make a context returned by {@link #capture()} current.
+     *
+     * @param context the context to make current
+     * @return whatever must be passed to {@link #detach(Object)} to restore the previous context
+     */
+    Object attach(Object context);
+
+    /**
+     * Restore the context which was current before {@link #attach(Object)}.
+     *
+     * @param previous the value returned by attach
+     */
+    void detach(Object previous);
+}
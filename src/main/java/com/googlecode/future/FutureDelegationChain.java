@@ -66,4 +66,10 @@ public class FutureDelegationChain<T> extends FutureAction<T> {
     public boolean isResult(T result) {
         return result != null;
     }
+
+    @Override
+    protected void releaseReferences() {
+        super.releaseReferences();
+        futures.clear();
+    }
 }
@@ -0,0 +1,29 @@
+package com.googlecode.future;
+
+/**
+ * Hook that decides where the run() method of a {@link FutureAction} is executed.  On a
+ * server this allows independent actions to run concurrently on a thread pool instead of one
+ * after the other on the thread that first asked for their results.
+ * 
+ * <p>A dispatcher is installed with {@link FutureRuntime#setDispatcher(FutureDispatcher)}.
+ * When none is installed, which is the default, actions are always evaluated on the thread
+ * that starts or resumes them.
+ */
+public interface FutureDispatcher {
+
+    /**
+     * Called when an action is started, e.g. by {@link Future#start()} or adding a callback,
+     * or when a dependency it was waiting for completes.  Implementations may arrange for
+     * result() to be called later, e.g. on another thread, and return true.  Returning false
+     * evaluates the action on the calling thread as usual.
+     * 
+     * <p>Calling result() directly always evaluates the action on the calling thread, as the
+     * caller needs the value, and run() never executes on two threads at once: an action
+     * asked for while it is running elsewhere throws an {@link IncompleteResultException} and
+     * is evaluated again when run() returns.
+     * 
+     * @param action the action to evaluate
+     * @return true if the action will be evaluated later
+     */
+    boolean dispatch(FutureAction<?> action);
+}
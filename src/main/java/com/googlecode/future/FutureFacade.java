@@ -0,0 +1,43 @@
+package com.googlecode.future;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a GWT RPC service interface for which the annotation processor in the
+ * gwt-async-future-apt module generates a Future-returning facade, e.g.
+ *
+ * <code><pre>
+ * &#64;FutureFacade
+ * &#64;RemoteServiceRelativePath("orders")
+ * public interface OrderService extends RemoteService {
+ *     Order getOrder(long id);
+ * }
+ *
+ * OrderServiceFutures orders = new OrderServiceFutures(
+ *         GWT.&lt;OrderServiceAsync&gt;create(OrderService.class));
+ * Future&lt;Order&gt; order = orders.getOrder(42);
+ * </pre></code>
+ *
+ * <p>The generated class is in the same package, named by {@link #value()} or else by the
+ * service followed by "Futures".  It extends {@link FutureService} and implements
+ * {@link FutureRemoteService}, and has a constructor taking the asynchronous interface, which
+ * must be named by the service followed by "Async".  For each method of that interface whose
+ * last parameter is an AsyncCallback it has a method with the remaining parameters returning
+ * a Future of the callback's type.  The generated code is GWT-translatable, so may be used on
+ * the client in place of a {@link FutureRemoteService} as well as on a JVM with any
+ * implementation of the asynchronous interface.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface FutureFacade {
+
+    /**
+     * Simple name of the generated facade, or empty for the default.
+     */
+    String value() default "";
+}
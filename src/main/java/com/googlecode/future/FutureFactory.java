@@ -0,0 +1,19 @@
+package com.googlecode.future;
+
+/**
+ * Creates a new future each time it is called, e.g. by sending a request, so that an
+ * operation can be attempted more than once.  Used by {@link FutureHedger}.
+ *
+ * @param <T> type of result
+ */
+public interface FutureFactory<T> {
+
+    /**
+     * Start a new attempt.
+     *
+     * @param attempt number of the attempt, starting at 1
+     * @return the future result of the attempt
+     * @throws Exception if the attempt cannot be started, which fails it like a failed future
+     */
+    Future<T> create(int attempt) throws Exception;
+}
@@ -0,0 +1,21 @@
+package com.googlecode.future;
+
+/**
+ * Asynchronously computes an output from an input, e.g. fetches the record with an id.  Used
+ * by {@link FutureMapper} to map each element of a collection.
+ *
+ * @param <I> type of input
+ * @param <O> type of output
+ */
+public interface FutureFunction<I, O> {
+
+    /**
+     * Start computing the output for an input.
+     *
+     * @param input the input
+     * @return the future output
+     * @throws Exception if the computation cannot be started, which fails it like a failed
+     * future
+     */
+    Future<O> apply(I input) throws Exception;
+}
@@ -0,0 +1,192 @@
+package com.googlecode.future;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A reusable template for a graph of computations with named nodes and explicit edges.  A
+ * graph is defined once, compiled into a {@link FuturePlan}, and the plan is then executed as
+ * many times as required, e.g. once per request, without creating a new graph of
+ * {@link FutureAction}s or rediscovering dependencies by replaying run() methods.
+ *
+ * <code><pre>
+ * FutureGraph graph = new FutureGraph();
+ * final FutureGraph.Node&lt;String&gt; userId = graph.input("userId");
+ * final FutureGraph.Node&lt;User&gt; user = graph.async("user", new FutureGraph.AsyncFunction&lt;User&gt;() {
+ *     public Future&lt;User&gt; compute(FutureGraph.Values in) {
+ *         return users.lookup(in.get(userId));
+ *     }
+ * }, userId);
+ * FutureGraph.Node&lt;Page&gt; page = graph.node("page", new FutureGraph.Function&lt;Page&gt;() {
+ *     public Page compute(FutureGraph.Values in) {
+ *         return render(in.get(user));
+ *     }
+ * }, user);
+ * FuturePlan&lt;Page&gt; plan = graph.compile(page);
+ *
+ * // Per request
+ * Future&lt;Page&gt; result = plan.execute("bob");
+ * </pre></code>
+ *
+ * <p>A node can only depend on nodes that already exist, so a graph can never contain a
+ * cycle.
+ */
+public class FutureGraph {
+
+    /**
+     * Computes the value of a node from the values of its dependencies.
+     *
+     * @param <T> type of value computed
+     */
+    public interface Function<T> {
+        T compute(Values inputs) throws Exception;
+    }
+
+    /**
+     * Computes the value of a node asynchronously from the values of its dependencies.
+     *
+     * @param <T> type of value computed
+     */
+    public interface AsyncFunction<T> {
+        Future<T> compute(Values inputs) throws Exception;
+    }
+
+    /**
+     * Values of the dependencies of a node being computed.
+     */
+    public interface Values {
+        /**
+         * The value of a dependency of the node being computed.
+         *
+         * @param node the dependency
+         * @return its value
+         * @throws IllegalStateException if node has not been computed
+         */
+        <T> T get(Node<T> node);
+    }
+
+    /**
+     * Handle to a node of a graph, used to declare edges and read values.
+     *
+     * @param <T> type of value of the node
+     */
+    public static final class Node<T> {
+
+        final FutureGraph graph;
+
+        final int id;
+
+        final String name;
+
+        final Object function;
+
+        final boolean isAsync;
+
+        final Node<?>[] dependencies;
+
+        private Node(FutureGraph graph, int id, String name, Object function, boolean isAsync,
+                Node<?>[] dependencies) {
+            this.graph = graph;
+            this.id = id;
+            this.name = name;
+            this.function = function;
+            this.isAsync = isAsync;
+            this.dependencies = dependencies;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Whether the value of this node is supplied when the plan is executed.
+         */
+        public boolean isInput() {
+            return function == null;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    final List<Node<?>> nodes = new ArrayList<Node<?>>();
+
+    /**
+     * Add a node whose value is supplied each time the plan is executed.
+     *
+     * @param name name of the node
+     * @return the node
+     */
+    public <T> Node<T> input(String name) {
+        return add(name, null, false, new Node<?>[0]);
+    }
+
+    /**
+     * Add a node computed synchronously once its dependencies are available.
+     *
+     * @param name name of the node
+     * @param function computes the value of the node
+     * @param dependencies nodes whose values are used by the function
+     * @return the node
+     */
+    public <T> Node<T> node(String name, Function<T> function, Node<?>... dependencies) {
+        if (function == null) throw new IllegalArgumentException("function must not be null");
+        return add(name, function, false, dependencies);
+    }
+
+    /**
+     * Add a node computed by a future, e.g. a call to a remote service, once its dependencies
+     * are available.
+     *
+     * @param name name of the node
+     * @param function returns a future for the value of the node
+     * @param dependencies nodes whose values are used by the function
+     * @return the node
+     */
+    public <T> Node<T> async(String name, AsyncFunction<T> function, Node<?>... dependencies) {
+        if (function == null) throw new IllegalArgumentException("function must not be null");
+        return add(name, function, true, dependencies);
+    }
+
+    /**
+     * All nodes added so far, in the order they were added.
+     */
+    public List<Node<?>> getNodes() {
+        return new ArrayList<Node<?>>(nodes);
+    }
+
+    /**
+     * Compile the nodes needed to compute the given output into a plan.  Nodes the output
+     * does not depend on are left out.  The graph may be changed or compiled again afterwards
+     * without affecting the plan.
+     *
+     * @param output node whose value is the result of the plan
+     * @return the plan
+     */
+    public <T> FuturePlan<T> compile(Node<T> output) {
+        checkOwner(output);
+        return new FuturePlan<T>(this, output);
+    }
+
+    private <T> Node<T> add(String name, Object function, boolean isAsync,
+            Node<?>[] dependencies) {
+        if (name == null) throw new IllegalArgumentException("name must not be null");
+        Node<?>[] copy = new Node<?>[dependencies.length];
+        for (int i = 0; i < dependencies.length; i++) {
+            checkOwner(dependencies[i]);
+            copy[i] = dependencies[i];
+        }
+        Node<T> node = new Node<T>(this, nodes.size(), name, function, isAsync, copy);
+        nodes.add(node);
+        return node;
+    }
+
+    private void checkOwner(Node<?> node) {
+        if (node == null) throw new IllegalArgumentException("node must not be null");
+        if (node.graph != this) {
+            throw new IllegalArgumentException("Node " + node + " belongs to another graph");
+        }
+    }
+}
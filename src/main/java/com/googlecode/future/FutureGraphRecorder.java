@@ -0,0 +1,502 @@
+package com.googlecode.future;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the dependency graph between futures as it is discovered, together with start and
+ * end times for each future.  This makes it possible to reconstruct why a set of futures took
+ * as long as it did after the fact.
+ *
+ * <p>Recording is off by default.  Call {@link #start()} to begin recording and {@link #stop()}
+ * to end it, e.g.
+ *
+ * <code><pre>
+ * FutureGraphRecorder recorder = new FutureGraphRecorder();
+ * recorder.start();
+ * pageLoaded.addCallback(new AsyncCallback&lt;Page&gt;() {
+ *     public void onSuccess(Page page) {
+ *         recorder.stop();
+ *         log(recorder.toChromeTrace());
+ *         log("Critical path: " + recorder.criticalPath());
+ *     }
+ *     ...
+ * });
+ * </pre></code>
+ *
+ * <p>The graph can be exported in Graphviz DOT format ({@link #toDot()}), as JSON
+ * ({@link #toJson()}) or in the Chrome trace event format ({@link #toChromeTrace()}) which
+ * can be loaded in chrome://tracing or similar performance viewers.
+ *
+ * <p>{@link #criticalPath()} reports the chain of futures that bounded the end-to-end latency.
+ * An edge is reported as {@link Edge#isSerialized() serialized} if the dependency was only
+ * discovered after another dependency of the same action completed.  This typically happens
+ * when run() calls result() on two independent futures in turn, so that the second is not
+ * started until the first completes.  Serialized edges are where parallelism was lost and can
+ * usually be fixed by calling {@link Future#start()} on both futures first.
+ *
+ * <p>Futures may be recorded from several threads, e.g. with the parallel evaluator of the JVM
+ * module: the graph is guarded by the recorder's lock.
+ */
+public class FutureGraphRecorder extends FutureObserverAdapter {
+
+    /**
+     * A future in the recorded graph.
+     */
+    public static class Node {
+        private final int id;
+        private final Future<?> future;
+        private String name;
+        private final String type;
+        private final long startTime;
+        private long endTime = -1;
+        private String state = "incomplete";
+        private int runAttempts;
+        private final List<Edge> dependencies = new ArrayList<Edge>();
+
+        Node(int id, Future<?> future, long startTime) {
+            this.id = id;
+            this.future = future;
+            this.name = future.getName();
+            this.type = (future instanceof FutureResult<?>) ?
+                    ((FutureResult<?>) future).getFutureType() : "Future";
+            this.startTime = startTime;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * Time the future was first seen, either because it was run or because another action
+         * was found to depend on it.
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * Time the future completed, or -1 if it is still incomplete.
+         */
+        public long getEndTime() {
+            return endTime;
+        }
+
+        public boolean isComplete() {
+            return endTime >= 0;
+        }
+
+        /**
+         * One of "succeeded", "failed", "cancelled" or "incomplete".
+         */
+        public String getState() {
+            return state;
+        }
+
+        /**
+         * Number of times run() was called, or 0 if this is not a {@link FutureAction}.
+         */
+        public int getRunAttempts() {
+            return runAttempts;
+        }
+
+        /**
+         * The dependencies discovered for this future, in the order they were discovered.
+         */
+        public List<Edge> getDependencies() {
+            return Collections.unmodifiableList(dependencies);
+        }
+
+        long duration(long now) {
+            return (isComplete() ? endTime : now) - startTime;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * A dependency of one future on another.
+     */
+    public static class Edge {
+        private final Node dependent;
+        private final Node dependency;
+        private final long discoveredTime;
+        private long resolvedTime = -1;
+        private boolean serialized;
+
+        Edge(Node dependent, Node dependency, long discoveredTime) {
+            this.dependent = dependent;
+            this.dependency = dependency;
+            this.discoveredTime = discoveredTime;
+        }
+
+        public Node getDependent() {
+            return dependent;
+        }
+
+        public Node getDependency() {
+            return dependency;
+        }
+
+        /**
+         * Time at which the dependent found the dependency was incomplete.
+         */
+        public long getDiscoveredTime() {
+            return discoveredTime;
+        }
+
+        /**
+         * Time at which the dependent was notified that the dependency completed, or -1.
+         */
+        public long getResolvedTime() {
+            return resolvedTime;
+        }
+
+        /**
+         * Whether the dependency was only discovered after another dependency of the same
+         * action had completed, ie. whether the two were waited for one after the other
+         * rather than in parallel.
+         */
+        public boolean isSerialized() {
+            return serialized;
+        }
+
+        @Override
+        public String toString() {
+            return dependent + " -> " + dependency;
+        }
+    }
+
+    private final Map<Future<?>, Node> nodes = new IdentityHashMap<Future<?>, Node>();
+
+    private final List<Node> nodesInOrder = new ArrayList<Node>();
+
+    private boolean isRecording = false;
+
+    /**
+     * Start recording.  Recording continues until {@link #stop()} is called.
+     */
+    public synchronized void start() {
+        if (isRecording) return;
+        isRecording = true;
+        FutureRuntime.addObserver(this);
+    }
+
+    /**
+     * Stop recording.  The graph recorded so far is retained.
+     */
+    public synchronized void stop() {
+        isRecording = false;
+        FutureRuntime.removeObserver(this);
+    }
+
+    /**
+     * Discard everything recorded so far.
+     */
+    public synchronized void clear() {
+        nodes.clear();
+        nodesInOrder.clear();
+    }
+
+    /**
+     * Current time in milliseconds, taken from {@link FutureRuntime#getScheduler()} so that
+     * simulations using a {@link VirtualTimeScheduler} are recorded in virtual time.
+     * Subclasses may override this to use a different clock.
+     */
+    protected long now() {
+        return FutureRuntime.getScheduler().now();
+    }
+
+    @Override
+    public synchronized void onRunStarted(FutureAction<?> action, int attempt) {
+        Node node = nodeFor(action);
+        node.runAttempts = attempt;
+    }
+
+    @Override
+    public synchronized void onDependencyAdded(FutureAction<?> action, Future<?> dependency) {
+        long now = now();
+        Node dependent = nodeFor(action);
+        Node dependencyNode = nodeFor(dependency);
+        Edge edge = new Edge(dependent, dependencyNode, now);
+        for (Edge existing : dependent.dependencies) {
+            if (existing.dependency.isComplete()
+                    && existing.dependency.endTime >= existing.discoveredTime
+                    && dependencyNode.startTime >= existing.dependency.endTime) {
+                edge.serialized = true;
+                break;
+            }
+        }
+        dependent.dependencies.add(edge);
+    }
+
+    @Override
+    public synchronized void onDependencyResolved(FutureAction<?> action, Future<?> dependency) {
+        Node dependent = nodes.get(action);
+        if (dependent == null) return;
+        for (Edge edge : dependent.dependencies) {
+            if (edge.dependency.future == dependency && edge.resolvedTime < 0) {
+                edge.resolvedTime = now();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onCompleted(FutureResult<?> future) {
+        Node node = nodes.get(future);
+        if (node == null) return;
+        node.endTime = now();
+        node.name = future.getName();
+        if (future.isSuccessful()) node.state = "succeeded";
+        else if (future.isCancelled()) node.state = "cancelled";
+        else node.state = "failed";
+    }
+
+    private Node nodeFor(Future<?> future) {
+        Node node = nodes.get(future);
+        if (node == null) {
+            node = new Node(nodesInOrder.size(), future, now());
+            nodes.put(future, node);
+            nodesInOrder.add(node);
+        }
+        return node;
+    }
+
+    /**
+     * All recorded futures in the order they were first seen, as recorded when called.
+     */
+    public synchronized List<Node> getNodes() {
+        return Collections.unmodifiableList(new ArrayList<Node>(nodesInOrder));
+    }
+
+    /**
+     * The recorded node for a future, or null if it was not seen while recording.
+     */
+    public synchronized Node getNode(Future<?> future) {
+        return nodes.get(future);
+    }
+
+    /**
+     * All recorded dependency edges.
+     */
+    public synchronized List<Edge> getEdges() {
+        List<Edge> edges = new ArrayList<Edge>();
+        for (Node node : nodesInOrder) {
+            edges.addAll(node.dependencies);
+        }
+        return edges;
+    }
+
+    /**
+     * Edges where a dependency was discovered only after another dependency had completed.
+     *
+     * @see Edge#isSerialized()
+     */
+    public synchronized List<Edge> getSerializedEdges() {
+        List<Edge> edges = new ArrayList<Edge>();
+        for (Edge edge : getEdges()) {
+            if (edge.serialized) edges.add(edge);
+        }
+        return edges;
+    }
+
+    /**
+     * The critical path ending at the future which completed last.
+     *
+     * @return nodes on the critical path, starting from the first future in the chain, or an
+     *      empty list if nothing was recorded.
+     */
+    public synchronized List<Node> criticalPath() {
+        Node last = null;
+        for (Node node : nodesInOrder) {
+            if (last == null || endOrNow(node) > endOrNow(last)) last = node;
+        }
+        return criticalPathTo(last);
+    }
+
+    /**
+     * The critical path ending at the given future, ie. the chain of dependencies that
+     * completed last and so bounded when the future could complete.
+     *
+     * @param future future to trace back from
+     * @return nodes on the critical path, starting from the first future in the chain, or an
+     *      empty list if the future was not recorded.
+     */
+    public synchronized List<Node> criticalPath(Future<?> future) {
+        return criticalPathTo(nodes.get(future));
+    }
+
+    private List<Node> criticalPathTo(Node node) {
+        List<Node> path = new ArrayList<Node>();
+        Map<Node, Boolean> visited = new IdentityHashMap<Node, Boolean>();
+        while (node != null && visited.put(node, Boolean.TRUE) == null) {
+            path.add(node);
+            Node latest = null;
+            for (Edge edge : node.dependencies) {
+                if (latest == null || endOrNow(edge.dependency) > endOrNow(latest)) {
+                    latest = edge.dependency;
+                }
+            }
+            node = latest;
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * The nodes on the critical path, for identity lookups.
+     */
+    private Map<Node, Boolean> criticalNodes() {
+        Map<Node, Boolean> critical = new IdentityHashMap<Node, Boolean>();
+        for (Node node : criticalPath()) {
+            critical.put(node, Boolean.TRUE);
+        }
+        return critical;
+    }
+
+    private long endOrNow(Node node) {
+        return node.isComplete() ? node.endTime : Long.MAX_VALUE;
+    }
+
+    /**
+     * Export the graph in Graphviz DOT format.  Edges point from a future to its dependency,
+     * critical path nodes are drawn in bold and serialized edges are dashed.
+     */
+    public synchronized String toDot() {
+        Map<Node, Boolean> critical = criticalNodes();
+        long now = now();
+        StringBuilder dot = new StringBuilder("digraph futures {\n");
+        dot.append("  rankdir=LR;\n");
+        for (Node node : nodesInOrder) {
+            dot.append("  n").append(node.id).append(" [label=\"")
+                .append(escape(node.name)).append("\\n")
+                .append(node.type).append(", ").append(node.state).append(", ")
+                .append(node.duration(now)).append("ms\"");
+            if (critical.containsKey(node)) dot.append(", style=bold, color=red");
+            dot.append("];\n");
+        }
+        for (Edge edge : getEdges()) {
+            dot.append("  n").append(edge.dependent.id).append(" -> n")
+                .append(edge.dependency.id);
+            if (edge.serialized) dot.append(" [style=dashed, label=\"serialized\"]");
+            dot.append(";\n");
+        }
+        return dot.append("}\n").toString();
+    }
+
+    /**
+     * Export the graph as JSON, with a "nodes" array, an "edges" array and the ids of the
+     * nodes on the "criticalPath".
+     */
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder("{\"nodes\":[");
+        for (int i = 0; i < nodesInOrder.size(); i++) {
+            Node node = nodesInOrder.get(i);
+            if (i > 0) json.append(',');
+            json.append("{\"id\":").append(node.id)
+                .append(",\"name\":\"").append(escape(node.name))
+                .append("\",\"type\":\"").append(node.type)
+                .append("\",\"state\":\"").append(node.state)
+                .append("\",\"start\":").append(node.startTime)
+                .append(",\"end\":").append(node.endTime)
+                .append(",\"runAttempts\":").append(node.runAttempts)
+                .append('}');
+        }
+        json.append("],\"edges\":[");
+        List<Edge> edges = getEdges();
+        for (int i = 0; i < edges.size(); i++) {
+            Edge edge = edges.get(i);
+            if (i > 0) json.append(',');
+            json.append("{\"from\":").append(edge.dependent.id)
+                .append(",\"to\":").append(edge.dependency.id)
+                .append(",\"discovered\":").append(edge.discoveredTime)
+                .append(",\"resolved\":").append(edge.resolvedTime)
+                .append(",\"serialized\":").append(edge.serialized)
+                .append('}');
+        }
+        json.append("],\"criticalPath\":[");
+        List<Node> critical = criticalPath();
+        for (int i = 0; i < critical.size(); i++) {
+            if (i > 0) json.append(',');
+            json.append(critical.get(i).id);
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Export the graph in the Chrome trace event format.  Each future becomes a complete
+     * ("X") event.  Futures that overlap in time are placed on different rows so that the
+     * amount of parallelism is visible.
+     */
+    public synchronized String toChromeTrace() {
+        long now = now();
+        Map<Node, Boolean> critical = criticalNodes();
+        List<Long> rowEndTimes = new ArrayList<Long>();
+        List<Node> byStart = new ArrayList<Node>(nodesInOrder);
+        Collections.sort(byStart, new Comparator<Node>() {
+            public int compare(Node a, Node b) {
+                if (a.startTime != b.startTime) return a.startTime < b.startTime ? -1 : 1;
+                return a.id - b.id;
+            }
+        });
+        StringBuilder trace = new StringBuilder("{\"traceEvents\":[");
+        for (int i = 0; i < byStart.size(); i++) {
+            Node node = byStart.get(i);
+            long end = node.isComplete() ? node.endTime : now;
+            int row = 0;
+            while (row < rowEndTimes.size() && rowEndTimes.get(row) > node.startTime) row++;
+            if (row == rowEndTimes.size()) rowEndTimes.add(end);
+            else rowEndTimes.set(row, end);
+            if (i > 0) trace.append(',');
+            trace.append("{\"name\":\"").append(escape(node.name))
+                .append("\",\"cat\":\"").append(node.type)
+                .append("\",\"ph\":\"X\",\"pid\":1,\"tid\":").append(row)
+                .append(",\"ts\":").append(node.startTime * 1000)
+                .append(",\"dur\":").append((end - node.startTime) * 1000)
+                .append(",\"args\":{\"state\":\"").append(node.state)
+                .append("\",\"runAttempts\":").append(node.runAttempts)
+                .append(",\"critical\":").append(critical.containsKey(node))
+                .append(",\"dependencies\":[");
+            for (int j = 0; j < node.dependencies.size(); j++) {
+                if (j > 0) trace.append(',');
+                trace.append('"').append(escape(node.dependencies.get(j).dependency.name))
+                    .append('"');
+            }
+            trace.append("]}}");
+        }
+        return trace.append("],\"displayTimeUnit\":\"ms\"}").toString();
+    }
+
+    private static String escape(String s) {
+        StringBuilder escaped = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"': escaped.append("\\\""); break;
+            case '\\': escaped.append("\\\\"); break;
+            case '\n': escaped.append("\\n"); break;
+            case '\r': escaped.append("\\r"); break;
+            case '\t': escaped.append("\\t"); break;
+            default:
+                if (c < 0x20) escaped.append(' ');
+                else escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
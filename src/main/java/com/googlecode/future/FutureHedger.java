@@ -0,0 +1,449 @@
+package com.googlecode.future;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.gwt.user.client.Command;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Sends hedged requests to cut tail latency: if an attempt has not completed within a delay,
+ * another is started, the first to succeed wins and the others are cancelled, e.g.
+ *
+ * <code><pre>
+ * FutureHedger hedger = FutureHedger.percentile(0.95, 200);
+ *
+ * Future&lt;Order&gt; order = hedger.hedge(new FutureFactory&lt;Order&gt;() {
+ *     public Future&lt;Order&gt; create(int attempt) {
+ *         return service.getOrder(id);
+ *     }
+ * });
+ * </pre></code>
+ *
+ * <p>The delay is either fixed, or the given percentile of the latencies of recent winning
+ * attempts, so that only the slowest requests are hedged.  Until enough latencies have been
+ * observed the initial delay is used.  A hedger is shared by the calls to one backend, so
+ * that it learns their latencies and can limit the load they add: each hedged call earns a
+ * fraction of a token, up to a burst, and each extra attempt spends a whole one.  With the
+ * default budget of 0.1 no more than about 10% extra requests are sent.  When the budget is
+ * spent the call just waits for the attempts in progress.
+ *
+ * <p>Hedged futures are lazy: the first attempt starts when the future is started.
+ * Cancelling one cancels its attempts.  An attempt that fails does not cause another to be
+ * started; the future fails once every attempt started has failed.  Attempts that are
+ * cancelled other than by the hedger are treated like failures, except that the future is
+ * cancelled if all are.
+ *
+ * <p>Delays are scheduled with {@link FutureRuntime#getScheduler()}, which must be able to
+ * run delayed commands: in the browser the default scheduler can, but on a server a real time
+ * scheduler must be installed before the hedger is created, e.g. the ExecutorFutureScheduler
+ * of the JVM module, or a VirtualTimeScheduler in tests.  Otherwise the constructor throws an
+ * IllegalStateException.
+ *
+ * <p>The hedger may be used from several threads: with a real time scheduler delayed attempts
+ * are started on the scheduler's thread while attempts complete on others.  The state of the
+ * hedger and of its calls is guarded by the hedger's lock, and factories and callbacks are
+ * called outside it.
+ */
+public class FutureHedger {
+
+    /** Latencies observed before the percentile is used instead of the initial delay. */
+    private static final int MIN_SAMPLES = 20;
+
+    private final long initialDelayMillis;
+
+    /** Percentile of observed latencies used as the delay, or 0 for a fixed delay. */
+    private final double percentile;
+
+    /** Circular buffer of recent latencies. */
+    private final long[] latencies;
+
+    private int sampleCount = 0;
+
+    private int nextSample = 0;
+
+    /** Delay computed from the latencies, or -1 if they have changed since. */
+    private long cachedDelay = -1;
+
+    private int maxAttempts = 2;
+
+    /** Budget is counted in thousandths of an attempt, to avoid rounding errors. */
+    private static final int TOKEN = 1000;
+
+    private int tokensPerCall = TOKEN / 10;
+
+    private int maxTokens = 10 * TOKEN;
+
+    /** Starts full, so that the first slow calls may be hedged. */
+    private int tokens = maxTokens;
+
+    private int requestCount = 0;
+
+    private int hedgeCount = 0;
+
+    private int hedgeWinCount = 0;
+
+    private int skippedHedgeCount = 0;
+
+    /**
+     * Create a hedger with a fixed delay.
+     *
+     * @param delayMillis time to wait for an attempt before starting another
+     * @throws IllegalStateException if the scheduler in use cannot run delayed commands
+     */
+    public FutureHedger(long delayMillis) {
+        this(delayMillis, 0.0, 1);
+    }
+
+    /**
+     * Create a hedger which waits for a percentile of recent latencies.
+     *
+     * @param percentile the percentile, between 0 and 1 exclusive, e.g. 0.95
+     * @param initialDelayMillis delay to use until enough latencies have been observed
+     * @param window number of recent latencies to keep
+     */
+    public FutureHedger(double percentile, long initialDelayMillis, int window) {
+        this(initialDelayMillis, percentile, window);
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("percentile must be between 0 and 1: "
+                    + percentile);
+        }
+        if (window < MIN_SAMPLES) {
+            throw new IllegalArgumentException("window must be at least " + MIN_SAMPLES);
+        }
+    }
+
+    private FutureHedger(long initialDelayMillis, double percentile, int window) {
+        if (initialDelayMillis < 0) {
+            throw new IllegalArgumentException("delay must not be negative");
+        }
+        if (!FutureRuntime.isDelaySupported()) {
+            throw new IllegalStateException("Hedging needs a scheduler which supports delays, "
+                    + "see FutureRuntime.setScheduler()");
+        }
+        this.initialDelayMillis = initialDelayMillis;
+        this.percentile = percentile;
+        this.latencies = new long[window];
+    }
+
+    /**
+     * Create a hedger which waits for a percentile of the last 100 latencies.
+     */
+    public static FutureHedger percentile(double percentile, long initialDelayMillis) {
+        return new FutureHedger(percentile, initialDelayMillis, 100);
+    }
+
+    /**
+     * Create a lazy future for the first successful result of the attempts made by a factory.
+     *
+     * @param factory creates each attempt
+     * @return the hedged future
+     */
+    public <T> Future<T> hedge(FutureFactory<T> factory) {
+        return new Hedged<T>(factory);
+    }
+
+    /**
+     * The time to wait for an attempt before starting another.
+     */
+    public synchronized long getDelay() {
+        if (percentile == 0 || sampleCount < MIN_SAMPLES) return initialDelayMillis;
+        if (cachedDelay < 0) {
+            long[] sorted = new long[sampleCount];
+            System.arraycopy(latencies, 0, sorted, 0, sampleCount);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * sampleCount) - 1;
+            cachedDelay = sorted[Math.max(0, index)];
+        }
+        return cachedDelay;
+    }
+
+    /**
+     * Most attempts made for each call, including the first; 2 by default.
+     */
+    public synchronized void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts must be at least 1");
+        this.maxAttempts = maxAttempts;
+    }
+
+    public synchronized int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Limit the extra attempts sent.  This also refills the budget.
+     *
+     * @param ratio extra attempts allowed per call on average, 0.1 by default
+     * @param burst most extra attempts that may be sent at once after a quiet period, 10 by
+     * default
+     */
+    public synchronized void setBudget(double ratio, int burst) {
+        if (ratio < 0 || burst < 1) {
+            throw new IllegalArgumentException("ratio must not be negative and burst positive");
+        }
+        this.tokensPerCall = (int) Math.round(ratio * TOKEN);
+        this.maxTokens = burst * TOKEN;
+        this.tokens = maxTokens;
+    }
+
+    /**
+     * Number of calls started.
+     */
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Number of extra attempts started.
+     */
+    public synchronized int getHedgeCount() {
+        return hedgeCount;
+    }
+
+    /**
+     * Number of calls won by an extra attempt.
+     */
+    public synchronized int getHedgeWinCount() {
+        return hedgeWinCount;
+    }
+
+    /**
+     * Number of extra attempts not started because the budget was spent.
+     */
+    public synchronized int getSkippedHedgeCount() {
+        return skippedHedgeCount;
+    }
+
+    /**
+     * Must hold the lock.
+     */
+    private void recordLatency(long latency) {
+        latencies[nextSample] = latency;
+        nextSample = (nextSample + 1) % latencies.length;
+        if (sampleCount < latencies.length) sampleCount++;
+        cachedDelay = -1;
+    }
+
+    /**
+     * Must hold the lock.
+     */
+    private boolean spendToken() {
+        if (tokens < TOKEN) {
+            skippedHedgeCount++;
+            return false;
+        }
+        tokens -= TOKEN;
+        return true;
+    }
+
+    /**
+     * Give back the token of an extra attempt which was not started after all.  Must hold the
+     * lock.
+     */
+    private void refundToken() {
+        tokens = Math.min(maxTokens, tokens + TOKEN);
+    }
+
+    /**
+     * The future for one hedged call.
+     */
+    private class Hedged<T> extends FutureResult<T> {
+
+        /** The fields are guarded by the hedger's lock. */
+        private FutureFactory<T> factory;
+
+        /** Attempts in progress. */
+        private final List<Future<T>> attempts = new ArrayList<Future<T>>();
+
+        private boolean isStarted = false;
+
+        /** Whether the outcome has been decided, after which no attempt is added. */
+        private boolean isDone = false;
+
+        private Throwable lastFailure = null;
+
+        Hedged(FutureFactory<T> factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public void start() {
+            synchronized (FutureHedger.this) {
+                if (isStarted || isDone) return;
+                isStarted = true;
+                requestCount++;
+                tokens = Math.min(maxTokens, tokens + tokensPerCall);
+            }
+            launch(1);
+        }
+
+        @Override
+        public void addCallback(AsyncCallback<T> callback) {
+            super.addCallback(callback);
+            if (!isComplete()) start();
+        }
+
+        @Override
+        public T result() {
+            if (!isComplete()) start();
+            return super.result();
+        }
+
+        @Override
+        public void onCancel() {
+            List<Future<T>> inProgress;
+            synchronized (FutureHedger.this) {
+                if (isDone) return;
+                isDone = true;
+                inProgress = takeAttempts();
+            }
+            setCancelled();
+            cancel(inProgress);
+        }
+
+        private void launch(final int attempt) {
+            FutureFactory<T> attemptFactory;
+            synchronized (FutureHedger.this) {
+                if (isDone) {
+                    if (attempt > 1) refundToken();
+                    return;
+                }
+                attemptFactory = factory;
+            }
+            Future<T> future;
+            try {
+                future = attemptFactory.create(attempt);
+            } catch (Throwable t) {
+                failed(null, t);
+                return;
+            }
+            boolean isAdded = false;
+            boolean isLast = true;
+            long delay = 0;
+            synchronized (FutureHedger.this) {
+                // The call may have been decided while the attempt was being created.
+                if (!isDone) {
+                    attempts.add(future);
+                    isAdded = true;
+                    isLast = attempt >= maxAttempts;
+                    delay = getDelay();
+                    if (attempt > 1) hedgeCount++;
+                } else if (attempt > 1) {
+                    refundToken();
+                }
+            }
+            if (!isAdded) {
+                if (!future.isComplete()) future.cancel();
+                return;
+            }
+            long startTime = FutureRuntime.getScheduler().now();
+            future.addCallback(new AttemptCallback(future, attempt, startTime));
+            if (!isLast) {
+                FutureRuntime.getScheduler().schedule(new Command() {
+                    public void execute() {
+                        boolean isHedged;
+                        synchronized (FutureHedger.this) {
+                            isHedged = !isDone && spendToken();
+                        }
+                        if (isHedged) launch(attempt + 1);
+                    }
+                }, delay);
+            }
+        }
+
+        /**
+         * Record the failure or cancellation of an attempt, failing or cancelling the call once
+         * no attempt remains in progress.
+         *
+         * @param future the attempt, or null if it could not be created
+         * @param caught the failure, or null if the attempt was cancelled
+         */
+        private void failed(Future<T> future, Throwable caught) {
+            Throwable failure;
+            synchronized (FutureHedger.this) {
+                if (isDone) return;
+                if (future != null) attempts.remove(future);
+                if (caught != null) lastFailure = caught;
+                if (!attempts.isEmpty()) return;
+                isDone = true;
+                failure = lastFailure;
+            }
+            if (failure != null) failWithException(failure);
+            else setCancelled();
+        }
+
+        /**
+         * Remove the attempts in progress, to cancel them once this future is complete.  Must
+         * hold the lock.
+         */
+        private List<Future<T>> takeAttempts() {
+            List<Future<T>> inProgress = new ArrayList<Future<T>>(attempts);
+            attempts.clear();
+            return inProgress;
+        }
+
+        private void cancel(List<Future<T>> inProgress) {
+            for (Future<T> attempt : inProgress) {
+                if (!attempt.isComplete()) attempt.cancel();
+            }
+        }
+
+        @Override
+        protected void releaseReferences() {
+            super.releaseReferences();
+            synchronized (FutureHedger.this) {
+                factory = null;
+                attempts.clear();
+                lastFailure = null;
+            }
+        }
+
+        @Override
+        protected String getFutureType() {
+            return "FutureHedger.Hedged";
+        }
+
+        /**
+         * Completes the call when an attempt wins, or settles it when the last one fails.
+         */
+        private final class AttemptCallback implements CancellableAsyncCallback<T> {
+
+            private final Future<T> future;
+
+            private final int attempt;
+
+            private final long startTime;
+
+            AttemptCallback(Future<T> future, int attempt, long startTime) {
+                this.future = future;
+                this.attempt = attempt;
+                this.startTime = startTime;
+            }
+
+            public void onSuccess(T result) {
+                long latency = FutureRuntime.getScheduler().now() - startTime;
+                List<Future<T>> losers;
+                synchronized (FutureHedger.this) {
+                    if (isDone) return;
+                    isDone = true;
+                    attempts.remove(future);
+                    losers = takeAttempts();
+                    recordLatency(latency);
+                    if (attempt > 1) hedgeWinCount++;
+                }
+                setResult(result);
+                cancel(losers);
+            }
+
+            public void onFailure(Throwable caught) {
+                if (caught instanceof CancelledException) onCancel();
+                else failed(future, caught);
+            }
+
+            public void onCancel() {
+                failed(future, null);
+            }
+        }
+    }
+}
@@ -1,11 +1,11 @@
 package com.googlecode.future;
 
-import com.google.gwt.core.client.GWT;
-import com.google.gwt.user.client.DeferredCommand;
 import com.google.gwt.user.client.IncrementalCommand;
 
 /**
  * Future which wraps GWT's IncrementalCommand to protect against slow script warnings.
+ * The steps are run by the {@link FutureScheduler} returned from
+ * {@link FutureRuntime#getScheduler()}.
  * 
  * @author dpovey
  *
@@ -13,6 +13,8 @@ import com.google.gwt.user.client.IncrementalCommand;
  */
 public abstract class FutureIncrementalAction<T> extends FutureAction<T> {
     
+    private boolean isScheduled = false;
+    
     public FutureIncrementalAction() { }
 
     public FutureIncrementalAction(String name) {
@@ -21,27 +23,23 @@ public abstract class FutureIncrementalAction<T> extends FutureAction<T> {
 
     @Override    
     public T result() {
-        if (GWT.isClient()) {            
-            if (isComplete()) return super.result();
-            if (keepCallingRun()) {
-                // We call run repeatedly until we either encounter an unresolved
-                // dependency or we have a result set.
-                DeferredCommand.addCommand(new IncrementalCommand() {                    
-                    public boolean execute() {                        
-                        trySuperResult();                    
-                        return keepCallingRun(); 
-                    }
-                });               
-            }            
-            setStarted(true);
-            throw new IncompleteResultException(this, "Deferred execution for " + this.getName());
+        if (isComplete()) return super.result();
+        if (!isScheduled && keepCallingRun()) {
+            // We call run repeatedly until we either encounter an unresolved
+            // dependency or we have a result set.
+            isScheduled = true;
+            FutureRuntime.getScheduler().scheduleIncremental(new IncrementalCommand() {
+                public boolean execute() {
+                    trySuperResult();
+                    isScheduled = keepCallingRun();
+                    return isScheduled;
+                }
+            });
         }
-        
-        // Emulate to allow use in non GWT unit tests.
-        do { 
-            trySuperResult(); 
-        } while(keepCallingRun()) ;
-        return super.result();
+        if (isComplete()) return super.result();
+        setStarted(true);
+        if (FutureRuntime.awaitCompletion(this)) return result();
+        throw new IncompleteResultException(this, "Deferred execution for " + this.getName());
     }
     
     private boolean keepCallingRun() {
@@ -0,0 +1,507 @@
+package com.googlecode.future;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Limits the calls in progress to one backend, like a {@link FutureBulkhead}, but adjusts the
+ * limit to the latency of the calls as they complete: it rises while the backend keeps up and
+ * falls as soon as latency grows or calls fail, e.g.
+ *
+ * <code><pre>
+ * FutureLimiter limiter = new FutureLimiter("orders", new FutureLimiter.Gradient(20, 200), 50);
+ *
+ * Future&lt;Order&gt; order = limiter.call(new FutureFactory&lt;Order&gt;() {
+ *     public Future&lt;Order&gt; create(int attempt) {
+ *         return service.getOrder(id);
+ *     }
+ * });
+ * </pre></code>
+ *
+ * <p>The limit is computed by an {@link Algorithm}: {@link Aimd}, which backs off only on
+ * failures or timeouts, {@link Vegas}, which estimates the queue at the backend from the
+ * lowest latency seen, or {@link Gradient}, which compares recent latency with its long term
+ * average.  Calls beyond the limit wait in a queue, in the order they were started, and calls
+ * beyond the queue fail immediately with a {@link LimitExceededException}.  The limit, the
+ * calls in progress and the time calls spend queued are available as metrics.
+ *
+ * <p>Calls are lazy: a call takes its place when its future is started, and gives it up when
+ * it completes in any way.  Failures count as drops, which reduce the limit, unless
+ * {@link #isDrop(Throwable)} is overridden; cancelled calls are not sampled.  Time is taken
+ * from {@link FutureRuntime#getScheduler()}.  The limiter may be used from several threads,
+ * e.g. with a concurrent JVM dispatcher: its state is guarded by its lock, and factories and
+ * callbacks are called outside it.
+ */
+public class FutureLimiter {
+
+    /**
+     * Computes the concurrency limit from the samples of completed calls.  Called with the
+     * limiter's lock held, so implementations need not be thread safe.
+     */
+    public interface Algorithm {
+
+        /**
+         * The current limit, at least 1.
+         */
+        int getLimit();
+
+        /**
+         * Update the limit with the outcome of a call.
+         *
+         * @param rttMillis time from starting the call to its completion
+         * @param inFlight calls in progress when it started, including itself
+         * @param isDropped whether it failed or otherwise indicated overload
+         */
+        void onSample(long rttMillis, int inFlight, boolean isDropped);
+    }
+
+    /**
+     * Additive increase, multiplicative decrease: the limit grows by one for each successful
+     * call made while at least half of it was in use, and is cut by the backoff ratio on each
+     * drop or call slower than the timeout.
+     */
+    public static class Aimd implements Algorithm {
+
+        private final int minLimit;
+
+        private final int maxLimit;
+
+        private final double backoffRatio;
+
+        private final long timeoutMillis;
+
+        private int limit;
+
+        public Aimd(int initialLimit, int maxLimit) {
+            this(initialLimit, 1, maxLimit, 0.9, Long.MAX_VALUE);
+        }
+
+        /**
+         * @param initialLimit limit to start from
+         * @param minLimit lowest limit
+         * @param maxLimit highest limit
+         * @param backoffRatio factor applied to the limit on a drop, e.g. 0.9
+         * @param timeoutMillis latency treated as a drop
+         */
+        public Aimd(int initialLimit, int minLimit, int maxLimit, double backoffRatio,
+                long timeoutMillis) {
+            checkLimits(initialLimit, minLimit, maxLimit);
+            if (backoffRatio <= 0 || backoffRatio >= 1) {
+                throw new IllegalArgumentException("backoffRatio must be between 0 and 1");
+            }
+            this.limit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.backoffRatio = backoffRatio;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public void onSample(long rttMillis, int inFlight, boolean isDropped) {
+            if (isDropped || rttMillis > timeoutMillis) {
+                limit = Math.max(minLimit, (int) (limit * backoffRatio));
+            } else if (inFlight * 2 >= limit) {
+                limit = Math.min(maxLimit, limit + 1);
+            }
+        }
+    }
+
+    /**
+     * TCP Vegas style: the lowest latency seen is taken as that of an idle backend, from which
+     * the number of calls queued at the backend is estimated as
+     * limit * (1 - lowest / latency).  The limit grows while few are queued and shrinks when
+     * many are, by steps proportional to log10 of the limit.
+     */
+    public static class Vegas implements Algorithm {
+
+        private final int maxLimit;
+
+        private double estimate;
+
+        private long rttNoLoad = 0;
+
+        public Vegas(int initialLimit, int maxLimit) {
+            checkLimits(initialLimit, 1, maxLimit);
+            this.estimate = initialLimit;
+            this.maxLimit = maxLimit;
+        }
+
+        public int getLimit() {
+            return (int) estimate;
+        }
+
+        /**
+         * The lowest latency seen, or 0 if none yet.
+         */
+        public long getNoLoadLatency() {
+            return rttNoLoad;
+        }
+
+        public void onSample(long rttMillis, int inFlight, boolean isDropped) {
+            long rtt = Math.max(1, rttMillis);
+            if (rttNoLoad == 0 || rtt < rttNoLoad) rttNoLoad = rtt;
+            double log = Math.max(1, Math.log(estimate) / Math.log(10));
+            if (isDropped) {
+                estimate = Math.max(1, estimate - log);
+                return;
+            }
+            // Only grow a limit that is being used.
+            if (inFlight * 2 < estimate) return;
+            double queued = Math.ceil(estimate * (1 - (double) rttNoLoad / rtt));
+            if (queued <= log) {
+                estimate += 6 * log;
+            } else if (queued < 3 * log) {
+                estimate += log;
+            } else if (queued > 6 * log) {
+                estimate -= log;
+            }
+            estimate = Math.max(1, Math.min(maxLimit, estimate));
+        }
+    }
+
+    /**
+     * Gradient style: the limit is scaled by the ratio of the long term average latency,
+     * with some tolerance, to the latest latency, between 0.5 and 1, plus a queue allowance
+     * of the square root of the limit so that it can grow.  Changes are smoothed, and the long
+     * term average adapts slowly so that a lasting change in latency is eventually accepted.
+     */
+    public static class Gradient implements Algorithm {
+
+        private static final double TOLERANCE = 1.5;
+
+        private static final double SMOOTHING = 0.2;
+
+        /** Weight of each sample in the long term average, about 1 / 600 samples. */
+        private static final double LONG_WEIGHT = 2.0 / 601;
+
+        private final int maxLimit;
+
+        private double estimate;
+
+        private double longRtt = 0;
+
+        public Gradient(int initialLimit, int maxLimit) {
+            checkLimits(initialLimit, 1, maxLimit);
+            this.estimate = initialLimit;
+            this.maxLimit = maxLimit;
+        }
+
+        public int getLimit() {
+            return (int) estimate;
+        }
+
+        public void onSample(long rttMillis, int inFlight, boolean isDropped) {
+            double rtt = Math.max(1, rttMillis);
+            longRtt = (longRtt == 0) ? rtt : longRtt * (1 - LONG_WEIGHT) + rtt * LONG_WEIGHT;
+            // Only grow a limit that is being used.
+            if (!isDropped && inFlight * 2 < estimate) return;
+            double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / rtt));
+            if (isDropped) gradient = 0.5;
+            double target = estimate * gradient + Math.sqrt(estimate);
+            estimate = estimate * (1 - SMOOTHING) + target * SMOOTHING;
+            estimate = Math.max(1, Math.min(maxLimit, estimate));
+        }
+    }
+
+    private static void checkLimits(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException(
+                    "Need 1 <= minLimit <= initialLimit <= maxLimit");
+        }
+    }
+
+    /** Weight of each call in the moving average of the queueing delay. */
+    private static final double DELAY_WEIGHT = 0.1;
+
+    private final String name;
+
+    private final Algorithm algorithm;
+
+    private final int maxQueued;
+
+    private int limit;
+
+    private int inFlight = 0;
+
+    private final LinkedList<Call<?>> queue = new LinkedList<Call<?>>();
+
+    private double queueDelay = 0;
+
+    private int rejectedCount = 0;
+
+    private boolean isDraining = false;
+
+    /**
+     * @param name name of the backend
+     * @param algorithm computes the limit
+     * @param maxQueued most calls waiting for a place, which may be 0 to reject at once
+     */
+    public FutureLimiter(String name, Algorithm algorithm, int maxQueued) {
+        if (maxQueued < 0) throw new IllegalArgumentException("maxQueued must not be negative");
+        this.name = name;
+        this.algorithm = algorithm;
+        this.maxQueued = maxQueued;
+        this.limit = algorithm.getLimit();
+    }
+
+    /**
+     * Create a lazy future for a call through the limiter.
+     *
+     * @param factory makes the call
+     * @return the future result of the call
+     */
+    public <T> Future<T> call(FutureFactory<T> factory) {
+        return new Call<T>(factory);
+    }
+
+    /**
+     * Whether a failure indicates overload and so reduces the limit.  By default all do.
+     */
+    protected boolean isDrop(Throwable t) {
+        return true;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The current concurrency limit.
+     */
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Number of calls in progress.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Number of calls waiting to start.
+     */
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Moving average of the time calls spent queued before starting, in milliseconds,
+     * including calls that did not wait.
+     */
+    public synchronized double getQueueDelay() {
+        return queueDelay;
+    }
+
+    /**
+     * Number of calls rejected because the limit was reached and the queue full.
+     */
+    public synchronized int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    private static long now() {
+        return FutureRuntime.getScheduler().now();
+    }
+
+    /**
+     * Take a place for a call which has been queued or is starting.  Must hold the lock.
+     */
+    private void acquired(Call<?> call, long now) {
+        inFlight++;
+        call.isActive = true;
+        call.inFlightAtStart = inFlight;
+        call.startTime = now;
+        queueDelay += (now - call.queuedTime - queueDelay) * DELAY_WEIGHT;
+    }
+
+    /**
+     * Give up the place of a completed call, and start queued calls while there are free
+     * places.  Calls are started outside the lock, by one thread at a time, and calls that
+     * complete immediately free their place within the loop rather than by recursion.
+     */
+    private void released(Call<?> call, boolean isSampled, boolean isDropped) {
+        synchronized (this) {
+            inFlight--;
+            if (isSampled) {
+                algorithm.onSample(now() - call.startTime, call.inFlightAtStart, isDropped);
+                limit = Math.max(1, algorithm.getLimit());
+            }
+            if (isDraining) return;
+            isDraining = true;
+        }
+        boolean isDrained = false;
+        try {
+            while (!isDrained) {
+                List<Call<?>> ready = new ArrayList<Call<?>>();
+                synchronized (this) {
+                    long now = now();
+                    while (inFlight < limit && !queue.isEmpty()) {
+                        Call<?> next = queue.removeFirst();
+                        acquired(next, now);
+                        ready.add(next);
+                    }
+                    if (ready.isEmpty()) {
+                        isDraining = false;
+                        isDrained = true;
+                    }
+                }
+                for (Call<?> next : ready) next.run();
+            }
+        } finally {
+            if (!isDrained) {
+                synchronized (this) {
+                    isDraining = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * The future for one call through the limiter.
+     */
+    private class Call<T> extends FutureResult<T> {
+
+        private FutureFactory<T> factory;
+
+        private Future<T> attempt;
+
+        /** The remaining fields are guarded by the limiter's lock. */
+        private boolean isStarted = false;
+
+        private boolean isActive = false;
+
+        private boolean isDone = false;
+
+        long queuedTime;
+
+        long startTime;
+
+        int inFlightAtStart;
+
+        Call(FutureFactory<T> factory) {
+            super(name);
+            this.factory = factory;
+        }
+
+        @Override
+        public void start() {
+            boolean isRunnable = false;
+            synchronized (FutureLimiter.this) {
+                if (isStarted || isDone) return;
+                isStarted = true;
+                queuedTime = now();
+                if (inFlight < limit) {
+                    acquired(this, queuedTime);
+                    isRunnable = true;
+                } else if (queue.size() < maxQueued) {
+                    queue.addLast(this);
+                    return;
+                } else {
+                    rejectedCount++;
+                    isDone = true;
+                }
+            }
+            if (isRunnable) {
+                run();
+            } else {
+                failWithException(new LimitExceededException("Limit of " + name
+                        + " reached"));
+            }
+        }
+
+        void run() {
+            FutureFactory<T> callFactory;
+            synchronized (this) {
+                callFactory = factory;
+            }
+            if (callFactory == null) return;
+            Future<T> future;
+            try {
+                future = callFactory.create(1);
+            } catch (Throwable t) {
+                onFailure(t);
+                return;
+            }
+            synchronized (this) {
+                attempt = future;
+            }
+            future.addCallback(this);
+            // Cancelled while being created.
+            if (isCancelled() && !future.isComplete()) future.cancel();
+        }
+
+        @Override
+        public void addCallback(AsyncCallback<T> callback) {
+            super.addCallback(callback);
+            if (!isComplete()) start();
+        }
+
+        @Override
+        public T result() {
+            if (!isComplete()) start();
+            return super.result();
+        }
+
+        @Override
+        public void onSuccess(T value) {
+            if (settle(true, false)) setResult(value);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            if (t instanceof CancelledException) onCancel();
+            else if (settle(true, isDrop(t))) failWithException(t);
+        }
+
+        @Override
+        public void onCancel() {
+            Future<T> inProgress;
+            synchronized (this) {
+                inProgress = attempt;
+            }
+            if (!settle(false, false)) return;
+            setCancelled();
+            if (inProgress != null && !inProgress.isComplete()) inProgress.cancel();
+        }
+
+        /**
+         * Settle the call exactly once, removing it from the queue or giving up its place.
+         *
+         * @return false if the call was already settled
+         */
+        private boolean settle(boolean isSampled, boolean isDropped) {
+            boolean wasActive;
+            synchronized (FutureLimiter.this) {
+                if (isDone) return false;
+                isDone = true;
+                wasActive = isActive;
+                isActive = false;
+                if (!wasActive) queue.remove(this);
+            }
+            if (wasActive) released(this, isSampled, isDropped);
+            return true;
+        }
+
+        @Override
+        protected void releaseReferences() {
+            super.releaseReferences();
+            synchronized (this) {
+                factory = null;
+                attempt = null;
+            }
+        }
+
+        @Override
+        protected String getFutureType() {
+            return "FutureLimiter.Call";
+        }
+    }
+}
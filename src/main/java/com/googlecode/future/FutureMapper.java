@@ -0,0 +1,223 @@
+package com.googlecode.future;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * A future for the list of results of applying a {@link FutureFunction} to each element of a
+ * collection, with at most a given number of applications in progress at a time, e.g.
+ *
+ * <code><pre>
+ * FutureFunction&lt;Long, Order&gt; getOrder = new FutureFunction&lt;Long, Order&gt;() {
+ *     public Future&lt;Order&gt; apply(Long id) {
+ *         return service.getOrder(id);
+ *     }
+ * };
+ * Future&lt;List&lt;Order&gt;&gt; orders = mapAll(orderIds, getOrder, 10);
+ * </pre></code>
+ *
+ * <p>Nothing is applied until the mapper is started.  Elements are then taken from the
+ * collection's iterator one at a time as earlier applications complete, so no more than
+ * maxConcurrency futures exist at once however large the collection is.  An ordered mapper
+ * returns results in the order of the collection; an unordered one returns them in the order
+ * they complete, which lets a caller process them without waiting for the slowest.
+ *
+ * <p>The mapper fails as soon as any application fails, or throws from
+ * {@link FutureFunction#apply(Object)}, and cancels those still in progress without starting
+ * more.  Cancelling the mapper, or any application, likewise cancels the rest.
+ *
+ * @param <I> type of element
+ * @param <O> type of result of each element
+ */
+public class FutureMapper<I, O> extends FutureResult<List<O>> {
+
+    private Iterator<? extends I> inputs;
+
+    private FutureFunction<? super I, ? extends O> function;
+
+    private final int maxConcurrency;
+
+    private final boolean ordered;
+
+    private final List<O> results = new ArrayList<O>();
+
+    private List<Future<? extends O>> inProgress = new ArrayList<Future<? extends O>>();
+
+    private boolean isStarted = false;
+
+    private boolean isFilling = false;
+
+    /**
+     * @param inputs the elements to map
+     * @param function the function to apply to each element
+     * @param maxConcurrency most applications to have in progress at a time
+     * @param ordered whether the results are in the order of the elements rather than of
+     * completion
+     */
+    public FutureMapper(Iterable<? extends I> inputs,
+            FutureFunction<? super I, ? extends O> function, int maxConcurrency, boolean ordered) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1: "
+                    + maxConcurrency);
+        }
+        this.inputs = inputs.iterator();
+        this.function = function;
+        this.maxConcurrency = maxConcurrency;
+        this.ordered = ordered;
+    }
+
+    /**
+     * Map the elements of a collection, returning results in the order of the elements.
+     */
+    public static <I, O> FutureMapper<I, O> mapAll(Iterable<? extends I> inputs,
+            FutureFunction<? super I, ? extends O> function, int maxConcurrency) {
+        return new FutureMapper<I, O>(inputs, function, maxConcurrency, true);
+    }
+
+    /**
+     * Map the elements of a collection, returning results in the order they complete.
+     */
+    public static <I, O> FutureMapper<I, O> mapAllUnordered(Iterable<? extends I> inputs,
+            FutureFunction<? super I, ? extends O> function, int maxConcurrency) {
+        return new FutureMapper<I, O>(inputs, function, maxConcurrency, false);
+    }
+
+    /**
+     * Start mapping, if not already started.
+     */
+    @Override
+    public void start() {
+        if (isStarted || isComplete()) return;
+        isStarted = true;
+        fill();
+    }
+
+    @Override
+    public void addCallback(AsyncCallback<List<O>> callback) {
+        super.addCallback(callback);
+        if (!isComplete()) start();
+    }
+
+    @Override
+    public List<O> result() {
+        if (!isComplete()) start();
+        return super.result();
+    }
+
+    @Override
+    public void onCancel() {
+        super.onCancel();
+        cancelInProgress();
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Number of applications currently in progress.
+     */
+    public int getInProgressCount() {
+        return inProgress.size();
+    }
+
+    /**
+     * Apply the function to further elements while there are free slots.  Applications that
+     * complete immediately free their slot within the loop rather than by recursion.
+     */
+    private void fill() {
+        if (isFilling) return;
+        isFilling = true;
+        try {
+            while (!isComplete() && inProgress.size() < maxConcurrency && inputs.hasNext()) {
+                int index = -1;
+                if (ordered) {
+                    index = results.size();
+                    results.add(null);
+                }
+                Future<? extends O> future;
+                try {
+                    future = function.apply(inputs.next());
+                } catch (Throwable t) {
+                    fail(t);
+                    return;
+                }
+                inProgress.add(future);
+                addCallback(future, index);
+            }
+            if (!isComplete() && inProgress.isEmpty() && !inputs.hasNext()) setResult(results);
+        } finally {
+            isFilling = false;
+        }
+    }
+
+    private <V extends O> void addCallback(Future<V> future, int index) {
+        future.addCallback(new ElementCallback<V>(future, index));
+    }
+
+    private void fail(Throwable t) {
+        if (isComplete()) return;
+        failWithException(t);
+        cancelInProgress();
+    }
+
+    private void cancelInProgress() {
+        List<Future<? extends O>> cancelled = inProgress;
+        inProgress = new ArrayList<Future<? extends O>>();
+        for (Future<? extends O> future : cancelled) {
+            if (!future.isComplete()) future.cancel();
+        }
+    }
+
+    @Override
+    protected void releaseReferences() {
+        super.releaseReferences();
+        inputs = null;
+        function = null;
+    }
+
+    @Override
+    protected String getFutureType() {
+        return "FutureMapper";
+    }
+
+    /**
+     * Delivers the result of one application.
+     */
+    private final class ElementCallback<V extends O> implements CancellableAsyncCallback<V> {
+
+        private final Future<V> future;
+
+        /** Position of the result when ordered, otherwise -1. */
+        private final int index;
+
+        ElementCallback(Future<V> future, int index) {
+            this.future = future;
+            this.index = index;
+        }
+
+        public void onSuccess(V result) {
+            if (isComplete()) return;
+            inProgress.remove(future);
+            if (index < 0) results.add(result);
+            else results.set(index, result);
+            fill();
+        }
+
+        public void onFailure(Throwable caught) {
+            if (caught instanceof CancelledException) onCancel();
+            else fail(caught);
+        }
+
+        public void onCancel() {
+            if (!isComplete()) FutureMapper.this.cancel();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.googlecode.future;
+
+/**
+ * A mutual exclusion lock for futures: a {@link FutureSemaphore} with a single permit, so that
+ * calls made through {@link #withLock(FutureFactory)} run one at a time, in the order they
+ * were started, e.g. to keep updates to one record from overlapping.
+ *
+ * <p>The lock is not reentrant: a call holding it which waits for it again never completes.
+ */
+public class FutureMutex extends FutureSemaphore {
+
+    public FutureMutex() {
+        this("mutex");
+    }
+
+    public FutureMutex(String name) {
+        super(name, 1);
+    }
+
+    /**
+     * Acquire the lock, which is held until the permit is released.
+     *
+     * @return a future permit, which may be cancelled while waiting
+     */
+    public Future<Permit> lock() {
+        return acquire();
+    }
+
+    /**
+     * Create a lazy future for a call made while holding the lock, which is released when the
+     * call completes.
+     *
+     * @param factory makes the call
+     * @return the future result of the call
+     */
+    public <T> Future<T> withLock(FutureFactory<T> factory) {
+        return withPermit(factory);
+    }
+
+    /**
+     * Whether the lock is held.
+     */
+    public boolean isLocked() {
+        return getAvailablePermits() == 0;
+    }
+}
@@ -0,0 +1,55 @@
+package com.googlecode.future;
+
+/**
+ * Receives notifications about the lifecycle of futures.  Observers are registered with
+ * {@link FutureRuntime#addObserver(FutureObserver)} and are notified for every future in the
+ * application, so implementations should be cheap and must not throw.
+ * 
+ * <p>Most implementations will want to extend {@link FutureObserverAdapter} and override only
+ * the methods they are interested in.
+ * 
+ * @see FutureGraphRecorder
+ */
+public interface FutureObserver {
+
+    /**
+     * Called immediately before the run() method of an action is invoked.
+     * 
+     * @param action action being run
+     * @param attempt number of times run() has been invoked for this action, starting at 1.
+     *      Values greater than 1 indicate a replay.
+     */
+    void onRunStarted(FutureAction<?> action, int attempt);
+
+    /**
+     * Called when the run() method of an action returns or throws.
+     * 
+     * @param action action that was run
+     * @param attempt same value as passed to {@link #onRunStarted(FutureAction, int)}
+     */
+    void onRunFinished(FutureAction<?> action, int attempt);
+
+    /**
+     * Called when an action discovers that it is waiting for an incomplete dependency.
+     * 
+     * @param action the waiting action
+     * @param dependency the incomplete future
+     */
+    void onDependencyAdded(FutureAction<?> action, Future<?> dependency);
+
+    /**
+     * Called when a dependency previously reported by 
+     * {@link #onDependencyAdded(FutureAction, Future)} succeeds, fails or is cancelled.
+     * 
+     * @param action the waiting action
+     * @param dependency the now complete future
+     */
+    void onDependencyResolved(FutureAction<?> action, Future<?> dependency);
+
+    /**
+     * Called when a future succeeds, fails or is cancelled, before any callbacks are invoked.
+     * 
+     * @param future the completed future
+     */
+    void onCompleted(FutureResult<?> future);
+}
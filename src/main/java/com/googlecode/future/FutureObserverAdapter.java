@@ -0,0 +1,17 @@
+package com.googlecode.future;
+
+/**
+ * Implementation of {@link FutureObserver} where every method does nothing.
+ */
+public abstract class FutureObserverAdapter implements FutureObserver {
+
+    public void onRunStarted(FutureAction<?> action, int attempt) { }
+
+    public void onRunFinished(FutureAction<?> action, int attempt) { }
+
+    public void onDependencyAdded(FutureAction<?> action, Future<?> dependency) { }
+
+    public void onDependencyResolved(FutureAction<?> action, Future<?> dependency) { }
+
+    public void onCompleted(FutureResult<?> future) { }
+}
@@ -0,0 +1,397 @@
+package com.googlecode.future;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+import com.googlecode.future.FutureGraph.AsyncFunction;
+import com.googlecode.future.FutureGraph.Function;
+import com.googlecode.future.FutureGraph.Node;
+
+/**
+ * A {@link FutureGraph} compiled into flat arrays in topological order, ready to be executed
+ * any number of times.  Each {@link Execution} needs only three arrays sized by the number of
+ * nodes, plus a callback for each asynchronous node, and evaluates every node exactly once
+ * as soon as its dependencies are available, so no run() method is replayed.
+ *
+ * <p>Whether the graph is worth running in parallel can be read from the plan before it is
+ * executed: {@link #getMaxParallelism()} is the largest number of computations that can run at
+ * the same time when every node starts as soon as its dependencies complete, and
+ * {@link #getDepth()} the number of computations on the longest path through the graph.
+ *
+ * @param <T> type of the result of the plan
+ */
+public class FuturePlan<T> {
+
+    private static final int COMPLETE = -1;
+
+    private final FutureGraph graph;
+
+    private final String[] names;
+
+    private final Object[] functions;
+
+    private final boolean[] isAsync;
+
+    private final int[] inputs;
+
+    private final int[][] dependents;
+
+    private final int[] dependencyCounts;
+
+    /** Index in the plan of each node of the graph at compile time, or -1 if left out. */
+    private final int[] indexOfNode;
+
+    private final int maxParallelism;
+
+    private final int depth;
+
+    FuturePlan(FutureGraph graph, Node<T> output) {
+        this.graph = graph;
+        List<Node<?>> all = graph.nodes;
+
+        // Dependencies always have lower ids, so walking down from the output finds every
+        // node it needs, and ascending id order is a topological order.
+        boolean[] isNeeded = new boolean[output.id + 1];
+        isNeeded[output.id] = true;
+        int size = 0;
+        for (int id = output.id; id >= 0; id--) {
+            if (!isNeeded[id]) continue;
+            size++;
+            for (Node<?> dependency : all.get(id).dependencies) isNeeded[dependency.id] = true;
+        }
+        indexOfNode = new int[all.size()];
+        names = new String[size];
+        functions = new Object[size];
+        isAsync = new boolean[size];
+        dependencyCounts = new int[size];
+        int[][] dependencies = new int[size][];
+        int[] dependentCounts = new int[size];
+        List<Integer> inputList = new ArrayList<Integer>();
+        int index = 0;
+        for (int id = 0; id < indexOfNode.length; id++) {
+            if (id > output.id || !isNeeded[id]) {
+                indexOfNode[id] = -1;
+                continue;
+            }
+            Node<?> node = all.get(id);
+            indexOfNode[id] = index;
+            names[index] = node.name;
+            functions[index] = node.function;
+            isAsync[index] = node.isAsync;
+            if (node.isInput()) {
+                inputList.add(index);
+                // Inputs wait for their value to be set.
+                dependencyCounts[index] = 1;
+            }
+            dependencies[index] = new int[node.dependencies.length];
+            for (int i = 0; i < node.dependencies.length; i++) {
+                int dependency = indexOfNode[node.dependencies[i].id];
+                dependencies[index][i] = dependency;
+                dependentCounts[dependency]++;
+            }
+            if (!node.isInput()) dependencyCounts[index] = node.dependencies.length;
+            index++;
+        }
+        inputs = new int[inputList.size()];
+        for (int i = 0; i < inputs.length; i++) inputs[i] = inputList.get(i);
+
+        dependents = new int[size][];
+        for (int i = 0; i < size; i++) dependents[i] = new int[dependentCounts[i]];
+        int[] filled = new int[size];
+        for (int i = 0; i < size; i++) {
+            for (int dependency : dependencies[i]) dependents[dependency][filled[dependency]++] = i;
+        }
+
+        // Level of each computation when started as early as possible, ignoring inputs.
+        int[] levels = new int[size];
+        int[] widths = new int[size + 1];
+        int maxLevel = -1;
+        int widest = 0;
+        for (int i = 0; i < size; i++) {
+            if (functions[i] == null) continue;
+            int level = 0;
+            for (int dependency : dependencies[i]) {
+                if (functions[dependency] != null) level = Math.max(level, levels[dependency] + 1);
+            }
+            levels[i] = level;
+            widest = Math.max(widest, ++widths[level]);
+            maxLevel = Math.max(maxLevel, level);
+        }
+        maxParallelism = widest;
+        depth = maxLevel + 1;
+    }
+
+    /**
+     * Number of nodes in the plan, including inputs.
+     */
+    public int getNodeCount() {
+        return names.length;
+    }
+
+    /**
+     * Names of the nodes in the order they are evaluated when run on a single thread.
+     */
+    public List<String> getNodeNames() {
+        List<String> result = new ArrayList<String>(names.length);
+        for (String name : names) result.add(name);
+        return result;
+    }
+
+    /**
+     * Names of the input nodes, in the order their values are passed to
+     * {@link #execute(Object...)}.
+     */
+    public List<String> getInputNames() {
+        List<String> result = new ArrayList<String>(inputs.length);
+        for (int input : inputs) result.add(names[input]);
+        return result;
+    }
+
+    /**
+     * The largest number of computations that can run at the same time if each starts as soon
+     * as its dependencies complete.
+     */
+    public int getMaxParallelism() {
+        return maxParallelism;
+    }
+
+    /**
+     * Number of computations on the longest chain of dependencies in the plan.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Create an execution of the plan.  Set the inputs with
+     * {@link Execution#set(FutureGraph.Node, Object)}; it starts when its result is first
+     * asked for, as for a {@link FutureAction}.
+     *
+     * @return a new execution
+     */
+    public Execution<T> newExecution() {
+        return new Execution<T>(this);
+    }
+
+    /**
+     * Execute the plan with the given input values.
+     *
+     * @param inputValues a value for each input, in the order of {@link #getInputNames()}
+     * @return the started execution
+     */
+    public Execution<T> execute(Object... inputValues) {
+        if (inputValues.length != inputs.length) {
+            throw new IllegalArgumentException("Expected " + inputs.length + " inputs "
+                    + getInputNames() + " but got " + inputValues.length);
+        }
+        Execution<T> execution = new Execution<T>(this);
+        for (int i = 0; i < inputs.length; i++) execution.setInput(inputs[i], inputValues[i]);
+        execution.start();
+        return execution;
+    }
+
+    int indexOf(Node<?> node) {
+        if (node.graph != graph || node.id >= indexOfNode.length) return -1;
+        return indexOfNode[node.id];
+    }
+
+    @Override
+    public String toString() {
+        return "FuturePlan" + getNodeNames();
+    }
+
+    /**
+     * A single execution of a plan, which is itself the future for the result of the plan.
+     *
+     * <p>Like other futures an execution is not thread safe: the futures returned by
+     * asynchronous nodes should be completed on one thread at a time.
+     *
+     * @param <T> type of the result of the plan
+     */
+    public static class Execution<T> extends FutureResult<T> implements FutureGraph.Values {
+
+        private final FuturePlan<T> plan;
+
+        /** Value of each completed node, or the future of an asynchronous node in progress. */
+        private final Object[] values;
+
+        /** Dependencies still to complete for each node, or COMPLETE. */
+        private final int[] pending;
+
+        /** Nodes ready to evaluate. */
+        private final int[] ready;
+
+        private int readyCount = 0;
+
+        private boolean isStarted = false;
+
+        private boolean isDraining = false;
+
+        Execution(FuturePlan<T> plan) {
+            super(plan.names[plan.names.length - 1]);
+            this.plan = plan;
+            int size = plan.names.length;
+            values = new Object[size];
+            pending = new int[size];
+            ready = new int[size];
+            System.arraycopy(plan.dependencyCounts, 0, pending, 0, size);
+        }
+
+        /**
+         * Set the value of an input node.
+         *
+         * @param input the input node
+         * @param value its value for this execution
+         * @return this execution
+         */
+        public <V> Execution<T> set(Node<V> input, V value) {
+            int index = plan.indexOf(input);
+            if (index < 0 || !input.isInput()) {
+                throw new IllegalArgumentException(input + " is not an input of " + plan);
+            }
+            setInput(index, value);
+            return this;
+        }
+
+        void setInput(int index, Object value) {
+            if (isStarted) throw new IllegalStateException("Execution of " + plan + " has started");
+            values[index] = value;
+            pending[index] = 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <V> V get(Node<V> node) {
+            int index = plan.indexOf(node);
+            if (index < 0 || pending[index] != COMPLETE) {
+                throw new IllegalStateException(node + " has not been computed");
+            }
+            return (V) values[index];
+        }
+
+        /**
+         * Start evaluating the plan, if not already started.
+         */
+        @Override
+        public void start() {
+            if (isStarted) return;
+            for (int input : plan.inputs) {
+                if (pending[input] != 0) {
+                    throw new IllegalStateException("Input " + plan.names[input]
+                            + " of " + plan + " has not been set");
+                }
+            }
+            isStarted = true;
+            for (int i = 0; i < pending.length; i++) {
+                if (pending[i] == 0 && plan.functions[i] != null) ready[readyCount++] = i;
+            }
+            // Makes the nodes depending only on inputs ready as well.
+            for (int input : plan.inputs) complete(input, values[input]);
+            drain();
+        }
+
+        @Override
+        public void addCallback(AsyncCallback<T> callback) {
+            super.addCallback(callback);
+            if (!isComplete()) start();
+        }
+
+        @Override
+        public T result() {
+            if (!isComplete()) start();
+            return super.result();
+        }
+
+        @Override
+        public void onCancel() {
+            super.onCancel();
+            cancelInProgress();
+        }
+
+        private void fail(Throwable t) {
+            if (isComplete()) return;
+            failWithException(t);
+            cancelInProgress();
+        }
+
+        private void cancelInProgress() {
+            for (int i = 0; i < values.length; i++) {
+                if (plan.isAsync[i] && pending[i] == 0 && values[i] != null) {
+                    Future<?> inProgress = (Future<?>) values[i];
+                    values[i] = null;
+                    if (!inProgress.isComplete()) inProgress.cancel();
+                }
+            }
+        }
+
+        private void drain() {
+            if (isDraining) return;
+            isDraining = true;
+            try {
+                while (readyCount > 0 && !isComplete()) {
+                    evaluate(ready[--readyCount]);
+                }
+            } finally {
+                isDraining = false;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void evaluate(int index) {
+            try {
+                if (!plan.isAsync[index]) {
+                    complete(index, ((Function<Object>) plan.functions[index]).compute(this));
+                    return;
+                }
+                Future<Object> future = ((AsyncFunction<Object>) plan.functions[index]).compute(this);
+                values[index] = future;
+                future.addCallback(new NodeCallback(index));
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(int index, Object value) {
+            values[index] = value;
+            pending[index] = COMPLETE;
+            for (int dependent : plan.dependents[index]) {
+                if (--pending[dependent] == 0) ready[readyCount++] = dependent;
+            }
+            if (index == values.length - 1) setResult((T) value);
+        }
+
+        /**
+         * Delivers the value of an asynchronous node.
+         */
+        private final class NodeCallback implements CancellableAsyncCallback<Object> {
+
+            private final int index;
+
+            NodeCallback(int index) {
+                this.index = index;
+            }
+
+            public void onSuccess(Object result) {
+                if (isComplete()) return;
+                complete(index, result);
+                drain();
+            }
+
+            public void onFailure(Throwable caught) {
+                if (caught instanceof CancelledException) onCancel();
+                else fail(caught);
+            }
+
+            public void onCancel() {
+                if (!isComplete()) Execution.this.cancel();
+            }
+        }
+
+        @Override
+        protected String getFutureType() {
+            return "FuturePlan.Execution";
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package com.googlecode.future;
+
+import java.util.LinkedList;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * A pool of reusable resources for futures, such as connections or workers.  Instead of
+ * blocking, {@link #borrow()} returns a future {@link Lease}, which completes once a resource
+ * is idle or a new one has been created, e.g.
+ *
+ * <code><pre>
+ * FuturePool&lt;Connection&gt; connections = new FuturePool&lt;Connection&gt;("db", 4,
+ *         new FutureFactory&lt;Connection&gt;() {
+ *             public Future&lt;Connection&gt; create(int attempt) {
+ *                 return driver.connect(url);
+ *             }
+ *         });
+ *
+ * Future&lt;Row&gt; row = connections.withResource(new FutureFunction&lt;Connection, Row&gt;() {
+ *     public Future&lt;Row&gt; apply(Connection connection) {
+ *         return connection.query(sql);
+ *     }
+ * });
+ * </pre></code>
+ *
+ * <p>At most the given number of resources exist at once, counted by a
+ * {@link FutureSemaphore}, so borrowers wait in the same way as its waiters: by priority, then
+ * in order, and cancelling a borrow while it waits removes it from the queue.  Idle resources
+ * are reused most recently returned first, and resources are created only when none is idle.
+ * A lease must be released, or invalidated if the resource is broken, which destroys it.  The
+ * pool may be used from several threads.
+ *
+ * @param <R> type of resource
+ */
+public class FuturePool<R> {
+
+    /**
+     * A resource borrowed from the pool, held until released.
+     */
+    public final class Lease {
+
+        private final FutureSemaphore.Permit permit;
+
+        private R resource;
+
+        private Lease(FutureSemaphore.Permit permit, R resource) {
+            this.permit = permit;
+            this.resource = resource;
+        }
+
+        /**
+         * The borrowed resource.
+         *
+         * @throws IllegalStateException if the lease has been released
+         */
+        public synchronized R get() {
+            if (resource == null) throw new IllegalStateException("Lease has been released");
+            return resource;
+        }
+
+        /**
+         * Return the resource to the pool.  Releasing it again has no effect.
+         */
+        public void release() {
+            R idle = take();
+            if (idle == null) return;
+            synchronized (FuturePool.this) {
+                idleResources.addFirst(idle);
+            }
+            permit.release();
+        }
+
+        /**
+         * Destroy the resource instead of returning it, e.g. because it is broken, so that a
+         * new one is created when needed.
+         */
+        public void invalidate() {
+            R broken = take();
+            if (broken == null) return;
+            synchronized (FuturePool.this) {
+                size--;
+            }
+            try {
+                destroy(broken);
+            } finally {
+                permit.release();
+            }
+        }
+
+        private synchronized R take() {
+            R taken = resource;
+            resource = null;
+            return taken;
+        }
+
+        public synchronized boolean isReleased() {
+            return resource == null;
+        }
+    }
+
+    private final String name;
+
+    private final FutureSemaphore permits;
+
+    private final FutureFactory<R> creator;
+
+    /** Idle resources, most recently returned first.  Guarded by this. */
+    private final LinkedList<R> idleResources = new LinkedList<R>();
+
+    /** Number of resources, idle or borrowed.  Guarded by this. */
+    private int size = 0;
+
+    /**
+     * @param name name of the pool, used to name its futures
+     * @param maxSize most resources that may exist at once
+     * @param creator creates a resource
+     */
+    public FuturePool(String name, int maxSize, FutureFactory<R> creator) {
+        this(new FutureSemaphore(name, maxSize), creator);
+        if (maxSize < 1) throw new IllegalArgumentException("maxSize must be at least 1");
+    }
+
+    /**
+     * Create a pool whose resources are counted by the given semaphore, e.g. one with a lock
+     * free fast path.  The semaphore's free permits are the most resources that may exist,
+     * and it must not be used for anything else.
+     *
+     * @param permits counts the resources
+     * @param creator creates a resource
+     */
+    public FuturePool(FutureSemaphore permits, FutureFactory<R> creator) {
+        this.name = permits.getName();
+        this.permits = permits;
+        this.creator = creator;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Borrow a resource with priority 0.
+     *
+     * @return a future lease, which may be cancelled while waiting
+     */
+    public Future<Lease> borrow() {
+        return borrow(0);
+    }
+
+    /**
+     * Borrow a resource, ahead of borrowers with a lower priority.
+     *
+     * @param priority priority of the borrower, higher first
+     * @return a future lease, which may be cancelled while waiting
+     */
+    public Future<Lease> borrow(int priority) {
+        Borrow borrow = new Borrow();
+        borrow.waitFor(permits.acquire(priority));
+        return borrow;
+    }
+
+    /**
+     * Create a lazy future for a call made with a borrowed resource, which is released when
+     * the call completes, or invalidated if the call throws rather than returning a future.
+     *
+     * @param function makes the call with the resource
+     * @return the future result of the call
+     */
+    public <T> Future<T> withResource(FutureFunction<R, T> function) {
+        return new Using<T>(function);
+    }
+
+    /**
+     * Destroy a resource which has been invalidated.  Does nothing by default.
+     */
+    protected void destroy(R resource) {
+    }
+
+    /**
+     * Number of resources, idle or borrowed.
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * Number of idle resources.
+     */
+    public synchronized int getIdleCount() {
+        return idleResources.size();
+    }
+
+    /**
+     * Number of borrowers waiting for a resource.
+     */
+    public int getWaiterCount() {
+        return permits.getWaiterCount();
+    }
+
+    /**
+     * The future for a lease, which waits for a permit and then takes an idle resource or
+     * creates one.
+     */
+    private class Borrow extends FutureResult<Lease> {
+
+        /** The future permit, then the resource being created.  Guarded by this. */
+        private Future<?> inProgress;
+
+        private boolean isSettled = false;
+
+        Borrow() {
+            super(name);
+        }
+
+        void waitFor(Future<FutureSemaphore.Permit> permit) {
+            synchronized (this) {
+                inProgress = permit;
+            }
+            permit.addCallback(new CancellableAsyncCallback<FutureSemaphore.Permit>() {
+                public void onSuccess(FutureSemaphore.Permit permit) {
+                    obtain(permit);
+                }
+
+                public void onFailure(Throwable caught) {
+                    Borrow.this.onCancel();
+                }
+
+                public void onCancel() {
+                    Borrow.this.onCancel();
+                }
+            });
+        }
+
+        private void obtain(final FutureSemaphore.Permit permit) {
+            R idle = null;
+            synchronized (FuturePool.this) {
+                if (!idleResources.isEmpty()) {
+                    idle = idleResources.removeFirst();
+                } else {
+                    size++;
+                }
+            }
+            if (idle != null) {
+                grant(new Lease(permit, idle));
+                return;
+            }
+            Future<R> created;
+            try {
+                created = creator.create(1);
+            } catch (Throwable t) {
+                creationFailed(permit, t);
+                return;
+            }
+            synchronized (this) {
+                inProgress = created;
+            }
+            created.addCallback(new CancellableAsyncCallback<R>() {
+                public void onSuccess(R resource) {
+                    grant(new Lease(permit, resource));
+                }
+
+                public void onFailure(Throwable caught) {
+                    creationFailed(permit, caught);
+                }
+
+                public void onCancel() {
+                    creationFailed(permit, new CancelledException());
+                }
+            });
+            // Cancelled while being created.
+            if (isCancelled() && !created.isComplete()) created.cancel();
+        }
+
+        /**
+         * Complete with the lease, or return it if this borrow has been cancelled.
+         */
+        private void grant(Lease lease) {
+            if (settle()) setResult(lease);
+            else lease.release();
+        }
+
+        private void creationFailed(FutureSemaphore.Permit permit, Throwable t) {
+            synchronized (FuturePool.this) {
+                size--;
+            }
+            permit.release();
+            if (t instanceof CancelledException) onCancel();
+            else if (settle()) failWithException(t);
+        }
+
+        /**
+         * @return false if this borrow was already granted, failed or cancelled
+         */
+        private synchronized boolean settle() {
+            if (isSettled) return false;
+            isSettled = true;
+            return true;
+        }
+
+        @Override
+        public void onCancel() {
+            Future<?> current;
+            synchronized (this) {
+                current = inProgress;
+            }
+            if (!settle()) return;
+            setCancelled();
+            if (current != null && !current.isComplete()) current.cancel();
+        }
+
+        @Override
+        protected void releaseReferences() {
+            super.releaseReferences();
+            synchronized (this) {
+                inProgress = null;
+            }
+        }
+
+        @Override
+        protected String getFutureType() {
+            return "FuturePool.Borrow";
+        }
+    }
+
+    /**
+     * The future for a call made with a borrowed resource.
+     */
+    private class Using<T> extends FutureResult<T> {
+
+        private FutureFunction<R, T> function;
+
+        /** The future lease, then the call, whichever is in progress.  Guarded by this. */
+        private Future<?> inProgress;
+
+        private boolean isStarted = false;
+
+        Using(FutureFunction<R, T> function) {
+            super(name);
+            this.function = function;
+        }
+
+        @Override
+        public void start() {
+            synchronized (this) {
+                if (isStarted || isComplete()) return;
+                isStarted = true;
+            }
+            Future<Lease> lease = borrow();
+            synchronized (this) {
+                if (inProgress == null && !lease.isComplete()) inProgress = lease;
+            }
+            lease.addCallback(new CancellableAsyncCallback<Lease>() {
+                public void onSuccess(Lease lease) {
+                    run(lease);
+                }
+
+                public void onFailure(Throwable caught) {
+                    Using.this.onFailure(caught);
+                }
+
+                public void onCancel() {
+                    Using.this.onCancel();
+                }
+            });
+        }
+
+        private void run(final Lease lease) {
+            FutureFunction<R, T> callFunction;
+            synchronized (this) {
+                callFunction = function;
+            }
+            if (callFunction == null || isComplete()) {
+                lease.release();
+                return;
+            }
+            Future<T> call;
+            try {
+                call = callFunction.apply(lease.get());
+            } catch (Throwable t) {
+                lease.invalidate();
+                onFailure(t);
+                return;
+            }
+            synchronized (this) {
+                inProgress = call;
+            }
+            call.addCallback(new CancellableAsyncCallback<T>() {
+                public void onSuccess(T result) {
+                    lease.release();
+                    Using.this.onSuccess(result);
+                }
+
+                public void onFailure(Throwable caught) {
+                    lease.release();
+                    Using.this.onFailure(caught);
+                }
+
+                public void onCancel() {
+                    lease.release();
+                    Using.this.onCancel();
+                }
+            });
+            // Cancelled while being made.
+            if (isCancelled() && !call.isComplete()) call.cancel();
+        }
+
+        @Override
+        public void addCallback(AsyncCallback<T> callback) {
+            super.addCallback(callback);
+            if (!isComplete()) start();
+        }
+
+        @Override
+        public T result() {
+            if (!isComplete()) start();
+            return super.result();
+        }
+
+        @Override
+        public void onSuccess(T value) {
+            if (!isComplete()) setResult(value);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            if (t instanceof CancelledException) onCancel();
+            else if (!isComplete()) failWithException(t);
+        }
+
+        @Override
+        public void onCancel() {
+            Future<?> current;
+            synchronized (this) {
+                current = inProgress;
+            }
+            setCancelled();
+            if (current != null && !current.isComplete()) current.cancel();
+        }
+
+        @Override
+        protected void releaseReferences() {
+            super.releaseReferences();
+            synchronized (this) {
+                function = null;
+                inProgress = null;
+            }
+        }
+
+        @Override
+        protected String getFutureType() {
+            return "FuturePool.Using";
+        }
+    }
+}
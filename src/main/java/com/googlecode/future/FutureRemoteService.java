@@ -0,0 +1,41 @@
+package com.googlecode.future;
+
+import com.google.gwt.user.client.rpc.RemoteService;
+
+/**
+ * Declares a Future-returning facade of a GWT RPC service, implemented by deferred binding,
+ * e.g.
+ *
+ * <code><pre>
+ * public interface OrderFutures extends FutureRemoteService&lt;OrderService&gt; {
+ *     Future&lt;Order&gt; getOrder(long id);
+ * }
+ *
+ * OrderFutures orders = GWT.create(OrderFutures.class);
+ * </pre></code>
+ *
+ * <p>Each method must match a method of the service's asynchronous interface with the same
+ * name and parameters followed by an AsyncCallback of the type the future returns.  The
+ * generated class extends {@link FutureService}, so calls are lazy and deduplicated, and may
+ * be batched, and obtains the asynchronous interface with GWT.create() on the service.
+ * Outside GWT, use {@link FutureFacade} to generate a facade with the annotation processor.
+ *
+ * @param <S> the service interface
+ */
+public interface FutureRemoteService<S extends RemoteService> {
+
+    /**
+     * @see FutureService#setBatching(boolean)
+     */
+    void setBatching(boolean batching);
+
+    /**
+     * @see FutureService#setDeduplicating(boolean)
+     */
+    void setDeduplicating(boolean deduplicating);
+
+    /**
+     * @see FutureService#flush()
+     */
+    void flush();
+}
@@ -1,7 +1,7 @@
 package com.googlecode.future;
 
 import java.util.ArrayList;
-import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 import com.google.gwt.user.client.rpc.AsyncCallback;
@@ -26,6 +26,9 @@ import static com.googlecode.future.ExecutionException.returnIfCheckedThrowIfUnc
  *  
  *  <p>In general a FutureResult will be used to collect a result from 
  *  one or more {@link FutureAction} instances.
+ *  
+ *  <p>On a server a FutureResult may be completed on a different thread from the one adding
+ *  callbacks.  Callbacks are always invoked without holding any lock.
  * 
  * @author Dean Povey
  *
@@ -45,7 +48,9 @@ public class FutureResult<T> implements CancellableAsyncCallback<T>, Future<T> {
     
     private Throwable exception = null;
     
-    private LinkedHashSet<AsyncCallback<T>> listeners = new LinkedHashSet<AsyncCallback<T>>();
+    /** Callbacks added, each mapped to the listener invoking it in its context. */
+    private LinkedHashMap<AsyncCallback<T>, AsyncCallback<T>> listeners =
+        new LinkedHashMap<AsyncCallback<T>, AsyncCallback<T>>();
     
     private enum State { 
 
@@ -57,13 +62,16 @@ public class FutureResult<T> implements CancellableAsyncCallback<T>, Future<T> {
         }
     }
     
-    private State state = State.INCOMPLETE;
+    private volatile State state = State.INCOMPLETE;
 
     /** {@inheritDoc} */
     public T result() throws IncompleteResultException, ExecutionException,
         CancelledException {
         switch(state) {
-        case INCOMPLETE: throw new IncompleteResultException(this, "Future result not yet set for " + this);
+        case INCOMPLETE: {
+            if (FutureRuntime.awaitCompletion(this)) return result();
+            throw new IncompleteResultException(this, "Future result not yet set for " + this);
+        }
         case FAILED: {
             Throwable checkedException = returnIfCheckedThrowIfUnchecked(exception);
             throw new ExecutionException(checkedException);
@@ -78,12 +86,17 @@ public class FutureResult<T> implements CancellableAsyncCallback<T>, Future<T> {
     /** {@inheritDoc} */
     public void addCallback(AsyncCallback<T> callback) {
         if (callback == null) return;
-        if (isComplete()) {
-            if (isSuccessful()) callback.onSuccess(value);
-            else callback.onFailure(this.exception);
-            return;
+        if (!isComplete()) {
+            AsyncCallback<T> listener = ContextCallback.wrap(callback);
+            synchronized (this) {
+                if (!isComplete()) {
+                    if (!listeners.containsKey(callback)) listeners.put(callback, listener);
+                    return;
+                }
+            }
         }
-       listeners.add(callback);
+        if (isSuccessful()) callback.onSuccess(value);
+        else callback.onFailure(this.exception);
     }
 
     /** {@inheritDoc} */
@@ -109,26 +122,38 @@ public class FutureResult<T> implements CancellableAsyncCallback<T>, Future<T> {
 
     /** {@inheritDoc} */
     public void failWithException(Throwable t) {
-        if (isComplete()) {            
-            throw new IllegalStateException("Cannot fail when already complete for " + this,
-                    t);
+        List<AsyncCallback<T>> callbacks;
+        synchronized (this) {
+            if (isComplete()) {            
+                throw new IllegalStateException("Cannot fail when already complete for " + this,
+                        t);
+            }
+            this.exception = t;
+            state = State.FAILED;
+            callbacks = copyCallbacksThenClear();
         }
-        state = State.FAILED;
-        this.exception = t;
-        onCompleted();        
-        notifyListenersOnFailure();
+        onCompleted();
+        FutureRuntime.fireCompleted(this);
+        notifyListenersOnFailure(callbacks);
+        releaseReferences();
     }
 
     /** {@inheritDoc} */
     public void setResult(T value) {
-        if (isComplete()) {            
-            throw new IllegalStateException("Cannot set result when already complete for " + 
-                    this);
+        List<AsyncCallback<T>> callbacks;
+        synchronized (this) {
+            if (isComplete()) {            
+                throw new IllegalStateException("Cannot set result when already complete for " + 
+                        this);
+            }
+            this.value = value;
+            state = State.SUCCEEDED;
+            callbacks = copyCallbacksThenClear();
         }
-        state = State.SUCCEEDED;
-        this.value = value;
         onCompleted();
-        notifyListenersOnSuccess(value);        
+        FutureRuntime.fireCompleted(this);
+        notifyListenersOnSuccess(callbacks, value);
+        releaseReferences();
     }
 
     /** {@inheritDoc} */
@@ -137,14 +162,14 @@ public class FutureResult<T> implements CancellableAsyncCallback<T>, Future<T> {
     }
 
     
-    private void notifyListenersOnSuccess(T value) {
-        for (AsyncCallback<T> callback : copyCallbacksThenClear()) {
+    private void notifyListenersOnSuccess(List<AsyncCallback<T>> callbacks, T value) {
+        for (AsyncCallback<T> callback : callbacks) {
             callback.onSuccess(value);
         }
     }
     
     private List<AsyncCallback<T>> copyCallbacksThenClear() {
-        List<AsyncCallback<T>> callbacks = new ArrayList<AsyncCallback<T>>(this.listeners);
+        List<AsyncCallback<T>> callbacks = new ArrayList<AsyncCallback<T>>(this.listeners.values());
         this.listeners.clear();
         return callbacks;
     }
@@ -182,11 +207,17 @@ public class FutureResult<T> implements CancellableAsyncCallback<T>, Future<T> {
      * a CancelledException.
      */
     protected void setCancelled() {
-        if (isComplete()) return;
-        state = State.CANCELLED;
-        this.exception = new CancelledException();
-        onCompleted();        
-        notifyListenersOnCancel();
+        List<AsyncCallback<T>> callbacks;
+        synchronized (this) {
+            if (isComplete()) return;
+            this.exception = new CancelledException();
+            state = State.CANCELLED;
+            callbacks = copyCallbacksThenClear();
+        }
+        onCompleted();
+        FutureRuntime.fireCompleted(this);
+        notifyListenersOnCancel(callbacks);
+        releaseReferences();
     }
     
     /**
@@ -196,20 +227,30 @@ public class FutureResult<T> implements CancellableAsyncCallback<T>, Future<T> {
     protected void onCompleted() {        
     }
 
+    /**
+     * Called once this future is complete and its callbacks have been notified, to drop
+     * references to anything only needed to compute the result, such as input data and
+     * dependencies, so that a completed future kept for a long time retains no more than its
+     * result.  Subclasses holding such references in fields should override this method and
+     * call super.
+     */
+    protected void releaseReferences() {
+    }
+
     
     /** {@inheritDoc} */
     public void cancel() {
         onCancel();     
     }
 
-    private void notifyListenersOnFailure() {
-        for (AsyncCallback<T> callback : copyCallbacksThenClear()) {
+    private void notifyListenersOnFailure(List<AsyncCallback<T>> callbacks) {
+        for (AsyncCallback<T> callback : callbacks) {
             callback.onFailure(this.exception);
         }
     }
     
-    private void notifyListenersOnCancel() {
-        for (AsyncCallback<T> callback : copyCallbacksThenClear()) {
+    private void notifyListenersOnCancel(List<AsyncCallback<T>> callbacks) {
+        for (AsyncCallback<T> callback : callbacks) {
             if (callback instanceof CancellableAsyncCallback<?>) {
                 ((CancellableAsyncCallback<?>) callback).onCancel();                
             } else callback.onFailure(this.exception);
@@ -0,0 +1,225 @@
+package com.googlecode.future;
+
+/**
+ * Global hooks used by the future implementation.  Nothing is installed by default, in which
+ * case the hooks cost no more than a field read.
+ */
+public final class FutureRuntime {
+
+    private static final FutureObserver[] NO_OBSERVERS = new FutureObserver[0];
+
+    private static volatile FutureObserver[] observers = NO_OBSERVERS;
+
+    private static final FutureScheduler DEFAULT_SCHEDULER = new DefaultFutureScheduler();
+
+    private static volatile FutureScheduler scheduler = DEFAULT_SCHEDULER;
+
+    private static volatile FutureAwaiter awaiter = null;
+
+    private static volatile FutureDispatcher dispatcher = null;
+
+    private static volatile FutureContextPropagator contextPropagator = null;
+
+    private FutureRuntime() { }
+
+    /**
+     * Register an observer that will be notified about the lifecycle of all futures.  Adding the
+     * same observer twice has no effect.
+     * 
+     * @param observer observer to add
+     */
+    public static synchronized void addObserver(FutureObserver observer) {
+        if (observer == null) throw new IllegalArgumentException("observer must not be null");
+        FutureObserver[] current = observers;
+        for (FutureObserver existing : current) {
+            if (existing == observer) return;
+        }
+        FutureObserver[] updated = new FutureObserver[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = observer;
+        observers = updated;
+    }
+
+    /**
+     * Remove a previously registered observer.
+     * 
+     * @param observer observer to remove
+     */
+    public static synchronized void removeObserver(FutureObserver observer) {
+        FutureObserver[] current = observers;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == observer) {
+                FutureObserver[] updated = current.length == 1 ? NO_OBSERVERS
+                        : new FutureObserver[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                observers = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Whether any observers are registered.
+     * 
+     * @return true if at least one observer is registered
+     */
+    public static boolean isObserved() {
+        return observers.length != 0;
+    }
+
+    /**
+     * The scheduler used for time and deferred execution.
+     * 
+     * @return the installed scheduler, or a {@link DefaultFutureScheduler} if none is installed
+     */
+    public static FutureScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Install a scheduler.
+     * 
+     * @param newScheduler scheduler to use, or null to restore the default scheduler
+     * @return the previously installed scheduler
+     */
+    public static FutureScheduler setScheduler(FutureScheduler newScheduler) {
+        FutureScheduler previous = scheduler;
+        scheduler = (newScheduler != null) ? newScheduler : DEFAULT_SCHEDULER;
+        return previous;
+    }
+
+    /**
+     * Whether the scheduler in use can run commands with a delay, and runs commands without
+     * one after the current event rather than at once.  Only the default scheduler outside
+     * the browser cannot, so features relying on delays check this when created rather than
+     * failing later.
+     *
+     * @return false if delayed commands would be rejected
+     */
+    public static boolean isDelaySupported() {
+        FutureScheduler current = scheduler;
+        return !(current instanceof DefaultFutureScheduler)
+                || ((DefaultFutureScheduler) current).isDelaySupported();
+    }
+
+    /**
+     * The installed awaiter.
+     * 
+     * @return the awaiter, or null if none is installed
+     */
+    public static FutureAwaiter getAwaiter() {
+        return awaiter;
+    }
+
+    /**
+     * Install an awaiter, allowing result() to wait for incomplete futures.
+     * 
+     * @param newAwaiter awaiter to use, or null to remove the installed awaiter
+     * @return the previously installed awaiter
+     */
+    public static FutureAwaiter setAwaiter(FutureAwaiter newAwaiter) {
+        FutureAwaiter previous = awaiter;
+        awaiter = newAwaiter;
+        return previous;
+    }
+
+    static boolean awaitCompletion(Future<?> future) {
+        FutureAwaiter current = awaiter;
+        return current != null && current.await(future);
+    }
+
+    /**
+     * The installed dispatcher.
+     * 
+     * @return the dispatcher, or null if none is installed
+     */
+    public static FutureDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Install a dispatcher, allowing actions to be run on other threads.
+     * 
+     * @param newDispatcher dispatcher to use, or null to remove the installed dispatcher
+     * @return the previously installed dispatcher
+     */
+    public static FutureDispatcher setDispatcher(FutureDispatcher newDispatcher) {
+        FutureDispatcher previous = dispatcher;
+        dispatcher = newDispatcher;
+        return previous;
+    }
+
+    static boolean dispatch(FutureAction<?> action) {
+        FutureDispatcher current = dispatcher;
+        return current != null && current.dispatch(action);
+    }
+
+    /**
+     * The installed context propagator.
+     * 
+     * @return the propagator, or null if none is installed
+     */
+    public static FutureContextPropagator getContextPropagator() {
+        return contextPropagator;
+    }
+
+    /**
+     * Install a context propagator, carrying context from where callbacks are added and
+     * actions created to where they run.
+     * 
+     * @param newPropagator propagator to use, or null to remove the installed propagator
+     * @return the previously installed propagator
+     */
+    public static FutureContextPropagator setContextPropagator(
+            FutureContextPropagator newPropagator) {
+        FutureContextPropagator previous = contextPropagator;
+        contextPropagator = newPropagator;
+        return previous;
+    }
+
+    static Object captureContext() {
+        FutureContextPropagator current = contextPropagator;
+        return (current != null) ? current.capture() : null;
+    }
+
+    static Object attachContext(Object context) {
+        FutureContextPropagator current = contextPropagator;
+        return (current != null) ? current.attach(context) : null;
+    }
+
+    static void detachContext(Object previous) {
+        FutureContextPropagator current = contextPropagator;
+        if (current != null) current.detach(previous);
+    }
+
+    static void fireRunStarted(FutureAction<?> action, int attempt) {
+        for (FutureObserver observer : observers) {
+            observer.onRunStarted(action, attempt);
+        }
+    }
+
+    static void fireRunFinished(FutureAction<?> action, int attempt) {
+        for (FutureObserver observer : observers) {
+            observer.onRunFinished(action, attempt);
+        }
+    }
+
+    static void fireDependencyAdded(FutureAction<?> action, Future<?> dependency) {
+        for (FutureObserver observer : observers) {
+            observer.onDependencyAdded(action, dependency);
+        }
+    }
+
+    static void fireDependencyResolved(FutureAction<?> action, Future<?> dependency) {
+        for (FutureObserver observer : observers) {
+            observer.onDependencyResolved(action, dependency);
+        }
+    }
+
+    static void fireCompleted(FutureResult<?> future) {
+        for (FutureObserver observer : observers) {
+            observer.onCompleted(future);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.googlecode.future;
+
+import com.google.gwt.user.client.Command;
+import com.google.gwt.user.client.IncrementalCommand;
+
+/**
+ * Source of time and deferred execution for futures.  The scheduler in use is obtained from
+ * {@link FutureRuntime#getScheduler()}, which returns a {@link DefaultFutureScheduler} unless
+ * another scheduler has been installed, e.g. a {@link VirtualTimeScheduler} in tests.
+ */
+public interface FutureScheduler {
+
+    /**
+     * Current time in milliseconds.
+     * 
+     * @return the current time
+     */
+    long now();
+
+    /**
+     * Run a command after the given delay.  A delay of 0 runs the command after the current
+     * event has been processed, in the same way as {@link com.google.gwt.user.client.DeferredCommand}.
+     * 
+     * @param command command to run
+     * @param delayMillis delay in milliseconds
+     */
+    void schedule(Command command, long delayMillis);
+
+    /**
+     * Run an incremental command repeatedly until it returns false.  Used by
+     * {@link FutureIncrementalAction} to break long running work into steps.
+     * 
+     * @param command command to run
+     */
+    void scheduleIncremental(IncrementalCommand command);
+}
@@ -0,0 +1,197 @@
+package com.googlecode.future;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A future that bounds the lifetime of a group of child futures, so that work whose result
+ * would be discarded is cancelled instead of left running, e.g.
+ *
+ * <code><pre>
+ * final FutureScope&lt;Quote&gt; scope = new FutureScope&lt;Quote&gt;("quote");
+ * final Future&lt;Price&gt; price = scope.fork(pricing.price(cart));
+ * final Future&lt;Stock&gt; stock = scope.fork(inventory.check(cart));
+ * scope.join(new FutureAction&lt;Quote&gt;() {
+ *     public void run() {
+ *         returnResult(new Quote(price.result(), stock.result()));
+ *     }
+ * });
+ * </pre></code>
+ *
+ * <p>Children are started when forked.  If any child fails, or the scope is cancelled, every
+ * unfinished child is cancelled together, and no more may be forked.  A child cancelled on
+ * its own cancels the scope.  In every case the scope only completes once all of its children
+ * have settled: it returns the result of the future passed to {@link #join(Future)}, fails
+ * with the first failure of a child, or is cancelled.  A scope that is never joined can
+ * therefore only fail or be cancelled.  A child that does not complete when cancelled keeps
+ * the scope open until it does complete.
+ *
+ * <p>Scopes nest: forking a scope from another makes it a child whose own children are
+ * cancelled along with it.  Like other futures a scope is not thread safe: its children
+ * should be completed on one thread at a time.
+ *
+ * @param <T> type of result
+ */
+public class FutureScope<T> extends FutureResult<T> {
+
+    /** Children that have not yet settled. */
+    private List<Future<?>> children = new ArrayList<Future<?>>();
+
+    private Future<? extends T> joined = null;
+
+    private boolean isJoined = false;
+
+    /** Whether children are being cancelled because of a failure or cancellation. */
+    private boolean isClosing = false;
+
+    private boolean isCancelRequested = false;
+
+    private Throwable failure = null;
+
+    public FutureScope() {
+    }
+
+    public FutureScope(String name) {
+        super(name);
+    }
+
+    /**
+     * Start a future as a child of this scope.  If the scope is already closing or complete
+     * the child is cancelled instead.
+     *
+     * @param child the future to start
+     * @return the child
+     */
+    public <V> Future<V> fork(Future<V> child) {
+        if (isClosing || isComplete()) {
+            if (!child.isComplete()) child.cancel();
+            return child;
+        }
+        children.add(child);
+        child.addCallback(new ChildCallback<V>(child));
+        return child;
+    }
+
+    /**
+     * Fork the future providing the result of the scope, which the scope returns once all
+     * children have settled.
+     *
+     * @param result the future for the result, typically an action using other children
+     * @return this scope
+     */
+    public FutureScope<T> join(Future<? extends T> result) {
+        if (isJoined) throw new IllegalStateException(this + " is already joined");
+        isJoined = true;
+        joined = result;
+        fork(result);
+        completeIfSettled();
+        return this;
+    }
+
+    /**
+     * Complete the scope with a null result once all children have settled, e.g. for a scope
+     * of type Void whose children only have side effects.
+     *
+     * @return this scope
+     */
+    public FutureScope<T> join() {
+        if (isJoined) throw new IllegalStateException(this + " is already joined");
+        isJoined = true;
+        completeIfSettled();
+        return this;
+    }
+
+    /**
+     * Cancel every unfinished child.  The scope is cancelled once they have settled.
+     */
+    @Override
+    public void onCancel() {
+        if (isComplete()) return;
+        if (!isClosing) {
+            isCancelRequested = true;
+            close();
+        }
+        completeIfSettled();
+    }
+
+    /**
+     * Number of children that have not yet settled.
+     */
+    public int getChildCount() {
+        return children.size();
+    }
+
+    private void close() {
+        isClosing = true;
+        List<Future<?>> unfinished = new ArrayList<Future<?>>(children);
+        for (Future<?> child : unfinished) {
+            if (!child.isComplete()) child.cancel();
+        }
+    }
+
+    private void settled(Future<?> child) {
+        children.remove(child);
+        completeIfSettled();
+    }
+
+    private void completeIfSettled() {
+        if (isComplete() || !children.isEmpty()) return;
+        if (failure != null) {
+            failWithException(failure);
+        } else if (isCancelRequested) {
+            setCancelled();
+        } else if (isJoined) {
+            setResult(joined == null ? null : joined.result());
+        }
+    }
+
+    @Override
+    protected void releaseReferences() {
+        super.releaseReferences();
+        children = Collections.emptyList();
+        joined = null;
+        failure = null;
+    }
+
+    @Override
+    protected String getFutureType() {
+        return "FutureScope";
+    }
+
+    /**
+     * Tracks when a child settles, and closes the scope if it fails.
+     */
+    private final class ChildCallback<V> implements CancellableAsyncCallback<V> {
+
+        private final Future<V> child;
+
+        ChildCallback(Future<V> child) {
+            this.child = child;
+        }
+
+        public void onSuccess(V result) {
+            settled(child);
+        }
+
+        public void onFailure(Throwable caught) {
+            if (caught instanceof CancelledException) {
+                onCancel();
+                return;
+            }
+            if (!isClosing) {
+                failure = caught;
+                close();
+            }
+            settled(child);
+        }
+
+        public void onCancel() {
+            if (!isClosing) {
+                isCancelRequested = true;
+                close();
+            }
+            settled(child);
+        }
+    }
+}
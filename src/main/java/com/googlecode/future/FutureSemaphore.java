@@ -0,0 +1,419 @@
+package com.googlecode.future;
+
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * A semaphore for futures: instead of blocking, {@link #acquire()} returns a future
+ * {@link Permit}, which completes once a permit is free.  The permit must be released when no
+ * longer needed, or it can be tied to the future it guards, e.g.
+ *
+ * <code><pre>
+ * FutureSemaphore uploads = new FutureSemaphore(2);
+ *
+ * Future&lt;Void&gt; upload = uploads.withPermit(new FutureFactory&lt;Void&gt;() {
+ *     public Future&lt;Void&gt; create(int attempt) {
+ *         return service.upload(file);
+ *     }
+ * });
+ * </pre></code>
+ *
+ * <p>Waiters are served in order of priority, highest first, and in the order they asked
+ * within a priority; {@link #acquire()} uses priority 0.  Cancelling a waiting future removes
+ * it from the queue.  A permit is only taken without queueing when no one is waiting.
+ *
+ * <p>The semaphore may be used from several threads.  The queue of waiters is guarded by the
+ * semaphore's lock, and futures are completed outside it.  The count of free permits is kept
+ * by {@link #tryTake()}, {@link #give()} and {@link #getAvailablePermits()}, which may be
+ * overridden together to keep it without the lock, e.g. with an atomic counter on the JVM.
+ */
+public class FutureSemaphore {
+
+    /**
+     * A permit from the semaphore, held until released.
+     */
+    public final class Permit {
+
+        private boolean isReleased = false;
+
+        private Permit() {
+        }
+
+        /**
+         * Return the permit to the semaphore.  Releasing it again has no effect.
+         */
+        public void release() {
+            synchronized (this) {
+                if (isReleased) return;
+                isReleased = true;
+            }
+            FutureSemaphore.this.release();
+        }
+
+        public synchronized boolean isReleased() {
+            return isReleased;
+        }
+
+        /**
+         * Release the permit once a future completes, in any way.
+         *
+         * @param future future guarded by the permit
+         * @return the future, for chaining
+         */
+        public <T> Future<T> releaseWhenComplete(Future<T> future) {
+            future.addCallback(new CancellableAsyncCallback<T>() {
+                public void onSuccess(T result) {
+                    release();
+                }
+
+                public void onFailure(Throwable caught) {
+                    release();
+                }
+
+                public void onCancel() {
+                    release();
+                }
+            });
+            return future;
+        }
+
+        public FutureSemaphore getSemaphore() {
+            return FutureSemaphore.this;
+        }
+    }
+
+    private final String name;
+
+    private int permits;
+
+    /** Waiters in the order they are served.  Guarded by this. */
+    private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+
+    /** Size of the queue, read without the lock. */
+    private volatile int waiterCount = 0;
+
+    private boolean isDraining = false;
+
+    /**
+     * @param permits number of permits, which may be 0
+     */
+    public FutureSemaphore(int permits) {
+        this("semaphore", permits);
+    }
+
+    /**
+     * @param name name of the semaphore, used to name its futures
+     * @param permits number of permits, which may be 0
+     */
+    public FutureSemaphore(String name, int permits) {
+        if (permits < 0) throw new IllegalArgumentException("permits must not be negative");
+        this.name = name;
+        this.permits = permits;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Acquire a permit with priority 0.
+     *
+     * @return a future permit, which may be cancelled while waiting
+     */
+    public Future<Permit> acquire() {
+        return acquire(0);
+    }
+
+    /**
+     * Acquire a permit, ahead of waiters with a lower priority.
+     *
+     * @param priority priority of the waiter, higher first
+     * @return a future permit, which may be cancelled while waiting
+     */
+    public Future<Permit> acquire(int priority) {
+        Waiter waiter = new Waiter(priority);
+        if (waiterCount == 0 && tryTake()) {
+            waiter.grant();
+            return waiter;
+        }
+        synchronized (this) {
+            enqueue(waiter);
+        }
+        drain();
+        return waiter;
+    }
+
+    /**
+     * Take a permit if one is free and no one is waiting.
+     *
+     * @return the permit, or null if none was taken
+     */
+    public Permit tryAcquire() {
+        return (waiterCount == 0 && tryTake()) ? new Permit() : null;
+    }
+
+    /**
+     * Create a lazy future for a call made while holding a permit, which is released when the
+     * call completes.  Cancelling the future while it waits for a permit stops waiting.
+     *
+     * @param factory makes the call
+     * @return the future result of the call
+     */
+    public <T> Future<T> withPermit(FutureFactory<T> factory) {
+        return withPermit(0, factory);
+    }
+
+    /**
+     * Create a lazy future for a call made while holding a permit acquired with a priority.
+     *
+     * @param priority priority of the waiter, higher first
+     * @param factory makes the call
+     * @return the future result of the call
+     */
+    public <T> Future<T> withPermit(int priority, FutureFactory<T> factory) {
+        return new Guarded<T>(priority, factory);
+    }
+
+    /**
+     * Number of futures waiting for a permit.
+     */
+    public int getWaiterCount() {
+        return waiterCount;
+    }
+
+    /**
+     * Number of permits free.
+     */
+    public synchronized int getAvailablePermits() {
+        return permits;
+    }
+
+    /**
+     * Take a free permit.
+     *
+     * @return false if none is free
+     */
+    protected synchronized boolean tryTake() {
+        if (permits == 0) return false;
+        permits--;
+        return true;
+    }
+
+    /**
+     * Return a permit.
+     */
+    protected synchronized void give() {
+        permits++;
+    }
+
+    private void release() {
+        give();
+        if (waiterCount > 0) drain();
+    }
+
+    /**
+     * Insert a waiter after all those with the same or higher priority.  Must hold the lock.
+     */
+    private void enqueue(Waiter waiter) {
+        ListIterator<Waiter> i = waiters.listIterator(waiters.size());
+        while (i.hasPrevious()) {
+            if (i.previous().priority >= waiter.priority) {
+                i.next();
+                break;
+            }
+        }
+        i.add(waiter);
+        waiterCount = waiters.size();
+    }
+
+    /**
+     * Grant free permits to waiters.  Waiters are granted outside the lock by one thread at a
+     * time, and callbacks which release their permit at once do so within the loop rather than
+     * by recursion.  Another thread which frees a permit meanwhile leaves it to this loop.
+     */
+    private void drain() {
+        synchronized (this) {
+            if (isDraining) return;
+            isDraining = true;
+        }
+        boolean isDrained = false;
+        try {
+            while (!isDrained) {
+                Waiter next = null;
+                synchronized (this) {
+                    if (!waiters.isEmpty() && tryTake()) {
+                        next = waiters.removeFirst();
+                        waiterCount = waiters.size();
+                        next.isDequeued = true;
+                    } else {
+                        isDraining = false;
+                        isDrained = true;
+                    }
+                }
+                if (next != null) next.grant();
+            }
+        } finally {
+            if (!isDrained) {
+                synchronized (this) {
+                    isDraining = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * The future for a permit.
+     */
+    private class Waiter extends FutureResult<Permit> {
+
+        final int priority;
+
+        /** Whether the waiter has been taken from the queue.  Guarded by the semaphore. */
+        boolean isDequeued = false;
+
+        Waiter(int priority) {
+            super(name);
+            this.priority = priority;
+        }
+
+        void grant() {
+            setResult(new Permit());
+        }
+
+        @Override
+        public void onCancel() {
+            synchronized (FutureSemaphore.this) {
+                if (isDequeued) return;
+                isDequeued = true;
+                waiters.remove(this);
+                waiterCount = waiters.size();
+            }
+            setCancelled();
+        }
+
+        @Override
+        protected String getFutureType() {
+            return "FutureSemaphore.Waiter";
+        }
+    }
+
+    /**
+     * The future for a call made while holding a permit.
+     */
+    private class Guarded<T> extends FutureResult<T> {
+
+        private final int priority;
+
+        private FutureFactory<T> factory;
+
+        /** The future permit, then the call, whichever is in progress. */
+        private Future<?> inProgress;
+
+        private boolean isStarted = false;
+
+        Guarded(int priority, FutureFactory<T> factory) {
+            super(name);
+            this.priority = priority;
+            this.factory = factory;
+        }
+
+        @Override
+        public void start() {
+            synchronized (this) {
+                if (isStarted || isComplete()) return;
+                isStarted = true;
+            }
+            Future<Permit> permit = acquire(priority);
+            synchronized (this) {
+                if (inProgress == null && !permit.isComplete()) inProgress = permit;
+            }
+            permit.addCallback(new CancellableAsyncCallback<Permit>() {
+                public void onSuccess(Permit permit) {
+                    run(permit);
+                }
+
+                public void onFailure(Throwable caught) {
+                    onCancel();
+                }
+
+                public void onCancel() {
+                    Guarded.this.onCancel();
+                }
+            });
+        }
+
+        private void run(Permit permit) {
+            FutureFactory<T> callFactory;
+            synchronized (this) {
+                callFactory = factory;
+            }
+            if (callFactory == null || isComplete()) {
+                permit.release();
+                return;
+            }
+            Future<T> call;
+            try {
+                call = permit.releaseWhenComplete(callFactory.create(1));
+            } catch (Throwable t) {
+                permit.release();
+                if (!isComplete()) failWithException(t);
+                return;
+            }
+            synchronized (this) {
+                inProgress = call;
+            }
+            call.addCallback(this);
+            // Cancelled while being created.
+            if (isCancelled() && !call.isComplete()) call.cancel();
+        }
+
+        @Override
+        public void addCallback(AsyncCallback<T> callback) {
+            super.addCallback(callback);
+            if (!isComplete()) start();
+        }
+
+        @Override
+        public T result() {
+            if (!isComplete()) start();
+            return super.result();
+        }
+
+        @Override
+        public void onSuccess(T value) {
+            if (!isComplete()) setResult(value);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            if (t instanceof CancelledException) onCancel();
+            else if (!isComplete()) failWithException(t);
+        }
+
+        @Override
+        public void onCancel() {
+            Future<?> current;
+            synchronized (this) {
+                current = inProgress;
+            }
+            setCancelled();
+            if (current != null && !current.isComplete()) current.cancel();
+        }
+
+        @Override
+        protected void releaseReferences() {
+            super.releaseReferences();
+            synchronized (this) {
+                factory = null;
+                inProgress = null;
+            }
+        }
+
+        @Override
+        protected String getFutureType() {
+            return "FutureSemaphore.Guarded";
+        }
+    }
+}
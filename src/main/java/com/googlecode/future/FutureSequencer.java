@@ -2,6 +2,7 @@ package com.googlecode.future;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import static java.util.Arrays.asList;
@@ -34,4 +35,9 @@ public class FutureSequencer extends FutureAction<Boolean> {
         returnResult(true);
     }
 
+    @Override
+    protected void releaseReferences() {
+        super.releaseReferences();
+        resultsToSequence = Collections.emptyList();
+    }
 }
@@ -0,0 +1,284 @@
+package com.googlecode.future;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gwt.user.client.Command;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Base class of the Future-returning facades generated for GWT RPC services, either by
+ * deferred binding of a {@link FutureRemoteService} or by the annotation processor for
+ * {@link FutureFacade}.  Each method of a facade returns a lazy future: no request is sent
+ * until the future is started, e.g. by adding a callback or asking for its result from a
+ * {@link FutureAction}, so a facade call costs nothing if its result is never needed.
+ *
+ * <p>Requests are deduplicated by default: a call with the same method and equal arguments
+ * as a request that is still in flight shares its response instead of sending another.
+ * Arguments are compared with equals(), so arrays only match if they are the same instance.
+ *
+ * <p>When batching is enabled, requests started during the same event are queued and sent
+ * together after it has been processed, using {@link FutureScheduler#schedule} with a delay
+ * of 0.  Duplicates within the batch are sent once.  By default each request in a batch is
+ * still sent on its own; a service with a batch endpoint can override
+ * {@link #send(List)} to combine them into a single server call.  Batching needs a scheduler
+ * that runs commands after the current event rather than at once: the default scheduler does
+ * in the browser, but on a server a real time scheduler such as the ExecutorFutureScheduler of
+ * the JVM module must be installed, where a batch holds the requests started before its flush
+ * runs on the scheduler's thread.
+ *
+ * <p>A facade may be used from several threads, e.g. with the parallel evaluator of the JVM
+ * module: the requests in flight and the batch queue are guarded by the facade's lock, and
+ * requests are sent outside it.
+ */
+public abstract class FutureService {
+
+    private final String name;
+
+    private volatile boolean deduplicating = true;
+
+    private volatile boolean batching = false;
+
+    /** Guarded by this. */
+    private final Map<Request<?>, Request<?>> inFlight = new HashMap<Request<?>, Request<?>>();
+
+    /** Guarded by this. */
+    private List<Request<?>> queue = new ArrayList<Request<?>>();
+
+    protected FutureService(String name) {
+        this.name = name;
+    }
+
+    /**
+     * A single call of a service method, which owns the response shared by all the futures
+     * deduplicated onto it.  Requests are equal if their methods and arguments are equal.
+     */
+    public abstract static class Request<T> {
+
+        private final String method;
+
+        private final List<Object> arguments;
+
+        private final FutureResult<T> response;
+
+        protected Request(String method, Object... arguments) {
+            this.method = method;
+            this.arguments = Arrays.asList(arguments);
+            this.response = new FutureResult<T>(method);
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public List<Object> getArguments() {
+            return arguments;
+        }
+
+        /**
+         * Callback that completes the response, for use when the request is sent by some other
+         * means, e.g. as part of a combined batch call.
+         */
+        public AsyncCallback<T> getCallback() {
+            return response;
+        }
+
+        /**
+         * Send the request by calling the asynchronous service method.
+         */
+        public void send() {
+            try {
+                invoke(response);
+            } catch (RuntimeException e) {
+                response.failWithException(e);
+            }
+        }
+
+        /**
+         * Call the asynchronous service method with the given callback.
+         */
+        protected abstract void invoke(AsyncCallback<T> callback);
+
+        Future<T> getResponse() {
+            return response;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Request<?>)) return false;
+            Request<?> other = (Request<?>) o;
+            return method.equals(other.method) && arguments.equals(other.arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return method.hashCode() * 31 + arguments.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return method + arguments;
+        }
+    }
+
+    /**
+     * The lazy future returned for a call, which submits its request when first run.
+     */
+    private class Call<T> extends FutureAction<T> {
+
+        private Request<T> request;
+
+        private Future<T> response;
+
+        Call(Request<T> request) {
+            super(name + "." + request.getMethod());
+            this.request = request;
+        }
+
+        public void run() {
+            Future<T> current;
+            synchronized (this) {
+                current = response;
+            }
+            if (current == null) {
+                // Replays on other threads racing to submit share the request in flight.
+                Future<T> submitted = submit(request);
+                synchronized (this) {
+                    if (response == null) response = submitted;
+                    current = response;
+                }
+            }
+            returnResult(current.result());
+        }
+
+        @Override
+        protected void releaseReferences() {
+            super.releaseReferences();
+            synchronized (this) {
+                request = null;
+                response = null;
+            }
+        }
+    }
+
+    /**
+     * Create the lazy future for a call.  Used by generated facade methods.
+     *
+     * @param request the request to send when the future is started
+     * @return the future response
+     */
+    protected <T> Future<T> call(Request<T> request) {
+        return new Call<T>(request);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Future<T> submit(final Request<T> request) {
+        boolean isDeduplicated = deduplicating;
+        boolean isBatched = batching;
+        boolean isFlushNeeded = false;
+        synchronized (this) {
+            if (isDeduplicated) {
+                Request<?> existing = inFlight.get(request);
+                if (existing != null) return (Future<T>) existing.getResponse();
+                inFlight.put(request, request);
+            }
+            if (isBatched) {
+                queue.add(request);
+                isFlushNeeded = queue.size() == 1;
+            }
+        }
+        if (isDeduplicated) {
+            request.getResponse().addCallback(new AsyncCallback<T>() {
+                public void onSuccess(T result) {
+                    completed(request);
+                }
+
+                public void onFailure(Throwable caught) {
+                    completed(request);
+                }
+            });
+        }
+        if (!isBatched) {
+            request.send();
+        } else if (isFlushNeeded) {
+            FutureRuntime.getScheduler().schedule(new Command() {
+                public void execute() {
+                    flush();
+                }
+            }, 0);
+        }
+        return request.getResponse();
+    }
+
+    private synchronized void completed(Request<?> request) {
+        if (inFlight.get(request) == request) inFlight.remove(request);
+    }
+
+    /**
+     * Send the requests queued by batching now rather than after the current event.
+     */
+    public void flush() {
+        List<Request<?>> batch;
+        synchronized (this) {
+            if (queue.isEmpty()) return;
+            batch = queue;
+            queue = new ArrayList<Request<?>>();
+        }
+        send(Collections.unmodifiableList(batch));
+    }
+
+    /**
+     * Send a batch of requests.  The default sends each one on its own.  Overrides that send
+     * them some other way must complete each request's {@link Request#getCallback()}.
+     *
+     * @param batch the requests, which are all different when deduplicating
+     */
+    protected void send(List<Request<?>> batch) {
+        for (Request<?> request : batch) {
+            request.send();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isDeduplicating() {
+        return deduplicating;
+    }
+
+    public void setDeduplicating(boolean deduplicating) {
+        this.deduplicating = deduplicating;
+    }
+
+    public boolean isBatching() {
+        return batching;
+    }
+
+    /**
+     * Enable or disable batching.  Disabling it does not send requests already queued; call
+     * {@link #flush()} for that.
+     *
+     * @throws IllegalStateException if enabling batching while the scheduler in use runs
+     * deferred commands at once, i.e. the default scheduler outside the browser
+     */
+    public void setBatching(boolean batching) {
+        if (batching && !FutureRuntime.isDelaySupported()) {
+            throw new IllegalStateException("Batching needs a scheduler which defers commands, "
+                    + "see FutureRuntime.setScheduler()");
+        }
+        this.batching = batching;
+    }
+
+    /**
+     * Number of requests sent or queued and not yet completed.  Only tracked when
+     * deduplicating.
+     */
+    public synchronized int getInFlightCount() {
+        return inFlight.size();
+    }
+}
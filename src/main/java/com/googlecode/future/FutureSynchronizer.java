@@ -2,6 +2,7 @@ package com.googlecode.future;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import static java.util.Arrays.asList;
@@ -50,4 +51,9 @@ public class FutureSynchronizer extends FutureAction<Boolean> {
         returnResult(true);
     }
 
+    @Override
+    protected void releaseReferences() {
+        super.releaseReferences();
+        resultsToSynchronizeWith = Collections.emptyList();
+    }
 }
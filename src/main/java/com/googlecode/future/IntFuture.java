@@ -0,0 +1,191 @@
+package com.googlecode.future;
+
+/**
+ * Future result of an int, stored and delivered to listeners without boxing.
+ *
+ * <code><pre>
+ * IntFuture total = IntFuture.sum(counts);
+ * total.addListener(new IntFuture.Listener() {
+ *     public void onSuccess(int value) {
+ *         label.setText("Total: " + value);
+ *     }
+ *     public void onFailure(Throwable caught) {
+ *         ...
+ *     }
+ * });
+ * </pre></code>
+ *
+ * @see PrimitiveFuture
+ */
+public class IntFuture extends PrimitiveFuture<Integer> {
+
+    /**
+     * Notified when an {@link IntFuture} completes.
+     */
+    public interface Listener extends PrimitiveFuture.Listener {
+        void onSuccess(int value);
+    }
+
+    private int value;
+
+    public IntFuture() {
+        super(null);
+    }
+
+    public IntFuture(String name) {
+        super(name);
+    }
+
+    /**
+     * Create an IntFuture that has already succeeded with the given value.
+     *
+     * @param value the value
+     * @return the completed future
+     */
+    public static IntFuture constant(int value) {
+        IntFuture result = new IntFuture();
+        result.setResult(value);
+        return result;
+    }
+
+    /**
+     * Create an IntFuture completed by a boxed future.  A null result fails it with a
+     * NullPointerException.
+     *
+     * @param future future to unbox
+     * @return a future for the unboxed result
+     */
+    public static IntFuture from(Future<Integer> future) {
+        IntFuture result = new IntFuture(future.getName());
+        forward(future, result);
+        return result;
+    }
+
+    /**
+     * Sets the result of this future.
+     *
+     * @param value the value
+     * @throws IllegalStateException if the future is already complete
+     */
+    public void setResult(int value) {
+        if (!setIfIncomplete(value)) throw alreadyComplete();
+    }
+
+    boolean setIfIncomplete(int value) {
+        synchronized (this) {
+            if (isComplete()) return false;
+            this.value = value;
+            markSucceeded();
+        }
+        notifyCompleted();
+        return true;
+    }
+
+    /**
+     * Return the result of this future if available.
+     *
+     * @return result
+     * @throws IncompleteResultException if result is not yet available
+     * @throws ExecutionException if the future failed
+     * @throws CancelledException if the future was cancelled
+     */
+    public int result() throws IncompleteResultException, ExecutionException,
+            CancelledException {
+        checkSucceeded();
+        return value;
+    }
+
+    /**
+     * Add a listener that is invoked when this future completes, or at once if already
+     * complete.
+     *
+     * @param listener listener to invoke
+     */
+    public void addListener(Listener listener) {
+        listen(listener);
+    }
+
+    /**
+     * The sum of this and another future.
+     */
+    public IntFuture plus(IntFuture other) {
+        return sum(this, other);
+    }
+
+    /**
+     * The sum of the given futures, once all have succeeded.
+     *
+     * @param values futures to add
+     * @return a future for the sum, which fails if any of the values fails
+     */
+    public static IntFuture sum(final IntFuture... values) {
+        final IntFuture result = new IntFuture();
+        new Join(result, values) {
+            void combine() {
+                int total = 0;
+                for (IntFuture value : values) total += value.value;
+                result.setIfIncomplete(total);
+            }
+        }.start();
+        return result;
+    }
+
+    /**
+     * This future widened to a long.
+     */
+    public LongFuture toLongFuture() {
+        final LongFuture result = new LongFuture();
+        new Join(result, this) {
+            void combine() {
+                result.setIfIncomplete(value);
+            }
+        }.start();
+        return result;
+    }
+
+    /**
+     * This future converted to a double.
+     */
+    public DoubleFuture toDoubleFuture() {
+        final DoubleFuture result = new DoubleFuture();
+        new Join(result, this) {
+            void combine() {
+                result.setIfIncomplete(value);
+            }
+        }.start();
+        return result;
+    }
+
+    /**
+     * Whether the value of this future is greater than the given value.
+     */
+    public BooleanFuture isGreaterThan(final int other) {
+        final BooleanFuture result = new BooleanFuture();
+        new Join(result, this) {
+            void combine() {
+                result.setIfIncomplete(value > other);
+            }
+        }.start();
+        return result;
+    }
+
+    @Override
+    void notifySuccess(PrimitiveFuture.Listener listener) {
+        ((Listener) listener).onSuccess(value);
+    }
+
+    @Override
+    Integer boxedValue() {
+        return value;
+    }
+
+    @Override
+    void setBoxedResult(Integer value) {
+        setIfIncomplete(value);
+    }
+
+    @Override
+    String getFutureType() {
+        return "IntFuture";
+    }
+}
@@ -0,0 +1,17 @@
+package com.googlecode.future;
+
+/**
+ * Exception with which a call through a {@link FutureLimiter} fails immediately, without
+ * being attempted, when the limiter's concurrency limit is reached and its queue is full.
+ */
+public class LimitExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 8139907457718215610L;
+
+    public LimitExceededException() {
+    }
+
+    public LimitExceededException(String message) {
+        super(message);
+    }
+}
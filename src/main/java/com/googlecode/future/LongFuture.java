@@ -0,0 +1,165 @@
+package com.googlecode.future;
+
+/**
+ * Future result of a long, stored and delivered to listeners without boxing.
+ *
+ * <code><pre>
+ * LongFuture total = LongFuture.sum(byteCounts);
+ * total.addListener(new LongFuture.Listener() {
+ *     public void onSuccess(long value) {
+ *         label.setText("Total: " + value);
+ *     }
+ *     public void onFailure(Throwable caught) {
+ *         ...
+ *     }
+ * });
+ * </pre></code>
+ *
+ * @see PrimitiveFuture
+ */
+public class LongFuture extends PrimitiveFuture<Long> {
+
+    /**
+     * Notified when a {@link LongFuture} completes.
+     */
+    public interface Listener extends PrimitiveFuture.Listener {
+        void onSuccess(long value);
+    }
+
+    private long value;
+
+    public LongFuture() {
+        super(null);
+    }
+
+    public LongFuture(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a LongFuture that has already succeeded with the given value.
+     *
+     * @param value the value
+     * @return the completed future
+     */
+    public static LongFuture constant(long value) {
+        LongFuture result = new LongFuture();
+        result.setResult(value);
+        return result;
+    }
+
+    /**
+     * Create a LongFuture completed by a boxed future.  A null result fails it with a
+     * NullPointerException.
+     *
+     * @param future future to unbox
+     * @return a future for the unboxed result
+     */
+    public static LongFuture from(Future<Long> future) {
+        LongFuture result = new LongFuture(future.getName());
+        forward(future, result);
+        return result;
+    }
+
+    /**
+     * Sets the result of this future.
+     *
+     * @param value the value
+     * @throws IllegalStateException if the future is already complete
+     */
+    public void setResult(long value) {
+        if (!setIfIncomplete(value)) throw alreadyComplete();
+    }
+
+    boolean setIfIncomplete(long value) {
+        synchronized (this) {
+            if (isComplete()) return false;
+            this.value = value;
+            markSucceeded();
+        }
+        notifyCompleted();
+        return true;
+    }
+
+    /**
+     * Return the result of this future if available.
+     *
+     * @return result
+     * @throws IncompleteResultException if result is not yet available
+     * @throws ExecutionException if the future failed
+     * @throws CancelledException if the future was cancelled
+     */
+    public long result() throws IncompleteResultException, ExecutionException,
+            CancelledException {
+        checkSucceeded();
+        return value;
+    }
+
+    /**
+     * Add a listener that is invoked when this future completes, or at once if already
+     * complete.
+     *
+     * @param listener listener to invoke
+     */
+    public void addListener(Listener listener) {
+        listen(listener);
+    }
+
+    /**
+     * The sum of this and another future.
+     */
+    public LongFuture plus(LongFuture other) {
+        return sum(this, other);
+    }
+
+    /**
+     * The sum of the given futures, once all have succeeded.
+     *
+     * @param values futures to add
+     * @return a future for the sum, which fails if any of the values fails
+     */
+    public static LongFuture sum(final LongFuture... values) {
+        final LongFuture result = new LongFuture();
+        new Join(result, values) {
+            void combine() {
+                long total = 0;
+                for (LongFuture value : values) total += value.value;
+                result.setIfIncomplete(total);
+            }
+        }.start();
+        return result;
+    }
+
+    /**
+     * This future converted to a double.
+     */
+    public DoubleFuture toDoubleFuture() {
+        final DoubleFuture result = new DoubleFuture();
+        new Join(result, this) {
+            void combine() {
+                result.setIfIncomplete(value);
+            }
+        }.start();
+        return result;
+    }
+
+    @Override
+    void notifySuccess(PrimitiveFuture.Listener listener) {
+        ((Listener) listener).onSuccess(value);
+    }
+
+    @Override
+    Long boxedValue() {
+        return value;
+    }
+
+    @Override
+    void setBoxedResult(Long value) {
+        setIfIncomplete(value);
+    }
+
+    @Override
+    String getFutureType() {
+        return "LongFuture";
+    }
+}
@@ -0,0 +1,301 @@
+package com.googlecode.future;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of incomplete futures and how long they have been pending, to find futures
+ * which never complete, e.g. because a callback is never invoked, and which keep their
+ * listeners alive with them.
+ *
+ * <p>Tracking is off by default.  Call {@link #start()} to begin tracking and
+ * {@link #stop()} to end it, e.g.
+ *
+ * <code><pre>
+ * PendingFutureRegistry registry = new PendingFutureRegistry();
+ * registry.start();
+ * ...
+ * log(registry.dump(30000));
+ * </pre></code>
+ *
+ * <p>An action is tracked from when it is first run, and any future from when an action
+ * is found to depend on it.  Other futures, such as the result of a remote call which is
+ * never waited for, can be tracked with {@link #track(Future)}.  Futures stop being tracked
+ * once they complete: a {@link FutureResult} is forgotten when observed to complete, and any
+ * other future by a callback added to it when it is first tracked.
+ *
+ * <p>This registry holds its futures strongly, as weak references are not available in GWT,
+ * so a leaked future is never collected while tracked.  On the JVM use
+ * {@code com.googlecode.future.jvm.WeakPendingFutureRegistry}, which does not keep futures
+ * alive.
+ */
+public class PendingFutureRegistry extends FutureObserverAdapter {
+
+    /**
+     * A snapshot of an incomplete future.
+     */
+    public static class PendingFuture {
+        private final Future<?> future;
+        private final String name;
+        private final String type;
+        private final long startTime;
+        private final long sequence;
+        private final long age;
+        private final List<Future<?>> pendingDependencies;
+
+        PendingFuture(Future<?> future, Entry entry, long now) {
+            this.future = future;
+            this.name = future.getName();
+            this.type = (future instanceof FutureResult<?>) ?
+                    ((FutureResult<?>) future).getFutureType() : "Future";
+            this.startTime = entry.startTime;
+            this.sequence = entry.sequence;
+            this.age = now - entry.startTime;
+            this.pendingDependencies = (future instanceof FutureAction<?>) ?
+                    Collections.unmodifiableList(
+                            ((FutureAction<?>) future).getUnresolvedDependencies())
+                    : Collections.<Future<?>>emptyList();
+        }
+
+        public Future<?> getFuture() {
+            return future;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * Time the future was first seen.
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * Time the future had been pending when the snapshot was taken.
+         */
+        public long getAge() {
+            return age;
+        }
+
+        /**
+         * The incomplete dependencies the future is waiting for, if it is an action.
+         */
+        public List<Future<?>> getPendingDependencies() {
+            return pendingDependencies;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder description = new StringBuilder(name).append(" (").append(type)
+                .append(") pending for ").append(age).append("ms");
+            if (!pendingDependencies.isEmpty()) {
+                description.append(", waiting for ");
+                for (int i = 0; i < pendingDependencies.size(); i++) {
+                    if (i > 0) description.append(", ");
+                    description.append(pendingDependencies.get(i).getName());
+                }
+            }
+            return description.toString();
+        }
+    }
+
+    /**
+     * What is recorded for each tracked future.  It refers to no futures, so that it does not
+     * keep them alive.
+     */
+    protected static final class Entry {
+        final long startTime;
+        final long sequence;
+
+        Entry(long startTime, long sequence) {
+            this.startTime = startTime;
+            this.sequence = sequence;
+        }
+    }
+
+    private final Map<Future<?>, Entry> entries = new IdentityHashMap<Future<?>, Entry>();
+
+    private boolean isTracking = false;
+
+    private long registrations = 0;
+
+    /**
+     * Start tracking.  Tracking continues until {@link #stop()} is called.
+     */
+    public synchronized void start() {
+        if (isTracking) return;
+        isTracking = true;
+        FutureRuntime.addObserver(this);
+    }
+
+    /**
+     * Stop tracking and forget all tracked futures.
+     */
+    public synchronized void stop() {
+        isTracking = false;
+        FutureRuntime.removeObserver(this);
+        clearEntries();
+    }
+
+    /**
+     * Track a future which is not an action, such as the result of a remote call, until it
+     * completes.  If it is not a {@link FutureResult} a callback is added to it.
+     *
+     * @param future future to track
+     */
+    public void track(Future<?> future) {
+        register(future);
+    }
+
+    /**
+     * Current time in milliseconds, taken from {@link FutureRuntime#getScheduler()}.
+     * Subclasses may override this to use a different clock.
+     */
+    protected long now() {
+        return FutureRuntime.getScheduler().now();
+    }
+
+    @Override
+    public void onRunStarted(FutureAction<?> action, int attempt) {
+        register(action);
+    }
+
+    @Override
+    public void onDependencyAdded(FutureAction<?> action, Future<?> dependency) {
+        register(action);
+        register(dependency);
+    }
+
+    @Override
+    public synchronized void onCompleted(FutureResult<?> future) {
+        removeEntry(future);
+    }
+
+    /**
+     * Track a future if it is incomplete and not yet tracked.
+     */
+    private void register(Future<?> future) {
+        synchronized (this) {
+            if (getEntry(future) != null) return;
+            // A FutureResult completing after this check is removed once it is added.
+            if (future.isComplete()) return;
+            putEntry(future, new Entry(now(), registrations++));
+        }
+        // Only the completion of a FutureResult is observed.  The callback is added outside
+        // the lock, as it may be called at once.
+        if (!(future instanceof FutureResult<?>)) removeOnCompletion(future);
+    }
+
+    private <T> void removeOnCompletion(final Future<T> future) {
+        future.addCallback(new CancellableAsyncCallback<T>() {
+            public void onSuccess(T result) {
+                removeCompleted(future);
+            }
+
+            public void onFailure(Throwable caught) {
+                removeCompleted(future);
+            }
+
+            public void onCancel() {
+                removeCompleted(future);
+            }
+        });
+    }
+
+    private synchronized void removeCompleted(Future<?> future) {
+        removeEntry(future);
+    }
+
+    /**
+     * Number of incomplete futures tracked.
+     */
+    public synchronized int size() {
+        return getEntries().size();
+    }
+
+    /**
+     * All tracked futures, oldest first, and in the order they were seen if equally old.
+     */
+    public List<PendingFuture> getPending() {
+        return getPendingOlderThan(-1);
+    }
+
+    /**
+     * Tracked futures which have been pending longer than a threshold, oldest first.
+     *
+     * @param ageMillis threshold in milliseconds
+     * @return the futures
+     */
+    public synchronized List<PendingFuture> getPendingOlderThan(long ageMillis) {
+        long now = now();
+        List<PendingFuture> pending = new ArrayList<PendingFuture>();
+        for (Map.Entry<Future<?>, Entry> entry : getEntries().entrySet()) {
+            PendingFuture snapshot = new PendingFuture(entry.getKey(), entry.getValue(), now);
+            if (snapshot.age > ageMillis) pending.add(snapshot);
+        }
+        Collections.sort(pending, new Comparator<PendingFuture>() {
+            public int compare(PendingFuture a, PendingFuture b) {
+                if (a.startTime != b.startTime) return a.startTime < b.startTime ? -1 : 1;
+                if (a.sequence == b.sequence) return 0;
+                return a.sequence < b.sequence ? -1 : 1;
+            }
+        });
+        return pending;
+    }
+
+    /**
+     * Describe all tracked futures, one per line and oldest first.  Those pending for longer
+     * than a threshold, which have most likely stalled, are marked with "STALLED".
+     *
+     * @param stallThresholdMillis threshold in milliseconds
+     * @return the description
+     */
+    public String dump(long stallThresholdMillis) {
+        List<PendingFuture> pending = getPending();
+        StringBuilder dump = new StringBuilder().append(pending.size())
+            .append(" pending futures\n");
+        for (PendingFuture future : pending) {
+            dump.append(future.age > stallThresholdMillis ? "STALLED " : "        ")
+                .append(future).append('\n');
+        }
+        return dump.toString();
+    }
+
+    /**
+     * The entry of a tracked future, or null.  Subclasses may override this and the other
+     * entry methods to store entries differently; they are always called while synchronized
+     * on the registry.
+     */
+    protected Entry getEntry(Future<?> future) {
+        return entries.get(future);
+    }
+
+    protected void putEntry(Future<?> future, Entry entry) {
+        entries.put(future, entry);
+    }
+
+    protected void removeEntry(Future<?> future) {
+        entries.remove(future);
+    }
+
+    protected void clearEntries() {
+        entries.clear();
+    }
+
+    /**
+     * The tracked futures and their entries.
+     */
+    protected Map<Future<?>, Entry> getEntries() {
+        return entries;
+    }
+}
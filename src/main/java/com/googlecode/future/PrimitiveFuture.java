@@ -0,0 +1,404 @@
+package com.googlecode.future;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.googlecode.future.ExecutionException.returnIfCheckedThrowIfUnchecked;
+
+/**
+ * Base class of the futures specialized for primitive values: {@link IntFuture},
+ * {@link LongFuture}, {@link DoubleFuture} and {@link BooleanFuture}.  Their values are stored
+ * and passed to listeners unboxed, which matters in compiled JavaScript where every Integer
+ * or Double is a separate object.  Combinators between them, such as
+ * {@link IntFuture#sum(IntFuture...)}, never box either.
+ *
+ * <p>A primitive future is not itself a {@link Future}, but {@link #asFuture()} returns a view
+ * of it that is, so that it can be used wherever a Future is expected.  Values are only boxed
+ * once the view has been created.  Calling result() on an incomplete primitive future from
+ * the run() method of a {@link FutureAction} throws an {@link IncompleteResultException} for
+ * the view, so the action runs again when the primitive future completes, as for any other
+ * future.
+ *
+ * <p>Primitive futures complete eagerly, like {@link FutureResult}, and are not reported to
+ * {@link FutureObserver}s unless viewed as a Future.  As with FutureResult, a listener added
+ * before completion is called in the context that was current when it was added, see
+ * {@link FutureContextPropagator}.
+ *
+ * @param <B> boxed type of the value, used by the Future view
+ */
+public abstract class PrimitiveFuture<B> {
+
+    /**
+     * Notified when a primitive future fails.  Each primitive future adds an onSuccess()
+     * method taking its unboxed value.
+     */
+    public interface Listener {
+        /**
+         * Called when the future fails, or with a {@link CancelledException} if it is
+         * cancelled.
+         *
+         * @param caught the exception
+         */
+        void onFailure(Throwable caught);
+    }
+
+    private static final int INCOMPLETE = 0;
+
+    private static final int SUCCEEDED = 1;
+
+    private static final int FAILED = 2;
+
+    private static final int CANCELLED = 3;
+
+    private String name;
+
+    private volatile int state = INCOMPLETE;
+
+    private Throwable exception = null;
+
+    /** Whether listeners have been notified, after which new listeners are called at once. */
+    private boolean isNotified = false;
+
+    private List<Registration> listeners = null;
+
+    private View view = null;
+
+    PrimitiveFuture(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Notify a listener, which is of the listener type of the subclass, of the value.
+     */
+    abstract void notifySuccess(Listener listener);
+
+    abstract B boxedValue();
+
+    abstract void setBoxedResult(B value);
+
+    /**
+     * A view of this future as a {@link Future}, created on first use.  Its result is the
+     * boxed value of this future, and cancelling it cancels this future.
+     *
+     * @return the view
+     */
+    public Future<B> asFuture() {
+        View current;
+        synchronized (this) {
+            if (view != null) return view;
+            view = new View();
+            if (!isNotified) return view;
+            current = view;
+        }
+        current.complete();
+        return current;
+    }
+
+    /** @see Future#isComplete() */
+    public boolean isComplete() {
+        return state != INCOMPLETE;
+    }
+
+    /** @see Future#isSuccessful() */
+    public boolean isSuccessful() {
+        return state == SUCCEEDED;
+    }
+
+    /** @see Future#isFailure() */
+    public boolean isFailure() {
+        return state == FAILED;
+    }
+
+    /** @see Future#isCancelled() */
+    public boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    /** @see Future#exception() */
+    public Throwable exception() {
+        return exception;
+    }
+
+    /**
+     * Indicates that the future failed with the given exception.
+     *
+     * @param t exception to set
+     * @throws IllegalStateException if the future is already complete
+     */
+    public void failWithException(Throwable t) {
+        synchronized (this) {
+            if (isComplete()) {
+                throw new IllegalStateException("Cannot fail when already complete for " + this,
+                        t);
+            }
+            exception = t;
+            state = FAILED;
+        }
+        notifyCompleted();
+    }
+
+    /**
+     * Cancel this future, if not already complete.
+     */
+    public void cancel() {
+        synchronized (this) {
+            if (isComplete()) return;
+            exception = new CancelledException();
+            state = CANCELLED;
+        }
+        notifyCompleted();
+    }
+
+    public String getName() {
+        return (name != null && !name.isEmpty()) ? name : getFutureType();
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    abstract String getFutureType();
+
+    final IllegalStateException alreadyComplete() {
+        return new IllegalStateException("Cannot set result when already complete for " + this);
+    }
+
+    /**
+     * Must be called holding the lock on this future, after setting the value.  Call
+     * {@link #notifyCompleted()} after releasing the lock.
+     */
+    final void markSucceeded() {
+        state = SUCCEEDED;
+    }
+
+    /**
+     * Throw the appropriate exception if this future has not succeeded.
+     */
+    final void checkSucceeded() {
+        switch (state) {
+        case INCOMPLETE: {
+            Future<B> future = asFuture();
+            if (FutureRuntime.awaitCompletion(future)) {
+                checkSucceeded();
+                return;
+            }
+            throw new IncompleteResultException(future, "Future result not yet set for " + this);
+        }
+        case FAILED:
+            throw new ExecutionException(returnIfCheckedThrowIfUnchecked(exception));
+        case CANCELLED:
+            throw new CancelledException();
+        }
+    }
+
+    /**
+     * A listener added before completion, with the context captured when it was added.
+     */
+    private static final class Registration {
+
+        final Listener listener;
+
+        final Object context;
+
+        Registration(Listener listener, Object context) {
+            this.listener = listener;
+            this.context = context;
+        }
+    }
+
+    final void listen(Listener listener) {
+        if (listener == null) return;
+        Object context = isComplete() ? null : FutureRuntime.captureContext();
+        synchronized (this) {
+            if (!isNotified) {
+                if (listeners == null) listeners = new ArrayList<Registration>(2);
+                listeners.add(new Registration(listener, context));
+                return;
+            }
+        }
+        notifyListener(listener);
+    }
+
+    /**
+     * Fail this future unless it is already complete.
+     */
+    final void failIfIncomplete(Throwable t) {
+        if (t instanceof CancelledException) {
+            cancel();
+            return;
+        }
+        synchronized (this) {
+            if (isComplete()) return;
+            exception = t;
+            state = FAILED;
+        }
+        notifyCompleted();
+    }
+
+    final void notifyCompleted() {
+        List<Registration> toNotify;
+        View current;
+        synchronized (this) {
+            isNotified = true;
+            toNotify = listeners;
+            listeners = null;
+            current = view;
+        }
+        if (toNotify != null) {
+            for (Registration registration : toNotify) notifyListener(registration);
+        }
+        if (current != null) current.complete();
+    }
+
+    private void notifyListener(Registration registration) {
+        if (registration.context == null) {
+            notifyListener(registration.listener);
+            return;
+        }
+        Object previous = FutureRuntime.attachContext(registration.context);
+        try {
+            notifyListener(registration.listener);
+        } finally {
+            FutureRuntime.detachContext(previous);
+        }
+    }
+
+    private void notifyListener(Listener listener) {
+        if (isSuccessful()) notifySuccess(listener);
+        else listener.onFailure(exception);
+    }
+
+    @Override
+    public String toString() {
+        switch (state) {
+        case CANCELLED:
+            return getName() + " (cancelled)";
+        case FAILED:
+            return getName() + " (failed with cause:\n" + exception + ")";
+        case INCOMPLETE:
+            return getName() + " (incomplete)";
+        default:
+            return getName() + " (succeeded with result = " + boxedValue() + ")";
+        }
+    }
+
+    /**
+     * Complete a primitive future from a boxed future.
+     *
+     * @param source future to unbox
+     * @param target future to complete
+     */
+    static <B> void forward(Future<B> source, final PrimitiveFuture<B> target) {
+        source.addCallback(new CancellableAsyncCallback<B>() {
+            public void onSuccess(B result) {
+                if (result == null) {
+                    target.failIfIncomplete(new NullPointerException("Null result for " + target));
+                } else {
+                    target.setBoxedResult(result);
+                }
+            }
+
+            public void onFailure(Throwable caught) {
+                target.failIfIncomplete(caught);
+            }
+
+            public void onCancel() {
+                target.cancel();
+            }
+        });
+    }
+
+    /**
+     * The Future view of a primitive future.
+     */
+    private final class View extends FutureResult<B> {
+
+        View() {
+            super(name);
+        }
+
+        void complete() {
+            switch (state) {
+            case SUCCEEDED:
+                setResult(boxedValue());
+                break;
+            case FAILED:
+                failWithException(exception);
+                break;
+            default:
+                setCancelled();
+            }
+        }
+
+        @Override
+        public void onCancel() {
+            PrimitiveFuture.this.cancel();
+        }
+
+        @Override
+        protected String getFutureType() {
+            return PrimitiveFuture.this.getFutureType();
+        }
+    }
+
+    /**
+     * Waits for a set of primitive futures to succeed, then calls {@link #combine()}, which
+     * can read their values without boxing.  If any fails, or is cancelled, so is the target.
+     */
+    abstract static class Join implements IntFuture.Listener, LongFuture.Listener,
+            DoubleFuture.Listener, BooleanFuture.Listener {
+
+        private final PrimitiveFuture<?> target;
+
+        private final PrimitiveFuture<?>[] sources;
+
+        private int remaining;
+
+        Join(PrimitiveFuture<?> target, PrimitiveFuture<?>... sources) {
+            this.target = target;
+            this.sources = sources;
+            this.remaining = sources.length;
+        }
+
+        /**
+         * Called once all the sources have succeeded, to complete the target unless it has
+         * already completed, e.g. by being cancelled.
+         */
+        abstract void combine();
+
+        final void start() {
+            if (sources.length == 0) {
+                combine();
+                return;
+            }
+            for (PrimitiveFuture<?> source : sources) source.listen(this);
+        }
+
+        private void arrived() {
+            synchronized (this) {
+                if (--remaining > 0) return;
+            }
+            combine();
+        }
+
+        public void onSuccess(int value) {
+            arrived();
+        }
+
+        public void onSuccess(long value) {
+            arrived();
+        }
+
+        public void onSuccess(double value) {
+            arrived();
+        }
+
+        public void onSuccess(boolean value) {
+            arrived();
+        }
+
+        public void onFailure(Throwable caught) {
+            target.failIfIncomplete(caught);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.googlecode.future;
+
+import com.google.gwt.user.client.Command;
+import com.google.gwt.user.client.IncrementalCommand;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * A deterministic {@link FutureScheduler} driven by a virtual clock.  Nothing happens until
+ * the clock is advanced with {@link #advanceBy(long)}, {@link #advanceTo(long)},
+ * {@link #runUntilIdle()} or {@link #step()}, at which point the queued events are run in
+ * time order, with events due at the same time run in the order they were queued.  This
+ * makes it possible to write reproducible tests and simulations of latency dependent
+ * behaviour without real servers, e.g.
+ *
+ * <code><pre>
+ * VirtualTimeScheduler scheduler = new VirtualTimeScheduler();
+ * scheduler.install();
+ * try {
+ *     final Future&lt;User&gt; user = new FutureAction&lt;User&gt;() {
+ *         public void run() {
+ *             scheduler.setValueLater(120, new User("bob"), callback()); // 120ms RPC
+ *         }
+ *     };
+ *     user.start();
+ *     scheduler.advanceBy(100);
+ *     assertFalse(user.isComplete());
+ *     scheduler.advanceBy(20);
+ *     assertTrue(user.isComplete());
+ * } finally {
+ *     scheduler.uninstall();
+ * }
+ * </pre></code>
+ *
+ * <p>Once installed with {@link #install()}, deferred commands and the steps of every
+ * {@link FutureIncrementalAction} are queued on the virtual clock as well.  Each incremental
+ * step takes {@link #setIncrementalStepMillis(long)} of virtual time, 0 by default.
+ *
+ * <p>Events are kept in a binary heap of parallel arrays so that queuing an event does not
+ * allocate once the heap has grown, allowing millions of simulated events per second.
+ */
+public class VirtualTimeScheduler implements FutureScheduler {
+
+    private static final int COMMAND = 0;
+    private static final int INCREMENTAL = 1;
+    private static final int SUCCESS = 2;
+    private static final int FAILURE = 3;
+    private static final int CANCEL = 4;
+
+    private long now;
+
+    private long nextSequence = 0;
+
+    private long incrementalStepMillis = 0;
+
+    private int size = 0;
+
+    private long[] times = new long[16];
+
+    private long[] sequences = new long[16];
+
+    private int[] kinds = new int[16];
+
+    private Object[] targets = new Object[16];
+
+    private Object[] values = new Object[16];
+
+    private FutureScheduler previous;
+
+    private boolean isInstalled = false;
+
+    /**
+     * Create a scheduler with the clock starting at 0.
+     */
+    public VirtualTimeScheduler() {
+        this(0);
+    }
+
+    /**
+     * Create a scheduler with the clock starting at the given time.
+     *
+     * @param startTime initial value of {@link #now()}
+     */
+    public VirtualTimeScheduler(long startTime) {
+        this.now = startTime;
+    }
+
+    /**
+     * Make this the scheduler returned by {@link FutureRuntime#getScheduler()}.
+     */
+    public void install() {
+        if (isInstalled) return;
+        previous = FutureRuntime.setScheduler(this);
+        isInstalled = true;
+    }
+
+    /**
+     * Restore the scheduler that was in use before {@link #install()} was called.
+     */
+    public void uninstall() {
+        if (!isInstalled) return;
+        FutureRuntime.setScheduler(previous);
+        previous = null;
+        isInstalled = false;
+    }
+
+    /**
+     * The current virtual time in milliseconds.
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * Virtual time taken by each step of an incremental command.
+     *
+     * @param millis time per step, 0 by default
+     */
+    public void setIncrementalStepMillis(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("millis must not be negative");
+        this.incrementalStepMillis = millis;
+    }
+
+    public void schedule(Command command, long delayMillis) {
+        enqueue(delayMillis, COMMAND, command, null);
+    }
+
+    public void scheduleIncremental(IncrementalCommand command) {
+        enqueue(incrementalStepMillis, INCREMENTAL, command, null);
+    }
+
+    /**
+     * Call {@link AsyncCallback#onSuccess(Object)} on the callback after the given delay.
+     *
+     * @param delayMillis delay in milliseconds
+     * @param value value to pass to the callback
+     * @param callback callback to invoke, e.g. {@link Future#callback()}
+     */
+    public <T> void setValueLater(long delayMillis, T value, AsyncCallback<T> callback) {
+        enqueue(delayMillis, SUCCESS, callback, value);
+    }
+
+    /**
+     * Call {@link AsyncCallback#onFailure(Throwable)} on the callback after the given delay.
+     *
+     * @param delayMillis delay in milliseconds
+     * @param t exception to pass to the callback
+     * @param callback callback to invoke, e.g. {@link Future#callback()}
+     */
+    public void failLater(long delayMillis, Throwable t, AsyncCallback<?> callback) {
+        enqueue(delayMillis, FAILURE, callback, t);
+    }
+
+    /**
+     * Cancel the future after the given delay.
+     *
+     * @param delayMillis delay in milliseconds
+     * @param future future to cancel
+     */
+    public void cancelLater(long delayMillis, Future<?> future) {
+        enqueue(delayMillis, CANCEL, future, null);
+    }
+
+    /**
+     * Number of events waiting to run.
+     */
+    public int getPendingEvents() {
+        return size;
+    }
+
+    /**
+     * Time of the next event, or -1 if no events are queued.
+     */
+    public long getNextEventTime() {
+        return size == 0 ? -1 : times[0];
+    }
+
+    /**
+     * Advance the clock to the time of the next event and run it.
+     *
+     * @return false if there were no events to run
+     */
+    public boolean step() {
+        if (size == 0) return false;
+        runNext();
+        return true;
+    }
+
+    /**
+     * Run every event due within the given amount of time, including any events those events
+     * queue, then advance the clock by that amount.
+     *
+     * @param millis time to advance by
+     * @return number of events run
+     */
+    public int advanceBy(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("millis must not be negative");
+        return advanceTo(now + millis);
+    }
+
+    /**
+     * Run every event due up to and including the given time, including any events those
+     * events queue, then set the clock to that time.
+     *
+     * @param time time to advance to
+     * @return number of events run
+     */
+    public int advanceTo(long time) {
+        if (time < now) throw new IllegalArgumentException("Cannot move time backwards from "
+                + now + " to " + time);
+        int count = 0;
+        while (size > 0 && times[0] <= time) {
+            runNext();
+            count++;
+        }
+        now = time;
+        return count;
+    }
+
+    /**
+     * Run events until none are left.  Note this will not return if events keep queuing
+     * further events, e.g. an incremental command that never finishes.
+     *
+     * @return number of events run
+     */
+    public int runUntilIdle() {
+        int count = 0;
+        while (size > 0) {
+            runNext();
+            count++;
+        }
+        return count;
+    }
+
+    private void enqueue(long delayMillis, int kind, Object target, Object value) {
+        if (target == null) throw new IllegalArgumentException("Nothing to schedule");
+        if (delayMillis < 0) delayMillis = 0;
+        if (size == times.length) grow();
+        int i = size++;
+        long time = now + delayMillis;
+        long sequence = nextSequence++;
+        // Sift up
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(time, sequence, parent)) break;
+            move(parent, i);
+            i = parent;
+        }
+        set(i, time, sequence, kind, target, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void runNext() {
+        long time = times[0];
+        int kind = kinds[0];
+        Object target = targets[0];
+        Object value = values[0];
+        removeFirst();
+        if (time > now) now = time;
+        switch (kind) {
+        case COMMAND:
+            ((Command) target).execute();
+            break;
+        case INCREMENTAL:
+            IncrementalCommand command = (IncrementalCommand) target;
+            if (command.execute()) scheduleIncremental(command);
+            break;
+        case SUCCESS:
+            ((AsyncCallback<Object>) target).onSuccess(value);
+            break;
+        case FAILURE:
+            ((AsyncCallback<?>) target).onFailure((Throwable) value);
+            break;
+        case CANCEL:
+            ((Future<?>) target).cancel();
+            break;
+        }
+    }
+
+    private void removeFirst() {
+        int last = --size;
+        long time = times[last];
+        long sequence = sequences[last];
+        int kind = kinds[last];
+        Object target = targets[last];
+        Object value = values[last];
+        targets[last] = null;
+        values[last] = null;
+        if (last == 0) return;
+        // Sift down
+        int i = 0;
+        int half = last >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < last && before(times[right], sequences[right], child)) child = right;
+            if (!before(times[child], sequences[child], time, sequence)) break;
+            move(child, i);
+            i = child;
+        }
+        set(i, time, sequence, kind, target, value);
+    }
+
+    private boolean before(long time, long sequence, int index) {
+        return before(time, sequence, times[index], sequences[index]);
+    }
+
+    private static boolean before(long time, long sequence, long otherTime, long otherSequence) {
+        return time < otherTime || (time == otherTime && sequence < otherSequence);
+    }
+
+    private void move(int from, int to) {
+        set(to, times[from], sequences[from], kinds[from], targets[from], values[from]);
+    }
+
+    private void set(int i, long time, long sequence, int kind, Object target, Object value) {
+        times[i] = time;
+        sequences[i] = sequence;
+        kinds[i] = kind;
+        targets[i] = target;
+        values[i] = value;
+    }
+
+    private void grow() {
+        int capacity = times.length * 2;
+        long[] newTimes = new long[capacity];
+        long[] newSequences = new long[capacity];
+        int[] newKinds = new int[capacity];
+        Object[] newTargets = new Object[capacity];
+        Object[] newValues = new Object[capacity];
+        System.arraycopy(times, 0, newTimes, 0, size);
+        System.arraycopy(sequences, 0, newSequences, 0, size);
+        System.arraycopy(kinds, 0, newKinds, 0, size);
+        System.arraycopy(targets, 0, newTargets, 0, size);
+        System.arraycopy(values, 0, newValues, 0, size);
+        times = newTimes;
+        sequences = newSequences;
+        kinds = newKinds;
+        targets = newTargets;
+        values = newValues;
+    }
+}
@@ -0,0 +1,210 @@
+package com.googlecode.future.rebind;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The source of a Future-returning facade generated by {@link FutureRemoteServiceGenerator},
+ * built from the signatures of the facade's methods and of the service's asynchronous
+ * interface.  Kept apart from the generator, which needs the GWT compiler's type oracle, so
+ * that the source can be generated and checked without it.
+ */
+public final class FutureFacadeSource {
+
+    private static final String FUTURE = "com.googlecode.future.Future";
+
+    private static final String SERVICE = "com.googlecode.future.FutureService";
+
+    private static final String CALLBACK = "com.google.gwt.user.client.rpc.AsyncCallback";
+
+    /**
+     * The signature of a method, with types given as qualified source names including any type
+     * arguments, e.g. {@code com.googlecode.future.Future<java.lang.String>}.
+     */
+    public static final class Method {
+
+        private final String name;
+
+        private final String returnType;
+
+        private final String[] parameterTypes;
+
+        private final String[] parameterNames;
+
+        public Method(String name, String returnType, String[] parameterTypes,
+                String[] parameterNames) {
+            if (parameterTypes.length != parameterNames.length) {
+                throw new IllegalArgumentException("Need a name for each parameter type");
+            }
+            this.name = name;
+            this.returnType = returnType;
+            this.parameterTypes = parameterTypes.clone();
+            this.parameterNames = parameterNames.clone();
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final String packageName;
+
+    private final String simpleName;
+
+    private final String facadeName;
+
+    private final String serviceName;
+
+    private final String asyncName;
+
+    private final List<Method> methods = new ArrayList<Method>();
+
+    private final List<Method> asyncMethods = new ArrayList<Method>();
+
+    /**
+     * @param packageName package of the generated class
+     * @param simpleName simple name of the generated class
+     * @param facadeName qualified name of the facade interface it implements
+     * @param serviceName qualified name of the service interface
+     * @param asyncName qualified name of the service's asynchronous interface
+     */
+    public FutureFacadeSource(String packageName, String simpleName, String facadeName,
+            String serviceName, String asyncName) {
+        this.packageName = packageName;
+        this.simpleName = simpleName;
+        this.facadeName = facadeName;
+        this.serviceName = serviceName;
+        this.asyncName = asyncName;
+    }
+
+    /**
+     * Add a method of the facade to implement.
+     */
+    public void addMethod(Method method) {
+        methods.add(method);
+    }
+
+    /**
+     * Add a method of the asynchronous interface which facade methods may call.
+     */
+    public void addAsyncMethod(Method method) {
+        asyncMethods.add(method);
+    }
+
+    /**
+     * Problems preventing the facade from being generated, one for each facade method with no
+     * matching asynchronous method.
+     *
+     * @return the problems, or an empty list
+     */
+    public List<String> getErrors() {
+        List<String> errors = new ArrayList<String>();
+        for (Method method : methods) {
+            if (findAsync(method) == null) {
+                errors.add(facadeName + "." + method.name + " must return a Future matching the"
+                        + " AsyncCallback of a method of " + asyncName
+                        + " with the same name and preceding parameters");
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * The source of the generated class.
+     *
+     * @throws IllegalStateException if there are {@link #getErrors() errors}
+     */
+    public String getSource() {
+        List<String> errors = getErrors();
+        if (errors.size() > 0) throw new IllegalStateException(errors.get(0));
+
+        StringBuilder source = new StringBuilder();
+        line(source, 0, "package " + packageName + ";");
+        line(source, 0, "");
+        line(source, 0, "import com.google.gwt.core.client.GWT;");
+        line(source, 0, "import " + CALLBACK + ";");
+        line(source, 0, "import " + FUTURE + ";");
+        line(source, 0, "");
+        line(source, 0, "public class " + simpleName + " extends " + SERVICE + " implements "
+                + facadeName + " {");
+        line(source, 1, "private final " + asyncName + " $service;");
+        line(source, 0, "");
+        line(source, 1, "public " + simpleName + "() {");
+        line(source, 2, "this((" + asyncName + ") GWT.create(" + serviceName + ".class));");
+        line(source, 1, "}");
+        line(source, 0, "");
+        line(source, 1, "public " + simpleName + "(" + asyncName + " service) {");
+        line(source, 2, "super(\"" + simpleName(serviceName) + "\");");
+        line(source, 2, "this.$service = service;");
+        line(source, 1, "}");
+        for (Method method : methods) {
+            writeMethod(source, method, typeArgument(method.returnType, FUTURE));
+        }
+        line(source, 0, "}");
+        return source.toString();
+    }
+
+    private Method findAsync(Method method) {
+        String resultType = typeArgument(method.returnType, FUTURE);
+        if (resultType == null) return null;
+        int count = method.parameterTypes.length;
+        candidates: for (Method candidate : asyncMethods) {
+            if (!candidate.name.equals(method.name)
+                    || candidate.parameterTypes.length != count + 1) {
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                if (!method.parameterTypes[i].equals(candidate.parameterTypes[i])) {
+                    continue candidates;
+                }
+            }
+            if (resultType.equals(typeArgument(candidate.parameterTypes[count], CALLBACK))) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the type argument of a parameterized type with the given base type, or null if
+     * the type is not one
+     */
+    static String typeArgument(String type, String baseName) {
+        if (!type.startsWith(baseName + "<") || !type.endsWith(">")) return null;
+        return type.substring(baseName.length() + 1, type.length() - 1);
+    }
+
+    private static String simpleName(String qualifiedName) {
+        return qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1);
+    }
+
+    private static void writeMethod(StringBuilder source, Method method, String resultType) {
+        StringBuilder declaration = new StringBuilder();
+        StringBuilder arguments = new StringBuilder();
+        for (int i = 0; i < method.parameterTypes.length; i++) {
+            if (i > 0) {
+                declaration.append(", ");
+                arguments.append(", ");
+            }
+            declaration.append("final ").append(method.parameterTypes[i]).append(' ')
+                .append(method.parameterNames[i]);
+            arguments.append(method.parameterNames[i]);
+        }
+        String name = method.name;
+        String callbackArgument = (arguments.length() == 0 ? "" : ", ") + "$callback";
+        line(source, 0, "");
+        line(source, 1, "public Future<" + resultType + "> " + name + "(" + declaration + ") {");
+        line(source, 2, "return call(new Request<" + resultType + ">(\"" + name + "\""
+                + (arguments.length() == 0 ? "" : ", ") + arguments + ") {");
+        line(source, 3, "protected void invoke(AsyncCallback<" + resultType + "> $callback) {");
+        line(source, 4, "$service." + name + "(" + arguments + callbackArgument + ");");
+        line(source, 3, "}");
+        line(source, 2, "});");
+        line(source, 1, "}");
+    }
+
+    private static void line(StringBuilder source, int indent, String text) {
+        for (int i = 0; i < indent; i++) source.append("  ");
+        source.append(text).append('\n');
+    }
+}
@@ -0,0 +1,98 @@
+package com.googlecode.future.rebind;
+
+import java.io.PrintWriter;
+import java.util.List;
+
+import com.google.gwt.core.ext.Generator;
+import com.google.gwt.core.ext.GeneratorContext;
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.UnableToCompleteException;
+import com.google.gwt.core.ext.typeinfo.JClassType;
+import com.google.gwt.core.ext.typeinfo.JMethod;
+import com.google.gwt.core.ext.typeinfo.JParameter;
+import com.google.gwt.core.ext.typeinfo.JParameterizedType;
+import com.google.gwt.core.ext.typeinfo.TypeOracle;
+
+/**
+ * Deferred binding generator for {@link com.googlecode.future.FutureRemoteService}, which
+ * implements each method by calling the matching method of the service's asynchronous
+ * interface from a lazy {@link com.googlecode.future.FutureService} call.  The source is
+ * built by {@link FutureFacadeSource} from the methods found by the type oracle.
+ */
+public class FutureRemoteServiceGenerator extends Generator {
+
+    private static final String MARKER = "com.googlecode.future.FutureRemoteService";
+
+    @Override
+    public String generate(TreeLogger logger, GeneratorContext context, String typeName)
+            throws UnableToCompleteException {
+        TypeOracle oracle = context.getTypeOracle();
+        JClassType facade = oracle.findType(typeName);
+        JClassType marker = oracle.findType(MARKER);
+        if (facade == null || facade.isInterface() == null) {
+            logger.log(TreeLogger.ERROR, typeName + " is not an interface", null);
+            throw new UnableToCompleteException();
+        }
+        JClassType service = findService(facade, marker);
+        if (service == null) {
+            logger.log(TreeLogger.ERROR, typeName + " must extend " + MARKER
+                    + " parameterized with the service interface", null);
+            throw new UnableToCompleteException();
+        }
+        JClassType async = oracle.findType(service.getQualifiedSourceName() + "Async");
+        if (async == null) {
+            logger.log(TreeLogger.ERROR, "No asynchronous interface "
+                    + service.getQualifiedSourceName() + "Async", null);
+            throw new UnableToCompleteException();
+        }
+
+        String packageName = facade.getPackage().getName();
+        String simpleName = facade.getName().replace('.', '_') + "_FutureImpl";
+        FutureFacadeSource source = new FutureFacadeSource(packageName, simpleName,
+                facade.getQualifiedSourceName(), service.getQualifiedSourceName(),
+                async.getQualifiedSourceName());
+        for (JMethod method : facade.getOverridableMethods()) {
+            if (marker.findMethod(method.getName(), method.getParameterTypes()) == null) {
+                source.addMethod(describe(method));
+            }
+        }
+        for (JMethod method : async.getOverridableMethods()) {
+            source.addAsyncMethod(describe(method));
+        }
+        List<String> errors = source.getErrors();
+        if (!errors.isEmpty()) {
+            for (String error : errors) {
+                logger.log(TreeLogger.ERROR, error, null);
+            }
+            throw new UnableToCompleteException();
+        }
+
+        PrintWriter printWriter = context.tryCreate(logger, packageName, simpleName);
+        if (printWriter == null) return packageName + "." + simpleName;
+        printWriter.print(source.getSource());
+        context.commit(logger, printWriter);
+        return packageName + "." + simpleName;
+    }
+
+    private static JClassType findService(JClassType facade, JClassType marker) {
+        for (JClassType type : facade.getFlattenedSupertypeHierarchy()) {
+            JParameterizedType parameterized = type.isParameterized();
+            if (parameterized != null && parameterized.getBaseType() == marker) {
+                return parameterized.getTypeArgs()[0];
+            }
+        }
+        return null;
+    }
+
+    private static FutureFacadeSource.Method describe(JMethod method) {
+        JParameter[] parameters = method.getParameters();
+        String[] types = new String[parameters.length];
+        String[] names = new String[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            types[i] = parameters[i].getType().getParameterizedQualifiedSourceName();
+            names[i] = parameters[i].getName();
+        }
+        return new FutureFacadeSource.Method(method.getName(),
+                method.getReturnType().getParameterizedQualifiedSourceName(), types, names);
+    }
+}
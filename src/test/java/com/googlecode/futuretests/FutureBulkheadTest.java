@@ -0,0 +1,106 @@
+package com.googlecode.futuretests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.googlecode.future.BulkheadFullException;
+import com.googlecode.future.ConstantResult;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureBulkhead;
+import com.googlecode.future.FutureFactory;
+import com.googlecode.future.FutureResult;
+
+import static org.junit.Assert.*;
+
+public class FutureBulkheadTest {
+
+    private final FutureBulkhead bulkhead = new FutureBulkhead("orders", 2, 1);
+
+    /** Calls that reached the backend, to be completed by the test. */
+    private final RecordingFactory<String> calls = new RecordingFactory<String>("call");
+
+    private Future<String> call() {
+        Future<String> future = bulkhead.call(calls);
+        future.start();
+        return future;
+    }
+
+    @Test
+    public void limitsCallsInProgress() {
+        Future<String> lazy = bulkhead.call(calls);
+        assertTrue(calls.isEmpty());
+        lazy.start();
+        call();
+        Future<String> queued = call();
+        assertEquals(2, calls.size());
+        assertEquals(1, bulkhead.getQueuedCount());
+
+        Future<String> rejected = call();
+        assertTrue(rejected.exception() instanceof BulkheadFullException);
+        assertEquals(1, bulkhead.getRejectedCount());
+
+        calls.get(0).setResult("first");
+        assertEquals("first", lazy.result());
+        assertEquals(3, calls.size());
+        assertEquals(2, bulkhead.getActiveCount());
+        calls.get(2).setResult("third");
+        assertEquals("third", queued.result());
+    }
+
+    @Test
+    public void failuresFreeTheirPlace() {
+        call();
+        call();
+        call();
+        calls.get(1).failWithException(new IllegalStateException("down"));
+        assertEquals(3, calls.size());
+        assertEquals(0, bulkhead.getQueuedCount());
+    }
+
+    @Test
+    public void cancellingQueuedCallRemovesIt() {
+        call();
+        call();
+        Future<String> queued = call();
+        queued.cancel();
+        assertEquals(0, bulkhead.getQueuedCount());
+        calls.get(0).setResult("done");
+        assertEquals(2, calls.size());
+        assertEquals(1, bulkhead.getActiveCount());
+    }
+
+    @Test
+    public void cancellingActiveCallCancelsItAndFreesItsPlace() {
+        Future<String> active = call();
+        active.cancel();
+        assertTrue(calls.get(0).isCancelled());
+        assertEquals(0, bulkhead.getActiveCount());
+    }
+
+    @Test
+    public void drainsImmediateResultsWithoutRecursion() {
+        FutureBulkhead serial = new FutureBulkhead("serial", 1, 100000);
+        FutureResult<String> blocker = new FutureResult<String>();
+        List<Future<String>> queued = new ArrayList<Future<String>>();
+        final FutureResult<String> first = blocker;
+        serial.call(new FutureFactory<String>() {
+            public Future<String> create(int attempt) {
+                return first;
+            }
+        }).start();
+        for (int i = 0; i < 100000; i++) {
+            Future<String> call = serial.call(new FutureFactory<String>() {
+                public Future<String> create(int attempt) {
+                    return new ConstantResult<String>("done");
+                }
+            });
+            call.start();
+            queued.add(call);
+        }
+        blocker.setResult("done");
+        assertEquals(0, serial.getQueuedCount());
+        assertEquals("done", queued.get(99999).result());
+    }
+}
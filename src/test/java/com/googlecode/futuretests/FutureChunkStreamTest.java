@@ -0,0 +1,116 @@
+package com.googlecode.futuretests;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureChunkStream;
+import com.googlecode.future.VirtualTimeScheduler;
+
+import static org.junit.Assert.*;
+
+public class FutureChunkStreamTest {
+
+    private VirtualTimeScheduler scheduler;
+
+    @Before
+    public void installScheduler() {
+        scheduler = new VirtualTimeScheduler();
+        scheduler.install();
+    }
+
+    @After
+    public void uninstallScheduler() {
+        scheduler.uninstall();
+    }
+
+    @Test
+    public void chunksAreReturnedInOrderThenNull() {
+        FutureChunkStream<Integer> stream = new FutureChunkStream<Integer>(Arrays.asList(1, 2, 3, 4, 5), 2);
+        Future<List<Integer>> first = stream.next();
+        Future<List<Integer>> second = stream.next();
+        Future<List<Integer>> third = stream.next();
+        Future<List<Integer>> end = stream.next();
+        scheduler.runUntilIdle();
+        assertEquals(Arrays.asList(1, 2), first.result());
+        assertEquals(Arrays.asList(3, 4), second.result());
+        assertEquals(Arrays.asList(5), third.result());
+        assertTrue(end.isSuccessful());
+        assertNull(end.result());
+        assertEquals(5, (int) stream.result());
+        assertNull(stream.next().result());
+    }
+
+    @Test
+    public void chunksAreOnlyProducedOnDemand() {
+        FutureChunkStream<Integer> stream = new FutureChunkStream<Integer>(Arrays.asList(1, 2, 3));
+        stream.start();
+        scheduler.runUntilIdle();
+        assertFalse(stream.isComplete());
+
+        Future<List<Integer>> first = stream.next();
+        scheduler.runUntilIdle();
+        assertEquals(Arrays.asList(1), first.result());
+        assertEquals(0, stream.getPendingRequests());
+        assertEquals(0, scheduler.getPendingEvents());
+        assertFalse(stream.isComplete());
+
+        Future<List<Integer>> second = stream.next();
+        assertFalse(second.isComplete());
+        scheduler.step();
+        assertEquals(Arrays.asList(2), second.result());
+    }
+
+    @Test
+    public void canStreamDataFromAFuture() {
+        final RunLoopSimulator runloop = new RunLoopSimulator();
+        Future<List<String>> data = new FutureAction<List<String>>() {
+            public void run() {
+                runloop.setValueLater(Arrays.asList("a", "b"), callback());
+            }
+        };
+        FutureChunkStream<String> stream = new FutureChunkStream<String>(data);
+        Future<List<String>> first = stream.next();
+        scheduler.runUntilIdle();
+        assertFalse(first.isComplete());
+        runloop.run();
+        scheduler.runUntilIdle();
+        assertEquals(Arrays.asList("a"), first.result());
+    }
+
+    @Test
+    public void cancellingStreamCancelsRequestsAndStopsProducing() {
+        FutureChunkStream<Integer> stream = new FutureChunkStream<Integer>(Arrays.asList(1, 2, 3));
+        stream.next();
+        scheduler.runUntilIdle();
+        Future<List<Integer>> pending = stream.next();
+        stream.cancel();
+        scheduler.runUntilIdle();
+        assertTrue(stream.isCancelled());
+        assertTrue(pending.isCancelled());
+        assertTrue(stream.next().isCancelled());
+    }
+
+    @Test
+    public void failedDataFailsRequests() {
+        final RunLoopSimulator runloop = new RunLoopSimulator();
+        Future<List<String>> data = new FutureAction<List<String>>() {
+            public void run() {
+                runloop.failLater(new IllegalStateException(), callback());
+            }
+        };
+        FutureChunkStream<String> stream = new FutureChunkStream<String>(data);
+        Future<List<String>> first = stream.next();
+        scheduler.runUntilIdle();
+        runloop.run();
+        scheduler.runUntilIdle();
+        assertTrue(first.isFailure());
+        assertTrue(first.exception() instanceof IllegalStateException);
+        assertTrue(stream.isFailure());
+    }
+}
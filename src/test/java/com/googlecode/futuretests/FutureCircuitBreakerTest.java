@@ -0,0 +1,212 @@
+package com.googlecode.futuretests;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.future.CircuitOpenException;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureCircuitBreaker;
+import com.googlecode.future.FutureCircuitBreaker.State;
+import com.googlecode.future.VirtualTimeScheduler;
+
+import static org.junit.Assert.*;
+
+public class FutureCircuitBreakerTest {
+
+    private final VirtualTimeScheduler scheduler = new VirtualTimeScheduler();
+
+    private final FutureCircuitBreaker breaker = new FutureCircuitBreaker("orders");
+
+    /** Calls that reached the backend, to be completed by the test. */
+    private final RecordingFactory<String> calls = new RecordingFactory<String>("call");
+
+    @Before
+    public void install() {
+        scheduler.install();
+        breaker.setWindow(4, 4);
+        breaker.setOpenDuration(1000);
+        breaker.setHalfOpenCalls(2);
+    }
+
+    @After
+    public void uninstall() {
+        scheduler.uninstall();
+    }
+
+    private Future<String> call() {
+        Future<String> future = breaker.call(calls);
+        future.start();
+        return future;
+    }
+
+    private void fail(int count) {
+        for (int i = 0; i < count; i++) {
+            call();
+            calls.get(calls.size() - 1).failWithException(new IllegalStateException("down"));
+        }
+    }
+
+    private void succeed(int count) {
+        for (int i = 0; i < count; i++) {
+            call();
+            calls.get(calls.size() - 1).setResult("ok");
+        }
+    }
+
+    @Test
+    public void opensAtFailureRate() {
+        succeed(2);
+        fail(1);
+        assertEquals(State.CLOSED, breaker.getState());
+        fail(1);
+        assertEquals(State.OPEN, breaker.getState());
+
+        Future<String> rejected = call();
+        assertTrue(rejected.exception() instanceof CircuitOpenException);
+        assertEquals(4, calls.size());
+        assertEquals(1, breaker.getRejectedCount());
+    }
+
+    @Test
+    public void needsMinimumCalls() {
+        breaker.setWindow(10, 5);
+        fail(4);
+        assertEquals(State.CLOSED, breaker.getState());
+        fail(1);
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void windowSlides() {
+        fail(1);
+        succeed(3);
+        succeed(1);
+        fail(1);
+        // The first failure has left the window.
+        assertEquals(0.25, breaker.getFailureRate(), 0);
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void opensAtSlowCallRate() {
+        breaker.setSlowCallThreshold(500, 0.5);
+        succeed(2);
+        for (int i = 0; i < 2; i++) {
+            call();
+            scheduler.advanceBy(500);
+            calls.get(calls.size() - 1).setResult("late");
+        }
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void halfOpenProbesClose() {
+        fail(4);
+        scheduler.advanceBy(999);
+        assertEquals(State.OPEN, breaker.getState());
+        scheduler.advanceBy(1);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+
+        Future<String> first = call();
+        Future<String> second = call();
+        assertTrue("Only two probes", call().exception() instanceof CircuitOpenException);
+        calls.get(calls.size() - 2).setResult("ok");
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        calls.get(calls.size() - 1).setResult("ok");
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals("ok", first.result());
+        assertEquals("ok", second.result());
+    }
+
+    @Test
+    public void failedProbeReopens() {
+        fail(4);
+        scheduler.advanceBy(1000);
+        fail(1);
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void cancelledProbeFreesItsPlace() {
+        fail(4);
+        scheduler.advanceBy(1000);
+        call().cancel();
+        call().cancel();
+        assertTrue(calls.get(calls.size() - 1).isCancelled());
+        call();
+        assertEquals(7, calls.size());
+    }
+
+    @Test
+    public void callsFromBeforeOpeningAreIgnored() {
+        Future<String> slow = call();
+        fail(4);
+        scheduler.advanceBy(1000);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        calls.get(0).failWithException(new IllegalStateException("late"));
+        assertTrue(slow.isFailure());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void ignoresFailuresNotCounted() {
+        FutureCircuitBreaker lenient = new FutureCircuitBreaker("lenient") {
+            @Override
+            protected boolean isFailure(Throwable t) {
+                return !(t instanceof IllegalArgumentException);
+            }
+        };
+        lenient.setWindow(1, 1);
+        Future<String> call = lenient.call(calls);
+        call.start();
+        calls.get(0).failWithException(new IllegalArgumentException("bad id"));
+        assertTrue(call.isFailure());
+        assertEquals(State.CLOSED, lenient.getState());
+    }
+
+    @Test
+    public void probesFailingInWaysNotCountedAreNotProbes() {
+        FutureCircuitBreaker lenient = new FutureCircuitBreaker("lenient") {
+            @Override
+            protected boolean isFailure(Throwable t) {
+                return !(t instanceof IllegalArgumentException);
+            }
+        };
+        lenient.setWindow(1, 1);
+        lenient.setOpenDuration(1000);
+        lenient.setHalfOpenCalls(1);
+        lenient.call(calls).start();
+        calls.get(0).failWithException(new IllegalStateException("down"));
+        scheduler.advanceBy(1000);
+        assertEquals(State.HALF_OPEN, lenient.getState());
+
+        lenient.call(calls).start();
+        calls.get(1).failWithException(new IllegalArgumentException("bad id"));
+        assertEquals(State.HALF_OPEN, lenient.getState());
+        lenient.call(calls).start();
+        assertEquals(3, calls.size());
+        calls.get(2).setResult("ok");
+        assertEquals(State.CLOSED, lenient.getState());
+    }
+
+    @Test
+    public void fallbackTakesOverWhenOpen() {
+        fail(4);
+        final Future<String> order = breaker.call(calls);
+        FutureAction<String> withFallback = new FutureAction<String>() {
+            public void run() {
+                returnResult(order.result());
+            }
+
+            @Override
+            public Throwable catchException(Throwable t) {
+                if (!(t instanceof CircuitOpenException)) return t;
+                returnResult("cached");
+                return null;
+            }
+        };
+        assertEquals("cached", withFallback.result());
+    }
+}
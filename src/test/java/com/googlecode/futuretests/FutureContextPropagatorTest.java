@@ -0,0 +1,184 @@
+package com.googlecode.futuretests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+import com.googlecode.future.CancellableAsyncCallback;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureContextPropagator;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.FutureRuntime;
+import com.googlecode.future.IntFuture;
+
+import static org.junit.Assert.*;
+
+public class FutureContextPropagatorTest {
+
+    /** The current trace id, or null. */
+    private static String trace = null;
+
+    private static int captures = 0;
+
+    private static final FutureContextPropagator PROPAGATOR = new FutureContextPropagator() {
+        public Object capture() {
+            captures++;
+            return trace;
+        }
+
+        public Object attach(Object context) {
+            String previous = trace;
+            trace = (String) context;
+            return previous;
+        }
+
+        public void detach(Object previous) {
+            trace = (String) previous;
+        }
+    };
+
+    private final List<String> seen = new ArrayList<String>();
+
+    @Before
+    public void install() {
+        trace = null;
+        captures = 0;
+        FutureRuntime.setContextPropagator(PROPAGATOR);
+    }
+
+    @After
+    public void uninstall() {
+        FutureRuntime.setContextPropagator(null);
+        trace = null;
+    }
+
+    private AsyncCallback<String> recorder() {
+        return new AsyncCallback<String>() {
+            public void onSuccess(String value) {
+                seen.add(value + "@" + trace);
+            }
+
+            public void onFailure(Throwable caught) {
+                seen.add("failed@" + trace);
+            }
+        };
+    }
+
+    @Test
+    public void callbacksRunInTheContextTheyWereAddedIn() {
+        FutureResult<String> result = new FutureResult<String>();
+        trace = "request-1";
+        result.addCallback(recorder());
+        trace = "request-2";
+        result.addCallback(recorder());
+        trace = null;
+        result.addCallback(recorder());
+
+        trace = "completer";
+        result.setResult("value");
+        assertEquals("[value@request-1, value@request-2, value@completer]", seen.toString());
+        assertEquals("completer", trace);
+    }
+
+    @Test
+    public void actionsRunInTheContextTheyWereCreatedIn() {
+        final FutureResult<String> remote = new FutureResult<String>();
+        trace = "request-1";
+        FutureAction<String> action = new FutureAction<String>() {
+            public void run() {
+                seen.add("run@" + trace);
+                returnResult(remote.result());
+            }
+        };
+        trace = null;
+        action.start();
+        remote.setResult("value");
+        assertEquals("value", action.result());
+        assertEquals("[run@request-1, run@request-1]", seen.toString());
+        assertNull(trace);
+    }
+
+    @Test
+    public void cancellationRunsInTheCapturedContext() {
+        FutureResult<String> result = new FutureResult<String>();
+        trace = "request-1";
+        result.addCallback(new CancellableAsyncCallback<String>() {
+            public void onSuccess(String value) {
+            }
+
+            public void onFailure(Throwable caught) {
+            }
+
+            public void onCancel() {
+                seen.add("cancelled@" + trace);
+            }
+        });
+        trace = null;
+        result.cancel();
+        assertEquals("[cancelled@request-1]", seen.toString());
+    }
+
+    @Test
+    public void addingTheSameCallbackTwiceInvokesItOnce() {
+        FutureResult<String> result = new FutureResult<String>();
+        AsyncCallback<String> callback = recorder();
+        trace = "request-1";
+        result.addCallback(callback);
+        trace = "request-2";
+        result.addCallback(callback);
+        result.setResult("value");
+        assertEquals("[value@request-1]", seen.toString());
+    }
+
+    @Test
+    public void completedFuturesDoNotCaptureContext() {
+        FutureResult<String> result = new FutureResult<String>();
+        result.setResult("value");
+        trace = "request-1";
+        result.addCallback(recorder());
+        assertEquals("[value@request-1]", seen.toString());
+        assertEquals(0, captures);
+    }
+
+    @Test
+    public void addingTheSameCallbackInAndOutOfAContextInvokesItOnce() {
+        FutureResult<String> result = new FutureResult<String>();
+        AsyncCallback<String> callback = recorder();
+        result.addCallback(callback);
+        trace = "request-1";
+        result.addCallback(callback);
+
+        FutureResult<String> other = new FutureResult<String>();
+        other.addCallback(callback);
+        trace = null;
+        other.addCallback(callback);
+
+        trace = "completer";
+        result.setResult("first");
+        other.setResult("second");
+        assertEquals("[first@completer, second@request-1]", seen.toString());
+    }
+
+    @Test
+    public void primitiveListenersRunInTheContextTheyWereAddedIn() {
+        IntFuture value = new IntFuture();
+        trace = "request-1";
+        value.addListener(new IntFuture.Listener() {
+            public void onSuccess(int result) {
+                seen.add(result + "@" + trace);
+            }
+
+            public void onFailure(Throwable caught) {
+                seen.add("failed@" + trace);
+            }
+        });
+        trace = "completer";
+        value.setResult(42);
+        assertEquals("[42@request-1]", seen.toString());
+        assertEquals("completer", trace);
+    }
+}
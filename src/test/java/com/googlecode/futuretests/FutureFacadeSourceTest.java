@@ -0,0 +1,204 @@
+package com.googlecode.futuretests;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+import com.google.gwt.user.client.rpc.RemoteService;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureRemoteService;
+import com.googlecode.future.rebind.FutureFacadeSource;
+
+import static org.junit.Assert.*;
+
+public class FutureFacadeSourceTest {
+
+    private static final String PACKAGE = "com.googlecode.futuretests";
+
+    private static final String TEST = PACKAGE + ".FutureFacadeSourceTest";
+
+    private static final String CALLBACK = "com.google.gwt.user.client.rpc.AsyncCallback";
+
+    private static final String SIMPLE_NAME = "FutureFacadeSourceTest_GreetingFutures_FutureImpl";
+
+    public interface GreetingService extends RemoteService {
+        String greet(String name, int times);
+
+        List<String> getNames();
+    }
+
+    public interface GreetingServiceAsync {
+        void greet(String name, int times, AsyncCallback<String> callback);
+
+        void getNames(AsyncCallback<List<String>> callback);
+    }
+
+    public interface GreetingFutures extends FutureRemoteService<GreetingService> {
+        Future<String> greet(String name, int times);
+
+        Future<List<String>> getNames();
+    }
+
+    /** Asynchronous service which records the calls made. */
+    public static class RecordingGreetingService implements GreetingServiceAsync {
+        final List<String> calls = new ArrayList<String>();
+
+        final List<AsyncCallback<String>> callbacks = new ArrayList<AsyncCallback<String>>();
+
+        public void greet(String name, int times, AsyncCallback<String> callback) {
+            calls.add(name + " x" + times);
+            callbacks.add(callback);
+        }
+
+        public void getNames(AsyncCallback<List<String>> callback) {
+            calls.add("names");
+        }
+    }
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = File.createTempFile("facade", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void deleteDirectory() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+        file.delete();
+    }
+
+    /** Describe the sample service as the generator does from the type oracle. */
+    private static FutureFacadeSource greetingSource() {
+        FutureFacadeSource source = new FutureFacadeSource(PACKAGE, SIMPLE_NAME,
+                TEST + ".GreetingFutures", TEST + ".GreetingService",
+                TEST + ".GreetingServiceAsync");
+        source.addMethod(new FutureFacadeSource.Method("greet",
+                "com.googlecode.future.Future<java.lang.String>",
+                new String[] {"java.lang.String", "int"}, new String[] {"name", "times"}));
+        source.addMethod(new FutureFacadeSource.Method("getNames",
+                "com.googlecode.future.Future<java.util.List<java.lang.String>>",
+                new String[0], new String[0]));
+        source.addAsyncMethod(new FutureFacadeSource.Method("greet", "void",
+                new String[] {"java.lang.String", "int",
+                    CALLBACK + "<java.lang.String>"},
+                new String[] {"name", "times", "callback"}));
+        source.addAsyncMethod(new FutureFacadeSource.Method("getNames", "void",
+                new String[] {CALLBACK + "<java.util.List<java.lang.String>>"},
+                new String[] {"callback"}));
+        return source;
+    }
+
+    @Test
+    public void generatesFacadeForMatchingMethods() {
+        FutureFacadeSource source = greetingSource();
+        assertTrue(source.getErrors().isEmpty());
+        String text = source.getSource();
+        assertTrue(text.startsWith("package " + PACKAGE + ";\n"));
+        assertTrue(text.contains("public class " + SIMPLE_NAME
+                + " extends com.googlecode.future.FutureService implements "
+                + TEST + ".GreetingFutures {"));
+        assertTrue(text.contains("super(\"GreetingService\");"));
+        assertTrue(text.contains("public Future<java.lang.String> greet("
+                + "final java.lang.String name, final int times)"));
+        assertTrue(text.contains("$service.greet(name, times, $callback);"));
+        assertTrue(text.contains("$service.getNames($callback);"));
+    }
+
+    @Test
+    public void reportsMethodsWithoutMatchingAsyncMethod() {
+        FutureFacadeSource source = greetingSource();
+        source.addMethod(new FutureFacadeSource.Method("greet",
+                "com.googlecode.future.Future<java.lang.Integer>",
+                new String[] {"java.lang.String", "int"}, new String[] {"name", "times"}));
+        source.addMethod(new FutureFacadeSource.Method("farewell",
+                "com.googlecode.future.Future<java.lang.String>",
+                new String[0], new String[0]));
+        source.addMethod(new FutureFacadeSource.Method("getNames",
+                "java.util.List<java.lang.String>", new String[0], new String[0]));
+        List<String> errors = source.getErrors();
+        assertEquals(3, errors.size());
+        assertTrue(errors.get(0).startsWith(TEST + ".GreetingFutures.greet "));
+        assertTrue(errors.get(1).startsWith(TEST + ".GreetingFutures.farewell "));
+        try {
+            source.getSource();
+            fail("Generated source with errors");
+        } catch (IllegalStateException e) {
+            assertEquals(errors.get(0), e.getMessage());
+        }
+    }
+
+    @Test
+    public void generatedFacadeCompilesAndCallsService() throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+
+        File file = new File(directory, PACKAGE.replace('.', File.separatorChar) + File.separator
+                + SIMPLE_NAME + ".java");
+        assertTrue(file.getParentFile().mkdirs());
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(greetingSource().getSource());
+        } finally {
+            writer.close();
+        }
+        String classPath = location(GWT.class) + File.pathSeparator
+                + location(AsyncCallback.class) + File.pathSeparator
+                + location(Future.class) + File.pathSeparator
+                + location(FutureFacadeSourceTest.class);
+        int status = compiler.run(null, null, null, "-nowarn", "-classpath", classPath,
+                "-d", directory.getPath(), file.getPath());
+        assertEquals("javac status", 0, status);
+
+        URLClassLoader loader = new URLClassLoader(new URL[] {directory.toURI().toURL()},
+                FutureFacadeSourceTest.class.getClassLoader());
+        Class<?> type = loader.loadClass(PACKAGE + "." + SIMPLE_NAME);
+        RecordingGreetingService async = new RecordingGreetingService();
+        GreetingFutures facade = (GreetingFutures) type
+            .getConstructor(GreetingServiceAsync.class).newInstance(async);
+
+        Future<String> greeting = facade.greet("Ann", 2);
+        Future<String> duplicate = facade.greet("Ann", 2);
+        assertTrue("Lazy", async.calls.isEmpty());
+        greeting.start();
+        duplicate.start();
+        assertEquals(1, async.calls.size());
+        assertEquals("Ann x2", async.calls.get(0));
+        async.callbacks.get(0).onSuccess("Hello Ann, Ann");
+        assertEquals("Hello Ann, Ann", greeting.result());
+        assertEquals("Hello Ann, Ann", duplicate.result());
+
+        facade.getNames().start();
+        assertEquals("names", async.calls.get(1));
+        facade.flush();
+    }
+
+    private static String location(Class<?> type) throws URISyntaxException {
+        return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI())
+            .getPath();
+    }
+}
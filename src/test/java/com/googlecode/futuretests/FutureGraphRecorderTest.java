@@ -0,0 +1,152 @@
+package com.googlecode.futuretests;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureGraphRecorder;
+import com.googlecode.future.FutureGraphRecorder.Edge;
+import com.googlecode.future.FutureGraphRecorder.Node;
+
+import static org.junit.Assert.*;
+
+public class FutureGraphRecorderTest {
+
+    private FutureGraphRecorder recorder;
+
+    @Before
+    public void startRecording() {
+        recorder = new FutureGraphRecorder() {
+            long ticks = 0;
+            @Override
+            protected long now() {
+                return ticks++;
+            }
+        };
+        recorder.start();
+    }
+
+    @After
+    public void stopRecording() {
+        recorder.stop();
+    }
+
+    private FutureAction<Integer> delayed(final RunLoopSimulator runloop, String name, final int value) {
+        return new FutureAction<Integer>(name) {
+            public void run() {
+                runloop.setValueLater(value, callback());
+            }
+        };
+    }
+
+    @Test
+    public void recordsDependenciesAndTimes() {
+        final RunLoopSimulator runloop = new RunLoopSimulator();
+        final FutureAction<Integer> a = delayed(runloop, "a", 1);
+        FutureAction<Integer> sum = new FutureAction<Integer>("sum") {
+            public void run() {
+                returnResult(a.result() + 1);
+            }
+        };
+        sum.start();
+        runloop.run();
+        assertEquals(2, (int) sum.result());
+
+        Node sumNode = recorder.getNode(sum);
+        Node aNode = recorder.getNode(a);
+        assertEquals("succeeded", sumNode.getState());
+        assertEquals(2, sumNode.getRunAttempts());
+        assertEquals(1, sumNode.getDependencies().size());
+        Edge edge = sumNode.getDependencies().get(0);
+        assertSame(aNode, edge.getDependency());
+        assertTrue(aNode.getEndTime() >= aNode.getStartTime());
+        assertTrue(edge.getResolvedTime() >= aNode.getEndTime());
+        assertTrue(sumNode.getEndTime() > aNode.getEndTime());
+    }
+
+    @Test
+    public void sequentialDependenciesAreReportedAsSerialized() {
+        final RunLoopSimulator runloop = new RunLoopSimulator();
+        final FutureAction<Integer> a = delayed(runloop, "a", 1);
+        final FutureAction<Integer> b = delayed(runloop, "b", 2);
+        FutureAction<Integer> sum = new FutureAction<Integer>("sum") {
+            public void run() {
+                returnResult(a.result() + b.result());
+            }
+        };
+        sum.start();
+        runloop.run();
+        assertEquals(3, (int) sum.result());
+
+        List<Edge> serialized = recorder.getSerializedEdges();
+        assertEquals(1, serialized.size());
+        assertSame(recorder.getNode(b), serialized.get(0).getDependency());
+
+        List<Node> path = recorder.criticalPath();
+        assertEquals(2, path.size());
+        assertSame(recorder.getNode(b), path.get(0));
+        assertSame(recorder.getNode(sum), path.get(1));
+    }
+
+    @Test
+    public void startedDependenciesAreNotReportedAsSerialized() {
+        final RunLoopSimulator runloop = new RunLoopSimulator();
+        final FutureAction<Integer> a = delayed(runloop, "a", 1);
+        final FutureAction<Integer> b = delayed(runloop, "b", 2);
+        FutureAction<Integer> sum = new FutureAction<Integer>("sum") {
+            public void run() {
+                a.start();
+                b.start();
+                returnResult(a.result() + b.result());
+            }
+        };
+        sum.start();
+        runloop.run();
+        assertEquals(3, (int) sum.result());
+        assertEquals(2, recorder.getEdges().size());
+        assertTrue(recorder.getSerializedEdges().isEmpty());
+    }
+
+    @Test
+    public void canExportGraph() {
+        final RunLoopSimulator runloop = new RunLoopSimulator();
+        final FutureAction<Integer> a = delayed(runloop, "a \"quoted\"", 1);
+        FutureAction<Integer> sum = new FutureAction<Integer>("sum") {
+            public void run() {
+                returnResult(a.result() + 1);
+            }
+        };
+        sum.start();
+        runloop.run();
+
+        String dot = recorder.toDot();
+        assertTrue(dot.startsWith("digraph futures {"));
+        assertTrue(dot.contains("n0 -> n1"));
+
+        String json = recorder.toJson();
+        assertTrue(json.contains("\"name\":\"a \\\"quoted\\\"\""));
+        assertTrue(json.contains("{\"from\":0,\"to\":1,"));
+        assertTrue(json.contains("\"criticalPath\":[1,0]"));
+
+        String trace = recorder.toChromeTrace();
+        assertTrue(trace.startsWith("{\"traceEvents\":["));
+        assertTrue(trace.contains("\"ph\":\"X\""));
+        assertTrue(trace.contains("\"critical\":true"));
+    }
+
+    @Test
+    public void nothingIsRecordedWhenStopped() {
+        recorder.stop();
+        FutureAction<Boolean> simple = new FutureAction<Boolean>() {
+            public void run() {
+                returnResult(true);
+            }
+        };
+        assertTrue(simple.result());
+        assertNull(recorder.getNode(simple));
+        assertTrue(recorder.criticalPath().isEmpty());
+    }
+}
@@ -0,0 +1,156 @@
+package com.googlecode.futuretests;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureHedger;
+import com.googlecode.future.VirtualTimeScheduler;
+
+import static org.junit.Assert.*;
+
+public class FutureHedgerTest {
+
+    private final VirtualTimeScheduler scheduler = new VirtualTimeScheduler();
+
+    /** Attempts made, to be completed by the test. */
+    private final RecordingFactory<String> attempts = new RecordingFactory<String>("attempt");
+
+    @Before
+    public void install() {
+        scheduler.install();
+    }
+
+    @After
+    public void uninstall() {
+        scheduler.uninstall();
+    }
+
+    @Test
+    public void hedgesAfterDelayAndFirstResultWins() {
+        FutureHedger hedger = new FutureHedger(100);
+        Future<String> hedged = hedger.hedge(attempts);
+        assertTrue("Lazy", attempts.isEmpty());
+
+        hedged.start();
+        assertEquals(1, attempts.size());
+        scheduler.advanceBy(99);
+        assertEquals(1, attempts.size());
+        scheduler.advanceBy(1);
+        assertEquals(2, attempts.size());
+
+        attempts.get(1).setResult("second");
+        assertEquals("second", hedged.result());
+        assertTrue(attempts.get(0).isCancelled());
+        assertEquals(1, hedger.getHedgeCount());
+        assertEquals(1, hedger.getHedgeWinCount());
+    }
+
+    @Test
+    public void fastAttemptIsNotHedged() {
+        FutureHedger hedger = new FutureHedger(100);
+        Future<String> hedged = hedger.hedge(attempts);
+        hedged.start();
+        attempts.get(0).setResult("first");
+        scheduler.runUntilIdle();
+        assertEquals(1, attempts.size());
+        assertEquals("first", hedged.result());
+        assertEquals(0, hedger.getHedgeCount());
+    }
+
+    @Test
+    public void limitsAttempts() {
+        FutureHedger hedger = new FutureHedger(10);
+        hedger.setMaxAttempts(3);
+        hedger.hedge(attempts).start();
+        scheduler.advanceBy(1000);
+        assertEquals(3, attempts.size());
+    }
+
+    @Test
+    public void budgetCapsExtraAttempts() {
+        FutureHedger hedger = new FutureHedger(10);
+        hedger.setBudget(0.1, 2);
+        for (int i = 0; i < 10; i++) hedger.hedge(attempts).start();
+        scheduler.runUntilIdle();
+        // The initial burst, as the budget is full.
+        assertEquals(12, attempts.size());
+        assertEquals(2, hedger.getHedgeCount());
+        assertEquals(8, hedger.getSkippedHedgeCount());
+
+        for (int i = 0; i < 10; i++) hedger.hedge(attempts).start();
+        scheduler.runUntilIdle();
+        // One more earned by these ten calls.
+        assertEquals(23, attempts.size());
+        assertEquals(3, hedger.getHedgeCount());
+        assertEquals(20, hedger.getRequestCount());
+    }
+
+    @Test
+    public void delayFollowsObservedPercentile() {
+        FutureHedger hedger = new FutureHedger(0.9, 500, 20);
+        assertEquals(500, hedger.getDelay());
+        for (int i = 1; i <= 20; i++) {
+            Future<String> hedged = hedger.hedge(attempts);
+            hedged.start();
+            scheduler.advanceBy(i * 10);
+            attempts.get(attempts.size() - 1).setResult("done");
+            assertTrue(hedged.isSuccessful());
+        }
+        // The 18th of 20 latencies of 10 to 200ms.
+        assertEquals(180, hedger.getDelay());
+    }
+
+    @Test
+    public void failsOnceEveryAttemptHasFailed() {
+        FutureHedger hedger = new FutureHedger(10);
+        Future<String> hedged = hedger.hedge(attempts);
+        hedged.start();
+        scheduler.advanceBy(10);
+        attempts.get(0).failWithException(new IllegalStateException("first"));
+        assertFalse(hedged.isComplete());
+        attempts.get(1).failWithException(new IllegalStateException("second"));
+        assertEquals("second", hedged.exception().getMessage());
+    }
+
+    @Test
+    public void failureDoesNotStartAnotherAttempt() {
+        FutureHedger hedger = new FutureHedger(10);
+        Future<String> hedged = hedger.hedge(attempts);
+        hedged.start();
+        attempts.get(0).failWithException(new IllegalStateException("down"));
+        assertTrue(hedged.isFailure());
+        scheduler.runUntilIdle();
+        assertEquals(1, attempts.size());
+    }
+
+    @Test
+    public void cancellingCancelsAttempts() {
+        FutureHedger hedger = new FutureHedger(10);
+        Future<String> hedged = hedger.hedge(attempts);
+        hedged.start();
+        scheduler.advanceBy(10);
+        hedged.cancel();
+        assertTrue(attempts.get(0).isCancelled());
+        assertTrue(attempts.get(1).isCancelled());
+        scheduler.runUntilIdle();
+        assertEquals(2, attempts.size());
+    }
+
+    @Test
+    public void attemptsCancelledElsewhereCancelCall() {
+        FutureHedger hedger = new FutureHedger(10);
+        hedger.setMaxAttempts(1);
+        Future<String> hedged = hedger.hedge(attempts);
+        hedged.start();
+        attempts.get(0).cancel();
+        assertTrue(hedged.isCancelled());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void needsSchedulerSupportingDelays() {
+        scheduler.uninstall();
+        new FutureHedger(10);
+    }
+}
@@ -1,7 +1,9 @@
 package com.googlecode.futuretests;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import org.junit.Test;
@@ -239,4 +241,57 @@ public class FutureIncrementalActionTest {
         assertTrue(resultIsFour.result());
         
     }
+
+    /** Produces items on demand, counting how many have been read. */
+    private static class CountingIterable implements Iterable<Integer> {
+        final int size;
+        int read = 0;
+
+        CountingIterable(int size) {
+            this.size = size;
+        }
+
+        public Iterator<Integer> iterator() {
+            return new Iterator<Integer>() {
+                public boolean hasNext() {
+                    return read < size;
+                }
+
+                public Integer next() {
+                    return read++;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    @Test
+    public void iterablesAreReadOneChunkAtATime() {
+        final CountingIterable items = new CountingIterable(5);
+        final RunLoopSimulator runloop = new RunLoopSimulator();
+        final Future<Integer> step = new FutureAction<Integer>("Get step") {
+            public void run() {
+               runloop.setValueLater(10, callback());
+            }
+        };
+        final List<Integer> readWhenProcessed = new ArrayList<Integer>();
+        final Future<Integer> total = new FutureChunkedIncrementalAction<Integer, Integer>(items, 2) {
+            int total = 0;
+            public void chunk(List<Integer> chunk) {
+                // Waits for step the first time, so the same chunk is offered again.
+                int multiplier = step.result();
+                readWhenProcessed.add(items.read);
+                for (Integer item : chunk) total += item * multiplier;
+            }
+            @Override
+            public void after() { returnResult(total); }
+        };
+        total.start();
+        runloop.run();
+        assertEquals(100, (int) total.result());
+        assertEquals(Arrays.asList(2, 4, 5), readWhenProcessed);
+    }
 }
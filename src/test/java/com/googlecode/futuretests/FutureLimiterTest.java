@@ -0,0 +1,198 @@
+package com.googlecode.futuretests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureFactory;
+import com.googlecode.future.FutureLimiter;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.LimitExceededException;
+import com.googlecode.future.VirtualTimeScheduler;
+
+import static org.junit.Assert.*;
+
+public class FutureLimiterTest {
+
+    private final VirtualTimeScheduler scheduler = new VirtualTimeScheduler();
+
+    /** Calls made, to be completed by the test. */
+    private final RecordingFactory<String> calls = new RecordingFactory<String>("call");
+
+    @Before
+    public void install() {
+        scheduler.install();
+    }
+
+    @After
+    public void uninstall() {
+        scheduler.uninstall();
+    }
+
+    private List<Future<String>> start(FutureLimiter limiter, int count) {
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        for (int i = 0; i < count; i++) {
+            Future<String> future = limiter.call(calls);
+            future.start();
+            futures.add(future);
+        }
+        return futures;
+    }
+
+    @Test
+    public void queuesCallsOverLimitAndRejectsWhenQueueFull() {
+        FutureLimiter limiter = new FutureLimiter("test", new FutureLimiter.Aimd(2, 2), 1);
+        Future<String> lazy = limiter.call(calls);
+        assertTrue("Lazy", calls.isEmpty());
+
+        lazy.start();
+        List<Future<String>> futures = start(limiter, 3);
+        assertEquals(2, calls.size());
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(1, limiter.getQueuedCount());
+        assertTrue(futures.get(2).exception() instanceof LimitExceededException);
+        assertEquals(1, limiter.getRejectedCount());
+
+        scheduler.advanceBy(50);
+        calls.get(0).setResult("done");
+        assertEquals("done", lazy.result());
+        assertEquals(3, calls.size());
+        assertEquals(0, limiter.getQueuedCount());
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    public void cancellingQueuedCallRemovesIt() {
+        FutureLimiter limiter = new FutureLimiter("test", new FutureLimiter.Aimd(1, 1), 5);
+        List<Future<String>> futures = start(limiter, 2);
+        futures.get(1).cancel();
+        assertEquals(0, limiter.getQueuedCount());
+        calls.get(0).setResult("done");
+        assertEquals(1, calls.size());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void cancellingCallCancelsItsFutureAndFreesPlace() {
+        FutureLimiter limiter = new FutureLimiter("test", new FutureLimiter.Aimd(1, 1), 5);
+        List<Future<String>> futures = start(limiter, 2);
+        futures.get(0).cancel();
+        assertTrue(calls.get(0).isCancelled());
+        assertEquals(2, calls.size());
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    public void immediateCompletionsDoNotRecurse() {
+        FutureLimiter limiter = new FutureLimiter("test", new FutureLimiter.Aimd(1, 1), 10000);
+        FutureResult<String> first = new FutureResult<String>();
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        futures.add(limiter.call(constant(first)));
+        FutureResult<String> done = new FutureResult<String>();
+        done.setResult("done");
+        for (int i = 0; i < 9999; i++) futures.add(limiter.call(constant(done)));
+        for (Future<String> future : futures) future.start();
+        assertEquals(9999, limiter.getQueuedCount());
+
+        first.setResult("first");
+        for (Future<String> future : futures) assertTrue(future.isSuccessful());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    private static FutureFactory<String> constant(final Future<String> future) {
+        return new FutureFactory<String>() {
+            public Future<String> create(int attempt) {
+                return future;
+            }
+        };
+    }
+
+    @Test
+    public void aimdGrowsWhenUsedAndBacksOffOnDrop() {
+        FutureLimiter limiter = new FutureLimiter("test", new FutureLimiter.Aimd(4, 100), 100);
+        start(limiter, 4);
+        calls.get(3).setResult("done");
+        assertEquals(5, limiter.getLimit());
+        // A call made while little of the limit was used does not grow it.
+        calls.get(0).setResult("done");
+        assertEquals(5, limiter.getLimit());
+
+        start(limiter, 1);
+        calls.get(4).failWithException(new IllegalStateException("overloaded"));
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void aimdTreatsTimeoutAsDrop() {
+        FutureLimiter.Aimd aimd = new FutureLimiter.Aimd(10, 1, 100, 0.5, 1000);
+        FutureLimiter limiter = new FutureLimiter("test", aimd, 0);
+        start(limiter, 1);
+        scheduler.advanceBy(1001);
+        calls.get(0).setResult("late");
+        assertEquals(5, limiter.getLimit());
+    }
+
+    @Test
+    public void failuresThatAreNotDropsKeepLimit() {
+        FutureLimiter limiter = new FutureLimiter("test", new FutureLimiter.Aimd(2, 2), 0) {
+            @Override
+            protected boolean isDrop(Throwable t) {
+                return !(t instanceof IllegalArgumentException);
+            }
+        };
+        start(limiter, 1);
+        calls.get(0).failWithException(new IllegalArgumentException("bad request"));
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void vegasGrowsWhileLatencyIsLowAndShrinksAsItQueues() {
+        FutureLimiter limiter = new FutureLimiter("test", new FutureLimiter.Vegas(10, 1000), 0);
+        start(limiter, 10);
+        scheduler.advanceBy(10);
+        calls.get(9).setResult("done");
+        int grown = limiter.getLimit();
+        assertTrue("Grew from 10 to " + grown, grown > 10);
+
+        // Latency four times the lowest means most of the limit is queued at the backend.
+        start(limiter, grown);
+        scheduler.advanceBy(40);
+        calls.get(10).setResult("done");
+        assertTrue(limiter.getLimit() < grown);
+    }
+
+    @Test
+    public void gradientShrinksWhenLatencyRises() {
+        FutureLimiter limiter = new FutureLimiter("test", new FutureLimiter.Gradient(20, 200),
+                100);
+        for (int i = 0; i < 50; i++) {
+            start(limiter, 20);
+            scheduler.advanceBy(10);
+            for (int j = calls.size() - 20; j < calls.size(); j++) calls.get(j).setResult("ok");
+        }
+        int steady = limiter.getLimit();
+        assertTrue("Grew to " + steady, steady > 20);
+
+        for (int i = 0; i < 2; i++) {
+            int first = calls.size();
+            start(limiter, steady);
+            scheduler.advanceBy(100);
+            for (int j = first; j < calls.size(); j++) calls.get(j).setResult("ok");
+        }
+        assertTrue(limiter.getLimit() < steady);
+    }
+
+    @Test
+    public void measuresQueueDelay() {
+        FutureLimiter limiter = new FutureLimiter("test", new FutureLimiter.Aimd(1, 1), 1);
+        start(limiter, 2);
+        assertEquals(0, limiter.getQueueDelay(), 0);
+        scheduler.advanceBy(100);
+        calls.get(0).setResult("done");
+        assertEquals(10, limiter.getQueueDelay(), 0.001);
+    }
+}
@@ -0,0 +1,168 @@
+package com.googlecode.futuretests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.googlecode.future.ConstantResult;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureFunction;
+import com.googlecode.future.FutureMapper;
+import com.googlecode.future.FutureResult;
+
+import static com.googlecode.future.FutureMapper.mapAll;
+import static com.googlecode.future.FutureMapper.mapAllUnordered;
+import static org.junit.Assert.*;
+
+public class FutureMapperTest {
+
+    /** Returns a pending future for each input, to be completed by the test. */
+    private final List<FutureResult<String>> applied = new ArrayList<FutureResult<String>>();
+
+    private final FutureFunction<Integer, String> pending = new FutureFunction<Integer, String>() {
+        public Future<String> apply(Integer input) {
+            FutureResult<String> result = new FutureResult<String>("item " + input);
+            applied.add(result);
+            return result;
+        }
+    };
+
+    private static List<Integer> range(int count) {
+        List<Integer> inputs = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) inputs.add(i);
+        return inputs;
+    }
+
+    private int inProgress() {
+        int count = 0;
+        for (FutureResult<String> result : applied) {
+            if (!result.isComplete()) count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void appliesLazilyWithinLimit() {
+        FutureMapper<Integer, String> mapper = mapAll(range(5), pending, 2);
+        assertTrue(applied.isEmpty());
+
+        mapper.start();
+        assertEquals(2, applied.size());
+        for (int i = 4; i >= 0; i--) {
+            // Complete the most recently applied item each time.
+            assertTrue(inProgress() <= 2);
+            FutureResult<String> last = null;
+            for (FutureResult<String> result : applied) {
+                if (!result.isComplete()) last = result;
+            }
+            last.setResult(last.getName());
+        }
+        assertEquals(5, applied.size());
+        assertEquals(Arrays.asList("item 0", "item 1", "item 2", "item 3", "item 4"),
+                mapper.result());
+    }
+
+    @Test
+    public void unorderedResultsArriveInCompletionOrder() {
+        FutureMapper<Integer, String> mapper = mapAllUnordered(range(3), pending, 3);
+        mapper.start();
+        applied.get(2).setResult("c");
+        applied.get(0).setResult("a");
+        assertFalse(mapper.isComplete());
+        applied.get(1).setResult("b");
+        assertEquals(Arrays.asList("c", "a", "b"), mapper.result());
+    }
+
+    @Test
+    public void takesElementsOnlyAsSlotsFree() {
+        final int[] taken = { 0 };
+        Iterable<Integer> inputs = new Iterable<Integer>() {
+            public Iterator<Integer> iterator() {
+                return new Iterator<Integer>() {
+                    public boolean hasNext() {
+                        return taken[0] < 1000;
+                    }
+
+                    public Integer next() {
+                        return taken[0]++;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+        FutureMapper<Integer, String> mapper = mapAll(inputs, pending, 4);
+        mapper.start();
+        assertEquals(4, taken[0]);
+        applied.get(0).setResult("done");
+        assertEquals(5, taken[0]);
+        assertEquals(4, mapper.getInProgressCount());
+    }
+
+    @Test
+    public void failsFastAndCancelsTheRest() {
+        FutureMapper<Integer, String> mapper = mapAll(range(10), pending, 3);
+        mapper.start();
+        applied.get(1).failWithException(new IllegalStateException("down"));
+        assertTrue(mapper.exception() instanceof IllegalStateException);
+        assertTrue(applied.get(0).isCancelled());
+        assertTrue(applied.get(2).isCancelled());
+        assertEquals("No more are started", 3, applied.size());
+    }
+
+    @Test
+    public void failsWhenFunctionThrows() {
+        FutureMapper<Integer, String> mapper = mapAll(range(3),
+            new FutureFunction<Integer, String>() {
+                public Future<String> apply(Integer input) throws Exception {
+                    if (input == 1) throw new Exception("bad input");
+                    return pending.apply(input);
+                }
+            }, 5);
+        mapper.start();
+        assertTrue(mapper.isFailure());
+        assertEquals("bad input", mapper.exception().getMessage());
+        assertTrue(applied.get(0).isCancelled());
+    }
+
+    @Test
+    public void cancellingCancelsInProgress() {
+        FutureMapper<Integer, String> mapper = mapAll(range(10), pending, 2);
+        mapper.start();
+        mapper.cancel();
+        assertTrue(mapper.isCancelled());
+        assertTrue(applied.get(0).isCancelled());
+        assertTrue(applied.get(1).isCancelled());
+        assertEquals(2, applied.size());
+    }
+
+    @Test
+    public void completesImmediateResultsWithoutRecursion() {
+        FutureMapper<Integer, Integer> mapper = mapAll(range(100000),
+            new FutureFunction<Integer, Integer>() {
+                public Future<Integer> apply(Integer input) {
+                    return new ConstantResult<Integer>(input * 2);
+                }
+            }, 1);
+        List<Integer> results = mapper.result();
+        assertEquals(100000, results.size());
+        assertEquals(199998, (int) results.get(99999));
+    }
+
+    @Test
+    public void mapsEmptyCollection() {
+        List<Integer> none = Collections.emptyList();
+        assertTrue(mapAll(none, pending, 1).result().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroConcurrency() {
+        mapAll(range(1), pending, 0);
+    }
+}
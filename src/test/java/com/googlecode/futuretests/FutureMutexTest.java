@@ -0,0 +1,53 @@
+package com.googlecode.futuretests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureFactory;
+import com.googlecode.future.FutureMutex;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.FutureSemaphore.Permit;
+
+import static org.junit.Assert.*;
+
+public class FutureMutexTest {
+
+    @Test
+    public void callsRunOneAtATime() {
+        final List<FutureResult<String>> calls = new ArrayList<FutureResult<String>>();
+        FutureFactory<String> factory = new FutureFactory<String>() {
+            public Future<String> create(int attempt) {
+                FutureResult<String> result = new FutureResult<String>();
+                calls.add(result);
+                return result;
+            }
+        };
+        FutureMutex mutex = new FutureMutex();
+        Future<String> first = mutex.withLock(factory);
+        Future<String> second = mutex.withLock(factory);
+        first.start();
+        second.start();
+        assertTrue(mutex.isLocked());
+        assertEquals(1, calls.size());
+
+        calls.get(0).setResult("first");
+        assertEquals("first", first.result());
+        assertEquals(2, calls.size());
+        calls.get(1).setResult("second");
+        assertFalse(mutex.isLocked());
+    }
+
+    @Test
+    public void lockIsHeldUntilReleased() {
+        FutureMutex mutex = new FutureMutex();
+        Permit held = mutex.lock().result();
+        Future<Permit> waiting = mutex.lock();
+        assertFalse(waiting.isComplete());
+        held.release();
+        assertTrue(waiting.isSuccessful());
+        assertTrue(mutex.isLocked());
+    }
+}
@@ -0,0 +1,180 @@
+package com.googlecode.futuretests;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.googlecode.future.ExecutionException;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureGraph;
+import com.googlecode.future.FutureGraph.Node;
+import com.googlecode.future.FutureGraph.Values;
+import com.googlecode.future.FuturePlan;
+import com.googlecode.future.FutureResult;
+
+import static org.junit.Assert.*;
+
+public class FuturePlanTest {
+
+    private static FutureGraph.Function<Integer> sum(final Node<Integer> a, final Node<Integer> b) {
+        return new FutureGraph.Function<Integer>() {
+            public Integer compute(Values in) {
+                return in.get(a) + in.get(b);
+            }
+        };
+    }
+
+    private static FutureGraph.Function<Integer> times(final Node<Integer> a, final int factor) {
+        return new FutureGraph.Function<Integer>() {
+            public Integer compute(Values in) {
+                return in.get(a) * factor;
+            }
+        };
+    }
+
+    @Test
+    public void canExecuteAPlanManyTimes() {
+        FutureGraph graph = new FutureGraph();
+        Node<Integer> x = graph.input("x");
+        Node<Integer> doubled = graph.node("doubled", times(x, 2), x);
+        Node<Integer> tripled = graph.node("tripled", times(x, 3), x);
+        Node<Integer> total = graph.node("total", sum(doubled, tripled), doubled, tripled);
+        FuturePlan<Integer> plan = graph.compile(total);
+
+        assertEquals(Arrays.asList("x", "doubled", "tripled", "total"), plan.getNodeNames());
+        assertEquals(Arrays.asList("x"), plan.getInputNames());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(5 * i, (int) plan.execute(i).result());
+        }
+        FuturePlan.Execution<Integer> execution = plan.newExecution().set(x, 7);
+        assertFalse(execution.isComplete());
+        assertEquals(35, (int) execution.result());
+        assertEquals(14, (int) execution.get(doubled));
+    }
+
+    @Test
+    public void eachNodeIsComputedOnce() {
+        final int[] calls = new int[1];
+        FutureGraph graph = new FutureGraph();
+        final Node<Integer> x = graph.input("x");
+        Node<Integer> constant = graph.node("constant", new FutureGraph.Function<Integer>() {
+            public Integer compute(Values in) {
+                calls[0]++;
+                return 1;
+            }
+        });
+        Node<Integer> counted = graph.node("counted", new FutureGraph.Function<Integer>() {
+            public Integer compute(Values in) {
+                calls[0]++;
+                return in.get(x);
+            }
+        }, x);
+        Node<Integer> total = graph.node("total", sum(constant, counted), constant, counted);
+        assertEquals(3, (int) graph.compile(total).execute(2).result());
+        assertEquals(2, calls[0]);
+    }
+
+    @Test
+    public void unusedNodesAreLeftOut() {
+        FutureGraph graph = new FutureGraph();
+        Node<Integer> x = graph.input("x");
+        Node<Integer> y = graph.input("y");
+        Node<Integer> doubled = graph.node("doubled", times(x, 2), x);
+        graph.node("unused", times(y, 2), y);
+        FuturePlan<Integer> plan = graph.compile(doubled);
+        assertEquals(Arrays.asList("x", "doubled"), plan.getNodeNames());
+        assertEquals(4, (int) plan.execute(2).result());
+    }
+
+    @Test
+    public void parallelismIsKnownStatically() {
+        FutureGraph graph = new FutureGraph();
+        Node<Integer> x = graph.input("x");
+        Node<Integer> a = graph.node("a", times(x, 1), x);
+        Node<Integer> b = graph.node("b", times(x, 2), x);
+        Node<Integer> c = graph.node("c", times(x, 3), x);
+        Node<Integer> ab = graph.node("ab", sum(a, b), a, b);
+        Node<Integer> abc = graph.node("abc", sum(ab, c), ab, c);
+        FuturePlan<Integer> plan = graph.compile(abc);
+        assertEquals(3, plan.getMaxParallelism());
+        assertEquals(3, plan.getDepth());
+        assertEquals(6, plan.getNodeCount());
+    }
+
+    @Test
+    public void asyncNodesCompleteLater() {
+        final RunLoopSimulator runloop = new RunLoopSimulator();
+        FutureGraph graph = new FutureGraph();
+        final Node<String> id = graph.input("id");
+        final Node<String> user = graph.async("user", new FutureGraph.AsyncFunction<String>() {
+            public Future<String> compute(final Values in) {
+                return new FutureAction<String>() {
+                    public void run() {
+                        runloop.setValueLater("user " + in.get(id), callback());
+                    }
+                };
+            }
+        }, id);
+        Node<String> page = graph.node("page", new FutureGraph.Function<String>() {
+            public String compute(Values in) {
+                return "<h1>" + in.get(user) + "</h1>";
+            }
+        }, user);
+        FuturePlan<String> plan = graph.compile(page);
+        Future<String> result = plan.execute("bob");
+        assertFalse(result.isComplete());
+        runloop.run();
+        assertEquals("<h1>user bob</h1>", result.result());
+    }
+
+    @Test
+    public void failuresFailTheExecution() {
+        FutureGraph graph = new FutureGraph();
+        Node<Integer> x = graph.input("x");
+        Node<Integer> broken = graph.node("broken", new FutureGraph.Function<Integer>() {
+            public Integer compute(Values in) throws Exception {
+                throw new Exception("checked");
+            }
+        }, x);
+        Node<Integer> after = graph.node("after", times(broken, 2), broken);
+        Future<Integer> result = graph.compile(after).execute(1);
+        assertTrue(result.isFailure());
+        try {
+            result.result();
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("checked", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void cancellingTheExecutionCancelsNodesInProgress() {
+        final FutureResult<Integer> slow = new FutureResult<Integer>();
+        FutureGraph graph = new FutureGraph();
+        Node<Integer> node = graph.async("slow", new FutureGraph.AsyncFunction<Integer>() {
+            public Future<Integer> compute(Values in) {
+                return slow;
+            }
+        });
+        FuturePlan.Execution<Integer> execution = graph.compile(node).newExecution();
+        execution.start();
+        execution.cancel();
+        assertTrue(execution.isCancelled());
+        assertTrue(slow.isCancelled());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void inputsMustBeSet() {
+        FutureGraph graph = new FutureGraph();
+        Node<Integer> x = graph.input("x");
+        graph.compile(graph.node("doubled", times(x, 2), x)).newExecution().start();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nodesFromAnotherGraphAreRejected() {
+        FutureGraph graph = new FutureGraph();
+        Node<Integer> x = new FutureGraph().input("x");
+        graph.node("doubled", times(x, 2), x);
+    }
+}
@@ -0,0 +1,147 @@
+package com.googlecode.futuretests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureFactory;
+import com.googlecode.future.FutureFunction;
+import com.googlecode.future.FuturePool;
+import com.googlecode.future.FutureResult;
+
+import static org.junit.Assert.*;
+
+public class FuturePoolTest {
+
+    /** Resources being created, to be completed by the test. */
+    private final List<FutureResult<StringBuilder>> creating =
+            new ArrayList<FutureResult<StringBuilder>>();
+
+    private final List<StringBuilder> destroyed = new ArrayList<StringBuilder>();
+
+    private final FuturePool<StringBuilder> pool = new FuturePool<StringBuilder>("test", 2,
+            new FutureFactory<StringBuilder>() {
+                public Future<StringBuilder> create(int attempt) {
+                    FutureResult<StringBuilder> result = new FutureResult<StringBuilder>();
+                    creating.add(result);
+                    return result;
+                }
+            }) {
+        @Override
+        protected void destroy(StringBuilder resource) {
+            destroyed.add(resource);
+        }
+    };
+
+    private FuturePool<StringBuilder>.Lease borrowNew(String name) {
+        Future<FuturePool<StringBuilder>.Lease> lease = pool.borrow();
+        creating.get(creating.size() - 1).setResult(new StringBuilder(name));
+        return lease.result();
+    }
+
+    @Test
+    public void createsUpToMaxSizeThenWaits() {
+        FuturePool<StringBuilder>.Lease a = borrowNew("a");
+        borrowNew("b");
+        Future<FuturePool<StringBuilder>.Lease> waiting = pool.borrow();
+        assertEquals(2, creating.size());
+        assertEquals(2, pool.getSize());
+        assertEquals(1, pool.getWaiterCount());
+
+        a.release();
+        assertEquals("a", waiting.result().get().toString());
+        assertEquals(2, creating.size());
+    }
+
+    @Test
+    public void reusesIdleResources() {
+        FuturePool<StringBuilder>.Lease a = borrowNew("a");
+        a.release();
+        a.release();
+        assertEquals(1, pool.getIdleCount());
+        Future<FuturePool<StringBuilder>.Lease> again = pool.borrow();
+        assertEquals("a", again.result().get().toString());
+        assertEquals(1, creating.size());
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releasedLeaseCannotBeUsed() {
+        FuturePool<StringBuilder>.Lease a = borrowNew("a");
+        a.release();
+        a.get();
+    }
+
+    @Test
+    public void invalidatedResourceIsDestroyedAndReplaced() {
+        FuturePool<StringBuilder>.Lease a = borrowNew("a");
+        a.invalidate();
+        assertEquals(1, destroyed.size());
+        assertEquals(0, pool.getSize());
+        assertEquals("b", borrowNew("b").get().toString());
+    }
+
+    @Test
+    public void failedCreationFreesPlace() {
+        Future<FuturePool<StringBuilder>.Lease> lease = pool.borrow();
+        creating.get(0).failWithException(new IllegalStateException("unreachable"));
+        assertEquals("unreachable", lease.exception().getMessage());
+        assertEquals(0, pool.getSize());
+        borrowNew("a");
+        borrowNew("b");
+    }
+
+    @Test
+    public void cancellingBorrowReturnsResource() {
+        Future<FuturePool<StringBuilder>.Lease> lease = pool.borrow();
+        lease.cancel();
+        assertTrue(creating.get(0).isCancelled());
+        assertEquals(0, pool.getSize());
+
+        FuturePool<StringBuilder>.Lease a = borrowNew("a");
+        borrowNew("b");
+        Future<FuturePool<StringBuilder>.Lease> waiting = pool.borrow();
+        waiting.cancel();
+        assertEquals(0, pool.getWaiterCount());
+        a.release();
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void withResourceReleasesWhenCallCompletes() {
+        final List<FutureResult<String>> calls = new ArrayList<FutureResult<String>>();
+        FutureFunction<StringBuilder, String> query = new FutureFunction<StringBuilder, String>() {
+            public Future<String> apply(StringBuilder resource) {
+                FutureResult<String> result = new FutureResult<String>();
+                calls.add(result);
+                return result;
+            }
+        };
+        Future<String> call = pool.withResource(query);
+        assertTrue("Lazy", creating.isEmpty());
+        call.start();
+        creating.get(0).setResult(new StringBuilder("a"));
+        assertEquals(1, calls.size());
+        assertEquals(0, pool.getIdleCount());
+
+        calls.get(0).setResult("row");
+        assertEquals("row", call.result());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void withResourceInvalidatesWhenCallThrows() {
+        Future<String> call = pool.withResource(new FutureFunction<StringBuilder, String>() {
+            public Future<String> apply(StringBuilder resource) {
+                throw new IllegalStateException("broken");
+            }
+        });
+        call.start();
+        creating.get(0).setResult(new StringBuilder("a"));
+        assertEquals("broken", call.exception().getMessage());
+        assertEquals(1, destroyed.size());
+        assertEquals(0, pool.getSize());
+    }
+}
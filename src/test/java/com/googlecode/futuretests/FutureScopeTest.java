@@ -0,0 +1,143 @@
+package com.googlecode.futuretests;
+
+import org.junit.Test;
+
+import com.googlecode.future.CancelledException;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.FutureScope;
+
+import static org.junit.Assert.*;
+
+public class FutureScopeTest {
+
+    private final FutureScope<String> scope = new FutureScope<String>("scope");
+
+    private final FutureResult<String> first = new FutureResult<String>("first");
+
+    private final FutureResult<String> second = new FutureResult<String>("second");
+
+    private FutureAction<String> concat(final Future<String> a, final Future<String> b) {
+        return new FutureAction<String>("concat") {
+            public void run() {
+                returnResult(a.result() + b.result());
+            }
+        };
+    }
+
+    @Test
+    public void returnsJoinedResultOnceChildrenSettle() {
+        scope.fork(first);
+        scope.fork(second);
+        FutureAction<String> result = concat(first, first);
+        scope.join(result);
+        assertEquals(3, scope.getChildCount());
+
+        first.setResult("a");
+        assertTrue(result.isComplete());
+        assertFalse("Waits for the second child", scope.isComplete());
+        second.setResult("b");
+        assertEquals("aa", scope.result());
+        assertEquals(0, scope.getChildCount());
+    }
+
+    @Test
+    public void startsChildrenWhenForked() {
+        FutureAction<String> child = new FutureAction<String>() {
+            public void run() {
+                returnResult("run");
+            }
+        };
+        scope.fork(child);
+        assertTrue(child.isComplete());
+    }
+
+    @Test
+    public void failureCancelsSiblings() {
+        scope.fork(first);
+        scope.fork(second);
+        FutureAction<String> result = concat(first, second);
+        scope.join(result);
+
+        first.failWithException(new IllegalStateException("down"));
+        assertTrue(second.isCancelled());
+        assertTrue(result.isComplete());
+        assertTrue(scope.exception() instanceof IllegalStateException);
+        assertEquals("down", scope.exception().getMessage());
+    }
+
+    @Test
+    public void cancellingCancelsChildren() {
+        scope.fork(first);
+        scope.fork(second);
+        scope.cancel();
+        assertTrue(first.isCancelled());
+        assertTrue(second.isCancelled());
+        assertTrue(scope.isCancelled());
+    }
+
+    @Test
+    public void childCancelledOnItsOwnCancelsScope() {
+        scope.fork(first);
+        scope.fork(second);
+        first.cancel();
+        assertTrue(second.isCancelled());
+        assertTrue(scope.isCancelled());
+    }
+
+    @Test
+    public void waitsForChildrenThatIgnoreCancellation() {
+        FutureResult<String> stubborn = new FutureResult<String>("stubborn") {
+            @Override
+            public void onCancel() {
+                // Cannot be interrupted, so completes in its own time.
+            }
+        };
+        scope.fork(stubborn);
+        scope.fork(first);
+        first.failWithException(new IllegalStateException("down"));
+        assertFalse(scope.isComplete());
+        assertEquals(1, scope.getChildCount());
+        stubborn.setResult("late");
+        assertTrue(scope.isFailure());
+    }
+
+    @Test
+    public void forkAfterClosingCancelsChild() {
+        scope.fork(first);
+        scope.cancel();
+        scope.fork(second);
+        assertTrue(second.isCancelled());
+    }
+
+    @Test
+    public void nestedScopesAreCancelledTogether() {
+        FutureScope<Void> inner = new FutureScope<Void>("inner");
+        inner.fork(second);
+        scope.fork(inner);
+        scope.fork(first);
+        first.failWithException(new IllegalStateException("down"));
+        assertTrue(inner.isCancelled());
+        assertTrue(second.isCancelled());
+        assertTrue(scope.isFailure());
+    }
+
+    @Test
+    public void joinWithoutResult() {
+        FutureScope<Void> effects = new FutureScope<Void>();
+        effects.fork(first);
+        effects.join();
+        assertFalse(effects.isComplete());
+        first.setResult("done");
+        assertTrue(effects.isSuccessful());
+        assertNull(effects.result());
+    }
+
+    @Test(expected = CancelledException.class)
+    public void cancelledScopeThrowsOnResult() {
+        scope.join(first);
+        scope.cancel();
+        scope.result();
+    }
+}
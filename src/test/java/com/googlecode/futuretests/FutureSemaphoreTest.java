@@ -0,0 +1,155 @@
+package com.googlecode.futuretests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureFactory;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.FutureSemaphore;
+import com.googlecode.future.FutureSemaphore.Permit;
+
+import static org.junit.Assert.*;
+
+public class FutureSemaphoreTest {
+
+    /** Calls made, to be completed by the test. */
+    private final RecordingFactory<String> calls = new RecordingFactory<String>("call");
+
+    @Test
+    public void grantsFreePermitsAtOnce() {
+        FutureSemaphore semaphore = new FutureSemaphore(2);
+        Future<Permit> first = semaphore.acquire();
+        Future<Permit> second = semaphore.acquire();
+        Future<Permit> third = semaphore.acquire();
+        assertTrue(first.isSuccessful());
+        assertTrue(second.isSuccessful());
+        assertFalse(third.isComplete());
+        assertEquals(0, semaphore.getAvailablePermits());
+        assertEquals(1, semaphore.getWaiterCount());
+
+        first.result().release();
+        assertTrue(third.isSuccessful());
+        assertEquals(0, semaphore.getWaiterCount());
+    }
+
+    @Test
+    public void releasingTwiceReturnsOnePermit() {
+        FutureSemaphore semaphore = new FutureSemaphore(1);
+        Permit permit = semaphore.acquire().result();
+        permit.release();
+        permit.release();
+        assertTrue(permit.isReleased());
+        assertEquals(1, semaphore.getAvailablePermits());
+    }
+
+    @Test
+    public void servesWaitersInOrder() {
+        FutureSemaphore semaphore = new FutureSemaphore(1);
+        Permit held = semaphore.acquire().result();
+        Future<Permit> first = semaphore.acquire();
+        Future<Permit> second = semaphore.acquire();
+
+        held.release();
+        assertTrue(first.isSuccessful());
+        assertFalse(second.isComplete());
+        first.result().release();
+        assertTrue(second.isSuccessful());
+    }
+
+    @Test
+    public void servesHigherPriorityFirst() {
+        FutureSemaphore semaphore = new FutureSemaphore(1);
+        Permit held = semaphore.acquire().result();
+        Future<Permit> low = semaphore.acquire(0);
+        Future<Permit> high = semaphore.acquire(5);
+        Future<Permit> highLater = semaphore.acquire(5);
+
+        held.release();
+        assertTrue(high.isSuccessful());
+        high.result().release();
+        assertTrue(highLater.isSuccessful());
+        highLater.result().release();
+        assertTrue(low.isSuccessful());
+    }
+
+    @Test
+    public void cancelledWaiterIsRemoved() {
+        FutureSemaphore semaphore = new FutureSemaphore(1);
+        Permit held = semaphore.acquire().result();
+        Future<Permit> cancelled = semaphore.acquire();
+        Future<Permit> next = semaphore.acquire();
+        cancelled.cancel();
+        assertEquals(1, semaphore.getWaiterCount());
+
+        held.release();
+        assertTrue(cancelled.isCancelled());
+        assertTrue(next.isSuccessful());
+        next.result().release();
+        assertEquals(1, semaphore.getAvailablePermits());
+    }
+
+    @Test
+    public void tryAcquireDoesNotJumpQueue() {
+        FutureSemaphore semaphore = new FutureSemaphore(1);
+        assertNotNull(semaphore.tryAcquire());
+        assertNull(semaphore.tryAcquire());
+    }
+
+    @Test
+    public void permitIsReleasedWhenGuardedFutureCompletes() {
+        FutureSemaphore semaphore = new FutureSemaphore(1);
+        Future<String> first = semaphore.withPermit(calls);
+        Future<String> second = semaphore.withPermit(calls);
+        assertTrue("Lazy", calls.isEmpty());
+
+        first.start();
+        second.start();
+        assertEquals(1, calls.size());
+        calls.get(0).failWithException(new IllegalStateException("failed"));
+        assertTrue(first.isFailure());
+        assertEquals(2, calls.size());
+        calls.get(1).setResult("done");
+        assertEquals("done", second.result());
+        assertEquals(1, semaphore.getAvailablePermits());
+    }
+
+    @Test
+    public void cancellingGuardedFutureStopsWaitingOrCancelsCall() {
+        FutureSemaphore semaphore = new FutureSemaphore(1);
+        Future<String> running = semaphore.withPermit(calls);
+        Future<String> waiting = semaphore.withPermit(calls);
+        running.start();
+        waiting.start();
+        waiting.cancel();
+        assertEquals(0, semaphore.getWaiterCount());
+
+        running.cancel();
+        assertTrue(calls.get(0).isCancelled());
+        assertEquals(1, calls.size());
+        assertEquals(1, semaphore.getAvailablePermits());
+    }
+
+    @Test
+    public void immediateReleasesDoNotRecurse() {
+        FutureSemaphore semaphore = new FutureSemaphore(1);
+        Permit held = semaphore.acquire().result();
+        final FutureResult<String> done = new FutureResult<String>();
+        done.setResult("done");
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        for (int i = 0; i < 10000; i++) {
+            Future<String> future = semaphore.withPermit(new FutureFactory<String>() {
+                public Future<String> create(int attempt) {
+                    return done;
+                }
+            });
+            future.start();
+            futures.add(future);
+        }
+        held.release();
+        for (Future<String> future : futures) assertTrue(future.isSuccessful());
+        assertEquals(1, semaphore.getAvailablePermits());
+    }
+}
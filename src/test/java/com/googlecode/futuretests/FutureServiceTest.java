@@ -0,0 +1,228 @@
+package com.googlecode.futuretests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureService;
+import com.googlecode.future.VirtualTimeScheduler;
+
+import static org.junit.Assert.*;
+
+public class FutureServiceTest {
+
+    /** Asynchronous interface of a service, which records the calls made. */
+    private static class GreetingServiceAsync {
+        final List<String> calls = new ArrayList<String>();
+
+        final List<AsyncCallback<String>> callbacks = new ArrayList<AsyncCallback<String>>();
+
+        public void greet(String name, AsyncCallback<String> callback) {
+            calls.add(name);
+            callbacks.add(callback);
+        }
+
+        void reply(int call) {
+            callbacks.get(call).onSuccess("Hello " + calls.get(call));
+        }
+    }
+
+    /** Facade in the form generated for the service. */
+    private static class GreetingServiceFutures extends FutureService {
+        private final GreetingServiceAsync $service;
+
+        List<List<Request<?>>> batches = new ArrayList<List<Request<?>>>();
+
+        GreetingServiceFutures(GreetingServiceAsync service) {
+            super("GreetingService");
+            this.$service = service;
+        }
+
+        public Future<String> greet(final String name) {
+            return call(new Request<String>("greet", name) {
+                protected void invoke(AsyncCallback<String> $callback) {
+                    $service.greet(name, $callback);
+                }
+            });
+        }
+
+        @Override
+        protected void send(List<Request<?>> batch) {
+            batches.add(batch);
+            super.send(batch);
+        }
+    }
+
+    private final GreetingServiceAsync async = new GreetingServiceAsync();
+
+    private final GreetingServiceFutures service = new GreetingServiceFutures(async);
+
+    private final VirtualTimeScheduler scheduler = new VirtualTimeScheduler();
+
+    @Before
+    public void install() {
+        scheduler.install();
+    }
+
+    @After
+    public void uninstall() {
+        scheduler.uninstall();
+    }
+
+    @Test
+    public void callsAreLazy() {
+        Future<String> greeting = service.greet("Ann");
+        assertTrue(async.calls.isEmpty());
+        assertEquals("GreetingService.greet", greeting.getName());
+
+        greeting.start();
+        assertEquals(1, async.calls.size());
+        assertFalse(greeting.isComplete());
+        async.reply(0);
+        assertEquals("Hello Ann", greeting.result());
+    }
+
+    @Test
+    public void unusedCallsAreNeverSent() {
+        final Future<String> ann = service.greet("Ann");
+        final Future<String> bob = service.greet("Bob");
+        FutureAction<String> first = new FutureAction<String>() {
+            public void run() {
+                returnResult(ann.result());
+            }
+        };
+        first.start();
+        assertEquals(1, async.calls.size());
+        async.reply(0);
+        assertEquals("Hello Ann", first.result());
+        assertFalse(bob.isComplete());
+        assertEquals(1, async.calls.size());
+    }
+
+    @Test
+    public void duplicatesInFlightShareARequest() {
+        Future<String> first = service.greet("Ann");
+        Future<String> second = service.greet("Ann");
+        Future<String> other = service.greet("Bob");
+        first.start();
+        second.start();
+        other.start();
+        assertEquals(2, async.calls.size());
+        assertEquals(2, service.getInFlightCount());
+
+        async.reply(0);
+        assertEquals("Hello Ann", first.result());
+        assertEquals("Hello Ann", second.result());
+        assertEquals(1, service.getInFlightCount());
+
+        Future<String> later = service.greet("Ann");
+        later.start();
+        assertEquals("Completed requests are not shared", 3, async.calls.size());
+    }
+
+    @Test
+    public void duplicatesAreSentWhenNotDeduplicating() {
+        service.setDeduplicating(false);
+        service.greet("Ann").start();
+        service.greet("Ann").start();
+        assertEquals(2, async.calls.size());
+        assertEquals(0, service.getInFlightCount());
+    }
+
+    @Test
+    public void batchesRequestsStartedDuringAnEvent() {
+        service.setBatching(true);
+        Future<String> ann = service.greet("Ann");
+        Future<String> again = service.greet("Ann");
+        Future<String> bob = service.greet("Bob");
+        ann.start();
+        again.start();
+        bob.start();
+        assertTrue(async.calls.isEmpty());
+
+        scheduler.runUntilIdle();
+        assertEquals(1, service.batches.size());
+        assertEquals(2, service.batches.get(0).size());
+        assertEquals("[Ann]", service.batches.get(0).get(0).getArguments().toString());
+        assertEquals(2, async.calls.size());
+        async.reply(0);
+        async.reply(1);
+        assertEquals("Hello Ann", again.result());
+        assertEquals("Hello Bob", bob.result());
+
+        service.greet("Cat").start();
+        service.flush();
+        assertEquals(2, service.batches.size());
+        assertEquals(3, async.calls.size());
+        scheduler.runUntilIdle();
+        assertEquals("Flushing empties the queue", 2, service.batches.size());
+    }
+
+    @Test
+    public void failuresReachEveryCaller() {
+        Future<String> first = service.greet("Ann");
+        Future<String> second = service.greet("Ann");
+        first.start();
+        second.start();
+        async.callbacks.get(0).onFailure(new IllegalStateException("down"));
+        assertTrue(first.exception() instanceof IllegalStateException);
+        assertTrue(second.exception() instanceof IllegalStateException);
+        assertEquals(0, service.getInFlightCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void batchingNeedsSchedulerWhichDefers() {
+        scheduler.uninstall();
+        service.setBatching(true);
+    }
+
+    @Test
+    public void concurrentCallsShareOneRequest() throws Exception {
+        final CountingServiceFutures counting = new CountingServiceFutures();
+        Thread[] threads = new Thread[8];
+        final CountDownLatch ready = new CountDownLatch(threads.length);
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    ready.countDown();
+                    try {
+                        ready.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 1000; i++) counting.get("key").start();
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(1, counting.sent.get());
+        assertEquals(1, counting.getInFlightCount());
+    }
+
+    /** Facade whose requests are never answered, counting those sent. */
+    private static class CountingServiceFutures extends FutureService {
+        final AtomicInteger sent = new AtomicInteger();
+
+        CountingServiceFutures() {
+            super("CountingService");
+        }
+
+        public Future<String> get(String key) {
+            return call(new Request<String>("get", key) {
+                protected void invoke(AsyncCallback<String> $callback) {
+                    sent.incrementAndGet();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.googlecode.futuretests;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+import com.googlecode.future.CancellableAsyncCallback;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.PendingFutureRegistry;
+import com.googlecode.future.PendingFutureRegistry.PendingFuture;
+
+import static org.junit.Assert.*;
+
+public class PendingFutureRegistryTest {
+
+    private long time = 0;
+
+    private PendingFutureRegistry registry;
+
+    /** A future which is not a FutureResult, so whose completion is not observed. */
+    private static final class ForwardingFuture<T> implements Future<T> {
+
+        private final FutureResult<T> future;
+
+        ForwardingFuture(FutureResult<T> future) {
+            this.future = future;
+        }
+
+        public T result() {
+            return future.result();
+        }
+
+        public Throwable exception() {
+            return future.exception();
+        }
+
+        public void cancel() {
+            future.cancel();
+        }
+
+        @Deprecated
+        public void eval() {
+            future.start();
+        }
+
+        public void start() {
+            future.start();
+        }
+
+        public void addCallback(AsyncCallback<T> callback) {
+            future.addCallback(callback);
+        }
+
+        public boolean isComplete() {
+            return future.isComplete();
+        }
+
+        public boolean isSuccessful() {
+            return future.isSuccessful();
+        }
+
+        public boolean isFailure() {
+            return future.isFailure();
+        }
+
+        public boolean isCancelled() {
+            return future.isCancelled();
+        }
+
+        public void setResult(T value) {
+            future.setResult(value);
+        }
+
+        public void setEmpty() {
+            future.setEmpty();
+        }
+
+        public void failWithException(Throwable t) {
+            future.failWithException(t);
+        }
+
+        public CancellableAsyncCallback<T> callback() {
+            return future.callback();
+        }
+
+        public void setName(String name) {
+            future.setName(name);
+        }
+
+        public String getName() {
+            return future.getName();
+        }
+    }
+
+    @Before
+    public void startTracking() {
+        registry = new PendingFutureRegistry() {
+            @Override
+            protected long now() {
+                return time;
+            }
+        };
+        registry.start();
+    }
+
+    @After
+    public void stopTracking() {
+        registry.stop();
+    }
+
+    @Test
+    public void tracksActionsAndDependenciesUntilComplete() {
+        final FutureResult<Integer> remote = new FutureResult<Integer>("remote");
+        FutureAction<Integer> action = new FutureAction<Integer>("action") {
+            public void run() {
+                returnResult(remote.result() + 1);
+            }
+        };
+        action.start();
+        assertEquals(2, registry.size());
+        time = 100;
+
+        List<PendingFuture> pending = registry.getPending();
+        assertEquals(2, pending.size());
+        PendingFuture waiting = pending.get(0);
+        assertSame(action, waiting.getFuture());
+        assertEquals("action", waiting.getName());
+        assertEquals("FutureAction", waiting.getType());
+        assertEquals(100, waiting.getAge());
+        assertEquals(1, waiting.getPendingDependencies().size());
+        assertSame(remote, waiting.getPendingDependencies().get(0));
+        assertEquals("action (FutureAction) pending for 100ms, waiting for remote",
+                waiting.toString());
+
+        remote.setResult(1);
+        assertEquals(2, (int) action.result());
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void flagsFuturesOlderThanAThreshold() {
+        FutureResult<String> old = new FutureResult<String>("old");
+        registry.track(old);
+        time = 5000;
+        FutureResult<String> recent = new FutureResult<String>("recent");
+        registry.track(recent);
+        FutureResult<String> complete = new FutureResult<String>("complete");
+        complete.setResult("done");
+        registry.track(complete);
+        time = 6000;
+
+        List<PendingFuture> stalled = registry.getPendingOlderThan(3000);
+        assertEquals(1, stalled.size());
+        assertSame(old, stalled.get(0).getFuture());
+        assertEquals("2 pending futures\n"
+                + "STALLED old (FutureResult) pending for 6000ms\n"
+                + "        recent (FutureResult) pending for 1000ms\n", registry.dump(3000));
+
+        old.cancel();
+        assertEquals(1, registry.size());
+        registry.stop();
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void forgetsTrackedFuturesWhichAreNotFutureResults() {
+        FutureResult<String> remote = new FutureResult<String>("remote");
+        Future<String> forwarding = new ForwardingFuture<String>(remote);
+        registry.track(forwarding);
+        assertEquals(1, registry.size());
+        assertSame(forwarding, registry.getPending().get(0).getFuture());
+
+        remote.setResult("done");
+        assertEquals(0, registry.size());
+        assertTrue(registry.getPending().isEmpty());
+    }
+}
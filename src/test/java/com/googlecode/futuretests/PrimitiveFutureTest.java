@@ -0,0 +1,201 @@
+package com.googlecode.futuretests;
+
+import org.junit.Test;
+
+import com.googlecode.future.BooleanFuture;
+import com.googlecode.future.CancelledException;
+import com.googlecode.future.DoubleFuture;
+import com.googlecode.future.ExecutionException;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.IncompleteResultException;
+import com.googlecode.future.IntFuture;
+import com.googlecode.future.LongFuture;
+
+import static org.junit.Assert.*;
+
+public class PrimitiveFutureTest {
+
+    private static class RecordingListener implements IntFuture.Listener {
+        int value = -1;
+        Throwable caught;
+        int calls;
+
+        public void onSuccess(int value) {
+            this.value = value;
+            calls++;
+        }
+
+        public void onFailure(Throwable caught) {
+            this.caught = caught;
+            calls++;
+        }
+    }
+
+    @Test
+    public void listenersReceiveTheUnboxedValue() {
+        IntFuture future = new IntFuture("count");
+        RecordingListener before = new RecordingListener();
+        future.addListener(before);
+        assertFalse(future.isComplete());
+        future.setResult(42);
+        RecordingListener after = new RecordingListener();
+        future.addListener(after);
+        assertEquals(42, future.result());
+        assertEquals(42, before.value);
+        assertEquals(42, after.value);
+        assertEquals(1, before.calls);
+        assertEquals("count (succeeded with result = 42)", future.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void resultCanOnlyBeSetOnce() {
+        IntFuture future = IntFuture.constant(1);
+        future.setResult(2);
+    }
+
+    @Test
+    public void incompleteResultRefersToTheFutureView() {
+        IntFuture future = new IntFuture();
+        try {
+            future.result();
+            fail();
+        } catch (IncompleteResultException e) {
+            assertSame(future.asFuture(), e.getFuture());
+        }
+    }
+
+    @Test
+    public void failureAndCancellationAreDelivered() {
+        IntFuture failing = new IntFuture();
+        RecordingListener listener = new RecordingListener();
+        failing.addListener(listener);
+        failing.failWithException(new IllegalArgumentException("bad"));
+        assertTrue(failing.isFailure());
+        assertTrue(listener.caught instanceof IllegalArgumentException);
+        try {
+            failing.result();
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Unchecked exceptions are rethrown as for FutureResult
+        }
+
+        IntFuture cancelled = new IntFuture();
+        listener = new RecordingListener();
+        cancelled.addListener(listener);
+        cancelled.cancel();
+        assertTrue(cancelled.isCancelled());
+        assertTrue(listener.caught instanceof CancelledException);
+        try {
+            cancelled.result();
+            fail();
+        } catch (CancelledException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void combinatorsWaitForAllValues() {
+        IntFuture a = new IntFuture();
+        IntFuture b = new IntFuture();
+        IntFuture sum = IntFuture.sum(a, b, IntFuture.constant(3));
+        DoubleFuture asDouble = sum.toDoubleFuture();
+        LongFuture asLong = sum.toLongFuture().plus(LongFuture.constant(1L << 40));
+        BooleanFuture big = sum.isGreaterThan(5);
+        a.setResult(1);
+        assertFalse(sum.isComplete());
+        b.setResult(2);
+        assertEquals(6, sum.result());
+        assertEquals(6.0, asDouble.result(), 0);
+        assertEquals((1L << 40) + 6, asLong.result());
+        assertTrue(big.result());
+        assertEquals(0, IntFuture.sum().result());
+        assertEquals(2.0, DoubleFuture.mean(DoubleFuture.constant(1), DoubleFuture.constant(3))
+                .result(), 0);
+        assertEquals(12.0, asDouble.times(DoubleFuture.constant(2)).result(), 0);
+    }
+
+    @Test
+    public void booleanCombinators() {
+        BooleanFuture yes = BooleanFuture.constant(true);
+        BooleanFuture no = BooleanFuture.constant(false);
+        assertFalse(yes.and(no).result());
+        assertTrue(yes.or(no).result());
+        assertTrue(no.not().result());
+        assertTrue(BooleanFuture.all().result());
+        assertFalse(BooleanFuture.any().result());
+    }
+
+    @Test
+    public void combinatorsFailIfAnyValueFails() {
+        IntFuture a = new IntFuture();
+        IntFuture b = new IntFuture();
+        IntFuture sum = a.plus(b);
+        a.failWithException(new IllegalStateException("failed"));
+        assertTrue(sum.isFailure());
+        b.setResult(1);
+        assertTrue(sum.isFailure());
+
+        IntFuture c = new IntFuture();
+        IntFuture cancelledSum = IntFuture.sum(c, IntFuture.constant(1));
+        c.cancel();
+        assertTrue(cancelledSum.isCancelled());
+    }
+
+    @Test
+    public void cancellingTheResultLeavesTheValuesAlone() {
+        IntFuture a = new IntFuture();
+        IntFuture sum = a.plus(IntFuture.constant(1));
+        sum.cancel();
+        a.setResult(1);
+        assertTrue(sum.isCancelled());
+        assertEquals(1, a.result());
+    }
+
+    @Test
+    public void actionsWaitForPrimitiveFutures() {
+        final IntFuture count = new IntFuture();
+        FutureAction<String> label = new FutureAction<String>() {
+            public void run() {
+                returnResult("Count: " + count.result());
+            }
+        };
+        label.start();
+        assertFalse(label.isComplete());
+        count.setResult(7);
+        assertEquals("Count: 7", label.result());
+    }
+
+    @Test
+    public void boxedFuturesConvertBothWays() throws Exception {
+        FutureResult<Boolean> boxed = new FutureResult<Boolean>();
+        BooleanFuture unboxed = BooleanFuture.from(boxed);
+        Future<Boolean> view = unboxed.not().asFuture();
+        assertFalse(view.isComplete());
+        boxed.setResult(false);
+        assertTrue(view.result());
+
+        FutureResult<Integer> empty = new FutureResult<Integer>();
+        IntFuture fromEmpty = IntFuture.from(empty);
+        empty.setEmpty();
+        assertTrue(fromEmpty.exception() instanceof NullPointerException);
+
+        IntFuture completed = IntFuture.constant(5);
+        assertEquals(Integer.valueOf(5), completed.asFuture().result());
+
+        IntFuture failed = new IntFuture();
+        failed.failWithException(new Exception("checked"));
+        try {
+            failed.asFuture().result();
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("checked", e.getCause().getMessage());
+        }
+
+        IntFuture toCancel = new IntFuture();
+        toCancel.asFuture().cancel();
+        assertTrue(toCancel.isCancelled());
+        assertTrue(toCancel.asFuture().isCancelled());
+    }
+}
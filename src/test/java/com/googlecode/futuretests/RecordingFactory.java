@@ -0,0 +1,50 @@
+package com.googlecode.futuretests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureFactory;
+import com.googlecode.future.FutureResult;
+
+/**
+ * A factory which creates an incomplete {@link FutureResult} for each call and records it, so
+ * that a test can complete the calls made in any order.
+ *
+ * @param <T> type of result
+ */
+public class RecordingFactory<T> implements FutureFactory<T> {
+
+    private final String name;
+
+    private final List<FutureResult<T>> calls = new ArrayList<FutureResult<T>>();
+
+    /**
+     * @param name name of the results, followed by the number of the call
+     */
+    public RecordingFactory(String name) {
+        this.name = name;
+    }
+
+    public Future<T> create(int attempt) {
+        FutureResult<T> result = new FutureResult<T>(name + " " + calls.size());
+        calls.add(result);
+        return result;
+    }
+
+    /**
+     * The result created by a call, numbered from 0.
+     */
+    public FutureResult<T> get(int call) {
+        return calls.get(call);
+    }
+
+    /** Number of calls made. */
+    public int size() {
+        return calls.size();
+    }
+
+    public boolean isEmpty() {
+        return calls.isEmpty();
+    }
+}
@@ -0,0 +1,97 @@
+package com.googlecode.futuretests;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureChunkedIncrementalAction;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.FutureSynchronizer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Completed futures must not keep their inputs reachable.
+ */
+public class ReleaseReferencesTest {
+
+    private static void assertCollectable(WeakReference<?> reference) throws InterruptedException {
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("Still reachable: " + reference.get(), reference.get());
+    }
+
+    private static class Summer extends FutureChunkedIncrementalAction<Integer, Integer> {
+
+        private int total = 0;
+
+        Summer(Future<List<Integer>> data) {
+            super(data, 100);
+        }
+
+        public void chunk(List<Integer> chunk) {
+            for (Integer value : chunk) total += value;
+        }
+
+        @Override
+        public void after() {
+            returnResult(total);
+        }
+    }
+
+    @Test
+    public void chunkedActionsReleaseTheirData() throws Exception {
+        FutureResult<List<Integer>> input = new FutureResult<List<Integer>>();
+        List<Integer> data = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) data.add(i);
+        input.setResult(data);
+        Summer summer = new Summer(input);
+        WeakReference<List<Integer>> dataReference = new WeakReference<List<Integer>>(data);
+        data = null;
+        input = null;
+
+        RunLoopSimulator runloop = new RunLoopSimulator();
+        summer.start();
+        runloop.run();
+        assertEquals(999 * 1000 / 2, (int) summer.result());
+        assertCollectable(dataReference);
+    }
+
+    @Test
+    public void synchronizersReleaseTheirInputs() throws Exception {
+        FutureResult<byte[]> input = new FutureResult<byte[]>();
+        FutureSynchronizer synchronizer = new FutureSynchronizer(input);
+        synchronizer.start();
+        input.setResult(new byte[1024]);
+        assertTrue(synchronizer.result());
+        WeakReference<FutureResult<byte[]>> inputReference =
+            new WeakReference<FutureResult<byte[]>>(input);
+        input = null;
+        assertCollectable(inputReference);
+    }
+
+    @Test
+    public void longLivedDependenciesDoNotRetainCancelledActions() throws Exception {
+        final FutureResult<String> neverCompletes = new FutureResult<String>();
+        FutureAction<String> waiting = new FutureAction<String>() {
+            public void run() {
+                returnResult(neverCompletes.result());
+            }
+        };
+        waiting.start();
+        waiting.cancel();
+        assertTrue(waiting.isCancelled());
+        WeakReference<FutureAction<String>> actionReference =
+            new WeakReference<FutureAction<String>>(waiting);
+        waiting = null;
+        assertCollectable(actionReference);
+        // The callback left on the dependency does nothing once detached.
+        neverCompletes.setResult("done");
+    }
+}
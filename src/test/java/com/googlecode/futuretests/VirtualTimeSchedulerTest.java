@@ -0,0 +1,156 @@
+package com.googlecode.futuretests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gwt.user.client.Command;
+import com.googlecode.future.Future;
+import com.googlecode.future.FutureAction;
+import com.googlecode.future.FutureIncrementalAction;
+import com.googlecode.future.FutureResult;
+import com.googlecode.future.FutureRuntime;
+import com.googlecode.future.VirtualTimeScheduler;
+
+import static org.junit.Assert.*;
+
+public class VirtualTimeSchedulerTest {
+
+    private VirtualTimeScheduler scheduler;
+
+    @Before
+    public void installScheduler() {
+        scheduler = new VirtualTimeScheduler();
+        scheduler.install();
+    }
+
+    @After
+    public void uninstallScheduler() {
+        scheduler.uninstall();
+    }
+
+    private Command record(final List<String> events, final String event) {
+        return new Command() {
+            public void execute() {
+                events.add(event + "@" + scheduler.now());
+            }
+        };
+    }
+
+    @Test
+    public void installReplacesRuntimeScheduler() {
+        assertSame(scheduler, FutureRuntime.getScheduler());
+        scheduler.uninstall();
+        assertNotSame(scheduler, FutureRuntime.getScheduler());
+    }
+
+    @Test
+    public void onlyDefaultSchedulerOutsideBrowserRejectsDelays() {
+        assertTrue(FutureRuntime.isDelaySupported());
+        scheduler.uninstall();
+        assertFalse(FutureRuntime.isDelaySupported());
+    }
+
+    @Test
+    public void eventsRunInTimeOrderThenQueueOrder() {
+        List<String> events = new ArrayList<String>();
+        scheduler.schedule(record(events, "c"), 30);
+        scheduler.schedule(record(events, "a"), 10);
+        scheduler.schedule(record(events, "b1"), 20);
+        scheduler.schedule(record(events, "b2"), 20);
+        assertEquals(4, scheduler.runUntilIdle());
+        assertEquals("[a@10, b1@20, b2@20, c@30]", events.toString());
+        assertEquals(30, scheduler.now());
+    }
+
+    @Test
+    public void advanceByOnlyRunsDueEvents() {
+        List<String> events = new ArrayList<String>();
+        scheduler.schedule(record(events, "a"), 10);
+        scheduler.schedule(record(events, "b"), 50);
+        assertEquals(1, scheduler.advanceBy(20));
+        assertEquals(20, scheduler.now());
+        assertEquals("[a@10]", events.toString());
+        assertEquals(50, scheduler.getNextEventTime());
+        assertEquals(1, scheduler.advanceTo(50));
+        assertEquals("[a@10, b@50]", events.toString());
+        assertEquals(0, scheduler.getPendingEvents());
+    }
+
+    @Test
+    public void canCompleteFuturesAtSimulatedTimes() {
+        final Future<Integer> slow = new FutureAction<Integer>() {
+            public void run() {
+                scheduler.setValueLater(100, 1, callback());
+            }
+        };
+        final Future<Integer> fast = new FutureAction<Integer>() {
+            public void run() {
+                scheduler.setValueLater(30, 2, callback());
+            }
+        };
+        FutureAction<Integer> sum = new FutureAction<Integer>() {
+            public void run() {
+                slow.start();
+                fast.start();
+                returnResult(slow.result() + fast.result());
+            }
+        };
+        sum.start();
+        scheduler.advanceBy(99);
+        assertTrue(fast.isComplete());
+        assertFalse(sum.isComplete());
+        scheduler.advanceBy(1);
+        assertEquals(3, (int) sum.result());
+    }
+
+    @Test
+    public void canFailAndCancelAtSimulatedTimes() {
+        FutureResult<Integer> failed = new FutureResult<Integer>();
+        FutureResult<Integer> cancelled = new FutureResult<Integer>();
+        scheduler.failLater(5, new IllegalStateException(), failed);
+        scheduler.cancelLater(10, cancelled);
+        scheduler.advanceBy(5);
+        assertTrue(failed.isFailure());
+        assertFalse(cancelled.isComplete());
+        scheduler.advanceBy(5);
+        assertTrue(cancelled.isCancelled());
+    }
+
+    @Test
+    public void incrementalStepsAreInterleavedWithOtherEvents() {
+        scheduler.setIncrementalStepMillis(10);
+        final List<String> events = new ArrayList<String>();
+        FutureIncrementalAction<Integer> counter = new FutureIncrementalAction<Integer>() {
+            int i = 0;
+            public void run() {
+                events.add("step" + (++i) + "@" + scheduler.now());
+                if (i == 3) returnResult(i);
+            }
+        };
+        counter.start();
+        scheduler.schedule(record(events, "rpc"), 15);
+        assertFalse(counter.isComplete());
+        scheduler.runUntilIdle();
+        assertEquals("[step1@10, rpc@15, step2@20, step3@30]", events.toString());
+        assertEquals(3, (int) counter.result());
+    }
+
+    @Test
+    public void canRunManyEvents() {
+        final int[] count = new int[1];
+        Command command = new Command() {
+            public void execute() {
+                count[0]++;
+            }
+        };
+        for (int i = 0; i < 1000000; i++) {
+            scheduler.schedule(command, i % 1000);
+        }
+        assertEquals(1000000, scheduler.runUntilIdle());
+        assertEquals(1000000, count[0]);
+    }
+}